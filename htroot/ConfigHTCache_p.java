@@ -118,6 +118,11 @@ public class ConfigHTCache_p {
         prop.put("actualCacheDocCount", Cache.getActualCacheDocCount());
         prop.put("docSizeAverage", Cache.getActualCacheDocCount() == 0 ? 0 : Cache.getActualCacheSize() / Cache.getActualCacheDocCount() / 1024);
         prop.put("maxCacheSize", env.getConfigLong(SwitchboardConstants.PROXY_CACHE_SIZE, 64));
+        prop.put("writeBufferSize", Cache.getWriteBufferLength() / 1024);
+        prop.put("writeBufferMaxSize", Cache.getWriteBufferMaxLength() / 1024);
+        prop.put("compressionThroughput", Cache.getCompressionThroughput() / 1024 / 1024);
+        prop.put("compressionRatio", Math.round(Cache.getCompressionRatio() * 100));
+        prop.put("droppedStores", Cache.getDroppedStores());
         /* Statistics */
         final long hits = Cache.getHits();
         final long totalRequests = Cache.getTotalRequests();
@@ -37,6 +37,7 @@ import net.yacy.cora.protocol.http.HTTPClient;
 import net.yacy.data.TransactionManager;
 import net.yacy.kelondro.data.word.WordReference;
 import net.yacy.kelondro.rwi.IndexCell;
+import net.yacy.kelondro.rwi.ReferenceContainerBuffer;
 import net.yacy.kelondro.util.FileUtils;
 import net.yacy.kelondro.util.Formatter;
 import net.yacy.kelondro.util.MemoryControl;
@@ -338,9 +339,37 @@ public class PerformanceQueues_p {
         // table cache settings
         prop.putNum("wordCacheSize", indexSegment.RWIBufferCount());
         prop.putNum("wordCacheSizeKBytes", rwi == null ? 0 : rwi.getBufferSizeBytes() / 1024L);
+        final ReferenceContainerBuffer<WordReference> rwiBuffer = rwi == null ? null : rwi.getBuffer();
+        final int partitions = rwiBuffer == null ? 0 : rwiBuffer.partitions();
+        final long now = System.currentTimeMillis();
+        for (int p = 0; p < partitions; p++) {
+            prop.put("wordCachePartitions_" + p + "_partition", p);
+            prop.put("wordCachePartitions_" + p + "_shard", rwiBuffer.shardOf(p));
+            prop.putNum("wordCachePartitions_" + p + "_size", rwiBuffer.size(p));
+            prop.putNum("wordCachePartitions_" + p + "_dumps", rwiBuffer.dumps(p));
+            prop.putNum("wordCachePartitions_" + p + "_dumpedWords", rwiBuffer.dumpedContainers(p));
+            prop.putNum("wordCachePartitions_" + p + "_lastDump", (now - rwiBuffer.lastDump(p)) / 1000L);
+        }
+        prop.put("wordCachePartitions", partitions);
+        prop.put("wordCacheShards", rwi == null ? 0 : rwi.getShardCount());
         prop.putNum("maxURLinCache", rwi == null ? 0 : rwi.getBufferMaxReferences());
         prop.putNum("maxAgeOfCache", rwi == null ? 0 : rwi.getBufferMaxAge() / 1000 / 60); // minutes
         prop.putNum("minAgeOfCache", rwi == null ? 0 : rwi.getBufferMinAge() / 1000 / 60); // minutes
+        final long[] rwiReads = rwi == null ? new long[4] : rwi.readStatistics();
+        prop.put("rwiMemoryMapped", sb.getConfigBool(SwitchboardConstants.INDEX_RWI_MEMORYMAPPED, SwitchboardConstants.INDEX_RWI_MEMORYMAPPED_DEFAULT) ? 1 : 0);
+        prop.putNum("rwiMappedReads", rwiReads[0]);
+        prop.putNum("rwiMappedReadTime", rwiReads[0] == 0 ? 0 : rwiReads[1] / rwiReads[0] / 1000); // microseconds
+        prop.putNum("rwiCopyReads", rwiReads[2]);
+        prop.putNum("rwiCopyReadTime", rwiReads[2] == 0 ? 0 : rwiReads[3] / rwiReads[2] / 1000); // microseconds
+        final long[] rwiMerges = rwi == null ? new long[6] : rwi.mergeStatistics();
+        prop.put("rwiCompaction", rwi == null ? "" : rwi.getCompactionPolicy().name().toLowerCase());
+        prop.putNum("rwiMergeQueue", rwiMerges[0]);
+        prop.putNum("rwiMerges", rwiMerges[1]);
+        prop.putNum("rwiMergedFiles", rwiMerges[2]);
+        prop.putNum("rwiMergeMBytes", rwiMerges[3] / 1024L / 1024L);
+        prop.putNum("rwiMergeTime", rwiMerges[4] / 1000L); // seconds
+        prop.putNum("rwiDumpMBytes", rwiMerges[5] / 1024L / 1024L);
+        prop.put("rwiWriteAmplification", rwiMerges[5] == 0 ? "-" : String.format("%.2f", (double) (rwiMerges[3] + rwiMerges[5]) / rwiMerges[5]));
         prop.putNum("maxWaitingWordFlush", sb.getConfigLong("maxWaitingWordFlush", 180));
         prop.put("wordCacheMaxCount", sb.getConfigLong(SwitchboardConstants.WORDCACHE_MAX_COUNT, 20000));
         prop.put("crawlPauseProxy", sb.getConfigLong(SwitchboardConstants.PROXY_ONLINE_CAUTION_DELAY, 30000));
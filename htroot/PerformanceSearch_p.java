@@ -27,14 +27,19 @@
 import java.util.Iterator;
 
 import net.yacy.cora.protocol.RequestHeader;
+import net.yacy.kelondro.data.word.WordReference;
+import net.yacy.kelondro.rwi.IndexCell;
+import net.yacy.kelondro.rwi.TermSearchCache;
 import net.yacy.peers.graphics.ProfilingGraph;
 import net.yacy.search.EventTracker;
+import net.yacy.search.Switchboard;
 import net.yacy.server.serverObjects;
 import net.yacy.server.serverSwitch;
 
 public class PerformanceSearch_p {
 
-    public static serverObjects respond(@SuppressWarnings("unused") final RequestHeader header, @SuppressWarnings("unused") final serverObjects post, @SuppressWarnings("unused") final serverSwitch sb) {
+    public static serverObjects respond(@SuppressWarnings("unused") final RequestHeader header, @SuppressWarnings("unused") final serverObjects post, final serverSwitch env) {
+        final Switchboard sb = (Switchboard) env;
         // return variable that accumulates replacements
         final serverObjects prop = new serverObjects();
 
@@ -59,6 +64,23 @@ public class PerformanceSearch_p {
             }
         }
         prop.put("table", c);
+
+        // statistics of the cache of joined RWI term searches
+        final IndexCell<WordReference> termIndex = sb.index.termIndex();
+        final TermSearchCache<WordReference> joinCache = termIndex == null ? null : termIndex.getTermSearchCache();
+        if (joinCache == null) {
+            prop.put("joinCache", 0);
+        } else {
+            final long hits = joinCache.hits(), misses = joinCache.misses();
+            prop.put("joinCache", 1);
+            prop.putNum("joinCache_hits", hits);
+            prop.putNum("joinCache_misses", misses);
+            prop.putNum("joinCache_hitRate", hits + misses == 0 ? 0 : 100.0d * hits / (hits + misses));
+            prop.putNum("joinCache_invalidations", joinCache.invalidations());
+            prop.putNum("joinCache_entries", joinCache.size());
+            prop.putNum("joinCache_mem", joinCache.mem() / 1024);
+            prop.putNum("joinCache_maxMem", joinCache.maxMem() / 1024);
+        }
         return prop;
     }
 }
@@ -27,15 +27,18 @@
 // javac -classpath .:../classes transferRWI.java
 
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 import net.yacy.cora.document.encoding.ASCII;
 import net.yacy.cora.document.encoding.UTF8;
 import net.yacy.cora.document.feed.RSSMessage;
 import net.yacy.cora.federate.yacy.Distribution;
+import net.yacy.cora.order.Base64Order;
 import net.yacy.cora.protocol.HeaderFramework;
 import net.yacy.cora.protocol.RequestHeader;
 import net.yacy.cora.storage.HandleSet;
@@ -43,8 +46,11 @@ import net.yacy.cora.util.ConcurrentLog;
 import net.yacy.cora.util.Memory;
 import net.yacy.cora.util.SpaceExceededException;
 import net.yacy.kelondro.data.word.Word;
+import net.yacy.kelondro.data.word.WordReference;
 import net.yacy.kelondro.data.word.WordReferenceRow;
 import net.yacy.kelondro.index.RowHandleSet;
+import net.yacy.kelondro.rwi.ReferenceContainer;
+import net.yacy.kelondro.rwi.ReferenceContainerStream;
 import net.yacy.kelondro.util.FileUtils;
 import net.yacy.kelondro.util.MemoryControl;
 import net.yacy.peers.EventChannel;
@@ -54,6 +60,7 @@ import net.yacy.peers.Seed;
 import net.yacy.repository.Blacklist.BlacklistType;
 import net.yacy.search.Switchboard;
 import net.yacy.search.SwitchboardConstants;
+import net.yacy.search.index.Segment;
 import net.yacy.server.serverObjects;
 import net.yacy.server.serverSwitch;
 
@@ -95,7 +102,9 @@ public final class transferRWI {
             prop.put("result", result);
             return prop;
         }
-        if (!post.containsKey("indexes")) {
+        // the indexes are either sent as text lines or as binary containers (see ReferenceContainerStream)
+        final String containersFile = post.get("containers$file");
+        if (!post.containsKey("indexes") && containersFile == null) {
             result = "missing indexes";
             prop.put("result", result);
             return prop;
@@ -166,7 +175,7 @@ public final class transferRWI {
         } else {
             // we want and can receive indexes
             // log value status (currently added to find outOfMemory error
-            if (sb.getLog().isFine()) sb.getLog().fine("Processing " + indexes.length + " bytes / " + wordc + " words / " + entryc + " entries from " + otherPeerName);
+            if (sb.getLog().isFine()) sb.getLog().fine("Processing " + (containersFile == null ? indexes.length : containersFile.length()) + " bytes / " + wordc + " words / " + entryc + " entries from " + otherPeerName);
             final long startProcess = System.currentTimeMillis();
 
             // decode request
@@ -188,6 +197,47 @@ public final class transferRWI {
             int blocked = 0;
             int count = 0;
             Set<String> testids = new HashSet<String>();
+            if (containersFile != null) {
+                // binary containers: each container is added as a whole
+                List<ReferenceContainer<WordReference>> containers;
+                try {
+                    containers = ReferenceContainerStream.decode(Base64Order.standardCoder.decode(containersFile), Segment.wordReferenceFactory);
+                } catch (final IOException e) {
+                    sb.getLog().info("Rejecting RWIs from peer " + otherPeerName + ": " + e.getMessage());
+                    prop.put("unknownURL", "");
+                    prop.put("result", "format_error");
+                    prop.put("pause", 60000);
+                    return prop;
+                }
+                for (final ReferenceContainer<WordReference> container: containers) {
+                    if (count + container.size() > 1000) break; // protection against flooding
+                    count += container.size();
+                    final HandleSet rejected = new RowHandleSet(Word.commonHashLength, Word.commonHashOrder, 0);
+                    final Iterator<WordReference> entries = container.entries();
+                    while (entries.hasNext()) {
+                        urlHash = entries.next().urlhash();
+                        if (accept(sb, urlHash, blockBlacklist, otherPeerName)) {
+                            testids.add(ASCII.String(urlHash));
+                        } else try {
+                            rejected.put(urlHash);
+                            blocked++;
+                        } catch (final SpaceExceededException e) {
+                            ConcurrentLog.logException(e);
+                        }
+                    }
+                    if (!rejected.isEmpty()) container.removeEntries(rejected);
+                    if (container.isEmpty()) continue;
+                    wordhashes.add(ASCII.String(container.getTermHash()));
+
+                    // learn the container
+                    try {
+                        sb.index.storeRWI(container);
+                    } catch (final Exception e) {
+                        ConcurrentLog.logException(e);
+                    }
+                    received += container.size();
+                }
+            }
             while (it.hasNext()) {
                 estring = it.next();
                 count++;
@@ -204,18 +254,8 @@ public final class transferRWI {
                 iEntry = new WordReferenceRow(estring.substring(p));
                 urlHash = iEntry.urlhash();
 
-                // block blacklisted entries
-                if ((blockBlacklist) && (Switchboard.urlBlacklist.hashInBlacklistedCache(BlacklistType.DHT, urlHash))) {
-                    Network.log.fine("transferRWI: blocked blacklisted URLHash '" + ASCII.String(urlHash) + "' from peer " + otherPeerName);
-                    blocked++;
-                    continue;
-                }
-
-                // check if the entry is in our network domain
-                final String urlRejectReason = sb.crawlStacker.urlInAcceptedDomainHash(urlHash);
-                if (urlRejectReason != null) {
-                    Network.log.warn("transferRWI: blocked URL hash '" + ASCII.String(urlHash) + "' (" + urlRejectReason + ") from peer " + otherPeerName + "; peer is suspected to be a spam-peer (or something is wrong)");
-                    //if (yacyCore.log.isFine()) yacyCore.log.logFine("transferRWI: blocked URL hash '" + urlHash + "' (" + urlRejectReason + ") from peer " + otherPeerName);
+                // block blacklisted entries and entries which are not in our network domain
+                if (!accept(sb, urlHash, blockBlacklist, otherPeerName)) {
                     blocked++;
                     continue;
                 }
@@ -231,9 +271,11 @@ public final class transferRWI {
                 testids.add(ASCII.String(urlHash));
                 received++;
             }
+            // check all urls with one request
+            final Set<String> knownids = sb.index.fulltext().exists(testids);
             for (String id: testids) {
                 try {
-                    if (!sb.index.fulltext().exists(id)) {
+                    if (!knownids.contains(id)) {
                         unknownURL.put(ASCII.getBytes(id));
                     }
                 } catch (final SpaceExceededException e) {
@@ -271,6 +313,27 @@ public final class transferRWI {
         return prop;
     }
 
+    /**
+     * check if a reference to the url may be stored
+     * @return false if the url is blacklisted or not in our network domain
+     */
+    private static boolean accept(final Switchboard sb, final byte[] urlHash, final boolean blockBlacklist, final String otherPeerName) {
+        // block blacklisted entries
+        if ((blockBlacklist) && (Switchboard.urlBlacklist.hashInBlacklistedCache(BlacklistType.DHT, urlHash))) {
+            Network.log.fine("transferRWI: blocked blacklisted URLHash '" + ASCII.String(urlHash) + "' from peer " + otherPeerName);
+            return false;
+        }
+
+        // check if the entry is in our network domain
+        final String urlRejectReason = sb.crawlStacker.urlInAcceptedDomainHash(urlHash);
+        if (urlRejectReason != null) {
+            Network.log.warn("transferRWI: blocked URL hash '" + ASCII.String(urlHash) + "' (" + urlRejectReason + ") from peer " + otherPeerName + "; peer is suspected to be a spam-peer (or something is wrong)");
+            //if (yacyCore.log.isFine()) yacyCore.log.logFine("transferRWI: blocked URL hash '" + urlHash + "' (" + urlRejectReason + ") from peer " + otherPeerName);
+            return false;
+        }
+        return true;
+    }
+
     /**
      * @param requestIdentifier
      * @param msg
@@ -84,6 +84,7 @@ public class urls {
 
                 // place url to notice-url db
                 if (sb.crawlQueues.delegatedURL != null) sb.crawlQueues.delegatedURL.put(ASCII.String(entry.url().hash()), entry.url());
+                sb.index.setSeen(entry.url().hash());
 
                 // create RSS entry
                 prop.put("item_" + c + "_title", "");
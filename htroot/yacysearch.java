@@ -792,6 +792,8 @@ public class yacysearch {
                     lat, lon, rad,
                     sb.getConfigSet("search.navigation"));
             theQuery.setStrictContentDom(strictContentDom);
+            final int rwiTopK = post.getInt("rwiTopK", sb.getConfigInt(SwitchboardConstants.SEARCH_RANKING_RWI_TOPK, SwitchboardConstants.SEARCH_RANKING_RWI_TOPK_DEFAULT));
+            if (rwiTopK > 0) theQuery.setRwiTopK(Math.max(rwiTopK, startRecord + itemsPerPage)); // the requested page must be within the best results
             theQuery.setMaxSuggestions(meanMax);
             theQuery.setStandardFacetsMaxCount(sb.getConfigInt(SwitchboardConstants.SEARCH_NAVIGATION_MAXCOUNT,
                     QueryParams.FACETS_STANDARD_MAXCOUNT_DEFAULT));
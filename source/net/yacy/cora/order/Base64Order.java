@@ -183,6 +183,38 @@ public class Base64Order extends AbstractOrder<byte[]> implements ByteOrder, Com
         return c;
     }
 
+    /**
+     * the number of key characters that are decoded into a sort prefix
+     */
+    public static final int sortPrefixLength = 10;
+
+    /**
+     * @return true if the order of keys is the order of their sort prefixes, i.e. the order is ascending and not rotated
+     */
+    public final boolean hasSortPrefix() {
+        return this.asc && this.zero == null;
+    }
+
+    /**
+     * compute a sort prefix of a key: the first sortPrefixLength characters are decoded into 6 bits each,
+     * so that comparing the prefixes as numbers gives the order of the keys (see hasSortPrefix()).
+     * Keys with equal prefixes must be compared with compare().
+     * @param a
+     * @param offset
+     * @param length the length of the key
+     * @return the prefix, a non-negative number; -1 if the key is not well-formed
+     */
+    public final long sortPrefix(final byte[] a, final int offset, final int length) {
+        final int l = Math.min(length, sortPrefixLength);
+        long c = 0;
+        for (int i = 0; i < l; i++) {
+            final byte b = a[offset + i];
+            if (b < 0 || this.ahpla[b] < 0) return -1;
+            c = (c << 6) | this.ahpla[b];
+        }
+        return c << (6 * (sortPrefixLength - l));
+    }
+
     public static long max(final int len) {
         // computes the maximum number that can be coded with a base64-encoded
         // String of base len
@@ -110,7 +110,7 @@ import net.yacy.cora.protocol.http.auth.YaCyDigestSchemeFactory;
 import net.yacy.cora.util.CommonPattern;
 import net.yacy.cora.util.Memory;
 import net.yacy.kelondro.util.Formatter;
-import net.yacy.kelondro.util.NamePrefixThreadFactory;
+import net.yacy.kelondro.util.IOThreadFactory;
 
 
 /**
@@ -174,7 +174,7 @@ public class HTTPClient implements Closeable {
 	private String host = null;
 	private final long timeout;
 	private static ExecutorService executor = Executors
-			.newCachedThreadPool(new NamePrefixThreadFactory(HTTPClient.class.getSimpleName() + ".execute"));
+			.newCachedThreadPool(new IOThreadFactory(HTTPClient.class.getSimpleName() + ".execute"));
 	
 	/** these are the main variable to hold information and to take care of closing: */
 	private CloseableHttpClient client = null;
@@ -110,6 +110,16 @@ public interface Balancer {
      */
     public String push(final Request entry, CrawlProfile profile, final RobotsTxt robots) throws IOException, SpaceExceededException;
 
+    /**
+     * push a list of crawl requests with the same profile on the balancer stack.
+     * Implementations take their locks once for all requests of a host.
+     * @param entries
+     * @return an array with one element for each entry: null if the push was successful or a String explaining what went wrong
+     * @throws IOException
+     * @throws SpaceExceededException
+     */
+    public String[] push(final List<Request> entries, CrawlProfile profile, final RobotsTxt robots) throws IOException, SpaceExceededException;
+
     /**
      * get a list of domains that are currently maintained as domain stacks
      * @return a map of clear text strings of host names (each host name eventually concatenated with a port, depending on the implementation)
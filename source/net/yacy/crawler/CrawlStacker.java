@@ -28,13 +28,19 @@ package net.yacy.crawler;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 import net.yacy.contentcontrol.ContentControlFilterUpdateThread;
 import net.yacy.cora.date.ISO8601Formatter;
@@ -54,9 +60,11 @@ import net.yacy.crawler.data.NoticedURL;
 import net.yacy.crawler.retrieval.Request;
 import net.yacy.crawler.robots.RobotsTxt;
 import net.yacy.document.TextParser;
+import net.yacy.kelondro.workflow.WorkflowJob;
 import net.yacy.kelondro.workflow.WorkflowProcessor;
 import net.yacy.kelondro.workflow.WorkflowTask;
 import net.yacy.peers.SeedDB;
+import net.yacy.repository.Blacklist;
 import net.yacy.repository.Blacklist.BlacklistType;
 import net.yacy.repository.FilterEngine;
 import net.yacy.search.Switchboard;
@@ -70,10 +78,29 @@ public final class CrawlStacker implements WorkflowTask<Request>{
     /** Crawl reject reason prefix having specific processing */
     public static final String CRAWL_REJECT_REASON_DOUBLE_IN_PREFIX = "double in";
 
+    /** Crawl reject reason when the maximum number of pages of a domain in the crawl stack is reached */
+    public static final String CRAWL_REJECT_REASON_DOMAIN_COUNTER = "crawl stack domain counter exceeded (test by profile)";
+
     private final static ConcurrentLog log = new ConcurrentLog("STACKCRAWL");
 
+    /**
+     * if true, the links of a document are stacked in groups of the same host with enqueueEntries(List);
+     * otherwise each link is stacked on its own
+     */
+    public static boolean batchStacking = true;
+
+    /** a list of requests for the same host with the same profile */
+    private static final class Batch extends WorkflowJob {
+        private final List<Request> entries;
+        private Batch(final List<Request> entries) {
+            super();
+            this.entries = entries;
+        }
+    }
+
     private final RobotsTxt robots;
     private final WorkflowProcessor<Request>  requestQueue;
+    private final WorkflowProcessor<Batch>    batchQueue;
     public  final CrawlQueues       nextQueue;
     private final CrawlSwitchboard  crawler;
     private final Segment           indexSegment;
@@ -101,30 +128,41 @@ public final class CrawlStacker implements WorkflowTask<Request>{
         this.acceptGlobalURLs = acceptGlobalURLs;
         this.domainList = domainList;
         this.requestQueue = new WorkflowProcessor<>("CrawlStacker", "This process checks new urls before they are enqueued into the balancer (proper, double-check, correct domain, filter)", new String[]{"Balancer"}, this, 10000, null, WorkflowProcessor.availableCPU);
+        this.batchQueue = new WorkflowProcessor<>("CrawlStackerBatch", "This process checks the links of a document host by host before they are enqueued into the balancer", new String[]{"Balancer"}, new WorkflowTask<Batch>() {
+            @Override
+            public Batch process(final Batch batch) {
+                CrawlStacker.this.process(batch.entries);
+                return null;
+            }
+        }, 1000, null, WorkflowProcessor.availableCPU);
         CrawlStacker.log.info("STACKCRAWL thread initialized.");
     }
 
     public int size() {
-        return this.requestQueue.getQueueSize();
+        return this.requestQueue.getQueueSize() + this.batchQueue.getQueueSize();
     }
 
     public boolean isEmpty() {
         if (!this.requestQueue.queueIsEmpty()) return false;
+        if (!this.batchQueue.queueIsEmpty()) return false;
         return true;
     }
 
     public void clear() {
         this.requestQueue.clear();
+        this.batchQueue.clear();
     }
 
     public void announceClose() {
         CrawlStacker.log.info("Flushing remaining " + this.size() + " crawl stacker job entries.");
         this.requestQueue.shutdown();
+        this.batchQueue.shutdown();
     }
 
     public synchronized void close() {
         CrawlStacker.log.info("Shutdown. waiting for remaining " + this.size() + " crawl stacker job entries. please wait.");
         this.requestQueue.shutdown();
+        this.batchQueue.shutdown();
 
         CrawlStacker.log.info("Shutdown. Closing stackCrawl queue.");
 
@@ -158,6 +196,56 @@ public final class CrawlStacker implements WorkflowTask<Request>{
         this.requestQueue.enQueue(entry);
     }
 
+    /**
+     * stack the rejected entries of a list which was stacked with stackCrawl(List) into the error URL db
+     */
+    private void process(final List<Request> entries) {
+        try {
+            final String[] rejectReasons = this.stackCrawl(entries);
+            CrawlProfile profile = null;
+            for (int i = 0; i < rejectReasons.length; i++) {
+                final String rejectReason = rejectReasons[i];
+                if (rejectReason == null || rejectReason.startsWith(CRAWL_REJECT_REASON_DOUBLE_IN_PREFIX)) continue;
+                final Request entry = entries.get(i);
+                if (profile == null) profile = this.crawler.get(UTF8.getBytes(entry.profileHandle()));
+                this.nextQueue.errorURL.push(entry.url(), entry.depth(), profile, FailCategory.FINAL_LOAD_CONTEXT, rejectReason, -1);
+            }
+        } catch (final Exception e) {
+            CrawlStacker.log.warn("Error while processing stackCrawl entries.\n" + "Entries: " + entries.size() + ", first: " + entries.get(0).toString() + "Error: " + e.toString(), e);
+        }
+    }
+
+    /**
+     * Enqueue the links of a document. The links are grouped by host and crawl profile, and each group
+     * is checked and pushed to the crawl stacks at once, so that the checks which depend only on the host
+     * are done once for each group and the crawl queues are locked once for each group.
+     * @param entries the requests for the links, in any order
+     */
+    public void enqueueEntries(final List<Request> entries) {
+        if (!batchStacking) {
+            for (final Request entry: entries) this.enqueueEntry(entry);
+            return;
+        }
+        final Map<String, List<Request>> groups = new LinkedHashMap<>();
+        for (final Request entry: entries) {
+            final String key = entry.url().hosthash() + entry.profileHandle();
+            List<Request> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(key, group);
+            }
+            group.add(entry);
+        }
+        for (final List<Request> group: groups.values()) {
+            if (group.size() == 1) {
+                this.enqueueEntry(group.get(0));
+                continue;
+            }
+            if (CrawlStacker.log.isFinest()) CrawlStacker.log.finest("ENQUEUE " + group.size() + " entries of host " + group.get(0).url().getHost() + ", depth=" + group.get(0).depth());
+            this.batchQueue.enQueue(new Batch(group));
+        }
+    }
+
     public void enqueueEntriesAsynchronous(
             final byte[] initiator,
             final String profileHandle,
@@ -355,6 +443,93 @@ public final class CrawlStacker implements WorkflowTask<Request>{
         error = this.checkAcceptanceInitially(entry.url(), profile);
         if (error != null) return error;
 
+        final NoticedURL.StackType[] stackType = new NoticedURL.StackType[1];
+        error = this.stackType(entry, profile, stackType);
+        if (error != null) return error;
+        final String warning = this.nextQueue.noticeURL.push(stackType[0], entry, profile, this.robots);
+        if (warning != null && CrawlStacker.log.isFine()) CrawlStacker.log.fine("CrawlStacker.stackCrawl of URL " + entry.url().toNormalform(true) + " - not pushed to " + stackType[0] + " stack : " + warning);
+
+        return null;
+    }
+
+    /**
+     * stacks a list of crawl items with the same host and profile. The checks which depend only on the host
+     * are done once for all items, and the accepted items are pushed to each crawl stack at once.
+     * @param entries
+     * @return an array with one element for each entry: null if successful, a reason string if not successful
+     */
+    public String[] stackCrawl(final List<Request> entries) {
+        final String[] errors = new String[entries.size()];
+        if (errors.length == 0) return errors;
+        final Request first = entries.get(0);
+        final CrawlProfile profile = this.crawler.get(UTF8.getBytes(first.profileHandle()));
+        if (profile == null) {
+            final String error = "LOST STACKER PROFILE HANDLE '" + first.profileHandle() + "' for " + errors.length + " URLs of host " + first.url().getHost();
+            CrawlStacker.log.info(error); // this is NOT an error but a normal effect when terminating a crawl queue
+            Arrays.fill(errors, error);
+            return errors;
+        }
+
+        // the blacklist patterns for the host, each url is matched only against the patterns for its path
+        final String host = first.url().getHost();
+        final Pattern[] blacklistPatterns = host == null ? null : Switchboard.urlBlacklist.hostPatterns(BlacklistType.CRAWLER, host.toLowerCase(Locale.ROOT));
+
+        // the host checks are done once for start urls (depth 0) and once for links, because the IP filters apply only to links
+        final String[] hostErrors = new String[2];
+        final boolean[] hostChecked = new boolean[2];
+
+        final Map<NoticedURL.StackType, List<Integer>> stacks = new EnumMap<>(NoticedURL.StackType.class);
+        final NoticedURL.StackType[] stackType = new NoticedURL.StackType[1];
+        for (int i = 0; i < errors.length; i++) {
+            final Request entry = entries.get(i);
+            String error = this.checkAcceptanceURL(entry.url(), profile, entry.depth(), blacklistPatterns);
+            if (error == null) {
+                final int d = entry.depth() > 0 ? 1 : 0;
+                if (!hostChecked[d]) {
+                    hostErrors[d] = this.checkAcceptanceHost(entry.url(), profile, entry.depth());
+                    hostChecked[d] = true;
+                }
+                error = hostErrors[d];
+            }
+            if (error == null) error = this.checkAcceptanceInitially(entry.url(), profile);
+            if (error == null) error = this.stackType(entry, profile, stackType);
+            if (error != null) {
+                errors[i] = error;
+                continue;
+            }
+            List<Integer> positions = stacks.get(stackType[0]);
+            if (positions == null) {
+                positions = new ArrayList<>();
+                stacks.put(stackType[0], positions);
+            }
+            positions.add(i);
+        }
+
+        for (final Map.Entry<NoticedURL.StackType, List<Integer>> stack: stacks.entrySet()) {
+            final List<Request> stackEntries = new ArrayList<>(stack.getValue().size());
+            for (final Integer i: stack.getValue()) stackEntries.add(entries.get(i));
+            final String[] warnings = this.nextQueue.noticeURL.push(stack.getKey(), stackEntries, profile, this.robots);
+            for (int j = 0; j < warnings.length; j++) {
+                if (warnings[j] == null) continue;
+                // the domain counter of the profile is checked when the entries are pushed, because only the pushed entries count;
+                // entries of this list which exceed it are rejected as in checkAcceptanceInitially
+                if (CRAWL_REJECT_REASON_DOMAIN_COUNTER.equals(warnings[j])) errors[stack.getValue().get(j)] = warnings[j];
+                if (CrawlStacker.log.isFine()) CrawlStacker.log.fine("CrawlStacker.stackCrawl of URL " + stackEntries.get(j).url().toNormalform(true) + " - not pushed to " + stack.getKey() + " stack : " + warnings[j]);
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * find the crawl stack for an entry which passed the acceptance checks
+     * @param entry
+     * @param profile
+     * @param stackType an array of length 1 where the stack type is written if the entry can be stacked
+     * @return null if the entry can be stacked, a reason string if not
+     */
+    private String stackType(final Request entry, final CrawlProfile profile, final NoticedURL.StackType[] stackType) {
+        String error;
+
         // store information
         final boolean local = Base64Order.enhancedCoder.equal(entry.initiator(), UTF8.getBytes(this.peers.mySeed().hash));
         final boolean proxy = (entry.initiator() == null || entry.initiator().length == 0 || ASCII.String(entry.initiator()).equals("------------")) && profile.handle().equals(this.crawler.defaultProxyProfile.handle());
@@ -374,14 +549,10 @@ public final class CrawlStacker implements WorkflowTask<Request>{
             return error;
         }
 
-        String warning = null;
         if (!profile.isCrawlerAlwaysCheckMediaType() && TextParser.supportsExtension(entry.url()) != null) {
             if(profile.isIndexNonParseableUrls()) {
                 /* Unsupported file extension and no cross-checking of Media Type : add immediately to the noload stack to index only URL metadata */
-                warning = this.nextQueue.noticeURL.push(NoticedURL.StackType.NOLOAD, entry, profile, this.robots);
-                if (warning != null && CrawlStacker.log.isFine()) {
-                    CrawlStacker.log.fine("CrawlStacker.stackCrawl of URL " + entry.url().toNormalform(true) + " - not pushed to " + NoticedURL.StackType.NOLOAD + " stack : " + warning);
-                }
+                stackType[0] = NoticedURL.StackType.NOLOAD;
                 return null;
             }
 
@@ -394,19 +565,17 @@ public final class CrawlStacker implements WorkflowTask<Request>{
             // it may be possible that global == true and local == true, so do not check an error case against it
             if (proxy) CrawlStacker.log.warn("URL '" + entry.url().toString() + "' has conflicting initiator properties: global = true, proxy = true, initiator = proxy" + ", profile.handle = " + profile.handle());
             if (remote) CrawlStacker.log.warn("URL '" + entry.url().toString() + "' has conflicting initiator properties: global = true, remote = true, initiator = " + ASCII.String(entry.initiator()) + ", profile.handle = " + profile.handle());
-            warning = this.nextQueue.noticeURL.push(NoticedURL.StackType.GLOBAL, entry, profile, this.robots);
+            stackType[0] = NoticedURL.StackType.GLOBAL;
         } else if (local) {
             if (proxy) CrawlStacker.log.warn("URL '" + entry.url().toString() + "' has conflicting initiator properties: local = true, proxy = true, initiator = proxy" + ", profile.handle = " + profile.handle());
             if (remote) CrawlStacker.log.warn("URL '" + entry.url().toString() + "' has conflicting initiator properties: local = true, remote = true, initiator = " + ASCII.String(entry.initiator()) + ", profile.handle = " + profile.handle());
-            warning = this.nextQueue.noticeURL.push(NoticedURL.StackType.LOCAL, entry, profile, this.robots);
+            stackType[0] = NoticedURL.StackType.LOCAL;
         } else if (proxy) {
             if (remote) CrawlStacker.log.warn("URL '" + entry.url().toString() + "' has conflicting initiator properties: proxy = true, remote = true, initiator = " + ASCII.String(entry.initiator()) + ", profile.handle = " + profile.handle());
-            warning = this.nextQueue.noticeURL.push(NoticedURL.StackType.LOCAL, entry, profile, this.robots);
-        } else if (remote) {
-            warning = this.nextQueue.noticeURL.push(NoticedURL.StackType.REMOTE, entry, profile, this.robots);
+            stackType[0] = NoticedURL.StackType.LOCAL;
+        } else {
+            stackType[0] = NoticedURL.StackType.REMOTE;
         }
-        if (warning != null && CrawlStacker.log.isFine()) CrawlStacker.log.fine("CrawlStacker.stackCrawl of URL " + entry.url().toNormalform(true) + " - not pushed: " + warning);
-
         return null;
     }
 
@@ -419,13 +588,16 @@ public final class CrawlStacker implements WorkflowTask<Request>{
      */
     public String checkAcceptanceInitially(final DigestURL url, final CrawlProfile profile) {
 
+        // urls which were never indexed, failed or loaded need no lookup in the crawl queues and the index
+        final boolean seen = this.indexSegment.mightBeSeen(url.hash());
+
         // check if the url is double registered
-        final HarvestProcess dbocc = this.nextQueue.exists(url.hash()); // returns the name of the queue if entry exists
+        final HarvestProcess dbocc = seen ? this.nextQueue.exists(url.hash()) : null; // returns the name of the queue if entry exists
         if (dbocc != null) {
             return CRAWL_REJECT_REASON_DOUBLE_IN_PREFIX + ": " + dbocc.name();
         }
         String urls = url.toNormalform(false);
-        final long oldDate = this.indexSegment.getLoadTime(url.hash());
+        final long oldDate = seen ? this.indexSegment.getLoadTime(url.hash()) : -1;
 
         // deny urls that exceed allowed number of occurrences
         final int maxAllowedPagesPerDomain = profile.domMaxPages();
@@ -433,7 +605,7 @@ public final class CrawlStacker implements WorkflowTask<Request>{
             final AtomicInteger dp = profile.getCount(url.getHost());
             if (dp != null && dp.get() >= maxAllowedPagesPerDomain) {
                 if (CrawlStacker.log.isFine()) CrawlStacker.log.fine("URL '" + urls + "' appeared too often in crawl stack, a maximum of " + maxAllowedPagesPerDomain + " is allowed.");
-                return "crawl stack domain counter exceeded (test by profile)";
+                return CRAWL_REJECT_REASON_DOMAIN_COUNTER;
             }
 
             /*
@@ -471,6 +643,20 @@ public final class CrawlStacker implements WorkflowTask<Request>{
      * @return null if the url is accepted, an error string in case if the url is not accepted with an error description
      */
     public String checkAcceptanceChangeable(final DigestURL url, final CrawlProfile profile, final int depth) {
+        final String error = this.checkAcceptanceURL(url, profile, depth, null);
+        if (error != null) return error;
+        return this.checkAcceptanceHost(url, profile, depth);
+    }
+
+    /**
+     * The tests of checkAcceptanceChangeable which depend on the whole url.
+     * @param url
+     * @param profile
+     * @param depth
+     * @param blacklistPatterns the blacklist patterns for the host of the url from Blacklist.hostPatterns() or null to look up the url in the blacklist
+     * @return null if the url is accepted, an error string in case if the url is not accepted with an error description
+     */
+    private String checkAcceptanceURL(final DigestURL url, final CrawlProfile profile, final int depth, final Pattern[] blacklistPatterns) {
 
         // check if the protocol is supported
         final String urlProtocol = url.getProtocol();
@@ -480,15 +666,15 @@ public final class CrawlStacker implements WorkflowTask<Request>{
             return "unsupported protocol";
         }
 
-        // check if ip is local ip address
-        final String urlRejectReason = this.urlInAcceptedDomain(url);
+        // check the domain lists of the network
+        final String urlRejectReason = this.urlInNetworkDomains(url);
         if (urlRejectReason != null) {
             if (CrawlStacker.log.isFine()) CrawlStacker.log.fine("denied_(" + urlRejectReason + ")");
             return "denied_(" + urlRejectReason + ")";
         }
 
         // check blacklist
-        if (Switchboard.urlBlacklist.isListed(BlacklistType.CRAWLER, url)) {
+        if (blacklistPatterns == null ? Switchboard.urlBlacklist.isListed(BlacklistType.CRAWLER, url) : Blacklist.isListed(blacklistPatterns, url.getFile())) {
             CrawlStacker.log.fine("URL '" + urlstring + "' is in blacklist.");
             return "url in blacklist";
         }
@@ -520,6 +706,28 @@ public final class CrawlStacker implements WorkflowTask<Request>{
             return "post url not allowed";
         }
 
+        return null;
+    }
+
+    /**
+     * The tests of checkAcceptanceChangeable which depend only on the host of the url and the depth:
+     * the url must be in an accepted domain (local/global) and the IP and country filters must match.
+     * These tests are the same for all urls of a host.
+     * @param url
+     * @param profile
+     * @param depth
+     * @return null if the url is accepted, an error string in case if the url is not accepted with an error description
+     */
+    private String checkAcceptanceHost(final DigestURL url, final CrawlProfile profile, final int depth) {
+        final String urlstring = url.toNormalform(true);
+
+        // check if ip is local ip address
+        final String urlRejectReason = this.urlInAcceptedLocality(url);
+        if (urlRejectReason != null) {
+            if (CrawlStacker.log.isFine()) CrawlStacker.log.fine("denied_(" + urlRejectReason + ")");
+            return "denied_(" + urlRejectReason + ")";
+        }
+
         // the following filters use a DNS lookup to check if the url matches with IP filter
         // this is expensive and those filters are check at the end of all other tests
 
@@ -567,6 +775,16 @@ public final class CrawlStacker implements WorkflowTask<Request>{
     public String urlInAcceptedDomain(final DigestURL url) {
         // returns true if the url can be accepted according to network.unit.domain
         if (url == null) return "url is null";
+        final String urlRejectReason = this.urlInNetworkDomains(url);
+        if (urlRejectReason != null) return urlRejectReason;
+        return this.urlInAcceptedLocality(url);
+    }
+
+    /**
+     * @param url
+     * @return null if the url is in the domain list and the mandatory filter list of the network, a rejection reason if not
+     */
+    private String urlInNetworkDomains(final DigestURL url) {
         // check domainList from network-definition
         if(this.domainList != null) {
             if(!this.domainList.isListed(url, null)) {
@@ -593,7 +811,14 @@ public final class CrawlStacker implements WorkflowTask<Request>{
             }
 
         }
+        return null;
+    }
 
+    /**
+     * @param url
+     * @return null if local urls are accepted for a local url or global urls for a global url, a rejection reason if not
+     */
+    private String urlInAcceptedLocality(final DigestURL url) {
         final boolean local = url.isLocal();
         if (this.acceptLocalURLs && local) return null;
         if (this.acceptGlobalURLs && !local) return null;
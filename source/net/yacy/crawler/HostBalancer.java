@@ -30,6 +30,7 @@ import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -50,7 +51,7 @@ import net.yacy.crawler.data.Latency;
 import net.yacy.crawler.retrieval.Request;
 import net.yacy.crawler.robots.RobotsTxt;
 import net.yacy.kelondro.data.word.Word;
-import net.yacy.kelondro.index.RowHandleMap;
+import net.yacy.kelondro.index.HandleMapFactory;
 import net.yacy.kelondro.index.RowHandleSet;
 import net.yacy.kelondro.util.FileUtils;
 
@@ -66,12 +67,26 @@ import net.yacy.kelondro.util.FileUtils;
 public class HostBalancer implements Balancer {
 
     private final static ConcurrentLog log = new ConcurrentLog("HostBalancer");
-    public final static HandleMap depthCache = new RowHandleMap(Word.commonHashLength, Word.commonHashOrder, 2, 8 * 1024 * 1024, "HostBalancer.DepthCache");
+    public final static HandleMap depthCache = HandleMapFactory.newHandleMap(Word.commonHashLength, Word.commonHashOrder, 2, 8 * 1024 * 1024, "HostBalancer.DepthCache");
+
+    /**
+     * if true, pop takes the next host from a schedule ordered by the time when the hosts may be accessed again
+     * which keeps the preferences of the round-robin pop for small stacks and against fresh hosts;
+     * otherwise the waiting times of all hosts in the round-robin set are computed for every pop
+     */
+    public static boolean scheduleByTime = true;
+
+    /** the number of hosts at the head of the schedule which are checked for a changed waiting time in one pop */
+    private static final int scheduleChecks = 10;
+
+    /** the largest size of a queue which is preferred by the schedule to reduce the number of open queue files */
+    private static final int smallStackSize = 10;
 
     private final File hostsPath;
     private final boolean exceed134217727;
     private final Map<String, HostQueue> queues;
     private final Set<String> roundRobinHostHashes;
+    private final HostScheduler scheduler;
     private final int onDemandLimit;
 
     /**
@@ -107,6 +122,7 @@ public class HostBalancer implements Balancer {
         if (!(hostsPath.exists())) hostsPath.mkdirs(); // make the path
         this.queues = new ConcurrentHashMap<>();
         this.roundRobinHostHashes = new HashSet<>();
+        this.scheduler = new HostScheduler();
         this.init(asyncInit); // return without wait but starts a thread to fill the queues
     }
 
@@ -144,6 +160,7 @@ public class HostBalancer implements Balancer {
                     FileUtils.deletedelete(queuePath);
                 } else {
                     this.queues.put(queue.getHostHash(), queue);
+                    this.scheduler.addFresh(queue.getHostHash()); // no host was accessed after a start
                 }
             } catch (MalformedURLException | RuntimeException e) {
                 log.warn("delete queue due to init error for " + this.hostsPath.getName() + " host=" + hoststr + " " + e.getLocalizedMessage());
@@ -161,6 +178,7 @@ public class HostBalancer implements Balancer {
         }
         for (final HostQueue queue: this.queues.values()) queue.close();
         this.queues.clear();
+        this.scheduler.clear();
     }
 
     @Override
@@ -170,6 +188,7 @@ public class HostBalancer implements Balancer {
         }
         for (final HostQueue queue: this.queues.values()) queue.clear();
         this.queues.clear();
+        this.scheduler.clear();
     }
 
     @Override
@@ -292,6 +311,7 @@ public class HostBalancer implements Balancer {
             if (queue == null) {
                 queue = new HostQueue(this.hostsPath, entry.url(), this.queues.size() > this.onDemandLimit, this.exceed134217727);
                 this.queues.put(hosthash, queue);
+                this.schedule(hosthash, queue, System.currentTimeMillis(), robots);
                 // profile might be null when continue crawls after YaCy restart
                 robots.ensureExist(entry.url(), profile == null ? ClientIdentification.yacyInternetCrawlerAgent : profile.getAgent(), true); // concurrently load all robots.txt
             }
@@ -299,6 +319,57 @@ public class HostBalancer implements Balancer {
         }
     }
 
+    @Override
+    public String[] push(final List<Request> entries, CrawlProfile profile, final RobotsTxt robots) throws IOException, SpaceExceededException {
+        final String[] result = new String[entries.size()];
+        final int maxPages = profile == null ? Integer.MAX_VALUE : profile.domMaxPages();
+        final boolean domCount = maxPages != Integer.MAX_VALUE && maxPages > 0;
+        // group the entries by host, keeping the positions of the entries for the result
+        final Map<String, List<Integer>> hosts = new LinkedHashMap<>();
+        for (int i = 0; i < result.length; i++) {
+            final Request entry = entries.get(i);
+            if (this.has(entry.url().hash())) {
+                result[i] = "double occurrence";
+                continue;
+            }
+            final String hosthash = entry.url().hosthash();
+            List<Integer> positions = hosts.get(hosthash);
+            if (positions == null) {
+                positions = new ArrayList<>();
+                hosts.put(hosthash, positions);
+            }
+            positions.add(i);
+        }
+        if (hosts.isEmpty()) return result;
+        synchronized (this) {
+            for (final Map.Entry<String, List<Integer>> host: hosts.entrySet()) {
+                final List<Integer> positions = host.getValue();
+                final List<Request> hostEntries = new ArrayList<>(positions.size());
+                for (final Integer i: positions) hostEntries.add(entries.get(i));
+                HostQueue queue = this.queues.get(host.getKey());
+                if (queue == null) {
+                    final DigestURL url = hostEntries.get(0).url();
+                    if (domCount && profile.getCount(url.getHost()).get() >= maxPages) {
+                        // all entries would be rejected by the new queue, do not create it
+                        for (final Integer i: positions) result[i] = CrawlStacker.CRAWL_REJECT_REASON_DOMAIN_COUNTER;
+                        continue;
+                    }
+                    queue = new HostQueue(this.hostsPath, url, this.queues.size() > this.onDemandLimit, this.exceed134217727);
+                    this.queues.put(host.getKey(), queue);
+                    this.schedule(host.getKey(), queue, System.currentTimeMillis(), robots);
+                    robots.ensureExist(url, profile == null ? ClientIdentification.yacyInternetCrawlerAgent : profile.getAgent(), true); // concurrently load all robots.txt
+                }
+                final String[] r = queue.push(hostEntries, profile, robots);
+                for (int j = 0; j < r.length; j++) {
+                    result[positions.get(j)] = r[j];
+                    // only the pushed entries are known as queued, rejected entries may be stacked again later
+                    if (r[j] == null) depthCache.put(hostEntries.get(j).url().hash(), hostEntries.get(j).depth());
+                }
+            }
+        }
+        return result;
+    }
+
     /**
      * get the next entry in this crawl queue in such a way that the domain access time delta is maximized
      * and always above the given minimum delay time. In case the minimum time cannot ensured, this method pauses
@@ -312,6 +383,7 @@ public class HostBalancer implements Balancer {
      */
     @Override
     public Request pop(boolean delay, CrawlSwitchboard cs, RobotsTxt robots) throws IOException {
+        if (scheduleByTime) return this.popScheduled(delay, cs, robots);
         tryagain: while (true) try {
             HostQueue rhq = null;
             String rhh = null;
@@ -517,6 +589,110 @@ public class HostBalancer implements Balancer {
         }
     }
 
+    /**
+     * get the next entry from the host which may be accessed first according to the schedule.
+     * The host is removed from the schedule while its queue is popped and scheduled again afterwards
+     * with its new waiting time, so that concurrent pops take different hosts.
+     * The due times in the schedule are computed when a host is scheduled; loads which finish later
+     * may change the waiting time of a host, therefore the first hosts of the schedule are checked again
+     * before one is taken. The selection follows the policies of the round-robin pop:
+     * among the hosts which are due, a small stack is preferred to reduce the number of open queue files
+     * (the smallest one, so singletons come first), otherwise the largest stack is taken.
+     * Hosts which were never accessed must wait for their robots.txt; they are ranked behind the hosts
+     * which are due and only a limited number of them is taken in one round, see {@link HostScheduler}.
+     */
+    private Request popScheduled(final boolean delay, final CrawlSwitchboard cs, final RobotsTxt robots) throws IOException {
+        tryagain: while (true) try {
+            HostQueue rhq = null;
+            String rhh = null;
+
+            synchronized (this) {
+                final long now = System.currentTimeMillis();
+                if (this.scheduler.isEmpty()) {
+                    // hosts may be missing when a pop failed; then get them back from the queues
+                    for (final Map.Entry<String, HostQueue> entry: this.queues.entrySet()) this.schedule(entry.getKey(), entry.getValue(), now, robots);
+                }
+
+                // find the smallest and the largest stack of the due hosts at the head of the schedule
+                String small = null, large = null;
+                int smallest = Integer.MAX_VALUE, largest = Integer.MIN_VALUE;
+                for (final String h: this.scheduler.first(scheduleChecks)) {
+                    if (this.scheduler.due(h) > now) break; // the schedule is ordered, no more due hosts
+                    final HostQueue hq = this.queues.get(h);
+                    if (hq == null) {
+                        this.scheduler.remove(h);
+                        continue;
+                    }
+                    final long due = due(hq, now, robots);
+                    if (due > now) {
+                        // the host must wait longer than expected
+                        this.scheduler.schedule(h, due);
+                        continue;
+                    }
+                    final int size = hq.size();
+                    if (size < smallest) {smallest = size; small = h;}
+                    if (size > largest) {largest = size; large = h;}
+                }
+
+                rhh = this.scheduler.takeFresh(small != null);
+                if (rhh == null) {
+                    rhh = small == null ? this.scheduler.first() : smallest <= smallStackSize ? small : large;
+                    if (rhh == null) return null;
+                    this.scheduler.take(rhh);
+                }
+                rhq = this.queues.get(rhh);
+                if (rhq == null) continue tryagain;
+            }
+
+            Request request = null;
+            try {
+                request = rhq.pop(delay, cs, robots); // this pop is outside of synchronization to prevent blocking of pushes
+            } finally {
+                boolean close = false;
+                synchronized (this) {
+                    if (rhq.isEmpty()) {
+                        if (this.queues.get(rhh) == rhq) this.queues.remove(rhh);
+                        close = true;
+                    } else {
+                        this.schedule(rhh, rhq, System.currentTimeMillis(), robots);
+                    }
+                }
+                if (close) rhq.close();
+            }
+            if (request == null) continue tryagain;
+            return request;
+        } catch (final ConcurrentModificationException e) {
+            continue tryagain;
+        } catch (final IOException e) {
+            throw e;
+        } catch (final Throwable e) {
+            ConcurrentLog.logException(e);
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * put a host into the schedule at the time when it may be accessed again,
+     * or into the fresh hosts of the schedule if it was never accessed
+     */
+    private void schedule(final String hosthash, final HostQueue hq, final long now, final RobotsTxt robots) {
+        final long due = due(hq, now, robots);
+        if (due == Long.MIN_VALUE) {
+            if (!this.scheduler.contains(hosthash)) this.scheduler.addFresh(hosthash);
+        } else {
+            this.scheduler.schedule(hosthash, due);
+        }
+    }
+
+    /**
+     * @return the time when the host of the queue may be accessed again or Long.MIN_VALUE if the host was never accessed
+     */
+    private static long due(final HostQueue hq, final long now, final RobotsTxt robots) {
+        final int remaining = Latency.waitingRemainingGuessed(hq.getHost(), hq.getPort(), hq.getHostHash(), robots, ClientIdentification.yacyInternetCrawlerAgent);
+        if (remaining == Integer.MIN_VALUE) return Long.MIN_VALUE;
+        return remaining <= 0 ? now : now + remaining;
+    }
+
     @Override
     public Iterator<Request> iterator() throws IOException {
         final Iterator<HostQueue> hostsIterator = this.queues.values().iterator();
@@ -448,6 +448,34 @@ public class HostQueue implements Balancer {
         return null;
     }
 
+    @Override
+    public String[] push(final List<Request> entries, CrawlProfile profile, final RobotsTxt robots) throws IOException, SpaceExceededException {
+        final String[] result = new String[entries.size()];
+        final int maxPages = profile == null ? Integer.MAX_VALUE : profile.domMaxPages();
+        final boolean domCount = maxPages != Integer.MAX_VALUE && maxPages > 0;
+        synchronized (this) {
+            for (int i = 0; i < result.length; i++) {
+                final Request entry = entries.get(i);
+                assert entry != null;
+                if (this.has(entry.url().hash())) {
+                    result[i] = "double occurrence in urlFileIndex";
+                    continue;
+                }
+                if (domCount) {
+                    // the entries of a list are checked against the domain counter here, where only the entries which are pushed are counted
+                    final String host = entry.url().getHost();
+                    if (profile.getCount(host).get() >= maxPages) {
+                        result[i] = CrawlStacker.CRAWL_REJECT_REASON_DOMAIN_COUNTER;
+                        continue;
+                    }
+                    profile.domInc(host);
+                }
+                this.getStack(entry.depth()).put(entry.toRow());
+            }
+        }
+        return result;
+    }
+
 
     @Override
     public Request pop(boolean delay, CrawlSwitchboard cs, RobotsTxt robots) throws IOException {
@@ -0,0 +1,221 @@
+/**
+ *  HostScheduler
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.crawler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * a schedule of hosts ordered by the time when a host may be accessed next.
+ * Hosts with the same due time are returned in the order in which they were scheduled, so that
+ * all hosts which are due are taken round-robin. All operations take O(log hosts) time.
+ * Hosts which were never accessed have no due time yet; they are kept in a separate fresh list and
+ * are ranked behind the hosts which are due: loading a new host means waiting for its robots.txt,
+ * therefore only a limited number of fresh hosts is taken in one round of pops while other hosts wait.
+ */
+public class HostScheduler {
+
+    /** the number of taken hosts in one round */
+    public static final int roundSize = 100;
+
+    /** the largest number of fresh hosts which are taken in one round if there are other hosts in the schedule */
+    public static final int freshPerRound = 10;
+
+    private static final class Slot implements Comparable<Slot> {
+        private final String hosthash;
+        private final long due;
+        private final long sequence;
+        private Slot(final String hosthash, final long due, final long sequence) {
+            this.hosthash = hosthash;
+            this.due = due;
+            this.sequence = sequence;
+        }
+        @Override
+        public int compareTo(final Slot other) {
+            if (this.due != other.due) return this.due < other.due ? -1 : 1;
+            return this.sequence < other.sequence ? -1 : this.sequence == other.sequence ? 0 : 1;
+        }
+    }
+
+    private final TreeSet<Slot> schedule;
+    private final Map<String, Slot> slots;
+    private final LinkedHashSet<String> fresh;
+    private long sequence;
+    private int roundTaken, roundFresh;
+
+    public HostScheduler() {
+        this.schedule = new TreeSet<Slot>();
+        this.slots = new HashMap<String, Slot>();
+        this.fresh = new LinkedHashSet<String>();
+        this.sequence = 0;
+        this.roundTaken = 0;
+        this.roundFresh = 0;
+    }
+
+    /**
+     * schedule a host; if the host is already scheduled, it is moved to the new time
+     * @param hosthash
+     * @param due the time in milliseconds when the host may be accessed next
+     */
+    public synchronized void schedule(final String hosthash, final long due) {
+        this.fresh.remove(hosthash);
+        final Slot old = this.slots.get(hosthash);
+        if (old != null) {
+            if (old.due == due) return;
+            this.schedule.remove(old);
+        }
+        final Slot slot = new Slot(hosthash, due, this.sequence++);
+        this.schedule.add(slot);
+        this.slots.put(hosthash, slot);
+    }
+
+    /**
+     * schedule a host only if it is not scheduled yet
+     * @param hosthash
+     * @param due the time in milliseconds when the host may be accessed next
+     * @return true if the host was added
+     */
+    public synchronized boolean add(final String hosthash, final long due) {
+        if (this.contains(hosthash)) return false;
+        this.schedule(hosthash, due);
+        return true;
+    }
+
+    /**
+     * add a host which was never accessed to the fresh list, if it is not scheduled yet
+     * @param hosthash
+     * @return true if the host was added
+     */
+    public synchronized boolean addFresh(final String hosthash) {
+        if (this.contains(hosthash)) return false;
+        this.fresh.add(hosthash);
+        return true;
+    }
+
+    /**
+     * @param hosthash
+     * @return true if the host was scheduled
+     */
+    public synchronized boolean remove(final String hosthash) {
+        if (this.fresh.remove(hosthash)) return true;
+        final Slot slot = this.slots.remove(hosthash);
+        if (slot == null) return false;
+        this.schedule.remove(slot);
+        return true;
+    }
+
+    /**
+     * remove a host from the schedule because it is taken for a pop; this counts for the current round
+     * @param hosthash
+     * @return true if the host was scheduled
+     */
+    public synchronized boolean take(final String hosthash) {
+        if (!this.remove(hosthash)) return false;
+        this.taken(false);
+        return true;
+    }
+
+    /**
+     * take a fresh host if the round allows it: the first host of a round may always be a fresh host,
+     * so that fresh hosts are not starved by the hosts in the schedule. Otherwise fresh hosts are only taken
+     * if no host is due, and not more than freshPerRound in a round unless the schedule is empty.
+     * @param dueHostExists true if a host in the schedule is due
+     * @return the fresh host which was added first or null if no fresh host shall be taken
+     */
+    public synchronized String takeFresh(final boolean dueHostExists) {
+        if (this.fresh.isEmpty()) return null;
+        if (this.roundTaken > 0) {
+            if (dueHostExists) return null;
+            if (this.roundFresh >= freshPerRound && !this.schedule.isEmpty()) return null;
+        }
+        final Iterator<String> i = this.fresh.iterator();
+        final String hosthash = i.next();
+        i.remove();
+        this.taken(true);
+        return hosthash;
+    }
+
+    private void taken(final boolean fresh) {
+        this.roundTaken++;
+        if (fresh) this.roundFresh++;
+        if (this.roundTaken >= roundSize) {
+            this.roundTaken = 0;
+            this.roundFresh = 0;
+        }
+    }
+
+    /**
+     * @return the host with the earliest due time or null if no host is scheduled with a due time
+     */
+    public synchronized String first() {
+        return this.schedule.isEmpty() ? null : this.schedule.first().hosthash;
+    }
+
+    /**
+     * @param count
+     * @return the first count hosts in the order of the due times
+     */
+    public synchronized List<String> first(final int count) {
+        final List<String> hosts = new ArrayList<String>(Math.min(count, this.schedule.size()));
+        for (final Slot slot: this.schedule) {
+            if (hosts.size() >= count) break;
+            hosts.add(slot.hosthash);
+        }
+        return hosts;
+    }
+
+    /**
+     * @param hosthash
+     * @return the due time of the host or Long.MIN_VALUE if the host is not scheduled or in the fresh list
+     */
+    public synchronized long due(final String hosthash) {
+        final Slot slot = this.slots.get(hosthash);
+        return slot == null ? Long.MIN_VALUE : slot.due;
+    }
+
+    public synchronized boolean contains(final String hosthash) {
+        return this.slots.containsKey(hosthash) || this.fresh.contains(hosthash);
+    }
+
+    /**
+     * @return the number of hosts in the schedule and in the fresh list
+     */
+    public synchronized int size() {
+        return this.slots.size() + this.fresh.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return this.slots.isEmpty() && this.fresh.isEmpty();
+    }
+
+    public synchronized void clear() {
+        this.schedule.clear();
+        this.slots.clear();
+        this.fresh.clear();
+        this.roundTaken = 0;
+        this.roundFresh = 0;
+    }
+
+}
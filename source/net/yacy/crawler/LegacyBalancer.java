@@ -273,6 +273,22 @@ public class LegacyBalancer implements Balancer {
         return null;
     }
 
+    @Override
+    public String[] push(final List<Request> entries, CrawlProfile profile, final RobotsTxt robots) throws IOException, SpaceExceededException {
+        final String[] result = new String[entries.size()];
+        final int maxPages = profile == null ? Integer.MAX_VALUE : profile.domMaxPages();
+        for (int i = 0; i < result.length; i++) {
+            final Request entry = entries.get(i);
+            // only the entries which are pushed are counted, see HostQueue.push(List, CrawlProfile, RobotsTxt)
+            if (maxPages != Integer.MAX_VALUE && maxPages > 0 && !this.has(entry.url().hash()) && profile.getCount(entry.url().getHost()).get() >= maxPages) {
+                result[i] = CrawlStacker.CRAWL_REJECT_REASON_DOMAIN_COUNTER;
+                continue;
+            }
+            result[i] = this.push(entry, profile, robots);
+        }
+        return result;
+    }
+
     /**
      * get a list of domains that are currently maintained as domain stacks
      * @return a map of clear text strings of host names to an integer array: {the size of the domain stack, guessed delta waiting time}
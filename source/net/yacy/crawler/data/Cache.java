@@ -431,4 +431,40 @@ public final class Cache {
     	final long total = totalRequests.get();
     	return total > 0 ? ((Cache.getHits() / ((double) total))) : 0.0 ;
     }
+    
+    /**
+     * @return the size in bytes of the uncompressed content in the write buffer of the cache
+     */
+    public static long getWriteBufferLength() {
+        return fileDB.getBufferLength();
+    }
+    
+    /**
+     * @return the maximum size in bytes of the write buffer of the cache
+     */
+    public static long getWriteBufferMaxLength() {
+        return fileDB.getMaxBufferLength();
+    }
+    
+    /**
+     * @return the number of contents which were not stored because the write buffer could not be locked within the lock timeout
+     */
+    public static long getDroppedStores() {
+        return fileDB.getDroppedInserts();
+    }
+    
+    /**
+     * @return the compression throughput of the cache content in bytes per second and compression thread
+     */
+    public static long getCompressionThroughput() {
+        return fileDB.getCompressionThroughput();
+    }
+    
+    /**
+     * @return the size of all compressed content relative to its uncompressed size
+     */
+    public static double getCompressionRatio() {
+        final long in = fileDB.getCompressedBytesIn();
+        return in > 0 ? ((double) fileDB.getCompressedBytesOut()) / in : 1.0;
+    }
 }
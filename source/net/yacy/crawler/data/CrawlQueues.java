@@ -57,9 +57,11 @@ import net.yacy.cora.protocol.ConnectionInfo;
 import net.yacy.cora.util.ConcurrentLog;
 import net.yacy.crawler.HarvestProcess;
 import net.yacy.crawler.data.NoticedURL.StackType;
+import net.yacy.crawler.retrieval.AsyncHTTPLoader;
 import net.yacy.crawler.retrieval.Request;
 import net.yacy.crawler.retrieval.Response;
 import net.yacy.crawler.robots.RobotsTxtEntry;
+import net.yacy.kelondro.util.IOThreadFactory;
 import net.yacy.kelondro.workflow.WorkflowJob;
 import net.yacy.peers.DHTSelection;
 import net.yacy.peers.Protocol;
@@ -79,6 +81,7 @@ public class CrawlQueues {
     private final Switchboard sb;
     private final Loader[] worker;
     private final ArrayBlockingQueue<Request> workerQueue;
+    private volatile AsyncHTTPLoader fetcher;
     private ArrayList<String> remoteCrawlProviderHashes;
 
     public  NoticedURL noticeURL;
@@ -94,6 +97,7 @@ public class CrawlQueues {
         /* We initialize workerQueue with the same capacity as worker array, because this same queue 
          * will be used to send POISON_REQUEST items consumed by all eventually running workers in the close() function*/
         this.workerQueue = new ArrayBlockingQueue<Request>(maxWorkers);
+        this.fetcher = null; // started on demand
         this.remoteCrawlProviderHashes = null;
 
         // start crawling management
@@ -157,13 +161,36 @@ public class CrawlQueues {
                 }
             }
         }
+        if (this.fetcher != null) this.fetcher.close();
         if (this.delegatedURL != null) this.delegatedURL.clear();
     }
 
+    /**
+     * @return the non-blocking loader for http requests if it is switched on, otherwise null
+     */
+    private AsyncHTTPLoader fetcher() {
+        if (!this.sb.getConfigBool(SwitchboardConstants.CRAWLER_FETCHER_ASYNC, SwitchboardConstants.CRAWLER_FETCHER_ASYNC_DEFAULT)) return null;
+        if (this.fetcher == null) synchronized (this) {
+            if (this.fetcher == null) try {
+                this.fetcher = new AsyncHTTPLoader(this.sb,
+                        this.sb.getConfigInt(SwitchboardConstants.CRAWLER_FETCHER_ASYNC_MAX, SwitchboardConstants.CRAWLER_FETCHER_ASYNC_MAX_DEFAULT),
+                        this.sb.getConfigInt(SwitchboardConstants.CRAWLER_FETCHER_ASYNC_MAX_PER_HOST, SwitchboardConstants.CRAWLER_FETCHER_ASYNC_MAX_PER_HOST_DEFAULT),
+                        this.sb.getConfigInt(SwitchboardConstants.CRAWLER_FETCHER_ASYNC_THREADS, SwitchboardConstants.CRAWLER_FETCHER_ASYNC_THREADS_DEFAULT),
+                        this.sb.getConfigInt(SwitchboardConstants.CRAWLER_FETCHER_ASYNC_WORKERS, SwitchboardConstants.CRAWLER_FETCHER_ASYNC_WORKERS_DEFAULT));
+            } catch (final IOException e) {
+                CrawlQueues.log.warn("cannot start the non-blocking loader, using loader threads: " + e.getMessage());
+                this.sb.setConfig(SwitchboardConstants.CRAWLER_FETCHER_ASYNC, false);
+                return null;
+            }
+        }
+        return this.fetcher;
+    }
+
     public void clear() {
         // wait for all workers to finish
         this.workerQueue.clear();
         for (final Loader w: this.worker) if (w != null) w.interrupt();
+        if (this.fetcher != null) this.fetcher.clear();
         if (this.remoteCrawlProviderHashes != null) this.remoteCrawlProviderHashes.clear();
         this.noticeURL.clear();
         if (this.delegatedURL != null) this.delegatedURL.clear();
@@ -181,13 +208,28 @@ public class CrawlQueues {
         //if (this.noticeURL.existsInStack(hash)) {
         //    return HarvestProcess.CRAWLER;
         //} // this is disabled because it prevents proper crawling of smb shares. The cause is unknown
-        for (final Request request: activeWorkerEntries().values()) {
-            if (Base64Order.enhancedCoder.equal(request.url().hash(), hash)) {
-                return HarvestProcess.WORKER;
-            }
+        if (isActive(hash)) {
+            return HarvestProcess.WORKER;
         }
         return null;
     }
+
+    /**
+     * @param hash
+     * @return true if the url is loaded by a worker
+     */
+    private boolean isActive(final byte[] hash) {
+        synchronized (this.worker) {
+            for (final Loader w: this.worker) {
+                if (w != null) {
+                    final Request r = w.loading();
+                    if (r != null && Base64Order.enhancedCoder.equal(r.url().hash(), hash)) return true;
+                }
+            }
+        }
+        final AsyncHTTPLoader fetcher = this.fetcher;
+        return fetcher != null && fetcher.isActive(hash);
+    }
     
     /**
      * count the number of same host names in the worker
@@ -197,11 +239,16 @@ public class CrawlQueues {
     public int hostcount(final String host) {
         if (host == null || host.length() == 0) return 0;
         int c = 0;
-        for (final DigestURL url: activeWorkerEntries().keySet()) {
-            if (host.equals(url.getHost())) {
-                c++;
+        synchronized (this.worker) {
+            for (final Loader w: this.worker) {
+                if (w != null) {
+                    final Request r = w.loading();
+                    if (r != null && host.equals(r.url().getHost())) c++;
+                }
             }
         }
+        final AsyncHTTPLoader fetcher = this.fetcher;
+        if (fetcher != null) c += fetcher.hostcount(host);
         return c;
     }
 
@@ -259,6 +306,10 @@ public class CrawlQueues {
                     if (r != null) map.put(r.url(), r);
                 }
             }
+            final AsyncHTTPLoader fetcher = this.fetcher;
+            if (fetcher != null) {
+                for (final Request r: fetcher.active()) map.put(r.url(), r);
+            }
             return map;
         }
     }
@@ -381,7 +432,10 @@ public class CrawlQueues {
                 if (urlEntry == null || urlEntry.url() == null) {
                     CrawlQueues.log.info(stats + ": urlEntry = null");
                 } else {
-                    if (!activeWorkerEntries().containsKey(urlEntry.url())) {
+                    if (!isActive(urlEntry.url().hash())) {
+                        this.sb.index.setSeen(urlEntry.url().hash()); // the CrawlStacker looks up loading urls only if they are in the seen filter
+                        final AsyncHTTPLoader fetcher = this.fetcher();
+                        if (fetcher != null && fetcher.accepts(urlEntry, profile) && fetcher.load(urlEntry, profile)) return;
                         try {
                             ensureLoaderRunning();
                             this.workerQueue.put(urlEntry);
@@ -434,6 +488,10 @@ public class CrawlQueues {
         if (this.workerQueue.remainingCapacity() == 0) {
             return "too many workers active: " + this.workerQueue.size();
         }
+        final AsyncHTTPLoader fetcher = this.fetcher;
+        if (fetcher != null && fetcher.isFull()) {
+            return "too many loads active: " + fetcher.size();
+        }
 
         final String cautionCause = this.sb.onlineCaution();
         if (cautionCause != null) {
@@ -715,24 +773,45 @@ public class CrawlQueues {
         }
     }
     
-    private final class Loader extends Thread {
+    /**
+     * a loader task which runs in its own thread; this is a virtual thread if these are switched on in {@link IOThreadFactory}
+     */
+    private final class Loader implements Runnable {
 
+        private final Thread thread;
         private Request request = null;
         private Loader() {
+            this.thread = IOThreadFactory.newThread("CrawlQueues.Loader(WAITING)", this);
         }
         
         public Request loading() {
             return request;
         }
 
+        public void start() {
+            this.thread.start();
+        }
+
+        public boolean isAlive() {
+            return this.thread.isAlive();
+        }
+
+        public void join(final long millis) throws InterruptedException {
+            this.thread.join(millis);
+        }
+
+        public void interrupt() {
+            this.thread.interrupt();
+        }
+
         @Override
         public void run() {
-            this.setPriority(Thread.MIN_PRIORITY); // http requests from the crawler should not cause that other functions work worse
+            this.thread.setPriority(Thread.MIN_PRIORITY); // http requests from the crawler should not cause that other functions work worse; virtual threads ignore this
             try {
                 while ((request = CrawlQueues.this.workerQueue.poll(10, TimeUnit.SECONDS)) != POISON_REQUEST) {
                     if (request == null) break; // we run this only for a specific time and then let the process die to clear up resources
                     request.setStatus("worker-initialized", WorkflowJob.STATUS_INITIATED);
-                    this.setName("CrawlQueues.Loader(" + request.url().toNormalform(false) + ")");
+                    this.thread.setName("CrawlQueues.Loader(" + request.url().toNormalform(false) + ")");
                     CrawlProfile profile = CrawlQueues.this.sb.crawler.get(UTF8.getBytes(request.profileHandle()));
                     try {
                         // checking robots.txt for http(s) resources
@@ -792,7 +871,7 @@ public class CrawlQueues {
                         request.setStatus("worker-exception", WorkflowJob.STATUS_FINISHED);
                     } finally {
                         request = null;
-                        this.setName("CrawlQueues.Loader(WAITING)");
+                        this.thread.setName("CrawlQueues.Loader(WAITING)");
                     }
                     profile = null;
                 }
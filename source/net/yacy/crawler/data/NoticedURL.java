@@ -30,6 +30,7 @@ package net.yacy.crawler.data;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -207,6 +208,39 @@ public class NoticedURL {
         }
     }
 
+    /**
+     * push a list of crawl requests with the same profile on one of the different crawl stacks
+     * @param stackType
+     * @param entries
+     * @return an array with one element for each entry: null if the push was successful or a String explaining what went wrong
+     */
+    public String[] push(final StackType stackType, final List<Request> entries, CrawlProfile profile, final RobotsTxt robots) {
+        try {
+            switch (stackType) {
+                case LOCAL:  return this.coreStack.push(entries, profile, robots);
+                case GLOBAL: return this.limitStack.push(entries, profile, robots);
+                case REMOTE: {
+                    if (this.remoteStack == null) {
+                        this.initRemoteStack();
+                    }
+                    if (this.remoteStack != null) return this.remoteStack.push(entries, profile, robots);
+                    return errors(entries.size(), "remote crawler stack deactivated");
+                }
+                case NOLOAD: return this.noloadStack.push(entries, profile, robots);
+                default:     return errors(entries.size(), "stack type unknown");
+            }
+        } catch (final Exception er) {
+            ConcurrentLog.logException(er);
+            return errors(entries.size(), "error pushing onto the crawl stack: " + er.getMessage());
+        }
+    }
+
+    private static String[] errors(final int count, final String error) {
+        final String[] result = new String[count];
+        Arrays.fill(result, error);
+        return result;
+    }
+
     protected Request get(final byte[] urlhash) {
         Request entry = null;
         try {if ((entry = this.noloadStack.get(urlhash)) != null) return entry;} catch (final IOException e) {}
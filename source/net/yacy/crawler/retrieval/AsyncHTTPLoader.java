@@ -0,0 +1,641 @@
+/**
+ *  AsyncHTTPLoader
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.crawler.retrieval;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.http.HttpClientTransportOverHTTP;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.util.HttpCookieStore;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import net.yacy.cora.document.encoding.ASCII;
+import net.yacy.cora.document.id.DigestURL;
+import net.yacy.cora.federate.solr.FailCategory;
+import net.yacy.cora.federate.yacy.CacheStrategy;
+import net.yacy.cora.protocol.ClientIdentification;
+import net.yacy.cora.protocol.HeaderFramework;
+import net.yacy.cora.protocol.RequestHeader;
+import net.yacy.cora.protocol.ResponseHeader;
+import net.yacy.cora.util.ConcurrentLog;
+import net.yacy.crawler.CrawlSwitchboard;
+import net.yacy.crawler.data.Cache;
+import net.yacy.crawler.data.CrawlProfile;
+import net.yacy.crawler.data.Latency;
+import net.yacy.crawler.robots.RobotsTxt;
+import net.yacy.crawler.robots.RobotsTxtEntry;
+import net.yacy.kelondro.io.ByteCount;
+import net.yacy.kelondro.util.IOThreadFactory;
+import net.yacy.kelondro.workflow.WorkflowJob;
+import net.yacy.repository.Blacklist.BlacklistType;
+import net.yacy.search.Switchboard;
+import net.yacy.search.SwitchboardConstants;
+import net.yacy.server.http.AlternativeDomainNames;
+
+/**
+ * a non-blocking loader for crawl requests over http and https. All requests share one jetty http client
+ * which serves the connections with a small thread pool, so that the number of concurrent loads is not bound
+ * to the number of threads. The number of loads at the same time is limited globally and for each host;
+ * requests for a host without a free slot wait in a queue of that host.
+ * Before a request is sent, it is checked against the robots.txt and the blacklist, and it is delayed until
+ * the latency of the host allows an access. Loaded documents are handed to the indexer.
+ * Requests which may be answered from the cache are left to the blocking loader.
+ * The threads of the http client only receive the responses; all steps which may block (robots.txt loads,
+ * lookups for the request header, storage in the cache, the hand-over to the indexer) are done by a
+ * separate pool of worker threads, so that a full indexer queue or many new hosts do not stop the connections.
+ */
+public final class AsyncHTTPLoader {
+
+    private final static ConcurrentLog log = new ConcurrentLog("CRAWLER");
+
+    /**
+     * the services of the switchboard which are used by the loader
+     */
+    interface Context {
+        /** @return the robots.txt entry of the host if it is already loaded, otherwise null */
+        RobotsTxtEntry robotsEntry(DigestURL url, ClientIdentification.Agent agent);
+        /** load the robots.txt of the host; this blocks */
+        void loadRobots(DigestURL url, ClientIdentification.Agent agent);
+        boolean isBlacklisted(DigestURL url);
+        /** @return the time in milliseconds until the host may be accessed again */
+        long waitingRemaining(DigestURL url, ClientIdentification.Agent agent);
+        /** @return the url with a resolved yacy domain name or the url itself */
+        DigestURL resolve(DigestURL url) throws MalformedURLException;
+        RequestHeader requestHeader(Request request, ClientIdentification.Agent agent) throws IOException;
+        /** @return the maximum size of a document or -1 if it is not limited */
+        int maxFileSize(DigestURL url);
+        void error(DigestURL url, int depth, CrawlProfile profile, FailCategory category, String reason, int httpcode);
+        DigestURL redirectURL(Request request, CrawlProfile profile, DigestURL url, String statusline, int statusCode, ResponseHeader responseHeader, String requestURLString) throws IOException;
+        boolean followRedirects();
+        /** @return null if the request was stacked, otherwise the reason why it was rejected */
+        String stackCrawl(Request request);
+        void storeCache(Response response) throws IOException;
+        /** @return null if the response was handed to the indexer, otherwise the reason why it was not */
+        String toIndexer(Response response);
+    }
+
+    /** the context of a running YaCy */
+    private static final class SwitchboardContext implements Context {
+        private final Switchboard sb;
+        private final HTTPLoader httpLoader;
+        private SwitchboardContext(final Switchboard sb) {
+            this.sb = sb;
+            this.httpLoader = new HTTPLoader(sb, log);
+        }
+        @Override
+        public RobotsTxtEntry robotsEntry(final DigestURL url, final ClientIdentification.Agent agent) {
+            return this.sb.robots.getEntry(RobotsTxt.getHostPort(url), agent, false);
+        }
+        @Override
+        public void loadRobots(final DigestURL url, final ClientIdentification.Agent agent) {
+            this.sb.robots.getEntry(url, agent);
+        }
+        @Override
+        public boolean isBlacklisted(final DigestURL url) {
+            return Switchboard.urlBlacklist.isListed(BlacklistType.CRAWLER, url.getHost().toLowerCase(Locale.ROOT), url.getFile());
+        }
+        @Override
+        public long waitingRemaining(final DigestURL url, final ClientIdentification.Agent agent) {
+            return Latency.waitingRemaining(url, this.sb.robots, agent);
+        }
+        @Override
+        public DigestURL resolve(final DigestURL url) throws MalformedURLException {
+            // resolve yacy and yacyh domains
+            final AlternativeDomainNames yacyResolver = this.sb.peers;
+            if (yacyResolver != null) {
+                final String yAddress = yacyResolver.resolve(url.getHost());
+                if (yAddress != null) return new DigestURL(url.getProtocol() + "://" + yAddress + url.getFile());
+            }
+            return url;
+        }
+        @Override
+        public RequestHeader requestHeader(final Request request, final ClientIdentification.Agent agent) throws IOException {
+            return HTTPLoader.createRequestheader(this.sb, request, agent);
+        }
+        @Override
+        public int maxFileSize(final DigestURL url) {
+            return this.sb.loader.protocolMaxFileSize(url);
+        }
+        @Override
+        public void error(final DigestURL url, final int depth, final CrawlProfile profile, final FailCategory category, final String reason, final int httpcode) {
+            this.sb.crawlQueues.errorURL.push(url, depth, profile, category, reason, httpcode);
+        }
+        @Override
+        public DigestURL redirectURL(final Request request, final CrawlProfile profile, final DigestURL url, final String statusline, final int statusCode, final ResponseHeader responseHeader, final String requestURLString) throws IOException {
+            return this.httpLoader.extractRedirectURL(request, profile, url, statusline, statusCode, responseHeader, requestURLString);
+        }
+        @Override
+        public boolean followRedirects() {
+            return this.sb.getConfigBool(SwitchboardConstants.CRAWLER_FOLLOW_REDIRECTS, true);
+        }
+        @Override
+        public String stackCrawl(final Request request) {
+            return this.sb.crawlStacker.stackCrawl(request);
+        }
+        @Override
+        public void storeCache(final Response response) throws IOException {
+            Cache.store(response.url(), response.getResponseHeader(), response.getContent());
+        }
+        @Override
+        public String toIndexer(final Response response) {
+            return this.sb.toIndexer(response);
+        }
+    }
+
+    /** the slots of a host: the number of requests in admission or loading and the requests which wait for a slot */
+    private static final class HostSlots {
+        private int running = 0;
+        private final ArrayDeque<Task> waiting = new ArrayDeque<Task>();
+    }
+
+    private static final class Task {
+        private final Request request;
+        private final String urlhash;
+        private final String host;
+        private final CrawlProfile profile;
+        private final ClientIdentification.Agent agent;
+        private int retryCount = HTTPLoader.DEFAULT_CRAWLING_RETRY_COUNT;
+        private boolean robotsLoaded = false;
+        private long start = 0;
+        private Task(final Request request, final CrawlProfile profile) {
+            this.request = request;
+            this.urlhash = ASCII.String(request.url().hash());
+            this.host = request.url().getHost();
+            this.profile = profile;
+            this.agent = profile.getAgent();
+        }
+    }
+
+    private final Context context;
+    private final HttpClient client;
+    private final ThreadPoolExecutor workers;
+    private final int timeout;
+    private final int maxInFlight;
+    private final int maxPerHost;
+    private final Semaphore inFlight;
+    private final Map<String, Task> active;
+    private final Map<String, HostSlots> hosts;
+
+    /**
+     * create and start the loader
+     * @param sb
+     * @param maxInFlight the maximum number of requests which are loaded at the same time
+     * @param maxPerHost the maximum number of requests to the same host which are loaded at the same time
+     * @param threads the number of threads of the http client
+     * @param workers the number of threads for the blocking steps before and after a load
+     * @throws IOException if the http client cannot be started
+     */
+    public AsyncHTTPLoader(final Switchboard sb, final int maxInFlight, final int maxPerHost, final int threads, final int workers) throws IOException {
+        this(new SwitchboardContext(sb), (int) sb.getConfigLong("crawler.clientTimeout", 30000), maxInFlight, maxPerHost, threads, workers);
+    }
+
+    AsyncHTTPLoader(final Context context, final int timeout, final int maxInFlight, final int maxPerHost, final int threads, final int workers) throws IOException {
+        this.context = context;
+        this.timeout = timeout;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.maxPerHost = Math.max(1, maxPerHost);
+        this.inFlight = new Semaphore(this.maxInFlight);
+        this.active = new ConcurrentHashMap<String, Task>();
+        this.hosts = new HashMap<String, HostSlots>();
+        // a task waits for at most one step in the worker queue, so the queue never holds more than maxInFlight steps
+        this.workers = new ThreadPoolExecutor(Math.max(1, workers), Math.max(1, workers), 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(this.maxInFlight), new IOThreadFactory("AsyncHTTPLoader.worker"), new ThreadPoolExecutor.CallerRunsPolicy());
+        this.workers.allowCoreThreadTimeOut(true);
+
+        // like the HTTPClient, the crawler accepts all certificates
+        final SslContextFactory.Client sslContextFactory = new SslContextFactory.Client(true);
+        sslContextFactory.setEndpointIdentificationAlgorithm(null);
+        this.client = new HttpClient(new HttpClientTransportOverHTTP(1), sslContextFactory);
+        final QueuedThreadPool pool = new QueuedThreadPool(Math.max(4, threads), 2);
+        pool.setName("AsyncHTTPLoader");
+        pool.setDaemon(true);
+        this.client.setExecutor(pool);
+        this.client.setMaxConnectionsPerDestination(this.maxPerHost);
+        this.client.setMaxRequestsQueuedPerDestination(this.maxInFlight);
+        this.client.setFollowRedirects(false); // redirects are handled like in the HTTPLoader
+        this.client.setConnectTimeout(this.timeout);
+        this.client.setIdleTimeout(this.timeout);
+        this.client.setUserAgentField(null); // the agent is set in the request header
+        this.client.setCookieStore(new HttpCookieStore.Empty());
+        try {
+            this.client.start();
+        } catch (final Exception e) {
+            this.workers.shutdown();
+            throw new IOException("cannot start http client: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param request
+     * @param profile the crawl profile of the request
+     * @return true if the request can be loaded with this loader: a http or https request which shall not be answered from the cache
+     */
+    public boolean accepts(final Request request, final CrawlProfile profile) {
+        final DigestURL url = request.url();
+        if (profile == null || !(url.isHTTP() || url.isHTTPS())) return false;
+        final CacheStrategy cacheStrategy = profile.cacheStrategy();
+        if (cacheStrategy == CacheStrategy.CACHEONLY) return false;
+        return cacheStrategy == CacheStrategy.NOCACHE || url.isLocal() || !Cache.has(url.hash());
+    }
+
+    /**
+     * start the load of a request. The loaded document is handed to the indexer; errors are written to the error cache.
+     * @param request
+     * @param profile the crawl profile of the request
+     * @return false if the maximum number of loads is reached and the request was not taken
+     */
+    public boolean load(final Request request, final CrawlProfile profile) {
+        if (!this.inFlight.tryAcquire()) return false;
+        final Task task = new Task(request, profile);
+        this.active.put(task.urlhash, task);
+        request.setStatus("worker-initialized", WorkflowJob.STATUS_INITIATED);
+        boolean start;
+        synchronized (this.hosts) {
+            HostSlots slots = this.hosts.get(task.host);
+            if (slots == null) {
+                slots = new HostSlots();
+                this.hosts.put(task.host, slots);
+            }
+            start = slots.running < this.maxPerHost;
+            if (start) slots.running++; else slots.waiting.add(task);
+        }
+        if (start) this.admit(task);
+        return true;
+    }
+
+    /**
+     * check the robots.txt, the blacklist and the latency of the host and send the request when the host may be accessed
+     */
+    private void admit(final Task task) {
+        try {
+            final DigestURL url = task.request.url();
+            task.request.setStatus("worker-checkingrobots", WorkflowJob.STATUS_STARTED);
+            final RobotsTxtEntry robotsEntry = this.context.robotsEntry(url, task.agent);
+            if (robotsEntry == null && !task.robotsLoaded) {
+                // the robots.txt must be loaded first; that blocks, therefore it is done by a worker
+                task.robotsLoaded = true;
+                this.workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        AsyncHTTPLoader.this.context.loadRobots(url, task.agent);
+                        AsyncHTTPLoader.this.admit(task);
+                    }
+                });
+                return;
+            }
+            if (robotsEntry != null && robotsEntry.isDisallowed(url)) {
+                this.context.error(url, task.request.depth(), task.profile, FailCategory.FINAL_ROBOTS_RULE, "denied by robots.txt", -1);
+                task.request.setStatus("worker-disallowed", WorkflowJob.STATUS_FINISHED);
+                this.finish(task);
+                return;
+            }
+            final String host = url.getHost();
+            if (host == null || host.length() < 2) throw new IOException("host is not well-formed: '" + host + "'");
+            if (this.context.isBlacklisted(url)) {
+                this.context.error(url, task.request.depth(), task.profile, FailCategory.FINAL_LOAD_CONTEXT, "url in blacklist", -1);
+                throw new IOException("CRAWLER Rejecting URL '" + url.toString() + "'. URL is in blacklist.$");
+            }
+            final long waiting = this.context.waitingRemaining(url, task.agent);
+            final Runnable send = new Runnable() {
+                @Override
+                public void run() {
+                    AsyncHTTPLoader.this.send(task);
+                }
+            };
+            if (waiting > 0) {
+                // the scheduler thread of the client only hands the request to a worker
+                this.client.getScheduler().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        AsyncHTTPLoader.this.workers.execute(send);
+                    }
+                }, waiting, TimeUnit.MILLISECONDS);
+            } else {
+                send.run();
+            }
+        } catch (final IOException e) {
+            this.fail(task, "load error - " + e.getMessage());
+        } catch (final RuntimeException e) {
+            this.context.error(task.request.url(), task.request.depth(), task.profile, FailCategory.TEMPORARY_NETWORK_FAILURE, e.getMessage() + " - in worker", -1);
+            task.request.setStatus("worker-exception", WorkflowJob.STATUS_FINISHED);
+            this.finish(task);
+        }
+    }
+
+    private void send(final Task task) {
+        try {
+            final Request request = task.request;
+            request.setStatus("loading", WorkflowJob.STATUS_RUNNING);
+            final DigestURL target = this.context.resolve(request.url());
+
+            final RequestHeader requestHeader = this.context.requestHeader(request, task.agent);
+            final org.eclipse.jetty.client.api.Request httpRequest = this.client.newRequest(target.toNormalform(true))
+                    .method(HttpMethod.GET)
+                    .timeout(this.timeout, TimeUnit.MILLISECONDS);
+            for (final Map.Entry<String, String> entry: requestHeader.entrySet()) {
+                // the client asks for the encodings which it can decode itself
+                if (HeaderFramework.ACCEPT_ENCODING.equalsIgnoreCase(entry.getKey())) continue;
+                httpRequest.header(entry.getKey(), entry.getValue());
+            }
+            final int maxFileSize = this.context.maxFileSize(target);
+
+            Latency.updateBeforeLoad(request.url());
+            task.start = System.currentTimeMillis();
+            httpRequest.send(new BufferingResponseListener(maxFileSize < 0 ? Integer.MAX_VALUE : maxFileSize) {
+                /** true if the listener aborts the response because the document exceeds the maximum file size */
+                private boolean oversized = false;
+                private long received = 0;
+
+                @Override
+                public void onHeaders(final org.eclipse.jetty.client.api.Response response) {
+                    if (maxFileSize >= 0 && response.getHeaders().getLongField(HttpHeader.CONTENT_LENGTH.asString()) > maxFileSize) this.oversized = true;
+                    super.onHeaders(response);
+                }
+
+                @Override
+                public void onContent(final org.eclipse.jetty.client.api.Response response, final ByteBuffer buffer) {
+                    this.received += buffer.remaining();
+                    if (maxFileSize >= 0 && this.received > maxFileSize) this.oversized = true;
+                    super.onContent(response, buffer);
+                }
+
+                @Override
+                public void onComplete(final Result result) {
+                    // the response is processed by a worker, this thread of the client must not block
+                    final byte[] content = this.getContent();
+                    final boolean oversized = this.oversized;
+                    AsyncHTTPLoader.this.workers.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            AsyncHTTPLoader.this.complete(task, target, requestHeader, result, content, oversized ? maxFileSize : -1);
+                        }
+                    });
+                }
+            });
+        } catch (final IOException e) {
+            this.fail(task, "load error - " + e.getMessage());
+        } catch (final RuntimeException e) {
+            this.context.error(task.request.url(), task.request.depth(), task.profile, FailCategory.TEMPORARY_NETWORK_FAILURE, e.getMessage() + " - in worker", -1);
+            task.request.setStatus("worker-exception", WorkflowJob.STATUS_FINISHED);
+            this.finish(task);
+        }
+    }
+
+    /**
+     * process a finished response in a worker thread
+     * @param exceededFileSize the maximum file size if the document exceeded it and was not loaded, -1 otherwise
+     */
+    private void complete(final Task task, final DigestURL url, final RequestHeader requestHeader, final Result result, final byte[] content, final int exceededFileSize) {
+        final Request request = task.request;
+        Latency.updateAfterLoad(request.url(), System.currentTimeMillis() - task.start);
+        String error = null;
+        try {
+            if (exceededFileSize >= 0) {
+                // a final error as in the HTTPLoader, the document is not loaded again
+                final int statusCode = result.getResponse() == null ? -1 : result.getResponse().getStatus();
+                this.context.error(request.url(), request.depth(), task.profile, FailCategory.FINAL_PROCESS_CONTEXT, "file size limit exceeded", statusCode);
+                throw new IOException("REJECTED URL " + request.url() + " because file size exceeds max filesize limit of " + exceededFileSize + " bytes. (GET)$");
+            }
+            if (result.isFailed()) throw new IOException(String.valueOf(result.getFailure().getMessage()));
+            final Response response = this.response(task, url, requestHeader, result.getResponse(), content);
+            if (response == null) return; // the redirect is loaded with the same task
+
+            // store the content to the cache as the LoaderDispatcher does
+            if (task.profile.storeHTCache()) {
+                final String storeError = response.shallStoreCacheForCrawler();
+                if (storeError == null) {
+                    try {
+                        this.context.storeCache(response);
+                    } catch (final IOException e) {
+                        log.warn("cannot write " + response.url() + " to Cache (3): " + e.getMessage(), e);
+                    }
+                } else {
+                    log.warn("cannot write " + response.url() + " to Cache (4): " + storeError);
+                }
+            }
+
+            request.setStatus("loaded", WorkflowJob.STATUS_RUNNING);
+            final String storedFailMessage = this.context.toIndexer(response);
+            request.setStatus("enqueued-" + ((storedFailMessage == null) ? "ok" : "fail"), WorkflowJob.STATUS_FINISHED);
+            error = (storedFailMessage == null) ? null : "not enqueued to indexer: " + storedFailMessage;
+        } catch (final IOException e) {
+            request.setStatus("error", WorkflowJob.STATUS_FINISHED);
+            if (log.isFine()) log.fine("problem loading " + request.url().toString() + ": " + e.getMessage());
+            error = "load error - " + e.getMessage();
+        } catch (final RuntimeException e) {
+            this.context.error(request.url(), request.depth(), task.profile, FailCategory.TEMPORARY_NETWORK_FAILURE, e.getMessage() + " - in worker", -1);
+            request.setStatus("worker-exception", WorkflowJob.STATUS_FINISHED);
+            this.finish(task);
+            return;
+        }
+        if (error == null) {
+            request.setStatus("worker-processed", WorkflowJob.STATUS_FINISHED);
+            this.finish(task);
+        } else {
+            this.fail(task, error);
+        }
+    }
+
+    /**
+     * evaluate the http response like the HTTPLoader
+     * @return the response or null if a redirect is followed
+     * @throws IOException if the document cannot be indexed; the message ends with "$" if the error is already in the error cache
+     */
+    private Response response(final Task task, final DigestURL url, final RequestHeader requestHeader, final org.eclipse.jetty.client.api.Response httpResponse, final byte[] content) throws IOException {
+        final Request request = task.request;
+        final CrawlProfile profile = task.profile;
+        final int statusCode = httpResponse.getStatus();
+        final ResponseHeader responseHeader = responseHeader(httpResponse);
+        final String statusline = httpResponse.getVersion() + " " + statusCode + " " + httpResponse.getReason();
+        final String requestURLString = request.url().toNormalform(true);
+
+        if (statusCode > 299 && statusCode < 310) {
+            final DigestURL redirectionUrl = this.context.redirectURL(request, profile, url, statusline, statusCode, responseHeader, requestURLString);
+            if (!this.context.followRedirects()) {
+                this.context.error(request.url(), request.depth(), profile, FailCategory.FINAL_PROCESS_CONTEXT, "redirection not wanted", statusCode);
+                throw new IOException("REJECTED UNWANTED REDIRECTION '" + statusline + "' for URL '" + requestURLString + "'$");
+            }
+            if (!CrawlSwitchboard.DEFAULT_PROFILES.contains(profile.name())) {
+                // put redirect url on the crawler queue to repeat a double-check
+                final Request redirectedRequest = new Request(request.initiator(),
+                        redirectionUrl,
+                        request.referrerhash(),
+                        request.name(),
+                        request.appdate(),
+                        request.profileHandle(),
+                        request.depth(),
+                        request.timezoneOffset());
+                final String rejectReason = this.context.stackCrawl(redirectedRequest);
+                if (rejectReason != null) {
+                    throw new IOException("CRAWLER Redirect of URL=" + requestURLString + " aborted. Reason : " + rejectReason);
+                }
+                throw new IOException("CRAWLER Redirect of URL=" + requestURLString + " to " + redirectionUrl.toNormalform(false) + " placed on crawler queue for double-check");
+            }
+            if (redirectionUrl.equals(url) || --task.retryCount < 0) {
+                this.context.error(request.url(), request.depth(), profile, FailCategory.TEMPORARY_NETWORK_FAILURE, "retry counter exceeded", -1);
+                throw new IOException("retry counter exceeded for URL " + request.url().toString() + ". Processing aborted.$");
+            }
+            // load the redirect with the slot of this task
+            request.redirectURL(redirectionUrl);
+            task.robotsLoaded = false;
+            this.admit(task);
+            return null;
+        }
+        if (statusCode == 200 || statusCode == 203) {
+            ByteCount.addAccountCount(ByteCount.CRAWLER, content.length);
+            return new Response(request, requestHeader, responseHeader, profile, false, content);
+        }
+        // if the response has not the right response type then reject file
+        this.context.error(request.url(), request.depth(), profile, FailCategory.TEMPORARY_NETWORK_FAILURE, "wrong http status code", statusCode);
+        throw new IOException("REJECTED WRONG STATUS TYPE '" + statusline + "' for URL '" + requestURLString + "'$");
+    }
+
+    private static ResponseHeader responseHeader(final org.eclipse.jetty.client.api.Response httpResponse) {
+        final ResponseHeader responseHeader = new ResponseHeader(httpResponse.getStatus());
+        final String encoding = httpResponse.getHeaders().get(HttpHeader.CONTENT_ENCODING);
+        // the client decodes gzip content; then the encoding and the length of the transfer do not apply to the content
+        final boolean decoded = encoding != null && encoding.trim().equalsIgnoreCase("gzip");
+        for (final HttpField field: httpResponse.getHeaders()) {
+            if (decoded && (field.getHeader() == HttpHeader.CONTENT_ENCODING || field.getHeader() == HttpHeader.CONTENT_LENGTH)) continue;
+            responseHeader.add(field.getName(), field.getValue());
+        }
+        return responseHeader;
+    }
+
+    /**
+     * write an error to the error cache unless the message ends with "$", which means that it is already there, and finish the task
+     */
+    private void fail(final Task task, String error) {
+        if (error.endsWith("$")) {
+            error = error.substring(0, error.length() - 1).trim();
+        } else {
+            this.context.error(task.request.url(), task.request.depth(), task.profile, FailCategory.TEMPORARY_NETWORK_FAILURE, "cannot load: " + error, -1);
+        }
+        task.request.setStatus("worker-error", WorkflowJob.STATUS_FINISHED);
+        this.finish(task);
+    }
+
+    /**
+     * release the slots of a task and admit the next waiting request of the host
+     */
+    private void finish(final Task task) {
+        this.active.remove(task.urlhash);
+        this.inFlight.release();
+        Task next = null;
+        synchronized (this.hosts) {
+            final HostSlots slots = this.hosts.get(task.host);
+            if (slots != null) {
+                next = slots.waiting.poll();
+                if (next == null && --slots.running <= 0) this.hosts.remove(task.host);
+            }
+        }
+        if (next != null) this.admit(next);
+    }
+
+    /**
+     * @return the requests which are loaded or wait for a slot
+     */
+    public Collection<Request> active() {
+        final List<Request> requests = new ArrayList<Request>(this.active.size());
+        for (final Task task: this.active.values()) requests.add(task.request);
+        return requests;
+    }
+
+    /**
+     * @param urlhash
+     * @return true if the request of the url is loaded or waits for a slot
+     */
+    public boolean isActive(final byte[] urlhash) {
+        return this.active.containsKey(ASCII.String(urlhash));
+    }
+
+    /**
+     * @param host
+     * @return the number of requests to the host which are loaded or wait for a slot
+     */
+    public int hostcount(final String host) {
+        synchronized (this.hosts) {
+            final HostSlots slots = this.hosts.get(host);
+            return slots == null ? 0 : slots.running + slots.waiting.size();
+        }
+    }
+
+    /**
+     * @return the number of requests which are loaded or wait for a slot
+     */
+    public int size() {
+        return this.maxInFlight - this.inFlight.availablePermits();
+    }
+
+    /**
+     * @return true if no more requests are taken
+     */
+    public boolean isFull() {
+        return this.inFlight.availablePermits() == 0;
+    }
+
+    /**
+     * remove all requests which wait for a slot; requests which are loaded are finished
+     */
+    public void clear() {
+        final List<Task> removed = new ArrayList<Task>();
+        synchronized (this.hosts) {
+            for (final HostSlots slots: this.hosts.values()) {
+                removed.addAll(slots.waiting);
+                slots.waiting.clear();
+            }
+        }
+        for (final Task task: removed) {
+            this.active.remove(task.urlhash);
+            this.inFlight.release();
+        }
+    }
+
+    public void close() {
+        this.clear();
+        try {
+            this.client.stop();
+        } catch (final Exception e) {
+            log.warn("cannot stop http client: " + e.getMessage());
+        }
+        this.workers.shutdown();
+    }
+
+}
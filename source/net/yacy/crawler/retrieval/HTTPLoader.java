@@ -137,7 +137,7 @@ public final class HTTPLoader {
         }
 
         // create a request header
-        final RequestHeader requestHeader = createRequestheader(request, agent);
+        final RequestHeader requestHeader = createRequestheader(this.sb, request, agent);
 
         // HTTP-Client
         try (final HTTPClient client = new HTTPClient(agent)) {
@@ -269,6 +269,19 @@ public final class HTTPLoader {
     private DigestURL extractRedirectURL(final Request request, CrawlProfile profile, DigestURL url,
             final StatusLine statusline, final ResponseHeader responseHeader, String requestURLString)
                     throws IOException {
+        return extractRedirectURL(request, profile, url, statusline.toString(), statusline.getStatusCode(), responseHeader, requestURLString);
+    }
+
+    /**
+     * Extract redirect URL from response header. Status code is supposed to be between 299 and 310. Parameters must not be null.
+     * @param statusline the status line of the response, for log and error messages
+     * @param statusCode the status code of the response
+     * @return redirect URL
+     * @throws IOException when an error occured
+     */
+    DigestURL extractRedirectURL(final Request request, CrawlProfile profile, DigestURL url,
+            final String statusline, final int statusCode, final ResponseHeader responseHeader, String requestURLString)
+                    throws IOException {
         // read redirection URL
         String redirectionUrlString = responseHeader.get(HeaderFramework.LOCATION);
         redirectionUrlString = redirectionUrlString == null ? "" : redirectionUrlString.trim();
@@ -276,7 +289,7 @@ public final class HTTPLoader {
         if (redirectionUrlString.isEmpty()) {
             this.sb.crawlQueues.errorURL.push(request.url(), request.depth(), profile,
                     FailCategory.TEMPORARY_NETWORK_FAILURE,
-                    "no redirection url provided, field '" + HeaderFramework.LOCATION + "' is empty", statusline.getStatusCode());
+                    "no redirection url provided, field '" + HeaderFramework.LOCATION + "' is empty", statusCode);
             throw new IOException("REJECTED EMTPY REDIRECTION '" + statusline
                     + "' for URL '" + requestURLString + "'$");
         }
@@ -293,36 +306,37 @@ public final class HTTPLoader {
 
         if (this.sb.getConfigBool(SwitchboardConstants.CRAWLER_RECORD_REDIRECTS, true)) {
             this.sb.crawlQueues.errorURL.push(request.url(), request.depth(), profile,
-                    FailCategory.FINAL_REDIRECT_RULE, "redirect to " + redirectionUrlString, statusline.getStatusCode());
+                    FailCategory.FINAL_REDIRECT_RULE, "redirect to " + redirectionUrlString, statusCode);
         }
         return redirectionUrl;
     }
 
     /**
      * Create request header for loading content.
+     * @param sb the switchboard with the crawler configuration
      * @param request search request
      * @param agent agent identification information
      * @return a request header
      * @throws IOException when an error occured
      */
-    private RequestHeader createRequestheader(final Request request, final ClientIdentification.Agent agent)
+    static RequestHeader createRequestheader(final Switchboard sb, final Request request, final ClientIdentification.Agent agent)
             throws IOException {
         final RequestHeader requestHeader = new RequestHeader();
         requestHeader.put(HeaderFramework.USER_AGENT, agent.userAgent);
         if (request.referrerhash() != null) {
-                    String refererURL = this.sb.getURL(request.referrerhash());
+                    String refererURL = sb.getURL(request.referrerhash());
                     if (refererURL != null) {
                         requestHeader.put(RequestHeader.REFERER, refererURL);
                     }
         }
 
-        requestHeader.put(HeaderFramework.ACCEPT, this.sb.getConfig("crawler.http.accept", DEFAULT_ACCEPT));
+        requestHeader.put(HeaderFramework.ACCEPT, sb.getConfig("crawler.http.accept", DEFAULT_ACCEPT));
         requestHeader.put(HeaderFramework.ACCEPT_LANGUAGE,
-                this.sb.getConfig("crawler.http.acceptLanguage", DEFAULT_LANGUAGE));
+                sb.getConfig("crawler.http.acceptLanguage", DEFAULT_LANGUAGE));
         requestHeader.put(HeaderFramework.ACCEPT_CHARSET,
-                this.sb.getConfig("crawler.http.acceptCharset", DEFAULT_CHARSET));
+                sb.getConfig("crawler.http.acceptCharset", DEFAULT_CHARSET));
         requestHeader.put(HeaderFramework.ACCEPT_ENCODING,
-                this.sb.getConfig("crawler.http.acceptEncoding", DEFAULT_ENCODING));
+                sb.getConfig("crawler.http.acceptEncoding", DEFAULT_ENCODING));
         return requestHeader;
     }
 
@@ -362,7 +376,7 @@ public final class HTTPLoader {
         Response response = null;
 
         // create a request header
-        final RequestHeader requestHeader = createRequestheader(request, agent);
+        final RequestHeader requestHeader = createRequestheader(this.sb, request, agent);
 
         // HTTP-Client
         try (final HTTPClient client = new HTTPClient(agent)) {
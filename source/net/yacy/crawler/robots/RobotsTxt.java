@@ -42,6 +42,7 @@ import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 
 import net.yacy.cora.document.id.DigestURL;
@@ -55,7 +56,7 @@ import net.yacy.crawler.retrieval.Request;
 import net.yacy.crawler.retrieval.Response;
 import net.yacy.data.WorkTables;
 import net.yacy.kelondro.blob.BEncodedHeap;
-import net.yacy.kelondro.util.NamePrefixThreadFactory;
+import net.yacy.kelondro.util.IOThreadFactory;
 import net.yacy.repository.Blacklist.BlacklistType;
 import net.yacy.repository.LoaderDispatcher;
 
@@ -74,10 +75,24 @@ public class RobotsTxt {
     /** Thread pool used to launch concurrent tasks */
     private final ThreadPoolExecutor threadPool;
 
-    private static class DomSync {
+    /**
+     * a lock for each host; this is a lock object and not a monitor because a virtual thread
+     * which waits for the network inside a synchronized block would block its carrier thread
+     */
+    private static class DomSync extends ReentrantLock {
+        private static final long serialVersionUID = -1954418307917557545L;
         private DomSync() {}
     }
 
+    /**
+     * make or get a synchronization object
+     */
+    private DomSync domSync(final String urlHostPort) {
+        final DomSync syncObj = new DomSync();
+        final DomSync old = this.syncObjects.putIfAbsent(urlHostPort, syncObj);
+        return old == null ? syncObj : old;
+    }
+
     /**
      *
      * @param worktables
@@ -88,7 +103,7 @@ public class RobotsTxt {
         this.threadPool = new ThreadPoolExecutor(maxActiveTheads, maxActiveTheads,
                 0L, TimeUnit.MILLISECONDS,
                 new LinkedBlockingQueue<Runnable>(),
-                new NamePrefixThreadFactory(RobotsTxt.class.getSimpleName()));
+                new IOThreadFactory(RobotsTxt.class.getSimpleName()));
         this.syncObjects = new ConcurrentHashMap<>();
         this.tables = worktables;
         this.loader = loader;
@@ -153,15 +168,11 @@ public class RobotsTxt {
              System.currentTimeMillis() - robotsTxt4Host.getLoadedDate().getTime() > 7*24*60*60*1000 */
            )) {
 
-            // make or get a synchronization object
-            DomSync syncObj = this.syncObjects.get(urlHostPort);
-            if (syncObj == null) {
-                syncObj = new DomSync();
-                this.syncObjects.put(urlHostPort, syncObj);
-            }
+            final DomSync syncObj = this.domSync(urlHostPort);
 
             // we can now synchronize for each host separately
-            synchronized (syncObj) {
+            syncObj.lock();
+            try {
                 // if we have not found any data or the data is older than 7 days, we need to load it from the remote server
                 // check the robots table again for all threads that come here because they waited for another one
                 // to complete a download
@@ -201,6 +212,8 @@ public class RobotsTxt {
                 } else {
                     robotsTxt4Host = this.processNewEntry(robotsURL, response, agent.robotIDs);
                 }
+            } finally {
+                syncObj.unlock();
             }
         }
 
@@ -236,17 +249,13 @@ public class RobotsTxt {
             return;
         }
         if (robotsTable != null && robotsTable.containsKey(robotsTable.encodedKey(urlHostPort))) return;
-        final Thread t = new Thread("Robots.txt:ensureExist(" + theURL.toNormalform(true) + ")") {
+        final Runnable t = new Runnable() {
             @Override
             public void run(){
-                // make or get a synchronization object
-                DomSync syncObj = RobotsTxt.this.syncObjects.get(urlHostPort);
-                if (syncObj == null) {
-                    syncObj = new DomSync();
-                    RobotsTxt.this.syncObjects.put(urlHostPort, syncObj);
-                }
+                final DomSync syncObj = RobotsTxt.this.domSync(urlHostPort);
                 // we can now synchronize for each host separately
-                synchronized (syncObj) {
+                syncObj.lock();
+                try {
                     if (robotsTable.containsKey(robotsTable.encodedKey(urlHostPort))) return;
 
                     // generating the proper url to download the robots txt
@@ -268,6 +277,8 @@ public class RobotsTxt {
                     } else {
                         RobotsTxt.this.processNewEntry(robotsURL, response, agent.robotIDs);
                     }
+                } finally {
+                    syncObj.unlock();
                 }
             }
         };
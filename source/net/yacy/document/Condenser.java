@@ -75,7 +75,24 @@ public final class Condenser extends Tokenizer {
             final boolean findDatesInContent,
             final int timezoneOffset
             ) {
-        super(document.dc_source(), indexText ? document.getTextString() : "", meaningLib, doAutotagging, scraper);
+        this(document, scraper, indexText, indexMedia, meaningLib, doAutotagging, findDatesInContent, timezoneOffset, false);
+    }
+
+    /**
+     * @param recordPositions when true, the positions of the words are recorded for a segment with a position index
+     */
+    public Condenser(
+            final Document document,
+            final VocabularyScraper scraper,
+            final boolean indexText,
+            final boolean indexMedia,
+            final WordCache meaningLib,
+            final boolean doAutotagging,
+            final boolean findDatesInContent,
+            final int timezoneOffset,
+            final boolean recordPositions
+            ) {
+        super(document.dc_source(), indexText ? document.getTextString() : "", meaningLib, doAutotagging, scraper, recordPositions);
         
         final String initialThreadName = Thread.currentThread().getName();
         Thread.currentThread().setName("condenser-" + document.dc_identifier()); // for debugging
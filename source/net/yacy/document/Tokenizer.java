@@ -65,6 +65,14 @@ public class Tokenizer {
     public Bitfield RESULT_FLAGS = new Bitfield(4);
 
     public Tokenizer(final DigestURL root, final String text, final WordCache meaningLib, boolean doAutotagging, final VocabularyScraper scraper) {
+        this(root, text, meaningLib, doAutotagging, scraper, false);
+    }
+
+    /**
+     * @param recordPositions when true, all positions of a word in the text are recorded in its {@link Word} entry;
+     *        they are only used by a segment with a position index, so this should be false otherwise
+     */
+    public Tokenizer(final DigestURL root, final String text, final WordCache meaningLib, boolean doAutotagging, final VocabularyScraper scraper, final boolean recordPositions) {
         this.words = new TreeMap<String, Word>(NaturalOrder.naturalComparator);
         this.synonyms = new LinkedHashSet<String>();
         assert text != null;
@@ -128,6 +136,7 @@ public class Tokenizer {
                     wsp.flags = this.RESULT_FLAGS.clone();
                     this.words.put(word, wsp);
                 }
+                if (recordPositions) wsp.addPosition(allwordcounter);
                 // we now have the unique handle of the word, put it into the sentence:
                 wordInSentenceCounter++;
             }
@@ -29,12 +29,17 @@ package net.yacy.kelondro.blob;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.TreeMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
@@ -49,6 +54,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.yacy.cora.date.GenericFormatter;
 import net.yacy.cora.document.encoding.ASCII;
@@ -59,6 +65,8 @@ import net.yacy.cora.order.NaturalOrder;
 import net.yacy.cora.util.ConcurrentLog;
 import net.yacy.cora.util.LookAheadIterator;
 import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.index.BloomFilter;
+import net.yacy.kelondro.index.FrequencySketch;
 import net.yacy.kelondro.rwi.Reference;
 import net.yacy.kelondro.rwi.ReferenceContainer;
 import net.yacy.kelondro.rwi.ReferenceFactory;
@@ -98,6 +106,14 @@ public class ArrayStack implements BLOB {
     private final String         prefix;
     private final int            buffersize;
     private final boolean        trimall;
+    private       boolean        memoryMapped; // if true, all files except the write target are memory-mapped
+
+    // read statistics for the comparison of memory-mapped and copying reads
+    private final AtomicLong     mappedReadCount = new AtomicLong(0), mappedReadTime = new AtomicLong(0);
+    private final AtomicLong     copyReadCount = new AtomicLong(0), copyReadTime = new AtomicLong(0);
+
+    /** the number of files that were mounted after the array was opened, i.e. dumps and results of merges */
+    private final AtomicLong     mounts = new AtomicLong(0);
 
     /** the thread pool for the keeperOf executor service */
     private final ExecutorService executor;
@@ -124,6 +140,7 @@ public class ArrayStack implements BLOB {
         this.repositoryAgeMax = Long.MAX_VALUE;
         this.repositorySizeMax = Long.MAX_VALUE;
         this.trimall = trimall;
+        this.memoryMapped = false;
 
         // init the thread pool for the keeperOf executor service
         this.executor = new ThreadPoolExecutor(
@@ -152,13 +169,17 @@ public class ArrayStack implements BLOB {
                 FileUtils.deletedelete(new File(heapLocation, file));
                 deletions = true;
             }
-            if (file.endsWith(".idx") || file.endsWith(".gap")) {
+            if (file.endsWith(".idx") || file.endsWith(".gap") || file.endsWith(".blm") || file.endsWith(".cms")) {
                 final String s = file.substring(0, file.length() - 17);
                 if (!fh.contains(s)) {
                     FileUtils.deletedelete(new File(heapLocation, file));
                     deletions = true;
                 }
             }
+            if (file.endsWith(".chk") && !fh.contains(file.substring(0, file.length() - 4))) {
+                FileUtils.deletedelete(new File(heapLocation, file));
+                deletions = true;
+            }
         }
         if (deletions) files = heapLocation.list(); // make a fresh list
         // migrate old file names
@@ -182,8 +203,7 @@ public class ArrayStack implements BLOB {
 
         // find maximum time: the file with this time will be given a write buffer
         final TreeMap<Long, blobItem> sortedItems = new TreeMap<Long, blobItem>();
-        BLOB oneBlob;
-        File f;
+        final TreeMap<Long, File> sortedFiles = new TreeMap<Long, File>();
         long maxtime = 0;
         for (final String file : files) {
             if (file.length() >= 22 && file.charAt(this.prefix.length()) == '.' && file.endsWith(".blob")) {
@@ -191,36 +211,57 @@ public class ArrayStack implements BLOB {
                    d = my_SHORT_MILSEC_FORMATTER.parse(file.substring(this.prefix.length() + 1, this.prefix.length() + 18), 0).getTime();
                    time = d.getTime();
                    if (time > maxtime) maxtime = time;
+                   sortedFiles.put(Long.valueOf(time), new File(heapLocation, file));
                } catch (final ParseException e) {continue;}
             }
         }
 
-        // open all blob files
-        for (final String file : files) {
-            if (file.length() >= 22 && file.charAt(this.prefix.length()) == '.' && file.endsWith(".blob")) {
-                try {
-                   d = my_SHORT_MILSEC_FORMATTER.parse(file.substring(this.prefix.length() + 1, this.prefix.length() + 18), 0).getTime();
-                   f = new File(heapLocation, file);
-                   time = d.getTime();
-                   try {
-                       if (time == maxtime && !trimall) {
-                           oneBlob = new Heap(f, keylength, ordering, buffersize);
-                       } else {
-                           oneBlob = new HeapModifier(f, keylength, ordering);
-                           oneBlob.optimize(); // no writings here, can be used with minimum memory
-                       }
-                       sortedItems.put(Long.valueOf(time), new blobItem(d, f, oneBlob));
-                   } catch (final IOException e) {
-                       if (deleteonfail) {
-                           ConcurrentLog.warn("ArrayStack", "cannot read file " + f.getName() + ", deleting it (smart fail; alternative would be: crash; required user action would be same as deletion)");
-                           f.delete();
-                       } else {
-                           throw new IOException(e.getMessage(), e);
-                       }
-                   }
-               } catch (final ParseException e) {continue;}
+        // open all blob files; the files are independent and are opened concurrently
+        final long start = System.currentTimeMillis();
+        final int threads = Math.max(1, Math.min(sortedFiles.size(), Runtime.getRuntime().availableProcessors()));
+        final ExecutorService mountExecutor = Executors.newFixedThreadPool(threads, new NamePrefixThreadFactory(this.prefix + ".mount"));
+        final TreeMap<Long, Future<blobItem>> mounts = new TreeMap<Long, Future<blobItem>>();
+        for (final Map.Entry<Long, File> entry: sortedFiles.entrySet()) {
+            final long t = entry.getKey().longValue();
+            final File location = entry.getValue();
+            final boolean writeTarget = t == maxtime && !trimall;
+            mounts.put(entry.getKey(), mountExecutor.submit(new Callable<blobItem>() {
+                @Override
+                public blobItem call() throws IOException {
+                    return mountBLOB(new Date(t), location, writeTarget);
+                }
+            }));
+        }
+        mountExecutor.shutdown();
+
+        // collect the results in the order of the creation time
+        IOException failure = null;
+        for (final Map.Entry<Long, Future<blobItem>> entry: mounts.entrySet()) {
+            final File location = sortedFiles.get(entry.getKey());
+            try {
+                sortedItems.put(entry.getKey(), entry.getValue().get());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) failure = new IOException("interrupted while opening " + location.getName(), e);
+            } catch (final ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof IOException && deleteonfail) {
+                    ConcurrentLog.warn("ArrayStack", "cannot read file " + location.getName() + ", deleting it (smart fail; alternative would be: crash; required user action would be same as deletion)");
+                    location.delete();
+                } else if (failure == null) {
+                    // the other files are still collected, so that they can be closed
+                    failure = cause instanceof IOException ? new IOException(cause.getMessage(), cause) : new IOException("cannot open " + location.getName() + ": " + cause.getMessage(), cause);
+                }
             }
         }
+        if (failure != null) {
+            for (final blobItem bi: sortedItems.values()) {
+                bi.blob.close(false);
+                bi.releaseSketch();
+            }
+            throw failure;
+        }
+        if (!sortedItems.isEmpty()) ConcurrentLog.info("ArrayStack", "opened " + sortedItems.size() + " " + this.prefix + " files in " + heapLocation.getName() + " with " + threads + " threads in " + (System.currentTimeMillis() - start) + " milliseconds");
 
         // read the blob tree in a sorted way and write them into an array
         this.blobs = new CopyOnWriteArrayList<blobItem>();
@@ -229,10 +270,38 @@ public class ArrayStack implements BLOB {
         }
     }
 
+    /**
+     * open one BLOB file of the array during the initialization
+     * @param d the creation time of the file
+     * @param location the file
+     * @param writeTarget true if the file gets a write buffer
+     * @return the item for the blobs list
+     * @throws IOException
+     */
+    private blobItem mountBLOB(final Date d, final File location, final boolean writeTarget) throws IOException {
+        final long start = System.currentTimeMillis();
+        final blobItem item;
+        if (writeTarget) {
+            item = new blobItem(d, location, new Heap(location, this.keylength, this.ordering, this.buffersize));
+        } else {
+            final BLOB oneBlob = new HeapModifier(location, this.keylength, this.ordering);
+            oneBlob.optimize(); // no writings here, can be used with minimum memory
+            item = new blobItem(d, location, oneBlob);
+            item.bloom = bloomFilter(location, oneBlob);
+            item.sketch = frequencySketch(location);
+        }
+        ConcurrentLog.fine("ArrayStack", "opened " + location.getName() + " in " + (System.currentTimeMillis() - start) + " milliseconds");
+        return item;
+    }
+
     @Override
     public long mem() {
         long m = 0;
-        if (this.blobs != null) for (final blobItem b: this.blobs) m += b.blob.mem();
+        if (this.blobs != null) for (final blobItem b: this.blobs) {
+            m += b.blob.mem();
+            if (b.bloom != null) m += b.bloom.mem();
+            if (b.sketch != null) m += b.sketch.mem();
+        }
         return m;
     }
 
@@ -258,13 +327,143 @@ public class ArrayStack implements BLOB {
             throw new IOException("date parse problem with file " + location.toString() + ": " + e.getMessage());
         }
         BLOB oneBlob;
+        BloomFilter bloom = null;
+        FrequencySketch sketch = null;
         if (full && this.buffersize > 0 && !this.trimall) {
             oneBlob = new Heap(location, this.keylength, this.ordering, this.buffersize);
         } else {
             oneBlob = new HeapModifier(location, this.keylength, this.ordering);
             oneBlob.optimize();
+            if (this.memoryMapped) ((HeapModifier) oneBlob).map();
+            bloom = bloomFilter(location, oneBlob);
+            sketch = frequencySketch(location);
         }
-        this.blobs.add(new blobItem(d, location, oneBlob));
+        final blobItem item = new blobItem(d, location, oneBlob);
+        item.bloom = bloom;
+        item.sketch = sketch;
+        this.blobs.add(item);
+        this.mounts.incrementAndGet();
+    }
+
+    /**
+     * @return the number of files that were mounted after the array was opened
+     */
+    public long mounts() {
+        return this.mounts.get();
+    }
+
+    /**
+     * get the Bloom filter for a BLOB file that is not written any more. The filter is read from the
+     * .blm file that was written together with the index dump of the file; if there is none, the filter
+     * is computed from the keys of the file and written for the next start.
+     * Because these files only lose keys by deletions and reductions, the filter stays valid.
+     * @param location
+     * @param blob
+     * @return the filter or null if none is available; then the file must always be probed
+     */
+    private BloomFilter bloomFilter(final File location, final BLOB blob) {
+        final String fingerprint = HeapReader.fingerprintFileHash(location);
+        if (fingerprint == null) return null;
+        final File bloomFile = HeapWriter.fingerprintBloomFile(location, fingerprint);
+        if (bloomFile.exists()) try {
+            final BloomFilter bloom = new BloomFilter(bloomFile);
+            if (bloom.keylength() == this.keylength) return bloom;
+        } catch (final IOException e) {
+            ConcurrentLog.warn("ArrayStack", "cannot read bloom filter " + bloomFile.getName() + ", computing it again: " + e.getMessage());
+        }
+        try {
+            final long start = System.currentTimeMillis();
+            final BloomFilter bloom = BloomFilter.build(this.keylength, blob.keys(true, false), blob.size());
+            // remove filters for older versions of the file
+            final String n = location.getName() + ".";
+            final String[] l = location.getParentFile().list();
+            if (l != null) for (final String s: l) {
+                if (s.startsWith(n) && s.endsWith(".blm")) FileUtils.deletedelete(new File(location.getParentFile(), s));
+            }
+            bloom.dump(bloomFile);
+            ConcurrentLog.info("ArrayStack", "computed bloom filter for " + location.getName() + ", " + blob.size() + " keys in " + (System.currentTimeMillis() - start) + " milliseconds");
+            return bloom;
+        } catch (final IOException e) {
+            ConcurrentLog.warn("ArrayStack", "cannot compute bloom filter for " + location.getName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * get the sketch of the BLOB lengths for a BLOB file that is not written any more. The sketch is read from
+     * the .cms file that was written together with the index dump of the file when it was dumped or merged.
+     * It is not computed for files without a sketch because that would need to read the length of every BLOB.
+     * Deletions and reductions only make the lengths smaller, so the sketch stays an upper bound.
+     * The sketches of all mounted files share the memory budget FrequencySketch.memoryLimit.
+     * @param location
+     * @return the sketch or null if there is none; then the lengths must be read from the file
+     */
+    private FrequencySketch frequencySketch(final File location) {
+        final String fingerprint = HeapReader.fingerprintFileHash(location);
+        if (fingerprint == null) return null;
+        final File sketchFile = HeapWriter.fingerprintSketchFile(location, fingerprint);
+        if (sketchFile.exists()) try {
+            final FrequencySketch sketch = FrequencySketch.mount(sketchFile);
+            if (sketch == null) {
+                ConcurrentLog.info("ArrayStack", "no memory left for the frequency sketch of " + location.getName() + ", the lengths are read from the file");
+                return null;
+            }
+            if (sketch.keylength() == this.keylength) return sketch;
+            sketch.release();
+        } catch (final IOException e) {
+            ConcurrentLog.warn("ArrayStack", "cannot read frequency sketch " + sketchFile.getName() + ": " + e.getMessage());
+        }
+        // remove sketches for older versions of the file
+        final String n = location.getName() + ".";
+        final String[] l = location.getParentFile().list();
+        if (l != null) for (final String s: l) {
+            if (s.startsWith(n) && s.endsWith(".cms")) FileUtils.deletedelete(new File(location.getParentFile(), s));
+        }
+        return null;
+    }
+
+    /**
+     * check the Bloom filter of a blobItem
+     * @param bi
+     * @param key
+     * @return false if the BLOB file of the item does not contain the key, true if it may contain the key
+     */
+    private static boolean mayContain(final blobItem bi, final byte[] key) {
+        final BloomFilter bloom = bi.bloom;
+        return bloom == null || bloom.mightContain(key);
+    }
+
+    /**
+     * switch the memory-mapped read mode for all BLOB files that are not the write target.
+     * These files are only modified by deletions and reductions and never grow, so they can be
+     * served by read-only mappings of the files. Files mounted later are mapped as well.
+     * @param memoryMapped
+     */
+    public synchronized void setMemoryMapped(final boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        for (final blobItem bi: this.blobs) {
+            if (bi.blob instanceof Heap || !(bi.blob instanceof HeapModifier)) continue;
+            final HeapModifier heap = (HeapModifier) bi.blob;
+            if (memoryMapped) try {
+                heap.map();
+            } catch (final IOException e) {
+                ConcurrentLog.warn("ArrayStack", "cannot map " + bi.location.getName() + ": " + e.getMessage());
+            } else {
+                heap.unmap();
+            }
+        }
+        ConcurrentLog.info("ArrayStack", "memory-mapped read mode for " + this.heapLocation.getName() + " is " + (memoryMapped ? "on" : "off"));
+    }
+
+    public boolean isMemoryMapped() {
+        return this.memoryMapped;
+    }
+
+    /**
+     * @return {number of reads from memory-mapped files, time for these reads in nanoseconds, number of copying reads, time for copying reads in nanoseconds}
+     */
+    public long[] readStatistics() {
+        return new long[]{this.mappedReadCount.get(), this.mappedReadTime.get(), this.copyReadCount.get(), this.copyReadTime.get()};
     }
 
     private synchronized void unmountBLOB(final File location, final boolean writeIDX) {
@@ -274,6 +473,7 @@ public class ArrayStack implements BLOB {
             if (b.location.getAbsolutePath().equals(location.getAbsolutePath())) {
                 this.blobs.remove(i);
                 b.blob.close(writeIDX);
+                b.releaseSketch();
                 b.blob = null;
                 b.location = null;
                 return;
@@ -285,6 +485,7 @@ public class ArrayStack implements BLOB {
     private File unmount(final int idx) {
         final blobItem b = this.blobs.remove(idx);
         b.blob.close(false);
+        b.releaseSketch();
         b.blob = null;
         final File f = b.location;
         b.location = null;
@@ -345,6 +546,59 @@ public class ArrayStack implements BLOB {
         return new File[]{f0, f1};
     }
 
+    /**
+     * select a group of files of similar size for a size-tiered merge and unmount them.
+     * The files are sorted into tiers where tier n holds the files with a size between
+     * tierBase * 4^(n-1) and tierBase * 4^n; all files smaller than tierBase are in tier 0.
+     * The tier with the most files is chosen (on a tie the tier with the smaller files) and its
+     * smallest files are taken until maxFiles or maxResultSize is reached. Because only files of
+     * similar size are merged, every entry is rewritten about once per tier instead of once for
+     * every merge with a small file.
+     * @param minFiles the minimum number of files in a tier that is merged
+     * @param maxFiles the maximum number of files that are merged at once
+     * @param tierBase the size limit of tier 0
+     * @param maxResultSize the maximum sum of the sizes of the selected files
+     * @return the unmounted files, sorted by size, or null if no tier has enough files
+     */
+    public synchronized File[] unmountTier(final int minFiles, final int maxFiles, final long tierBase, final long maxResultSize) {
+        if (this.blobs.size() < minFiles) return null;
+        final TreeMap<Integer, List<blobItem>> tiers = new TreeMap<Integer, List<blobItem>>();
+        for (final blobItem bi: this.blobs) {
+            if (bi.blob instanceof Heap) continue; // the write target
+            int tier = 0;
+            for (long limit = tierBase; bi.location.length() >= limit && tier < 32; limit <<= 2) tier++;
+            List<blobItem> t = tiers.get(tier);
+            if (t == null) {
+                t = new ArrayList<blobItem>();
+                tiers.put(tier, t);
+            }
+            t.add(bi);
+        }
+        List<blobItem> best = null;
+        for (final List<blobItem> t: tiers.values()) {
+            if (t.size() >= minFiles && (best == null || t.size() > best.size())) best = t;
+        }
+        if (best == null) return null;
+        Collections.sort(best, new Comparator<blobItem>() {
+            @Override
+            public int compare(final blobItem o1, final blobItem o2) {
+                return Long.compare(o1.location.length(), o2.location.length());
+            }
+        });
+        final List<File> selected = new ArrayList<File>();
+        long size = 0, m = 0;
+        for (final blobItem bi: best) {
+            if (selected.size() >= maxFiles || size + bi.location.length() > maxResultSize) break;
+            size += bi.location.length();
+            m += bi.blob.mem();
+            selected.add(bi.location);
+        }
+        if (selected.size() < minFiles) return null;
+        if (!MemoryControl.request(m, true)) return null;
+        for (final File f: selected) unmountBLOB(f, false);
+        return selected.toArray(new File[selected.size()]);
+    }
+
     private synchronized File smallestBLOB(final File excluding, final long maxsize) {
         if (this.blobs.isEmpty()) return null;
         File bestFile = null;
@@ -378,6 +632,17 @@ public class ArrayStack implements BLOB {
         return (this.blobs == null) ? 0 : this.blobs.size();
     }
 
+    /**
+     * return the BLOB files of this array in the order in which they are read by getAll().
+     * This is a snapshot; files which are merged later are closed but still part of the result.
+     * @return the list of BLOB objects
+     */
+    public synchronized List<BLOB> blobs() {
+        final List<BLOB> l = new ArrayList<BLOB>(this.blobs.size());
+        for (final blobItem bi: this.blobs) l.add(bi.blob);
+        return l;
+    }
+
     /**
      * generate a new BLOB file name with a given date.
      * This method is needed to generate a file name that matches to the name structure that is needed for parts of the array
@@ -414,6 +679,7 @@ public class ArrayStack implements BLOB {
             // too old
             final blobItem oldestBLOB = this.blobs.remove(0);
             oldestBLOB.blob.close(false);
+            oldestBLOB.releaseSketch();
             oldestBLOB.blob = null;
             FileUtils.deletedelete(oldestBLOB.location);
         }
@@ -423,6 +689,7 @@ public class ArrayStack implements BLOB {
             // too large
             final blobItem oldestBLOB = this.blobs.remove(0);
             oldestBLOB.blob.close(false);
+            oldestBLOB.releaseSketch();
             FileUtils.deletedelete(oldestBLOB.location);
         }
     }
@@ -446,6 +713,8 @@ public class ArrayStack implements BLOB {
         Date creation;
         File location;
         BLOB blob;
+        BloomFilter bloom; // filter over the keys of the blob; null for the write target which may get new keys
+        FrequencySketch sketch; // upper bounds of the lengths of the BLOBs; null for the write target and for files without a sketch dump
         public blobItem(final Date creation, final File location, final BLOB blob) {
             assert blob != null;
             this.creation = creation;
@@ -458,6 +727,10 @@ public class ArrayStack implements BLOB {
             this.location = newBLOB(this.creation);
             this.blob = (buffer == 0) ? new HeapModifier(this.location, ArrayStack.this.keylength, ArrayStack.this.ordering) : new Heap(this.location, ArrayStack.this.keylength, ArrayStack.this.ordering, buffer);
         }
+        /** give the memory of the sketch back to the budget of the mounted sketches */
+        void releaseSketch() {
+            if (this.sketch != null) this.sketch.release();
+        }
     }
 
     /**
@@ -478,6 +751,7 @@ public class ArrayStack implements BLOB {
         for (final blobItem bi: this.blobs) {
             bi.blob.clear();
             bi.blob.close(false);
+            bi.releaseSketch();
             HeapWriter.delete(bi.location);
         }
         this.blobs.clear();
@@ -571,18 +845,18 @@ public class ArrayStack implements BLOB {
         if (this.blobs.isEmpty()) return null;
         if (this.blobs.size() == 1) {
             final blobItem bi = this.blobs.get(0);
-            if (bi.blob.containsKey(key)) return bi;
+            if (mayContain(bi, key) && bi.blob.containsKey(key)) return bi;
             return null;
         }
 
         // first check the current blob only because that has most probably the key if any has that key
         int bs1 = this.blobs.size() - 1;
         blobItem bi = this.blobs.get(bs1);
-        if (bi.blob.containsKey(key)) return bi;
+        if (mayContain(bi, key) && bi.blob.containsKey(key)) return bi;
         if (this.blobs.size() == 2) {
             // this should not be done concurrently
             bi = this.blobs.get(0);
-            if (bi.blob.containsKey(key)) return bi;
+            if (mayContain(bi, key) && bi.blob.containsKey(key)) return bi;
             return null;
         }
 
@@ -591,6 +865,7 @@ public class ArrayStack implements BLOB {
         int accepted = 0;
         for (int i = 0; i < bs1; i++) {
             final blobItem b = this.blobs.get(i);
+            if (!mayContain(b, key)) continue; // the file does not contain the key, no need to start a task
             try {
                 cs.submit(new Callable<blobItem>() {
                     @Override
@@ -642,7 +917,7 @@ public class ArrayStack implements BLOB {
         if (this.blobs == null || this.blobs.isEmpty()) return null;
         if (this.blobs.size() == 1) {
             final blobItem bi = this.blobs.get(0);
-            return bi.blob.get(key);
+            return mayContain(bi, key) ? bi.blob.get(key) : null;
         }
 
         final blobItem bi = keeperOf(key);
@@ -695,8 +970,9 @@ public class ArrayStack implements BLOB {
         @Override
         protected byte[] next0() {
             while (this.bii.hasNext()) {
-                final BLOB b = this.bii.next().blob;
-                if (b == null) continue;
+                final blobItem bi = this.bii.next();
+                final BLOB b = bi.blob;
+                if (b == null || !mayContain(bi, this.key)) continue;
                 try {
                     final byte[] n = b.get(this.key);
                     if (n != null) return n;
@@ -712,6 +988,69 @@ public class ArrayStack implements BLOB {
         }
     }
 
+    /**
+     * get all BLOBs in the array and decode them with a BlobReader. If memory-mapped reads are switched on,
+     * the BLOBs in mapped files are handed to the reader without copying them into a byte array first.
+     * @param key
+     * @param reader
+     * @return an iteration of the decoded BLOBs
+     */
+    public <T> Iterable<T> getAll(final byte[] key, final HeapReader.BlobReader<T> reader) {
+        return new BlobDecodedValues<T>(key, reader);
+    }
+
+    private class BlobDecodedValues<T> extends LookAheadIterator<T> {
+
+        private final Iterator<blobItem> bii;
+        private final byte[] key;
+        private final HeapReader.BlobReader<T> reader;
+
+        public BlobDecodedValues(final byte[] key, final HeapReader.BlobReader<T> reader) {
+            this.bii = ArrayStack.this.blobs.iterator();
+            this.key = key;
+            this.reader = reader;
+        }
+
+        @Override
+        protected T next0() {
+            while (this.bii.hasNext()) {
+                final blobItem bi = this.bii.next();
+                final BLOB b = bi.blob;
+                if (b == null || !mayContain(bi, this.key)) continue;
+                try {
+                    final long start = System.nanoTime();
+                    final T n;
+                    final boolean mapped;
+                    if (b instanceof HeapReader) {
+                        mapped = ((HeapReader) b).isMapped();
+                        n = ((HeapReader) b).get(this.key, this.reader);
+                    } else {
+                        mapped = false;
+                        final byte[] a = b.get(this.key);
+                        n = a == null ? null : this.reader.read(ByteBuffer.wrap(a));
+                    }
+                    if (n == null) continue;
+                    final long time = System.nanoTime() - start;
+                    if (mapped) {
+                        ArrayStack.this.mappedReadCount.incrementAndGet();
+                        ArrayStack.this.mappedReadTime.addAndGet(time);
+                    } else {
+                        ArrayStack.this.copyReadCount.incrementAndGet();
+                        ArrayStack.this.copyReadTime.addAndGet(time);
+                    }
+                    return n;
+                } catch (final IOException e) {
+                    ConcurrentLog.severe("ArrayStack", "BlobDecodedValues - IOException: " + e.getMessage(), e);
+                    return null;
+                } catch (final SpaceExceededException e) {
+                    ConcurrentLog.severe("ArrayStack", "BlobDecodedValues - RowSpaceExceededException: " + e.getMessage(), e);
+                    break;
+                }
+            }
+            return null;
+        }
+    }
+
     /**
      * retrieve the size of the BLOB
      * @param key
@@ -722,6 +1061,7 @@ public class ArrayStack implements BLOB {
     public synchronized long length(final byte[] key) throws IOException {
         long l;
         for (final blobItem bi: this.blobs) {
+            if (!mayContain(bi, key)) continue;
             l = bi.blob.length(key);
             if (l >= 0) return l;
         }
@@ -736,24 +1076,45 @@ public class ArrayStack implements BLOB {
      * @throws IOException
      */
     public Iterable<Long> lengthAll(final byte[] key) throws IOException {
-        return new BlobLengths(key);
+        return new BlobLengths(key, false);
+    }
+
+    /**
+     * get the lengths of a BLOB in all files of the array, estimated without disk access where possible:
+     * for files with a frequency sketch the lengths are upper bounds of the real lengths; the lengths in
+     * other files are read from the file.
+     * @param key
+     * @return the lengths of the BLOB in the files that contain the key
+     * @throws IOException
+     */
+    public Iterable<Long> lengthAllApproximate(final byte[] key) throws IOException {
+        return new BlobLengths(key, true);
     }
 
     private class BlobLengths extends LookAheadIterator<Long> {
 
         private final Iterator<blobItem> bii;
         private final byte[] key;
+        private final boolean approximate;
 
-        public BlobLengths(final byte[] key) {
+        public BlobLengths(final byte[] key, final boolean approximate) {
             this.bii = ArrayStack.this.blobs.iterator();
             this.key = key;
+            this.approximate = approximate;
         }
 
         @Override
         protected Long next0() {
             while (this.bii.hasNext()) {
-                final BLOB b = this.bii.next().blob;
-                if (b == null) continue;
+                final blobItem bi = this.bii.next();
+                final BLOB b = bi.blob;
+                if (b == null || !mayContain(bi, this.key)) continue;
+                final FrequencySketch sketch = bi.sketch;
+                if (this.approximate && sketch != null) {
+                    final long l = sketch.estimate(this.key);
+                    if (l > 0) return Long.valueOf(l);
+                    continue;
+                }
                 try {
                     final long l = b.length(this.key);
                     if (l >= 0) return Long.valueOf(l);
@@ -818,6 +1179,7 @@ public class ArrayStack implements BLOB {
     public synchronized int replace(final byte[] key, final Rewriter rewriter) throws IOException, SpaceExceededException {
         int d = 0;
         for (final blobItem bi: this.blobs) {
+            if (!mayContain(bi, key)) continue;
             d += bi.blob.replace(key, rewriter);
         }
         return d;
@@ -833,6 +1195,7 @@ public class ArrayStack implements BLOB {
     public synchronized int reduce(final byte[] key, final Reducer reduce) throws IOException, SpaceExceededException {
         int d = 0;
         for (final blobItem bi: this.blobs) {
+            if (!mayContain(bi, key)) continue;
             d += bi.blob.reduce(key, reduce);
         }
         return d;
@@ -856,7 +1219,9 @@ public class ArrayStack implements BLOB {
             final FutureTask<Boolean>[] t = (FutureTask<Boolean>[]) Array.newInstance(FutureTask.class, this.blobs.size() - 1);
             int i = 0;
             for (final blobItem bi: this.blobs) {
-                if (i < t.length) {
+                if (!mayContain(bi, key)) {
+                    // nothing to delete in this file
+                } else if (i < t.length) {
                     // run this in a concurrent thread
                     final blobItem bi0 = bi;
                     t[i] = new FutureTask<Boolean>(new Callable<Boolean>() {
@@ -874,7 +1239,7 @@ public class ArrayStack implements BLOB {
                 i++;
             }
             // wait for termination
-            for (final FutureTask<Boolean> s: t) try {s.get();} catch (final InterruptedException e) {} catch (final ExecutionException e) {}
+            for (final FutureTask<Boolean> s: t) if (s != null) try {s.get();} catch (final InterruptedException e) {} catch (final ExecutionException e) {}
         }
         assert mem() <= m : "m = " + m + ", mem() = " + mem();
     }
@@ -903,12 +1268,45 @@ public class ArrayStack implements BLOB {
      */
     @Override
     public synchronized void close(final boolean writeIDX) {
-        for (final blobItem bi: this.blobs) bi.blob.close(writeIDX);
+        for (final blobItem bi: this.blobs) {
+            bi.blob.close(writeIDX);
+            bi.releaseSketch();
+        }
         this.blobs.clear();
         this.blobs = null;
         this.executor.shutdown();
     }
 
+    /**
+     * merge any number of blob files into one with a single pass over all files.
+     * One file is only rewritten, two files are merged pairwise.
+     * @param files
+     * @param factory
+     * @param newFile
+     * @param writeBuffer
+     * @return the target file where the given files are merged in
+     */
+    public File mergeMount(final File[] files,
+            final ReferenceFactory<? extends Reference> factory,
+            final File newFile, final int writeBuffer) {
+        if (files.length == 1) return mergeMount(files[0], null, factory, newFile, writeBuffer);
+        if (files.length == 2) return mergeMount(files[0], files[1], factory, newFile, writeBuffer);
+        ConcurrentLog.info("BLOBArray", "merging " + files.length + " files, starting with " + files[0].getName());
+        final File resultFile = mergeWorker(factory, this.keylength, this.ordering, files, newFile, writeBuffer);
+        if (resultFile == null) {
+            ConcurrentLog.warn("BLOBArray", "merge of " + files.length + " files returned null. newFile = " + newFile);
+            return null;
+        }
+        try {
+            mountBLOB(resultFile, false);
+        } catch (final IOException e) {
+            ConcurrentLog.warn("BLOBArray", "merge of " + files.length + " files successfull, but read failed. resultFile = " + resultFile);
+            return null;
+        }
+        ConcurrentLog.info("BLOBArray", "merged " + files.length + " files into " + resultFile);
+        return resultFile;
+    }
+
     /**
      * merge two blob files into one. If the second file is given as null,
      * then the first file is only rewritten into a new one.
@@ -1016,6 +1414,49 @@ public class ArrayStack implements BLOB {
         }
     }
 
+    private static <ReferenceType extends Reference> File mergeWorker(
+                    final ReferenceFactory<ReferenceType> factory,
+                    final int keylength, final ByteOrder order, final File[] files, final File newFile, final int writeBuffer) {
+        // iterate all files at once and write a new one
+        final List<CloneableIterator<ReferenceContainer<ReferenceType>>> iterators = new ArrayList<CloneableIterator<ReferenceContainer<ReferenceType>>>(files.length);
+        try {
+            for (final File f: files) {
+                try {
+                    iterators.add(new ReferenceIterator<ReferenceType>(f, factory));
+                } catch (final IOException e) {
+                    ConcurrentLog.severe("ArrayStack", "cannot merge because input files cannot be read, f = " + f.toString() + ": " + e.getMessage(), e);
+                    return null;
+                }
+            }
+            final File tmpFile = new File(newFile.getParentFile(), newFile.getName() + ".prt");
+            final int written;
+            try {
+                final HeapWriter writer = new HeapWriter(tmpFile, newFile, keylength, order, writeBuffer);
+                written = merge(iterators, order, writer);
+                writer.close(true);
+            } catch (final IOException e) {
+                ConcurrentLog.severe("ArrayStack", "cannot writing or close writing merge, newFile = " + newFile.toString() + ", tmpFile = " + tmpFile.toString() + ": " + e.getMessage(), e);
+                HeapWriter.delete(tmpFile);
+                HeapWriter.delete(newFile);
+                return null;
+            } catch (final SpaceExceededException e) {
+                ConcurrentLog.severe("ArrayStack", "cannot merge because of memory failure: " + e.getMessage(), e);
+                HeapWriter.delete(tmpFile);
+                HeapWriter.delete(newFile);
+                return null;
+            }
+            // we don't need the old files any more
+            for (final File f: files) HeapWriter.delete(f);
+            if (written == 0) {
+                HeapWriter.delete(newFile);
+                return null;
+            }
+            return newFile;
+        } finally {
+            for (final CloneableIterator<ReferenceContainer<ReferenceType>> i: iterators) i.close();
+        }
+    }
+
     private static <ReferenceType extends Reference> File rewriteWorker(
             final ReferenceFactory<ReferenceType> factory,
             final int keylength, final ByteOrder order, final File f, final File newFile, final int writeBuffer) {
@@ -1156,6 +1597,67 @@ public class ArrayStack implements BLOB {
         // finished with writing
     }
 
+    /**
+     * k-way merge of sorted container iterations: the head containers of all iterations are held in a
+     * priority queue, containers with the same term hash are merged into one before they are written.
+     * @return the number of written containers
+     */
+    private static <ReferenceType extends Reference> int merge(
+            final List<CloneableIterator<ReferenceContainer<ReferenceType>>> iterators,
+            final ByteOrder ordering, final HeapWriter writer) throws IOException, SpaceExceededException {
+        final PriorityQueue<MergeHead<ReferenceType>> heads = new PriorityQueue<MergeHead<ReferenceType>>(iterators.size(), new Comparator<MergeHead<ReferenceType>>() {
+            @Override
+            public int compare(final MergeHead<ReferenceType> o1, final MergeHead<ReferenceType> o2) {
+                return ordering.compare(o1.container.getTermHash(), o2.container.getTermHash());
+            }
+        });
+        for (final CloneableIterator<ReferenceContainer<ReferenceType>> i: iterators) {
+            if (i.hasNext()) heads.add(new MergeHead<ReferenceType>(i));
+        }
+        int c = 0, s;
+        MergeHead<ReferenceType> head;
+        ReferenceContainer<ReferenceType> container;
+        while (!heads.isEmpty()) {
+            head = heads.poll();
+            container = head.container;
+            if (head.advance(ordering)) heads.add(head);
+            // merge the containers with the same term from the other files
+            while (!heads.isEmpty() && ordering.compare(heads.peek().container.getTermHash(), container.getTermHash()) == 0) {
+                head = heads.poll();
+                container = container.merge(head.container);
+                if (head.advance(ordering)) heads.add(head);
+            }
+            s = container.shrinkReferences();
+            if (s > 0) ConcurrentLog.info("ArrayStack", "shrinking index for " + ASCII.String(container.getTermHash()) + " by " + s + " to " + container.size() + " entries");
+            writer.add(container.getTermHash(), container.exportCollection());
+            c++;
+        }
+        // finished with writing
+        return c;
+    }
+
+    private static final class MergeHead<ReferenceType extends Reference> {
+        private final CloneableIterator<ReferenceContainer<ReferenceType>> iterator;
+        private ReferenceContainer<ReferenceType> container;
+
+        private MergeHead(final CloneableIterator<ReferenceContainer<ReferenceType>> iterator) {
+            this.iterator = iterator;
+            this.container = iterator.next();
+        }
+
+        /**
+         * move to the next container of the iteration
+         * @return false if the iteration is exhausted
+         */
+        private boolean advance(final ByteOrder ordering) {
+            if (!this.iterator.hasNext()) return false;
+            final byte[] lh = this.container.getTermHash();
+            this.container = this.iterator.next();
+            assert ordering.compare(this.container.getTermHash(), lh) > 0;
+            return true;
+        }
+    }
+
     private static <ReferenceType extends Reference> void rewrite(
             final CloneableIterator<ReferenceContainer<ReferenceType>> i,
             final ByteOrder ordering, final HeapWriter writer) throws IOException, SpaceExceededException {
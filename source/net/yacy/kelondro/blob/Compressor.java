@@ -32,10 +32,20 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
@@ -47,33 +57,84 @@ import net.yacy.cora.util.ByteArray;
 import net.yacy.cora.util.ConcurrentLog;
 import net.yacy.cora.util.SpaceExceededException;
 import net.yacy.kelondro.util.MemoryControl;
+import net.yacy.kelondro.util.NamePrefixThreadFactory;
 
 
+/**
+ * A BLOB wrapper which stores the entries compressed in the backend. New entries are held uncompressed
+ * in a write buffer and are compressed when the buffer is full. The buffer is divided into stripes which
+ * are selected by the hash of the key, each with its own lock, so that concurrent inserts of different keys
+ * do not wait for each other. All stripes share one size limit. When the buffer is full, just as many entries
+ * are compressed as are necessary to get enough room, in parallel on a bounded worker pool, and then written
+ * to the backend in one batch.
+ */
 public class Compressor implements BLOB, Iterable<byte[]> {
 
     private static byte[] gzipMagic  = {(byte) 'z', (byte) '|'}; // magic for gzip-encoded content
     private static byte[] plainMagic = {(byte) 'p', (byte) '|'}; // magic for plain content (no encoding)
 
     private final BLOB backend;
-    
-    /** entries which are not yet compressed, format is RAW (without magic) */
-    private TreeMap<byte[], byte[]> buffer;
-    
-    /** Total size (in bytes) of uncompressed entries in buffer */
-    private volatile long bufferlength;
-    
-    /** Maximum {@link #bufferlength} value before compressing and flushing to the backend */
+
+    /** the parts of the write buffer; a key is always buffered in the same stripe */
+    private final Stripe[] stripes;
+
+    /** Maximum total size (in bytes) of uncompressed entries in all stripes */
     private final long maxbufferlength;
-    
+
+    /** Total size (in bytes) of uncompressed entries in all stripes */
+    private final AtomicLong bufferlength = new AtomicLong(0);
+
     /** Maximum time (in milliseconds) to acquire a synchronization lock on get() and insert() */
     private volatile long lockTimeout;
-    
-    /** Synchronization lock */
-    private final ReentrantLock lock;
-    
+
     /** The compression level */
     private volatile int compressionLevel;
 
+    /** worker threads for the compression of the entries of a full stripe */
+    private final ThreadPoolExecutor compressionPool;
+
+    /* statistics */
+    private final AtomicLong compressedBytesIn = new AtomicLong(0);   // uncompressed size of all compressed entries
+    private final AtomicLong compressedBytesOut = new AtomicLong(0);  // size of these entries after compression
+    private final AtomicLong compressionTime = new AtomicLong(0);     // sum of the compression times in nanoseconds
+    private final AtomicLong droppedInserts = new AtomicLong(0);      // inserts which did not get a lock within the lockTimeout
+
+    /**
+     * a part of the write buffer with its own lock
+     */
+    private final class Stripe {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /** entries which are not yet compressed, format is RAW (without magic) */
+        private TreeMap<byte[], byte[]> buffer = new TreeMap<byte[], byte[]>(Compressor.this.backend.ordering());
+
+        /** Total size (in bytes) of uncompressed entries in buffer */
+        private volatile long bufferlength = 0;
+
+        private void put(final byte[] key, final byte[] b) {
+            final byte[] old = this.buffer.put(key, b);
+            final long delta = b.length - (old == null ? 0 : old.length);
+            this.bufferlength += delta;
+            Compressor.this.bufferlength.addAndGet(delta);
+        }
+
+        private byte[] remove(final byte[] key) {
+            final byte[] b = this.buffer.remove(key);
+            if (b != null) {
+                this.bufferlength -= b.length;
+                Compressor.this.bufferlength.addAndGet(-b.length);
+            }
+            return b;
+        }
+
+        private void clear() {
+            this.buffer = new TreeMap<byte[], byte[]>(Compressor.this.backend.ordering());
+            Compressor.this.bufferlength.addAndGet(-this.bufferlength);
+            this.bufferlength = 0;
+        }
+    }
+
     /**
      * @param backend the backend storage
      * @param buffersize the maximum total size (in bytes) of uncompressed in-memory entries before compressing and flushing to the backend
@@ -84,10 +145,24 @@ public class Compressor implements BLOB, Iterable<byte[]> {
         this.backend = backend;
         this.maxbufferlength = buffersize;
         this.lockTimeout = lockTimeout;
-        this.lock = new ReentrantLock();
         /* Ensure a value within the range supported by the Deflater class */
         this.compressionLevel = Math.max(Deflater.NO_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, compressionLevel));
-        initBuffer();
+        final int processors = Runtime.getRuntime().availableProcessors();
+        this.stripes = new Stripe[Math.min(32, Integer.highestOneBit(processors) * 2)]; // a power of 2
+        for (int i = 0; i < this.stripes.length; i++) this.stripes[i] = new Stripe();
+        this.compressionPool = new ThreadPoolExecutor(
+                processors, processors, 1000,
+                TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new NamePrefixThreadFactory("Compressor." + backend.name()));
+        this.compressionPool.allowCoreThreadTimeOut(true);
+    }
+
+    private Stripe stripe(final byte[] key) {
+        int h = 0;
+        for (final byte b: key) h = 31 * h + b;
+        h ^= h >>> 16;
+        return this.stripes[h & (this.stripes.length - 1)];
     }
 
     @Override
@@ -107,18 +182,13 @@ public class Compressor implements BLOB, Iterable<byte[]> {
 
     @Override
     public void clear() throws IOException {
-    	this.lock.lock();
-    	try {
-    		initBuffer();
-    		this.backend.clear();
-    	} finally {
-    		this.lock.unlock();
-    	}
-    }
-
-    private void initBuffer() {
-        this.buffer = new TreeMap<byte[], byte[]>(this.backend.ordering());
-        this.bufferlength = 0;
+        for (final Stripe stripe: this.stripes) stripe.lock.lock();
+        try {
+            for (final Stripe stripe: this.stripes) stripe.clear();
+            this.backend.clear();
+        } finally {
+            for (final Stripe stripe: this.stripes) stripe.lock.unlock();
+        }
     }
 
     @Override
@@ -128,14 +198,24 @@ public class Compressor implements BLOB, Iterable<byte[]> {
 
     @Override
     public void close(final boolean writeIDX) {
-    	this.lock.lock();
-    	try {
-    		// no more thread is running, flush all queues
-    		flushAll();
-    		this.backend.close(writeIDX);
-    	} finally {
-    		this.lock.unlock();
-    	}
+        for (final Stripe stripe: this.stripes) stripe.lock.lock();
+        try {
+            // no more thread is running, flush all queues
+            for (final Stripe stripe: this.stripes) flush(stripe);
+            this.backend.close(writeIDX);
+        } finally {
+            for (final Stripe stripe: this.stripes) stripe.lock.unlock();
+        }
+        this.compressionPool.shutdown();
+    }
+
+    private byte[] compress(final byte[] b) {
+        final long start = System.nanoTime();
+        final byte[] c = compress(b, this.compressionLevel);
+        this.compressionTime.addAndGet(System.nanoTime() - start);
+        this.compressedBytesIn.addAndGet(b.length);
+        this.compressedBytesOut.addAndGet(c == null ? 0 : c.length);
+        return c;
     }
 
     private static byte[] compress(final byte[] b, final int compressionLevel) {
@@ -214,25 +294,25 @@ public class Compressor implements BLOB, Iterable<byte[]> {
         // depending on the source of the result, we additionally do entry compression
         // because if a document was read once, we think that it will not be retrieved another time again soon
         byte[] b = null;
+        final Stripe stripe = stripe(key);
         boolean locked = false;
         try {
-			locked = this.lock.tryLock(this.lockTimeout, TimeUnit.MILLISECONDS);
-		} catch (InterruptedException ignored) {
-			/* When interrupted, simply return null */
-			ConcurrentLog.fine("Compressor", "Interrupted while acquiring a synchronzation lock on get()");
-		}
+            locked = stripe.lock.tryLock(this.lockTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ignored) {
+            /* When interrupted, simply return null */
+            ConcurrentLog.fine("Compressor", "Interrupted while acquiring a synchronzation lock on get()");
+        }
         if(locked) {
-        	try {
-        		b = this.buffer.remove(key);
-        		if (b != null) {
-        			this.bufferlength = this.bufferlength - b.length;
-           			this.backend.insert(key, compress(b, this.compressionLevel));
-        			return b;
-        		}
-        	} finally {
-        		this.lock.unlock();
-        	}
-        	
+            try {
+                b = stripe.remove(key);
+                if (b != null) {
+                    this.backend.insert(key, compress(b));
+                    return b;
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+
             // return from the backend
             b = this.backend.get(key);
             if (b == null) return null;
@@ -241,7 +321,7 @@ public class Compressor implements BLOB, Iterable<byte[]> {
             }
             return decompress(b);
         }
-       	ConcurrentLog.fine("Compressor", "Could not acquire a synchronization lock for retrieval within " + this.lockTimeout + " milliseconds");
+        ConcurrentLog.fine("Compressor", "Could not acquire a synchronization lock for retrieval within " + this.lockTimeout + " milliseconds");
         return b;
     }
 
@@ -260,11 +340,12 @@ public class Compressor implements BLOB, Iterable<byte[]> {
 
     @Override
     public boolean containsKey(final byte[] key) {
-        this.lock.lock();
+        final Stripe stripe = stripe(key);
+        stripe.lock.lock();
         try {
-            return this.buffer.containsKey(key) || this.backend.containsKey(key);
+            return stripe.buffer.containsKey(key) || this.backend.containsKey(key);
         } finally {
-        	this.lock.unlock();
+            stripe.lock.unlock();
         }
     }
 
@@ -275,22 +356,20 @@ public class Compressor implements BLOB, Iterable<byte[]> {
 
     @Override
     public long length() {
-        this.lock.lock();
         try {
-            return this.backend.length() + this.bufferlength;
+            return this.backend.length() + getBufferLength();
         } catch (final IOException e) {
             ConcurrentLog.logException(e);
             return 0;
-        } finally {
-        	this.lock.unlock();
         }
     }
 
     @Override
     public long length(final byte[] key) throws IOException {
-        this.lock.lock();
+        final Stripe stripe = stripe(key);
+        stripe.lock.lock();
         try {
-            byte[] b = this.buffer.get(key);
+            byte[] b = stripe.buffer.get(key);
             if (b != null) return b.length;
             try {
                 b = this.backend.get(key);
@@ -301,112 +380,97 @@ public class Compressor implements BLOB, Iterable<byte[]> {
                 throw new IOException(e.getMessage());
             }
         } finally {
-        	this.lock.unlock();
+            stripe.lock.unlock();
         }
     }
 
-    private int removeFromQueues(final byte[] key) {
-        final byte[] b = this.buffer.remove(key);
-        if (b != null) return b.length;
-        return 0;
-    }
-
     @Override
     public void insert(final byte[] key, final byte[] b) throws IOException {
-    	boolean locked = false;
-    	try {
-			locked = this.lock.tryLock(this.lockTimeout, TimeUnit.MILLISECONDS);
-		} catch (InterruptedException ignored) {
-			/* When interrupted, simply nothing is inserted */
-			ConcurrentLog.fine("Compressor", "Interrupted while acquiring a synchronzation lock on insert()");
-		}
-    	if(locked) {
-    		try {
-    			// first ensure that the files do not exist anywhere
-    			delete(key);
-
-    			// check if the buffer is full or could be full after this write
-    			if (this.bufferlength + b.length * 2 > this.maxbufferlength) {
-    				// in case that we compress, just compress as much as is necessary to get enough room
-    				while (this.bufferlength + b.length * 2 > this.maxbufferlength) {
-    					if (this.buffer.isEmpty()) break;
-    					flushOne();
-    				}
-    				// in case that this was not enough, just flush all
-    				if (this.bufferlength + b.length * 2 > this.maxbufferlength) flushAll();
-    			}
-
-    			// files are written uncompressed to the uncompressed-queue
-    			// they are either written uncompressed to the database
-    			// or compressed later
-   				this.buffer.put(key, b);
-   				this.bufferlength += b.length;
-    		} finally {
-    			this.lock.unlock();
-    		}
-    		
-    		if (MemoryControl.shortStatus()) {
-    			flushAll();
-    		}
-    	} else {
-    		ConcurrentLog.fine("Compressor", "Could not acquire a synchronization lock for insertion within " + this.lockTimeout + " milliseconds");
-    	}
+        final Stripe stripe = stripe(key);
+        boolean locked = false;
+        try {
+            locked = stripe.lock.tryLock(this.lockTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ignored) {
+            /* When interrupted, simply nothing is inserted */
+            ConcurrentLog.fine("Compressor", "Interrupted while acquiring a synchronzation lock on insert()");
+        }
+        if(locked) {
+            try {
+                // first ensure that the files do not exist anywhere
+                delete(key);
+
+                // check if the buffer is full or could be full after this write;
+                // in case that we compress, just compress as much as is necessary to get enough room
+                final long needed = this.bufferlength.get() + b.length * 2 - this.maxbufferlength;
+                if (needed > 0) evict(stripe, needed);
+
+                // files are written uncompressed to the uncompressed-queue
+                // they are either written uncompressed to the database
+                // or compressed later
+                stripe.put(key, b);
+            } finally {
+                stripe.lock.unlock();
+            }
+
+            if (MemoryControl.shortStatus()) {
+                flushAll();
+            }
+        } else {
+            this.droppedInserts.incrementAndGet();
+            ConcurrentLog.fine("Compressor", "Could not acquire a synchronization lock for insertion within " + this.lockTimeout + " milliseconds");
+        }
     }
 
     @Override
     public void delete(final byte[] key) throws IOException {
-    	this.lock.lock();
-    	try {
-    		this.backend.delete(key);
-    		final long rx = removeFromQueues(key);
-    		if (rx > 0) this.bufferlength -= rx;
-    	} finally {
-    		this.lock.unlock();
-    	}
+        final Stripe stripe = stripe(key);
+        stripe.lock.lock();
+        try {
+            this.backend.delete(key);
+            stripe.remove(key);
+        } finally {
+            stripe.lock.unlock();
+        }
     }
 
     @Override
     public int size() {
-    	this.lock.lock();
-    	try {
-    		return this.backend.size() + this.buffer.size();
-    	} finally {
-    		this.lock.unlock();
-    	}
+        int size = this.backend.size();
+        for (final Stripe stripe: this.stripes) {
+            stripe.lock.lock();
+            try {
+                size += stripe.buffer.size();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return size;
     }
 
     @Override
     public boolean isEmpty() {
-    	this.lock.lock();
-    	try {
-    		if (!this.backend.isEmpty()) return false;
-    		if (!this.buffer.isEmpty()) return false;
-    		return true;
-    	} finally {
-    		this.lock.unlock();
-    	}
+        if (!this.backend.isEmpty()) return false;
+        for (final Stripe stripe: this.stripes) {
+            stripe.lock.lock();
+            try {
+                if (!stripe.buffer.isEmpty()) return false;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return true;
     }
 
     @Override
     public CloneableIterator<byte[]> keys(final boolean up, final boolean rotating) throws IOException {
-    	this.lock.lock();
-    	try {
-    		flushAll();
-    		return this.backend.keys(up, rotating);
-    	} finally {
-    		this.lock.unlock();
-    	}
+        flushAll();
+        return this.backend.keys(up, rotating);
     }
 
     @Override
     public CloneableIterator<byte[]> keys(final boolean up, final byte[] firstKey) throws IOException {
-    	this.lock.lock();
-    	try {
-    		flushAll();
-    		return this.backend.keys(up, firstKey);
-    	} finally {
-    		this.lock.unlock();
-    	}
+        flushAll();
+        return this.backend.keys(up, firstKey);
     }
 
     @Override
@@ -419,32 +483,112 @@ public class Compressor implements BLOB, Iterable<byte[]> {
         }
     }
 
-    private boolean flushOne() {
-        if (this.buffer.isEmpty()) return false;
-        // depending on process case, write it to the file or compress it to the other queue
-        final Map.Entry<byte[], byte[]> entry = this.buffer.entrySet().iterator().next();
-        this.buffer.remove(entry.getKey());
-        try {
-            this.backend.insert(entry.getKey(), compress(entry.getValue(), this.compressionLevel));
-            this.bufferlength -= entry.getValue().length;
-            return true;
-        } catch (final IOException e) {
-            this.buffer.put(entry.getKey(), entry.getValue());
-            return false;
+    /**
+     * compress all entries of a stripe and write them to the backend.
+     * The lock of the stripe must be held by the caller.
+     * @param stripe
+     */
+    private void flush(final Stripe stripe) {
+        flush(stripe, Long.MAX_VALUE);
+    }
+
+    /**
+     * compress entries of a stripe in key order and write them to the backend, until the given number of bytes is free.
+     * The lock of the stripe must be held by the caller.
+     * @param stripe
+     * @param max the number of bytes which shall be free afterwards
+     * @return the number of bytes which were freed
+     */
+    private long flush(final Stripe stripe, final long max) {
+        if (stripe.buffer.isEmpty()) return 0;
+        final List<Map.Entry<byte[], byte[]>> batch = new ArrayList<Map.Entry<byte[], byte[]>>();
+        long l = 0;
+        for (final Map.Entry<byte[], byte[]> entry: stripe.buffer.entrySet()) {
+            if (l >= max) break;
+            // copy the entry, the entries of a TreeMap may change when other entries are removed
+            batch.add(new AbstractMap.SimpleImmutableEntry<byte[], byte[]>(entry));
+            l += entry.getValue().length;
+        }
+        final byte[][] compressed = compressBatch(batch);
+        // write the batch in key order; entries which cannot be written stay in the buffer
+        long freed = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            final Map.Entry<byte[], byte[]> entry = batch.get(i);
+            try {
+                this.backend.insert(entry.getKey(), compressed[i]);
+            } catch (final IOException e) {
+                ConcurrentLog.warn("Compressor", "cannot write to " + this.backend.name() + ": " + e.getMessage());
+                break;
+            }
+            stripe.remove(entry.getKey());
+            freed += entry.getValue().length;
+        }
+        return freed;
+    }
+
+    /**
+     * compress and write entries to the backend until the given number of bytes is free in the buffer.
+     * The entries are taken from the given stripe first, which must be locked by the caller, and then from the
+     * other stripes which are not locked; a thread never waits for the lock of another stripe while it holds its own.
+     * @param stripe the stripe of the current insert
+     * @param needed the number of bytes which must be freed
+     */
+    private void evict(final Stripe stripe, long needed) {
+        needed -= flush(stripe, needed);
+        for (int i = 0; needed > 0 && i < this.stripes.length; i++) {
+            final Stripe other = this.stripes[i];
+            if (other == stripe || !other.lock.tryLock()) continue;
+            try {
+                needed -= flush(other, needed);
+            } finally {
+                other.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * compress the values of a list of entries on the worker pool
+     * @param batch
+     * @return the compressed values in the order of the batch
+     */
+    private byte[][] compressBatch(final List<Map.Entry<byte[], byte[]>> batch) {
+        final byte[][] compressed = new byte[batch.size()][];
+        final List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>(batch.size());
+        if (batch.size() > 1) try {
+            for (final Map.Entry<byte[], byte[]> entry: batch) {
+                final byte[] b = entry.getValue();
+                futures.add(this.compressionPool.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() {
+                        return compress(b);
+                    }
+                }));
+            }
+        } catch (final RejectedExecutionException e) {
+            // the pool is shut down; the remaining entries are compressed in this thread
         }
+        for (int i = 0; i < compressed.length; i++) {
+            if (i < futures.size()) try {
+                compressed[i] = futures.get(i).get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (final ExecutionException e) {
+                ConcurrentLog.logException(e);
+            }
+            if (compressed[i] == null) compressed[i] = compress(batch.get(i).getValue());
+        }
+        return compressed;
     }
 
     public void flushAll() {
-    	this.lock.lock();
-    	try {
-    		while (!this.buffer.isEmpty()) {
-    			if (!flushOne()) {
-    				break;
-    			}
-    		}
-    	} finally {
-    		this.lock.unlock();
-    	}
+        for (final Stripe stripe: this.stripes) {
+            stripe.lock.lock();
+            try {
+                flush(stripe);
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
     }
 
     @Override
@@ -488,5 +632,63 @@ public class Compressor implements BLOB, Iterable<byte[]> {
         this.lockTimeout = lockTimeout;
     }
 
+    /**
+     * @return the total size (in bytes) of the uncompressed entries in the write buffer
+     */
+    public long getBufferLength() {
+        return this.bufferlength.get();
+    }
+
+    /**
+     * @return the maximum total size (in bytes) of the write buffer
+     */
+    public long getMaxBufferLength() {
+        return this.maxbufferlength;
+    }
+
+    /**
+     * @return the number of entries in the write buffer
+     */
+    public int getBufferSize() {
+        int c = 0;
+        for (final Stripe stripe: this.stripes) {
+            stripe.lock.lock();
+            try {
+                c += stripe.buffer.size();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return c;
+    }
+
+    /**
+     * @return the number of inserts which were not done because no lock could be acquired within the lock timeout
+     */
+    public long getDroppedInserts() {
+        return this.droppedInserts.get();
+    }
+
+    /**
+     * @return the total number of uncompressed bytes which were compressed
+     */
+    public long getCompressedBytesIn() {
+        return this.compressedBytesIn.get();
+    }
+
+    /**
+     * @return the total number of bytes which resulted from the compression of getCompressedBytesIn() bytes
+     */
+    public long getCompressedBytesOut() {
+        return this.compressedBytesOut.get();
+    }
+
+    /**
+     * @return the compression throughput in bytes per second of compression time of a single thread
+     */
+    public long getCompressionThroughput() {
+        final long nanos = this.compressionTime.get();
+        return nanos == 0 ? 0 : this.compressedBytesIn.get() * 1000000000L / nanos;
+    }
 
 }
@@ -28,11 +28,17 @@ package net.yacy.kelondro.blob;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import net.yacy.cora.document.encoding.UTF8;
 import net.yacy.cora.order.ByteOrder;
@@ -42,6 +48,7 @@ import net.yacy.cora.util.ConcurrentLog;
 import net.yacy.cora.util.SpaceExceededException;
 import net.yacy.kelondro.io.AbstractWriter;
 import net.yacy.kelondro.util.MemoryControl;
+import net.yacy.kelondro.util.NamePrefixThreadFactory;
 
 
 public final class Heap extends HeapModifier implements BLOB {
@@ -49,7 +56,25 @@ public final class Heap extends HeapModifier implements BLOB {
     private SortedMap<byte[], byte[]> buffer;     // a write buffer to limit IO to the file
     private int                     buffersize; // bytes that are buffered in buffer
     private final int               buffermax;  // maximum size of the buffer
-    
+    private List<byte[]>            tombstones; // append log mode: keys of deleted records; the tombstones are written with the next commit
+    private Gap                     deleted;    // append log mode: the records of the keys in tombstones
+    private boolean                 compacting; // append log mode: true while a compaction is scheduled or running
+
+    /** if true, new heaps are written in append log mode */
+    public static boolean useAppendLog = false;
+
+    /** append log mode: a checkpoint is written after this number of bytes were appended to the file */
+    public static long checkpointInterval = 64L * 1024L * 1024L;
+
+    /** append log mode: the number of dead records that are compacted in one step */
+    private static final int COMPACTION_STEP = 256;
+
+    /** append log mode: compacts the dead records of all heaps in the background */
+    private static final ThreadPoolExecutor compactor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamePrefixThreadFactory("Heap.compaction"));
+    static {
+        compactor.allowCoreThreadTimeOut(true);
+    }
+
     /*
      * This class implements a BLOB management based on a sequence of records in a random access file
      * The data structure is:
@@ -70,6 +95,15 @@ public final class Heap extends HeapModifier implements BLOB {
      * New records are either appended to the end of the file or filled into a free record.
      * A free record must either fit exactly to the size of the new record, or an old record is split
      * into a filled and a new, smaller empty record.
+     *
+     * In append log mode, the file is only written at the end: a removed record stays in the file and
+     * a tombstone record is appended instead:
+     * tombstone :== reclen <zero-filled key> magic key
+     * The buffer and the tombstones are written with one write and one sync (group commit) when the buffer
+     * is full or flushBuffer() is called. Regularly a checkpoint with the index is written, so after a crash
+     * only the end of the file after the checkpoint must be read again. Removed records and their tombstones
+     * are overwritten with zeros in the background after the next checkpoint and become free records; they are
+     * re-used when the heap is opened without append log mode or cut off at the end of the file when the heap is closed.
      */
 
     /**
@@ -85,11 +119,33 @@ public final class Heap extends HeapModifier implements BLOB {
             final int keylength,
             final ByteOrder ordering,
             int buffermax) throws IOException {
-        super(heapFile, keylength, ordering);
+        this(heapFile, keylength, ordering, buffermax, useAppendLog);
+    }
+
+    /**
+     * create a heap file
+     * @param heapFile
+     * @param keylength
+     * @param ordering
+     * @param buffermax
+     * @param appendLog if true, the file is written in append log mode
+     * @throws IOException
+     */
+    public Heap(
+            final File heapFile,
+            final int keylength,
+            final ByteOrder ordering,
+            int buffermax,
+            final boolean appendLog) throws IOException {
+        super(heapFile, keylength, ordering, appendLog);
         this.buffermax = buffermax;
         this.buffer = new TreeMap<byte[], byte[]>(ordering);
         this.buffersize = 0;
-        ConcurrentLog.info("Heap", "initializing heap " + this.name());
+        this.tombstones = new ArrayList<byte[]>();
+        this.deleted = new Gap();
+        this.compacting = false;
+        ConcurrentLog.info("Heap", "initializing heap " + this.name() + (appendLog ? " in append log mode" : ""));
+        if (appendLog && !this.dead.isEmpty()) scheduleCompaction();
         /*
         // DEBUG
         Iterator<byte[]> i = index.keys(true, null);
@@ -162,11 +218,122 @@ public final class Heap extends HeapModifier implements BLOB {
     /**
      * flush the buffer completely
      * this is like adding all elements of the buffer, but it needs only one IO access
+     * in append log mode, this is the commit: after the method returned, all inserts and deletions are durable
      * @throws IOException
      * @throws SpaceExceededException 
      */
-    public void flushBuffer() throws IOException {
+    public synchronized void flushBuffer() throws IOException {
         if (this.buffer == null) return;
+        beginWrite();
+        try {
+            if (this.appendLog) commit0(); else flushBuffer0();
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * append the tombstones and the buffer with one write to the end of the file and sync the file (group commit)
+     * @throws IOException
+     */
+    private void commit0() throws IOException {
+        if (this.buffer.isEmpty() && this.tombstones.isEmpty()) return;
+        super.deleteFingerprint();
+
+        // the tombstones are written before the records, so a record that is deleted and written again
+        // within one commit is still valid when the file is replayed
+        final int tombstoneReclen = this.keylength + TOMBSTONE_MAGIC.length + this.keylength;
+        long l = (long) this.tombstones.size() * (4 + tombstoneReclen);
+        for (final byte[] blob: this.buffer.values()) l += 4 + this.keylength + blob.length;
+        if (l > Integer.MAX_VALUE) throw new IOException("commit too large: " + l);
+        final byte[] ba = new byte[(int) l];
+        int posBuffer = 0;
+        for (final byte[] key: this.tombstones) {
+            System.arraycopy(AbstractWriter.int2array(tombstoneReclen), 0, ba, posBuffer, 4);
+            // the key stays zero-filled
+            System.arraycopy(TOMBSTONE_MAGIC, 0, ba, posBuffer + 4 + this.keylength, TOMBSTONE_MAGIC.length);
+            System.arraycopy(key, 0, ba, posBuffer + 4 + this.keylength + TOMBSTONE_MAGIC.length, this.keylength);
+            posBuffer += 4 + tombstoneReclen;
+        }
+        for (final Map.Entry<byte[], byte[]> entry: this.buffer.entrySet()) {
+            final byte[] blob = entry.getValue();
+            System.arraycopy(AbstractWriter.int2array(this.keylength + blob.length), 0, ba, posBuffer, 4);
+            System.arraycopy(entry.getKey(), 0, ba, posBuffer + 4, this.keylength);
+            System.arraycopy(blob, 0, ba, posBuffer + 4 + this.keylength, blob.length);
+            posBuffer += 4 + this.keylength + blob.length;
+        }
+        assert ba.length == posBuffer; // must fit exactly
+        final long pos = this.file.length();
+        this.file.seek(pos);
+        this.file.write(ba);
+        this.file.sync();
+
+        // the records are durable now, the index may point to them
+        long posFile = pos;
+        for (int i = 0; i < this.tombstones.size(); i++) {
+            this.deadSinceCheckpoint.put(posFile, tombstoneReclen);
+            posFile += 4 + tombstoneReclen;
+        }
+        this.deadSinceCheckpoint.putAll(this.deleted);
+        try {
+            for (final Map.Entry<byte[], byte[]> entry: this.buffer.entrySet()) {
+                this.index.put(entry.getKey(), posFile);
+                posFile += 4 + this.keylength + entry.getValue().length;
+            }
+        } catch (final SpaceExceededException e) {
+            throw new IOException(e.getMessage()); // the records are found again when the file is replayed
+        } finally {
+            this.tombstones.clear();
+            this.deleted.clear();
+            this.buffer.clear();
+            this.buffersize = 0;
+        }
+
+        if (this.checkpointLength < 0 || this.file.length() - this.checkpointLength >= checkpointInterval) {
+            try {
+                writeCheckpoint();
+            } catch (final IOException e) {
+                // the old checkpoint is still valid
+                ConcurrentLog.warn("Heap", "cannot write checkpoint for " + this.name() + ": " + e.getMessage());
+            }
+            if (!this.dead.isEmpty()) scheduleCompaction();
+        }
+    }
+
+    /**
+     * compact the dead records in the background, in small steps so the heap is not locked for a long time
+     */
+    private void scheduleCompaction() {
+        if (this.compacting) return;
+        this.compacting = true;
+        try {
+            compactor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            synchronized (Heap.this) {
+                                if (Heap.this.buffer == null || compact(COMPACTION_STEP) == 0) {
+                                    Heap.this.compacting = false;
+                                    return;
+                                }
+                            }
+                            Thread.yield();
+                        }
+                    } catch (final IOException e) {
+                        ConcurrentLog.warn("Heap", "compaction of " + Heap.this.name() + " failed: " + e.getMessage());
+                        synchronized (Heap.this) {
+                            Heap.this.compacting = false;
+                        }
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            this.compacting = false;
+        }
+    }
+
+    private void flushBuffer0() throws IOException {
         
         // check size of buffer
         Iterator<Map.Entry<byte[], byte[]>> i = this.buffer.entrySet().iterator();
@@ -189,9 +356,7 @@ public final class Heap extends HeapModifier implements BLOB {
         assert l + (4 + this.keylength) * this.buffer.size() == posBuffer : "l = " + l + ", this.keylength = " + this.keylength + ", this.buffer.size() = " + this.buffer.size() + ", posBuffer = " + posBuffer;
          */
         
-        synchronized (this) {
-            super.deleteFingerprint();
-        }
+        super.deleteFingerprint();
         
         // append all contents of the buffer into one byte[]
         i = this.buffer.entrySet().iterator();
@@ -241,14 +406,29 @@ public final class Heap extends HeapModifier implements BLOB {
     @Override
     public byte[] get(byte[] key) throws IOException, SpaceExceededException {
         key = normalizeKey(key);
-        
+
+        if (this.isConcurrentRead()) {
+            // the write sequence is taken before the buffer is checked: an insert that moves the key from the file
+            // into the buffer after the check changes the sequence, and the read is then repeated with the lock
+            final long sequence = this.writeSequence();
+            synchronized (this) {
+                if (this.buffer != null) {
+                    final byte[] blob = this.buffer.get(key);
+                    if (blob != null) return blob;
+                }
+            }
+            // the file is read without holding the heap lock
+            final byte[] blob = this.getConcurrent(key, sequence);
+            if (blob != RETRY) return blob;
+        }
+
         synchronized (this) {
             // check the buffer
             if (this.buffer != null) {
                 byte[] blob = this.buffer.get(key);
                 if (blob != null) return blob;
             }
-            
+
             return super.get(key);
         }
     }
@@ -285,6 +465,8 @@ public final class Heap extends HeapModifier implements BLOB {
         if (this.buffer == null) this.buffer = new TreeMap<byte[], byte[]>(this.ordering);
     	this.buffer.clear();
         this.buffersize = 0;
+        this.tombstones.clear();
+        this.deleted.clear();
         super.clear();
     }
 
@@ -297,6 +479,8 @@ public final class Heap extends HeapModifier implements BLOB {
     	if (this.file != null && this.buffer != null) {
             try {
                 flushBuffer();
+                // a clean close leaves a file without tombstones and dead records
+                if (this.appendLog) compactAll();
             } catch (final IOException e) {
                 ConcurrentLog.logException(e);
             }
@@ -336,38 +520,57 @@ public final class Heap extends HeapModifier implements BLOB {
         if (b.length == 0) return;
         
         synchronized (this) {
-            // first remove the old entry (removes from buffer and file)
-            // TODO: this can be enhanced!
-            this.delete(key);
-            
-            // then look if we can use a free entry
+            beginWrite();
             try {
-                if (putToGap(key, b)) return;
-            } catch (final SpaceExceededException e) {} // too less space can be ignored, we have a second try
-            
-            assert this.buffer != null;
-            
-            // if there is not enough space in the buffer, flush all
-            if (this.buffersize + b.length > this.buffermax || MemoryControl.shortStatus()) {
-                // this is too big. Flush everything
-                super.shrinkWithGapsAtEnd();
-                flushBuffer();
-                if (b.length > this.buffermax) {
-                    this.add(key, b);
-                } else {
-                    if (this.buffer != null) {
-                        this.buffer.put(key, b);
-                        this.buffersize += b.length;
-                    }
-                }
-                return;
+                insert0(key, b);
+            } finally {
+                endWrite();
             }
-            
-            // add entry to buffer
-            if (this.buffer != null) {
-                this.buffer.put(key, b);
-                this.buffersize += b.length;
+        }
+    }
+
+    private void insert0(final byte[] key, final byte[] b) throws IOException {
+        if (this.appendLog) {
+            // records are never written into gaps: the file must keep the order of the modifications
+            this.delete(key);
+            if (this.buffersize + b.length > this.buffermax || MemoryControl.shortStatus()) commit0();
+            this.buffer.put(key, b);
+            this.buffersize += b.length;
+            if (this.buffersize > this.buffermax) commit0();
+            return;
+        }
+
+        // first remove the old entry (removes from buffer and file)
+        // TODO: this can be enhanced!
+        this.delete(key);
+        
+        // then look if we can use a free entry
+        try {
+            if (putToGap(key, b)) return;
+        } catch (final SpaceExceededException e) {} // too less space can be ignored, we have a second try
+        
+        assert this.buffer != null;
+        
+        // if there is not enough space in the buffer, flush all
+        if (this.buffersize + b.length > this.buffermax || MemoryControl.shortStatus()) {
+            // this is too big. Flush everything
+            super.shrinkWithGapsAtEnd();
+            flushBuffer();
+            if (b.length > this.buffermax) {
+                this.add(key, b);
+            } else {
+                if (this.buffer != null) {
+                    this.buffer.put(key, b);
+                    this.buffersize += b.length;
+                }
             }
+            return;
+        }
+        
+        // add entry to buffer
+        if (this.buffer != null) {
+            this.buffer.put(key, b);
+            this.buffersize += b.length;
         }
     }
     
@@ -483,9 +686,36 @@ public final class Heap extends HeapModifier implements BLOB {
                 }
             }
             
+            if (this.appendLog) {
+                deleteLogged(key);
+                return;
+            }
             super.delete(key);
         }
     }
+
+    /**
+     * remove a record of the file in append log mode: the record stays in the file until it is compacted
+     * and a tombstone is written with the next commit
+     * @param key the normalized key
+     * @throws IOException
+     */
+    private void deleteLogged(final byte[] key) throws IOException {
+        if (this.index == null) return;
+        final long seek = this.index.get(key);
+        if (seek < 0) return;
+        beginWrite();
+        try {
+            this.file.seek(seek);
+            final int size = this.file.readInt();
+            this.index.remove(key);
+            this.deleted.put(seek, size);
+            this.tombstones.add(key);
+            if (this.tombstones.size() * (4L + this.keylength + TOMBSTONE_MAGIC.length + this.keylength) > this.buffermax) commit0();
+        } finally {
+            endWrite();
+        }
+    }
     
     /**
      * iterator over all keys
@@ -26,6 +26,7 @@ package net.yacy.kelondro.blob;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
 import java.util.SortedMap;
 
 import net.yacy.cora.document.encoding.UTF8;
@@ -55,7 +56,13 @@ public class HeapModifier extends HeapReader implements BLOB {
      * @throws IOException
      */
     public HeapModifier(final File heapFile, final int keylength, final ByteOrder ordering) throws IOException {
-        super(heapFile, keylength, ordering);
+        this(heapFile, keylength, ordering, false);
+    }
+
+    protected HeapModifier(final File heapFile, final int keylength, final ByteOrder ordering, final boolean appendLog) throws IOException {
+        super(heapFile, keylength, ordering, appendLog);
+        // the file was written in append log mode before; it is modified in place from now on
+        if (!appendLog && (!this.dead.isEmpty() || !this.deadSinceCheckpoint.isEmpty())) compactAll();
     }
 
     /**
@@ -64,13 +71,22 @@ public class HeapModifier extends HeapReader implements BLOB {
      */
     @Override
     public synchronized void clear() throws IOException {
-        this.index.clear();
-        this.free.clear();
-        this.file.close();
-        this.file = null;
-        FileUtils.deletedelete(this.heapFile);
-        super.deleteFingerprint();
-        this.file = new CachedFileWriter(this.heapFile);
+        beginWrite();
+        try {
+            unmap();
+            this.index.clear();
+            this.free.clear();
+            this.dead.clear();
+            this.deadSinceCheckpoint.clear();
+            deleteCheckpoint();
+            this.file.close();
+            this.file = null;
+            FileUtils.deletedelete(this.heapFile);
+            super.deleteFingerprint();
+            this.file = new CachedFileWriter(this.heapFile);
+        } finally {
+            endWrite();
+        }
     }
 
     /**
@@ -107,39 +123,93 @@ public class HeapModifier extends HeapReader implements BLOB {
         if (seek < 0) return;
 
         synchronized (this) {
-            // check again if the index contains the key
-            seek = this.index.get(key);
-            if (seek < 0) return;
-
-            // check consistency of the index
-            //assert (checkKey(key, seek)) : "key compare failed; key = " + UTF8.String(key) + ", seek = " + seek;
-
-            // access the file and read the container
-            this.file.seek(seek);
-            int size = this.file.readInt();
-            //assert seek + size + 4 <= this.file.length() : heapFile.getName() + ": too long size " + size + " in record at " + seek;
-            long filelength = this.file.length(); // put in separate variable for debugging
-            if (seek + size + 4 > filelength) {
-                ConcurrentLog.severe("BLOBHeap", this.heapFile.getName() + ": too long size " + size + " in record at " + seek);
-                throw new IOException(this.heapFile.getName() + ": too long size " + size + " in record at " + seek);
+            beginWrite();
+            try {
+                // check again if the index contains the key
+                seek = this.index.get(key);
+                if (seek < 0) return;
+
+                // check consistency of the index
+                //assert (checkKey(key, seek)) : "key compare failed; key = " + UTF8.String(key) + ", seek = " + seek;
+
+                // access the file and read the container
+                this.file.seek(seek);
+                int size = this.file.readInt();
+                //assert seek + size + 4 <= this.file.length() : heapFile.getName() + ": too long size " + size + " in record at " + seek;
+                long filelength = this.file.length(); // put in separate variable for debugging
+                if (seek + size + 4 > filelength) {
+                    ConcurrentLog.severe("BLOBHeap", this.heapFile.getName() + ": too long size " + size + " in record at " + seek);
+                    throw new IOException(this.heapFile.getName() + ": too long size " + size + " in record at " + seek);
+                }
+                super.deleteFingerprint();
+
+                // add entry to free array
+                this.free.put(seek, size);
+
+                // fill zeros to the content
+                int l = size; byte[] fill = new byte[size];
+                while (l-- > 0) fill[l] = 0;
+                this.file.write(fill, 0, size);
+
+                // remove entry from index
+                this.index.remove(key);
+
+                // recursively merge gaps
+                tryMergeNextGaps(seek, size);
+                tryMergePreviousGap(seek);
+            } finally {
+                endWrite();
             }
-            super.deleteFingerprint();
-
-            // add entry to free array
-            this.free.put(seek, size);
-
-            // fill zeros to the content
-            int l = size; byte[] fill = new byte[size];
-            while (l-- > 0) fill[l] = 0;
-            this.file.write(fill, 0, size);
-
-            // remove entry from index
-            this.index.remove(key);
+        }
+    }
 
-            // recursively merge gaps
-            tryMergeNextGaps(seek, size);
-            tryMergePreviousGap(seek);
+    /**
+     * overwrite dead records with zeros and add them to the free records. Dead records are records that were
+     * deleted in append log mode and the tombstones of these deletions. The dead records are processed in file order,
+     * so the tombstone of a deletion is never removed before the deleted record. This can be done in small steps,
+     * other operations of the heap may run between the steps.
+     * @param max the maximum number of records that are processed
+     * @return the number of dead records which are left
+     * @throws IOException
+     */
+    protected synchronized int compact(int max) throws IOException {
+        if (this.file == null || this.dead.isEmpty()) return this.dead.size();
+        beginWrite();
+        try {
+            super.deleteFingerprint();
+            final byte[] fill = new byte[4096];
+            Map.Entry<Long, Integer> entry;
+            while (max-- > 0 && (entry = this.dead.pollFirstEntry()) != null) {
+                final long seek = entry.getKey().longValue();
+                final int size = entry.getValue().intValue();
+
+                // fill zeros to the content
+                this.file.seek(seek + 4);
+                for (int l = size; l > 0; l -= fill.length) this.file.write(fill, 0, Math.min(l, fill.length));
+
+                // add entry to free array and merge gaps
+                this.free.put(seek, size);
+                tryMergeNextGaps(seek, size);
+                tryMergePreviousGap(seek);
+            }
+        } finally {
+            endWrite();
         }
+        return this.dead.size();
+    }
+
+    /**
+     * overwrite all dead records with zeros, including those that are not covered by the checkpoint of the append log.
+     * Because of that, the checkpoint is deleted first.
+     * @throws IOException
+     */
+    protected synchronized void compactAll() throws IOException {
+        deleteCheckpoint();
+        this.dead.putAll(this.deadSinceCheckpoint);
+        this.deadSinceCheckpoint.clear();
+        final int c = this.dead.size();
+        compact(Integer.MAX_VALUE);
+        ConcurrentLog.info("BLOBHeap", this.heapFile.getName() + ": removed " + c + " dead records");
     }
 
     private void tryMergePreviousGap(final long thisSeek) throws IOException {
@@ -209,15 +279,16 @@ public class HeapModifier extends HeapReader implements BLOB {
         assert g != null;
         assert g.intValue() == size1;
 
-        // overwrite the size bytes of next records with zeros
-        this.file.seek(seek1);
-        this.file.writeInt(0);
-
         // the new size of the current gap: old size + len + 4
+        // this is written first: if the process is interrupted here, the next record is still skipped by a scan
         int newSize = size0 + 4 + size1;
         this.file.seek(seek0);
         this.file.writeInt(newSize);
 
+        // overwrite the size bytes of next records with zeros
+        this.file.seek(seek1);
+        this.file.writeInt(0);
+
         // register new gap in the free array; overwrite old gap entry
         g = this.free.put(seek0, newSize);
         assert g != null;
@@ -232,6 +303,8 @@ public class HeapModifier extends HeapReader implements BLOB {
                 Long seek = this.free.lastKey();
                 int size = this.free.get(seek).intValue();
                 if (seek.longValue() + size + 4 != this.file.length()) return;
+                // a mapping must not survive a truncation of the file
+                unmap();
                 // shrink the file
                 this.file.setLength(seek.longValue());
                 this.free.remove(seek);
@@ -261,67 +334,72 @@ public class HeapModifier extends HeapReader implements BLOB {
         if (pos < 0) return 0;
 
         synchronized (this) {
-            long m = this.mem();
-
-            // check again if the index contains the key
-            pos = this.index.get(key);
-            if (pos < 0) return 0;
-
-            // check consistency of the index
-            //assert checkKey(key, pos) : "key compare failed; key = " + UTF8.String(key) + ", seek = " + pos;
-
-            // access the file and read the container
-            this.file.seek(pos);
-            final int len = this.file.readInt() - this.keylength;
-            if (MemoryControl.available() < len) {
-                if (!MemoryControl.request(len, true)) return 0; // not enough memory available for this blob
-            }
-            super.deleteFingerprint();
-
-            // read the key
-            final byte[] keyf = new byte[this.keylength];
-            this.file.readFully(keyf, 0, keyf.length);
-            assert this.ordering == null || this.ordering.equal(key, keyf) : "key = " + UTF8.String(key) + ", keyf = " + UTF8.String(keyf);
-
-            // read the blob
-            byte[] blob = new byte[len];
-            this.file.readFully(blob, 0, blob.length);
-
-            // rewrite the entry
-            blob = reducer.rewrite(blob);
-            int reduction = len - blob.length;
-            if (reduction == 0) {
-                // even if the reduction is zero then it is still be possible that the record has been changed
-                this.file.seek(pos + 4 + key.length);
+            beginWrite();
+            try {
+                long m = this.mem();
+
+                // check again if the index contains the key
+                pos = this.index.get(key);
+                if (pos < 0) return 0;
+
+                // check consistency of the index
+                //assert checkKey(key, pos) : "key compare failed; key = " + UTF8.String(key) + ", seek = " + pos;
+
+                // access the file and read the container
+                this.file.seek(pos);
+                final int len = this.file.readInt() - this.keylength;
+                if (MemoryControl.available() < len) {
+                    if (!MemoryControl.request(len, true)) return 0; // not enough memory available for this blob
+                }
+                super.deleteFingerprint();
+
+                // read the key
+                final byte[] keyf = new byte[this.keylength];
+                this.file.readFully(keyf, 0, keyf.length);
+                assert this.ordering == null || this.ordering.equal(key, keyf) : "key = " + UTF8.String(key) + ", keyf = " + UTF8.String(keyf);
+
+                // read the blob
+                byte[] blob = new byte[len];
+                this.file.readFully(blob, 0, blob.length);
+
+                // rewrite the entry
+                blob = reducer.rewrite(blob);
+                int reduction = len - blob.length;
+                if (reduction == 0) {
+                    // even if the reduction is zero then it is still be possible that the record has been changed
+                    this.file.seek(pos + 4 + key.length);
+                    this.file.write(blob);
+                    return 0;
+                }
+
+                // the new entry must be smaller than the old entry and must at least be 4 bytes smaller
+                // because that is the space needed to write a new empty entry record at the end of the gap
+                if (blob.length > len - 4) throw new IOException("replace of BLOB for key " + UTF8.String(key) + " failed (too large): new size = " + blob.length + ", old size = " + (len - 4));
+
+                // replace old content
+                this.file.seek(pos);
+                this.file.writeInt(blob.length + key.length);
+                this.file.write(key);
                 this.file.write(blob);
-                return 0;
-            }
-
-            // the new entry must be smaller than the old entry and must at least be 4 bytes smaller
-            // because that is the space needed to write a new empty entry record at the end of the gap
-            if (blob.length > len - 4) throw new IOException("replace of BLOB for key " + UTF8.String(key) + " failed (too large): new size = " + blob.length + ", old size = " + (len - 4));
 
-            // replace old content
-            this.file.seek(pos);
-            this.file.writeInt(blob.length + key.length);
-            this.file.write(key);
-            this.file.write(blob);
+                // define the new empty entry
+                final int newfreereclen = reduction - 4;
+                assert newfreereclen >= 0;
+                this.file.writeInt(newfreereclen);
 
-            // define the new empty entry
-            final int newfreereclen = reduction - 4;
-            assert newfreereclen >= 0;
-            this.file.writeInt(newfreereclen);
+                // fill zeros to the content
+                int l = newfreereclen; byte[] fill = new byte[newfreereclen];
+                while (l-- > 0) fill[l] = 0;
+                this.file.write(fill, 0, newfreereclen);
 
-            // fill zeros to the content
-            int l = newfreereclen; byte[] fill = new byte[newfreereclen];
-            while (l-- > 0) fill[l] = 0;
-            this.file.write(fill, 0, newfreereclen);
+                // add a new free entry
+                this.free.put(pos + 4 + blob.length + key.length, newfreereclen);
 
-            // add a new free entry
-            this.free.put(pos + 4 + blob.length + key.length, newfreereclen);
-
-            assert mem() <= m : "m = " + m + ", mem() = " + mem();
-            return reduction;
+                assert mem() <= m : "m = " + m + ", mem() = " + mem();
+                return reduction;
+            } finally {
+                endWrite();
+            }
         }
     }
 
@@ -25,10 +25,18 @@
 package net.yacy.kelondro.blob;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Iterator;
@@ -46,8 +54,11 @@ import net.yacy.cora.storage.HandleMap;
 import net.yacy.cora.util.ConcurrentLog;
 import net.yacy.cora.util.LookAheadIterator;
 import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.index.HandleMapFactory;
+import net.yacy.kelondro.index.MappedHandleMap;
 import net.yacy.kelondro.index.RowHandleMap;
 import net.yacy.kelondro.io.CachedFileWriter;
+import net.yacy.kelondro.io.ChunkedMappedFile;
 import net.yacy.kelondro.io.Writer;
 import net.yacy.kelondro.util.FileUtils;
 import net.yacy.kelondro.util.MemoryControl;
@@ -69,52 +80,83 @@ public class HeapReader {
     protected Writer             file;       // a random access to the file
     protected HandleMap          index;      // key/seek relation for used records
     protected Gap                free;       // set of {seek, size} pairs denoting space and position of free records
+    protected Gap                dead;       // set of {seek, size} pairs of deleted records and tombstones of the append log which may be overwritten with zeros
+    protected Gap                deadSinceCheckpoint; // dead records which are not yet part of the checkpoint; they must not be overwritten before the next checkpoint
+    protected final boolean      appendLog;  // if true, the heap is written as an append-only log with tombstones, see Heap
+    protected long               checkpointLength; // the length of the file that is covered by the checkpoint, -1 if there is no checkpoint
     private   File               fingerprintFileIdx, fingerprintFileGap; // files with dumped indexes. Will be deleted if file is written
     private   Date               closeDate;  // records a time when the file was closed; used for debugging
 
+    // concurrent read path: positional reads on a read-only channel, guarded by a write sequence counter
+    private   volatile FileChannel readChannel; // shared channel for positional reads; opened on demand
+    private   volatile long      writeSequence; // odd while a modification of the file is in progress
+    private   int                writeDepth;    // nesting depth of beginWrite/endWrite, guarded by the monitor of this
+    private   boolean            concurrentRead; // if true, get() and length() use positional reads without locking the file
+    private   volatile ChunkedMappedFile mapped; // read-only memory mapping of the file, only for files that are not written any more
+
+    /** if true, uncompressed index dumps are memory-mapped as MappedHandleMap instead of being loaded into a RowHandleMap */
+    public static boolean mapIndexDump = false;
+
+    /** marker returned by the concurrent read path if the read must be repeated on the synchronized path */
+    protected static final byte[] RETRY = new byte[0];
+
+    /**
+     * the magic of a tombstone record. A tombstone is written in append log mode for each deleted record.
+     * It has an empty key (so readers that do not know tombstones see an empty record) and the blob is this magic,
+     * followed by the key of the deleted record.
+     */
+    protected static final byte[] TOMBSTONE_MAGIC = new byte[] {'T', 'o', 'm', 'B'};
+
+    /** first bytes of a checkpoint file */
+    private static final int CHECKPOINT_MAGIC = 0x48434b31; // "HCK1"
+
     public HeapReader(
             final File heapFile,
             final int keylength,
             final ByteOrder ordering) throws IOException {
+        this(heapFile, keylength, ordering, false);
+    }
+
+    protected HeapReader(
+            final File heapFile,
+            final int keylength,
+            final ByteOrder ordering,
+            final boolean appendLog) throws IOException {
         this.ordering = ordering;
         this.heapFile = heapFile;
         this.keylength = keylength;
+        this.appendLog = appendLog;
         this.index = null; // will be created as result of initialization process
         this.free = null; // will be initialized later depending on existing idx/gap file
+        this.dead = new Gap();
+        this.deadSinceCheckpoint = new Gap();
+        this.checkpointLength = -1;
         this.heapFile.getParentFile().mkdirs();
         this.file = new CachedFileWriter(this.heapFile);
         this.closeDate = null;
+        this.readChannel = null;
+        this.writeSequence = 0;
+        this.writeDepth = 0;
+        this.concurrentRead = true;
+        this.mapped = null;
 
         // read or initialize the index
         this.fingerprintFileIdx = null;
         this.fingerprintFileGap = null;
         if (initIndexReadDump()) {
             // verify that everything worked just fine
-            // pick some elements of the index
-            Iterator<byte[]> i = this.index.keys(true, null);
-            int c = 3;
-            byte[] b, b1 = new byte[this.keylength];
-            long pos;
-            boolean ok = true;
-            while (i.hasNext() && c-- > 0) {
-                b = i.next();
-                pos = this.index.get(b);
-                this.file.seek(pos + 4);
-                this.file.readFully(b1, 0, b1.length);
-                if (!this.ordering.equal(b, b1)) {
-                    ok = false;
-                    break;
-                }
-            }
-            if (!ok) {
+            if (!verifyIndex()) {
                 log.warn("verification of idx file for " + heapFile.toString() + " failed, re-building index");
                 initIndexReadFromHeap();
             } else {
                 log.info("using a dump of the index of " + heapFile.toString() + ".");
             }
-        } else {
+            // a checkpoint of the append log is older than the dump
+            deleteCheckpoint();
+        } else if (!initIndexReadCheckpoint()) {
             // if we did not have a dump, create a new index
             initIndexReadFromHeap();
+            deleteCheckpoint();
         }
 
         // merge gaps that follow directly
@@ -127,6 +169,22 @@ public class HeapReader {
         // the file will be opened again automatically when the next access to it comes.
     }
 
+    private boolean verifyIndex() throws IOException {
+        // pick some elements of the index
+        Iterator<byte[]> i = this.index.keys(true, null);
+        int c = 3;
+        byte[] b, b1 = new byte[this.keylength];
+        long pos;
+        while (i.hasNext() && c-- > 0) {
+            b = i.next();
+            pos = this.index.get(b);
+            this.file.seek(pos + 4);
+            this.file.readFully(b1, 0, b1.length);
+            if (!this.ordering.equal(b, b1)) return false;
+        }
+        return true;
+    }
+
     public long mem() {
         return this.index.mem(); // don't add the memory for free here since then the asserts for memory management don't work
     }
@@ -175,8 +233,17 @@ public class HeapReader {
 
         // there is an index and a gap file:
         // read the index file:
-        try {
-            this.index = new RowHandleMap(this.keylength, this.ordering, 8, this.fingerprintFileIdx);
+        if (mapIndexDump && !this.fingerprintFileIdx.getName().endsWith(".gz")) try {
+            // the dump is sorted and has fixed-width entries: it can be used directly without loading it
+            final long start = System.currentTimeMillis();
+            this.index = new MappedHandleMap(this.keylength, this.ordering, 8, this.fingerprintFileIdx);
+            log.info("mapped idx dump " + this.fingerprintFileIdx.getName() + ", " + this.index.size() + " entries in " + (System.currentTimeMillis() - start) + " milliseconds");
+        } catch (final IOException e) {
+            log.warn("cannot map idx dump " + this.fingerprintFileIdx.getName() + ", loading it instead: " + e.getMessage());
+            this.index = null;
+        }
+        if (this.index == null) try {
+            this.index = HandleMapFactory.loadHandleMap(this.keylength, this.ordering, 8, this.fingerprintFileIdx);
         } catch (final IOException e) {
             ConcurrentLog.logException(e);
             return false;
@@ -220,6 +287,211 @@ public class HeapReader {
             FileUtils.deletedelete(this.fingerprintFileGap);
             this.fingerprintFileGap = null;
         }
+        // records are overwritten in place: a checkpoint of the append log is not valid any more
+        if (!this.appendLog && this.checkpointLength >= 0) deleteCheckpoint();
+    }
+
+    protected static File checkpointFile(final File heapFile) {
+        return new File(heapFile.getParentFile(), heapFile.getName() + ".chk");
+    }
+
+    /**
+     * delete the checkpoint of the append log. This must be done before records which are covered by the checkpoint
+     * are changed in a way that a replay of the log from the checkpoint on cannot see.
+     */
+    protected void deleteCheckpoint() {
+        final File f = checkpointFile(this.heapFile);
+        if (f.exists()) FileUtils.deletedelete(f);
+        this.checkpointLength = -1;
+    }
+
+    /**
+     * write a checkpoint of the append log: the index, the gaps and the dead records of the file up to its current length.
+     * After a crash, only the part of the file after the checkpoint must be replayed.
+     * This must only be called if all writes were forced to the file and there are no pending deletions.
+     * @throws IOException
+     */
+    protected void writeCheckpoint() throws IOException {
+        final long start = System.currentTimeMillis();
+        final long length = this.file.length();
+        final File f = checkpointFile(this.heapFile);
+        final File tmp = new File(f.getParentFile(), f.getName() + ".prt");
+        int c = 0;
+        try (final FileOutputStream fos = new FileOutputStream(tmp)) {
+            final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+            os.writeInt(CHECKPOINT_MAGIC);
+            os.writeInt(this.keylength);
+            os.writeLong(length);
+            synchronized (this.index) {
+                os.writeInt(this.index.size());
+                for (final Map.Entry<byte[], Long> entry: this.index) {
+                    os.write(entry.getKey(), 0, this.keylength);
+                    os.writeLong(entry.getValue().longValue());
+                    c++;
+                }
+            }
+            if (c != this.index.size()) throw new IOException("index of " + this.heapFile.getName() + " changed during checkpoint");
+            writeGap(os, this.free, null);
+            writeGap(os, this.dead, this.deadSinceCheckpoint);
+            os.flush();
+            fos.getFD().sync();
+        }
+        if (!tmp.renameTo(f)) {
+            FileUtils.deletedelete(f);
+            if (!tmp.renameTo(f)) throw new IOException("cannot rename " + tmp + " to " + f);
+        }
+        this.checkpointLength = length;
+        // all dead records are now covered by the checkpoint and may be compacted
+        this.dead.putAll(this.deadSinceCheckpoint);
+        this.deadSinceCheckpoint.clear();
+        log.info("wrote checkpoint of " + this.heapFile.getName() + " at " + length + ", " + c + " index entries, " + this.dead.size() + " dead records in " + (System.currentTimeMillis() - start) + " milliseconds");
+    }
+
+    private static void writeGap(final DataOutputStream os, final Gap gap, final Gap more) throws IOException {
+        os.writeInt(gap.size() + (more == null ? 0 : more.size()));
+        for (final Map.Entry<Long, Integer> entry: gap.entrySet()) {
+            os.writeLong(entry.getKey().longValue());
+            os.writeInt(entry.getValue().intValue());
+        }
+        if (more != null) for (final Map.Entry<Long, Integer> entry: more.entrySet()) {
+            os.writeLong(entry.getKey().longValue());
+            os.writeInt(entry.getValue().intValue());
+        }
+    }
+
+    private static Gap readGap(final DataInputStream is) throws IOException {
+        final Gap gap = new Gap();
+        int c = is.readInt();
+        while (c-- > 0) gap.put(is.readLong(), is.readInt());
+        return gap;
+    }
+
+    /**
+     * initialize the index with a checkpoint of the append log and replay the part of the file that was written after the checkpoint
+     * @return true if the checkpoint was used, false if there was no usable checkpoint
+     * @throws IOException
+     */
+    private boolean initIndexReadCheckpoint() throws IOException {
+        final File f = checkpointFile(this.heapFile);
+        if (!f.exists()) return false;
+        final long start = System.currentTimeMillis();
+        final long length = this.file.length();
+        long covered = -1;
+        try (final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 64 * 1024))) {
+            if (is.readInt() != CHECKPOINT_MAGIC || is.readInt() != this.keylength) throw new IOException("wrong header");
+            covered = is.readLong();
+            if (covered > length) throw new IOException("checkpoint at " + covered + " is behind the end of the file at " + length);
+            int c = is.readInt();
+            this.index = HandleMapFactory.newHandleMap(this.keylength, this.ordering, 8, Math.max(100, c), this.name());
+            byte[] key;
+            while (c-- > 0) {
+                key = new byte[this.keylength];
+                is.readFully(key);
+                this.index.putUnique(key, is.readLong());
+            }
+            this.free = readGap(is);
+            this.dead = readGap(is);
+            if (!verifyIndex()) throw new IOException("verification failed");
+        } catch (final IOException | SpaceExceededException e) {
+            log.warn("cannot use checkpoint " + f.getName() + ", re-building index: " + e.getMessage());
+            if (this.index != null) this.index.close();
+            this.index = null;
+            this.free = null;
+            this.dead = new Gap();
+            deleteCheckpoint();
+            return false;
+        }
+        this.checkpointLength = covered;
+        replayLog(covered, this.deadSinceCheckpoint);
+        log.info("recovered index of " + this.heapFile.getName() + " from checkpoint at " + covered + ", replayed " + (length - covered) + " bytes, " + this.index.size() + " entries in " + (System.currentTimeMillis() - start) + " milliseconds");
+        return true;
+    }
+
+    private int tombstoneLength() {
+        return this.keylength + TOMBSTONE_MAGIC.length + this.keylength;
+    }
+
+    /**
+     * test if the empty record at the given position is a tombstone; the record length must have been checked already
+     * @param seek the position of the record
+     * @return the key of the deleted record if the record is a tombstone, null otherwise
+     * @throws IOException
+     */
+    private byte[] readTombstone(final long seek) throws IOException {
+        final byte[] b = new byte[TOMBSTONE_MAGIC.length + this.keylength];
+        this.file.seek(seek + 4 + this.keylength);
+        this.file.readFully(b, 0, b.length);
+        for (int i = 0; i < TOMBSTONE_MAGIC.length; i++) if (b[i] != TOMBSTONE_MAGIC[i]) return null;
+        final byte[] key = new byte[this.keylength];
+        System.arraycopy(b, TOMBSTONE_MAGIC.length, key, 0, this.keylength);
+        return key;
+    }
+
+    /**
+     * read the records of the heap file in file order and apply them to the index: a record adds its key,
+     * a tombstone removes the key of the deleted record. This is needed for files that were written in append log mode
+     * because the records of such a file can only be interpreted in the order in which they were written.
+     * An incomplete record at the end of the file (the rest of an interrupted write) is cut off.
+     * @param from the position where the replay starts; the index, free and dead must describe the file up to this position
+     * @param deadTarget the set which receives the records that are found to be dead
+     * @throws IOException
+     */
+    private void replayLog(final long from, final Gap deadTarget) throws IOException {
+        final int tombstoneLength = tombstoneLength();
+        final long length = this.file.length();
+        byte[] key = new byte[this.keylength];
+        byte[] deleted;
+        long seek = from, p;
+        int reclen, records = 0, tombstones = 0;
+        try {
+            while (seek < length) {
+                if (seek + 4 + this.keylength > length) {
+                    log.severe("incomplete record at seek pos " + seek + " in file " + this.heapFile + ", cutting off " + (length - seek) + " bytes");
+                    this.file.setLength(seek);
+                    break;
+                }
+                this.file.seek(seek);
+                reclen = this.file.readInt();
+                if (reclen <= 0 || seek + 4 + reclen > length) {
+                    log.severe("incomplete record at seek pos " + seek + " in file " + this.heapFile + ", reclen = " + reclen + ", cutting off " + (length - seek) + " bytes");
+                    this.file.setLength(seek);
+                    break;
+                }
+                this.file.readFully(key, 0, key.length);
+                if (key[0] == 0) {
+                    deleted = reclen == tombstoneLength ? readTombstone(seek) : null;
+                    if (deleted != null) {
+                        p = this.index.remove(deleted);
+                        if (p >= 0) deadTarget.put(p, recordLength(p));
+                        deadTarget.put(seek, reclen);
+                        tombstones++;
+                    } else {
+                        this.free.put(seek, reclen);
+                    }
+                } else if (this.ordering.wellformed(key)) {
+                    p = this.index.put(key, seek);
+                    if (p >= 0) deadTarget.put(p, recordLength(p)); // the record was written again
+                    key = new byte[this.keylength];
+                    records++;
+                } else {
+                    // free the lost space
+                    this.free.put(seek, reclen);
+                    this.file.seek(seek + 4);
+                    Arrays.fill(key, (byte) 0);
+                    this.file.write(key); // mark the place as empty record
+                    log.warn("BLOB " + this.heapFile.getName() + ": skiped not wellformed key at seek pos " + seek);
+                }
+                seek += 4L + reclen;
+            }
+        } catch (final SpaceExceededException e) {
+            throw new IOException("no space for the index of " + this.heapFile.getName() + ": " + e.getMessage());
+        }
+        if (seek > from) log.info("replayed " + this.heapFile.getName() + " from " + from + ": " + records + " records, " + tombstones + " tombstones");
+    }
+
+    private int recordLength(final long seek) throws IOException {
+        this.file.seek(seek);
+        return this.file.readInt();
     }
 
     protected static String fingerprintFileHash(File f) {
@@ -252,11 +524,16 @@ public class HeapReader {
         log.info("generating index for " + this.heapFile.toString() + ", " + (this.file.length() / 1024 / 1024) + " MB. Please wait.");
 
         this.free = new Gap();
-        RowHandleMap.initDataConsumer indexready = RowHandleMap.asynchronusInitializer(this.name() + ".initializer", this.keylength, this.ordering, 8, Math.max(10, (int) (Runtime.getRuntime().freeMemory() / (10 * 1024 * 1024))));
+        // the off-heap map is filled directly, the RowHandleMap is filled and sorted concurrently to the file reading
+        final HandleMap offHeapIndex = HandleMapFactory.offHeap ? HandleMapFactory.newHandleMap(this.keylength, this.ordering, 8, (int) Math.min(Integer.MAX_VALUE, this.file.length() / 64), this.name()) : null;
+        RowHandleMap.initDataConsumer indexready = offHeapIndex != null ? null : RowHandleMap.asynchronusInitializer(this.name() + ".initializer", this.keylength, this.ordering, 8, Math.max(10, (int) (Runtime.getRuntime().freeMemory() / (10 * 1024 * 1024))));
         byte[] key = new byte[this.keylength];
         int reclen;
         long seek = 0;
-        if (this.file.length() > 0) {
+        final long length = this.file.length();
+        final int tombstoneLength = tombstoneLength();
+        boolean tombstones = false;
+        if (length > 0) {
         loop: while (true) { // don't test available() here because this does not work for files > 2GB
 
             try {
@@ -272,6 +549,12 @@ public class HeapReader {
                     this.file.setLength(seek); // delete everything else at the remaining of the file :-(
                     break loop;
                 }
+                if (seek + 4 + reclen > length) {
+                    // the rest of an interrupted write
+                    log.severe("incomplete record at seek pos " + seek + " in file " + this.heapFile + ", reclen = " + reclen + ", cutting off " + (length - seek) + " bytes");
+                    this.file.setLength(seek);
+                    break loop;
+                }
 
                 // read key
                 this.file.readFully(key, 0, key.length);
@@ -283,12 +566,24 @@ public class HeapReader {
 
             // check if this record is empty
             if (key == null || key[0] == 0) {
+                if (reclen == tombstoneLength && readTombstone(seek) != null) {
+                    // the file was written in append log mode: the records must be read in order
+                    tombstones = true;
+                    break loop;
+                }
                 // it is an empty record, store to free list
                 if (reclen > 0) this.free.put(seek, reclen);
             } else {
                 if (this.ordering.wellformed(key)) {
-                    indexready.consume(key, seek);
-                    key = new byte[this.keylength];
+                    if (offHeapIndex == null) {
+                        indexready.consume(key, seek);
+                        key = new byte[this.keylength];
+                    } else try {
+                        offHeapIndex.putUnique(key, seek);
+                    } catch (final SpaceExceededException e) {
+                        offHeapIndex.close();
+                        throw new IOException("no space for the index of " + this.heapFile.getName() + ": " + e.getMessage());
+                    }
                 } else {
                     // free the lost space
                     this.free.put(seek, reclen);
@@ -302,15 +597,38 @@ public class HeapReader {
             seek += 4L + reclen;
         }
         }
-        indexready.finish();
+        if (tombstones) {
+            // discard the index and read the whole file again, applying the tombstones
+            if (offHeapIndex != null) {
+                offHeapIndex.close();
+            } else {
+                indexready.finish();
+                try {
+                    indexready.result().close();
+                } catch (final InterruptedException e) {
+                    ConcurrentLog.logException(e);
+                } catch (final ExecutionException e) {
+                    ConcurrentLog.logException(e);
+                }
+            }
+            log.info("found tombstones in " + this.heapFile.toString() + ", replaying the append log");
+            this.index = HandleMapFactory.newHandleMap(this.keylength, this.ordering, 8, (int) Math.min(Integer.MAX_VALUE, Math.max(100, length / 64)), this.name());
+            this.free = new Gap();
+            this.dead = new Gap();
+            replayLog(0, this.dead);
+        } else if (offHeapIndex != null) {
+            this.index = offHeapIndex;
+        } else {
+            indexready.finish();
 
-        // finish the index generation
-        try {
-            this.index = indexready.result();
-        } catch (final InterruptedException e) {
-        	ConcurrentLog.logException(e);
-        } catch (final ExecutionException e) {
-        	ConcurrentLog.logException(e);
+            // finish the index generation
+            try {
+                this.index = indexready.result();
+            } catch (final InterruptedException e) {
+            	ConcurrentLog.logException(e);
+            } catch (final ExecutionException e) {
+            	ConcurrentLog.logException(e);
+            }
         }
         log.info("finished index generation for " + this.heapFile.toString() + ", " + this.index.size() + " entries, " + this.free.size() + " gaps.");
     }
@@ -429,11 +747,12 @@ public class HeapReader {
             log.severe("this.index == null in first(); closeDate=" + this.closeDate + ", now=" + new Date() + this.heapFile == null ? "" : (" file = " + this.heapFile.toString()));
             return null;
         }
+        final byte[] key;
         synchronized (this.index) {
-            byte[] key = this.index.smallestKey();
-            if (key == null) return null;
-            return get(key);
+            key = this.index.smallestKey();
         }
+        if (key == null) return null;
+        return get(key);
     }
 
     /**
@@ -468,11 +787,12 @@ public class HeapReader {
             log.severe("this.index == null in last(); closeDate=" + this.closeDate + ", now=" + new Date() + this.heapFile == null ? "" : (" file = " + this.heapFile.toString()));
             return null;
         }
+        final byte[] key;
         synchronized (this.index) {
-            byte[] key = this.index.largestKey();
-            if (key == null) return null;
-            return get(key);
+            key = this.index.largestKey();
         }
+        if (key == null) return null;
+        return get(key);
     }
 
     /**
@@ -489,6 +809,227 @@ public class HeapReader {
         }
         key = normalizeKey(key);
 
+        if (this.concurrentRead) {
+            final byte[] blob = getConcurrent(key, this.writeSequence);
+            if (blob != RETRY) return blob;
+        }
+
+        // the file was modified during the read or the channel is not available: read with the file lock
+        synchronized (this) {
+            return getSynchronized(key);
+        }
+    }
+
+    /**
+     * set the read mode of get() and length(): if concurrent reads are switched on (the default),
+     * the file is read with positional reads on a shared channel and only the index is locked during the key lookup.
+     * Otherwise all reads are serialized on the random access file.
+     * @param concurrentRead
+     */
+    public void setConcurrentRead(final boolean concurrentRead) {
+        this.concurrentRead = concurrentRead;
+    }
+
+    public boolean isConcurrentRead() {
+        return this.concurrentRead;
+    }
+
+    /**
+     * a reader that decodes a blob directly from a buffer. If the heap file is memory-mapped, the buffer
+     * is a read-only view on the mapping which is only valid during the call of read(); the reader must copy
+     * everything it wants to keep.
+     */
+    public interface BlobReader<T> {
+        public T read(ByteBuffer blob) throws SpaceExceededException;
+    }
+
+    /**
+     * map the heap file read-only into memory. This must only be done for heap files that do not grow
+     * any more, i.e. for all files in an ArrayStack except the current write target. The file is mapped
+     * in the size it has now; a later removal of records is visible in the mapping, a truncation is not allowed.
+     * @throws IOException
+     */
+    public void map() throws IOException {
+        synchronized (this) {
+            if (this.mapped != null || this.index == null) return;
+            this.mapped = new ChunkedMappedFile(this.heapFile);
+        }
+    }
+
+    /**
+     * switch off the memory mapping. The mapping itself is released by the garbage collector.
+     */
+    public void unmap() {
+        this.mapped = null;
+    }
+
+    public boolean isMapped() {
+        return this.mapped != null;
+    }
+
+    /**
+     * read a blob from the heap and hand it to a reader without copying it into a byte array first if the
+     * heap is memory-mapped. If the heap is not mapped, the blob is read with get() and wrapped into a buffer.
+     * @param key
+     * @param reader the decoder for the blob
+     * @return the result of the reader or null if the key does not exist
+     * @throws IOException
+     * @throws SpaceExceededException
+     */
+    public <T> T get(byte[] key, final BlobReader<T> reader) throws IOException, SpaceExceededException {
+        if (this.index == null) return null;
+        key = normalizeKey(key);
+        final ChunkedMappedFile m = this.mapped;
+        final long sequence = this.writeSequence;
+        if (m != null && (sequence & 1L) == 0) {
+            final long pos;
+            synchronized (this.index) {
+                pos = this.index.get(key);
+            }
+            if (pos < 0 && this.writeSequence == sequence) return null;
+            if (pos >= 0) try {
+                final int len = m.getInt(pos) - this.keylength;
+                if (len >= 0 && pos + 4 + this.keylength + len <= m.length()) {
+                    final ByteBuffer keyf = m.slice(pos + 4, this.keylength);
+                    boolean equal = true;
+                    for (int i = 0; i < this.keylength; i++) {
+                        if (keyf.get(i) != key[i]) {equal = false; break;}
+                    }
+                    if (equal) {
+                        final T t = reader.read(m.slice(pos + 4 + this.keylength, len));
+                        if (this.writeSequence == sequence) return t;
+                    }
+                }
+            } catch (final InternalError e) {
+                // the mapped file was truncated or removed; go on with the normal read path
+                log.warn("access to the mapping of " + this.heapFile.getName() + " failed: " + e.getMessage());
+                this.mapped = null;
+            }
+        }
+        final byte[] blob = get(key);
+        if (blob == null) return null;
+        return reader.read(ByteBuffer.wrap(blob));
+    }
+
+    /**
+     * mark the start of a modification of the heap file. Must be called while holding the monitor of this object
+     * and must be followed by endWrite() in a finally block. Readers on the concurrent path that overlap with a
+     * modification detect this with the write sequence number and repeat the read on the synchronized path.
+     */
+    protected final void beginWrite() {
+        assert Thread.holdsLock(this);
+        if (this.writeDepth++ == 0) this.writeSequence++; // the sequence is now odd
+    }
+
+    protected final void endWrite() {
+        assert Thread.holdsLock(this);
+        assert this.writeDepth > 0;
+        if (--this.writeDepth == 0) this.writeSequence++; // the sequence is now even again
+    }
+
+    /**
+     * @return the current write sequence number, to be handed to getConcurrent() by subclasses that check
+     * other data (like a write buffer) before they read the file
+     */
+    protected final long writeSequence() {
+        return this.writeSequence;
+    }
+
+    private FileChannel readChannel() {
+        FileChannel channel = this.readChannel;
+        if (channel != null && channel.isOpen()) return channel;
+        synchronized (this.heapFile) {
+            channel = this.readChannel;
+            if (channel != null && channel.isOpen()) return channel;
+            if (this.index == null) return null; // closed
+            try {
+                channel = FileChannel.open(this.heapFile.toPath(), StandardOpenOption.READ);
+            } catch (final IOException e) {
+                log.warn("cannot open read channel for " + this.heapFile.toString() + ": " + e.getMessage());
+                return null;
+            }
+            this.readChannel = channel;
+            return channel;
+        }
+    }
+
+    private void closeReadChannel() {
+        synchronized (this.heapFile) {
+            if (this.readChannel != null) try {
+                this.readChannel.close();
+            } catch (final IOException e) {
+                ConcurrentLog.logException(e);
+            }
+            this.readChannel = null;
+        }
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long pos) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, pos + buffer.position()) < 0) throw new EOFException("EOF at " + (pos + buffer.position()));
+        }
+    }
+
+    /**
+     * read a blob with positional reads from the shared read channel. The index is only locked while the
+     * position of the key is looked up; the file itself is not locked at all so any number of threads may read at the same time.
+     * @param key the normalized key
+     * @param sequence the write sequence number taken before the read started; any modification after that point makes the read fail with RETRY
+     * @return the blob, null if the key does not exist or RETRY if the read must be repeated on the synchronized path
+     * @throws IOException
+     * @throws SpaceExceededException
+     */
+    protected final byte[] getConcurrent(final byte[] key, final long sequence) throws IOException, SpaceExceededException {
+        if ((sequence & 1L) != 0) return RETRY; // a modification is running
+        final HandleMap idx = this.index;
+        if (idx == null) return RETRY;
+        final long pos;
+        synchronized (idx) {
+            pos = idx.get(key);
+        }
+        if (pos < 0) return this.writeSequence == sequence ? null : RETRY;
+        final FileChannel channel = readChannel();
+        if (channel == null) return RETRY;
+
+        try {
+            // read the record length and the key in one access
+            final ByteBuffer head = ByteBuffer.allocate(4 + this.keylength);
+            readFully(channel, head, pos);
+            // the record may have been rewritten during the read; a torn length must not be used for the allocation
+            if (this.writeSequence != sequence) return RETRY;
+            final int len = head.getInt(0) - this.keylength;
+            if (len < 0) return RETRY; // corruption handling is done on the synchronized path
+            long memr = len + this.keylength + 64;
+            if (MemoryControl.available() < memr) {
+                if (!MemoryControl.request(memr, true)) throw new SpaceExceededException(memr, "HeapReader.get()/check"); // not enough memory available for this blob
+            }
+            final byte[] keyf = head.array();
+            for (int i = 0; i < this.keylength; i++) {
+                if (keyf[4 + i] != key[i]) return RETRY; // verification failed or the record was moved
+            }
+
+            // read the blob
+            byte[] blob;
+            try {
+                blob = new byte[len];
+            } catch (final OutOfMemoryError e) {
+                throw new SpaceExceededException(len, "HeapReader.get()/blob");
+            }
+            readFully(channel, ByteBuffer.wrap(blob), pos + 4 + this.keylength);
+
+            // if the file was modified in the meantime, the blob may be inconsistent
+            return this.writeSequence == sequence ? blob : RETRY;
+        } catch (final ClosedChannelException e) {
+            // the channel is closed if a reading thread is interrupted; it is opened again with the next access
+            this.readChannel = null;
+            return RETRY;
+        } catch (final EOFException e) {
+            return RETRY;
+        }
+    }
+
+    private byte[] getSynchronized(final byte[] key) throws IOException, SpaceExceededException {
+        if (this.index == null) return null;
         synchronized (this.index) {
             // check if the index contains the key
             final long pos = this.index.get(key);
@@ -586,14 +1127,51 @@ public class HeapReader {
         }
         key = normalizeKey(key);
 
-        synchronized (this.index) {
-            // check if the index contains the key
-            final long pos = this.index.get(key);
-            if (pos < 0) return -1;
+        final ChunkedMappedFile m = this.mapped;
+        if (m != null) {
+            final long sequence = this.writeSequence;
+            if ((sequence & 1L) == 0) try {
+                final long pos;
+                synchronized (this.index) {
+                    pos = this.index.get(key);
+                }
+                final long len = pos < 0 ? -1 : m.getInt(pos) - this.keylength;
+                if (this.writeSequence == sequence) return len;
+            } catch (final InternalError e) {
+                this.mapped = null;
+            }
+        }
 
-            // access the file and read the size of the container
-            this.file.seek(pos);
-            return this.file.readInt() - this.keylength;
+        if (this.concurrentRead) {
+            final long sequence = this.writeSequence;
+            final FileChannel channel = (sequence & 1L) == 0 ? readChannel() : null;
+            if (channel != null) {
+                final long pos;
+                synchronized (this.index) {
+                    pos = this.index.get(key);
+                }
+                if (pos < 0 && this.writeSequence == sequence) return -1;
+                if (pos >= 0) try {
+                    final ByteBuffer head = ByteBuffer.allocate(4);
+                    readFully(channel, head, pos);
+                    if (this.writeSequence == sequence) return head.getInt(0) - this.keylength;
+                } catch (final ClosedChannelException e) {
+                    this.readChannel = null;
+                } catch (final EOFException e) {}
+            }
+        }
+
+        synchronized (this) {
+            if (this.index == null) return -1;
+            synchronized (this.index) {
+                // check if the index contains the key
+                final long pos = this.index.get(key);
+                if (pos < 0) return -1;
+
+                // access the file and read the size of the container
+                this.file.seek(pos);
+                return this.file.readInt() - this.keylength;
+            }
         }
     }
 
@@ -611,7 +1189,8 @@ public class HeapReader {
     				ConcurrentLog.logException(e);
     			}
             this.file = null;
-            if (writeIDX && this.index != null && this.free != null && (this.index.size() > 3 || this.free.size() > 3)) {
+            // dumps are not written if there are dead records: they are only known from the append log
+            if (writeIDX && this.index != null && this.free != null && (this.index.size() > 3 || this.free.size() > 3) && this.dead.isEmpty() && this.deadSinceCheckpoint.isEmpty()) {
                 // now we can create a dump of the index and the gap information
                 // to speed up the next start
                 try {
@@ -652,9 +1231,13 @@ public class HeapReader {
             }
             if (this.free != null) this.free.clear();
             this.free = null;
+            this.dead.clear();
+            this.deadSinceCheckpoint.clear();
             if (this.index != null) this.index.close();
             this.index = null;
             this.closeDate = new Date();
+            closeReadChannel();
+            this.mapped = null;
             } catch (Throwable e) {ConcurrentLog.logException(e);}
             log.info("close HeapFile " + this.heapFile.getName() + "; trace: " + ConcurrentLog.stackTrace());
         }
@@ -29,13 +29,17 @@ import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
 
 import net.yacy.cora.document.encoding.UTF8;
 import net.yacy.cora.order.ByteOrder;
 import net.yacy.cora.storage.HandleMap;
 import net.yacy.cora.util.ConcurrentLog;
 import net.yacy.cora.util.SpaceExceededException;
-import net.yacy.kelondro.index.RowHandleMap;
+import net.yacy.kelondro.index.BloomFilter;
+import net.yacy.kelondro.index.FrequencySketch;
+import net.yacy.kelondro.index.HandleMapFactory;
 import net.yacy.kelondro.util.FileUtils;
 
 
@@ -82,7 +86,7 @@ public final class HeapWriter {
         this.heapFileTMP = temporaryHeapFile;
         this.heapFileREADY = readyHeapFile;
         this.keylength = keylength;
-        this.index = new RowHandleMap(keylength, ordering, 8, 100000, readyHeapFile.getAbsolutePath());
+        this.index = HandleMapFactory.newHandleMap(keylength, ordering, 8, 100000, readyHeapFile.getAbsolutePath());
         final FileOutputStream fileStream = new FileOutputStream(temporaryHeapFile);
         try {
         	try {
@@ -162,6 +166,8 @@ public final class HeapWriter {
             } else {
                 new Gap().dump(fingerprintGapFile(this.heapFileREADY, fingerprint));
                 this.index.dump(fingerprintIndexFile(this.heapFileREADY, fingerprint));
+                BloomFilter.build(this.keylength, this.index.keys(true, null), this.index.size()).dump(fingerprintBloomFile(this.heapFileREADY, fingerprint));
+                frequencySketch().dump(fingerprintSketchFile(this.heapFileREADY, fingerprint));
                 log.info("wrote a dump for the " + this.index.size() +  " index entries of " + this.heapFileREADY.getName()+ " in " + (System.currentTimeMillis() - start) + " milliseconds.");
             }
             this.index.close();
@@ -173,6 +179,26 @@ public final class HeapWriter {
         }
     }
 
+    /**
+     * compute a sketch of the lengths of the BLOBs. The records are written one after another, so the length
+     * of a record follows from its position and the position of the next record.
+     * @return the sketch
+     */
+    private FrequencySketch frequencySketch() {
+        final long[] seeks = new long[this.index.size()];
+        int i = 0;
+        for (final Map.Entry<byte[], Long> entry: this.index) seeks[i++] = entry.getValue().longValue();
+        Arrays.sort(seeks);
+        final FrequencySketch sketch = new FrequencySketch(this.keylength, seeks.length, FrequencySketch.defaultTopSize);
+        for (final Map.Entry<byte[], Long> entry: this.index) {
+            final long seek = entry.getValue().longValue();
+            final int p = Arrays.binarySearch(seeks, seek);
+            final long next = p + 1 < seeks.length ? seeks[p + 1] : this.seek;
+            sketch.add(entry.getKey(), next - seek - 4 - this.keylength);
+        }
+        return sketch;
+    }
+
     public static void delete(File f) {
         File p = f.getParentFile();
         String n = f.getName() + ".";
@@ -180,7 +206,7 @@ public final class HeapWriter {
         FileUtils.deletedelete(f);
         for (String s: l) {
             if (s.startsWith(n) &&
-                (s.endsWith(".idx") || s.endsWith(".gap")))
+                (s.endsWith(".idx") || s.endsWith(".gap") || s.endsWith(".blm") || s.endsWith(".cms")))
                FileUtils.deletedelete(new File(p, s));
         }
     }
@@ -194,4 +220,14 @@ public final class HeapWriter {
         assert f != null;
         return new File(f.getParentFile(), f.getName() + "." + fingerprint + ".gap");
     }
+
+    protected static File fingerprintBloomFile(File f, String fingerprint) {
+        assert f != null;
+        return new File(f.getParentFile(), f.getName() + "." + fingerprint + ".blm");
+    }
+
+    protected static File fingerprintSketchFile(File f, String fingerprint) {
+        assert f != null;
+        return new File(f.getParentFile(), f.getName() + "." + fingerprint + ".cms");
+    }
 }
@@ -0,0 +1,284 @@
+/**
+ *  PositionReference
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.kelondro.data.word;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import net.yacy.cora.document.encoding.ASCII;
+import net.yacy.cora.order.Base64Order;
+import net.yacy.cora.util.ByteArray;
+import net.yacy.kelondro.index.Column;
+import net.yacy.kelondro.index.Row;
+import net.yacy.kelondro.index.Row.Entry;
+import net.yacy.kelondro.rwi.Reference;
+
+/**
+ * the positions of a word in the text of a document. Position references are stored in a separate index
+ * beside the word references; the positions are written as variable-length deltas into a fixed-size cell.
+ * If the positions do not fit into the cell, only the first positions are stored and the reference is
+ * incomplete: a phrase which is found in the stored positions is in the text, but a phrase which is not
+ * found may still be in the text.
+ */
+public class PositionReference implements Reference, Serializable {
+
+    private static final long serialVersionUID=-1573474924356285421L;
+
+    public static final int positionsLength = 32;
+
+    public static final Row positionRow = new Row(new Column[]{
+            new Column("h", Column.celltype_string,    Column.encoder_bytes, Word.commonHashLength, "urlhash"),
+            new Column("c", Column.celltype_cardinal,  Column.encoder_b256,  2, "count"),
+            new Column("p", Column.celltype_binary,    Column.encoder_bytes, positionsLength, "positions")
+        },
+        Base64Order.enhancedCoder
+    );
+
+    // static properties
+    private static final int col_urlhash   = 0; // h 12 the url hash b64-encoded
+    private static final int col_count     = 1; // c  2 number of positions of the word in text
+    private static final int col_positions = 2; // p 32 the first positions, varint-encoded deltas, zero-padded
+
+    private final Row.Entry entry;
+
+    /**
+     * @param urlHash
+     * @param positions the positions of the word in text in ascending order, starting at 1
+     */
+    public PositionReference(final byte[] urlHash, final int[] positions) {
+        assert (urlHash.length == 12) : "urlhash = " + ASCII.String(urlHash);
+        this.entry = positionRow.newEntry();
+        this.entry.setCol(col_urlhash, urlHash);
+        this.entry.setCol(col_count, Math.min(0xffff, positions.length));
+        this.entry.setCol(col_positions, encode(positions));
+    }
+
+    private PositionReference(final byte[] row) {
+        this.entry = positionRow.newEntry(row);
+    }
+
+    public PositionReference(final Row.Entry rentry) {
+        this.entry = rentry;
+    }
+
+    /**
+     * write the positions as deltas to the previous position, 7 bits per byte with a continuation bit.
+     * A delta is never zero, so a zero byte marks the end of the positions.
+     */
+    private static byte[] encode(final int[] positions) {
+        final byte[] b = new byte[positionsLength];
+        int p = 0, last = 0;
+        encode: for (final int pos: positions) {
+            int delta = pos - last;
+            if (delta <= 0) break; // not ascending, the remaining positions are lost
+            final int start = p;
+            while (delta >= 0x80) {
+                if (p == b.length) {Arrays.fill(b, start, p, (byte) 0); break encode;}
+                b[p++] = (byte) (0x80 | (delta & 0x7f));
+                delta >>>= 7;
+            }
+            if (p == b.length) {Arrays.fill(b, start, p, (byte) 0); break;}
+            b[p++] = (byte) delta;
+            last = pos;
+        }
+        return b;
+    }
+
+    @Override
+    public PositionReference clone() {
+        final byte[] b = new byte[positionRow.objectsize];
+        System.arraycopy(this.entry.bytes(), 0, b, 0, positionRow.objectsize);
+        return new PositionReference(b);
+    }
+
+    @Override
+    public String toPropertyForm() {
+        return this.entry.toPropertyForm('=', true, true, false, false);
+    }
+
+    @Override
+    public Entry toKelondroEntry() {
+        return this.entry;
+    }
+
+    @Override
+    public byte[] urlhash() {
+        return this.entry.getColBytes(col_urlhash, true);
+    }
+
+    /**
+     * @return the number of positions of the word in text
+     */
+    public int count() {
+        return (int) this.entry.getColLong(col_count);
+    }
+
+    /**
+     * @return the stored positions in ascending order; these may be less than count()
+     */
+    public int[] positionArray() {
+        final byte[] b = this.entry.getColBytes(col_positions, false);
+        final int[] positions = new int[Math.min(this.count(), b.length)];
+        int n = 0, p = 0, last = 0;
+        while (p < b.length && b[p] != 0 && n < positions.length) {
+            int delta = 0, shift = 0;
+            while (p < b.length && (b[p] & 0x80) != 0) {
+                delta |= (b[p++] & 0x7f) << shift;
+                shift += 7;
+            }
+            if (p == b.length) break;
+            delta |= b[p++] << shift;
+            last += delta;
+            positions[n++] = last;
+        }
+        return n == positions.length ? positions : Arrays.copyOf(positions, n);
+    }
+
+    /**
+     * @return true if all positions of the word are stored
+     */
+    public boolean isComplete() {
+        return positionArray().length == this.count();
+    }
+
+    @Override
+    public long lastModified() {
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return toPropertyForm();
+    }
+
+    @Override
+    public boolean isOlder(final Reference other) {
+        return false;
+    }
+
+    private int hashCache = Integer.MIN_VALUE; // if this is used in a compare method many times, a cache is useful
+
+    @Override
+    public int hashCode() {
+        if (this.hashCache == Integer.MIN_VALUE) {
+            this.hashCache = ByteArray.hashCode(this.urlhash());
+        }
+        return this.hashCache;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) return true;
+        if (obj == null) return false;
+        if (!(obj instanceof PositionReference)) return false;
+        PositionReference other = (PositionReference) obj;
+        return Base64Order.enhancedCoder.equal(this.urlhash(), other.urlhash());
+    }
+
+    @Override
+    public int distance() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void join(Reference oe) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return the stored positions in ascending order, see positionArray()
+     */
+    @Override
+    public Collection<Integer> positions() {
+        final int[] positions = positionArray();
+        final List<Integer> list = new ArrayList<Integer>(positions.length);
+        for (final int pos: positions) list.add(pos);
+        return list;
+    }
+
+    @Override
+    public int posintext() {
+        final int[] positions = positionArray();
+        return positions.length == 0 ? 0 : positions[0];
+    }
+
+    /**
+     * check if a phrase appears in text
+     * @param phrase the position references of the words of the phrase, in the order of the phrase
+     * @return TRUE if the phrase is in text, FALSE if it is not, null if this cannot be decided
+     *   because a reference is missing or incomplete
+     */
+    public static Boolean containsPhrase(final PositionReference[] phrase) {
+        final int[][] positions = new int[phrase.length][];
+        boolean complete = true;
+        for (int i = 0; i < phrase.length; i++) {
+            if (phrase[i] == null) return null;
+            positions[i] = phrase[i].positionArray();
+            complete &= positions[i].length == phrase[i].count();
+        }
+        start: for (final int start: positions[0]) {
+            for (int i = 1; i < positions.length; i++) {
+                if (Arrays.binarySearch(positions[i], start + i) < 0) continue start;
+            }
+            return Boolean.TRUE;
+        }
+        return complete ? Boolean.FALSE : null;
+    }
+
+    /**
+     * compute the smallest window in text that contains all words
+     * @param words the position references of the words
+     * @return the number of positions between the first and the last word of the smallest window,
+     *   -1 if a reference is missing or has no stored positions
+     */
+    public static int minimalWindow(final PositionReference[] words) {
+        final int[][] positions = new int[words.length][];
+        for (int i = 0; i < words.length; i++) {
+            if (words[i] == null) return -1;
+            positions[i] = words[i].positionArray();
+            if (positions[i].length == 0) return -1;
+        }
+        // move the pointer of the smallest position until one list is exhausted
+        final int[] p = new int[words.length];
+        int window = Integer.MAX_VALUE;
+        while (true) {
+            int min = 0, max = Integer.MIN_VALUE;
+            for (int i = 0; i < positions.length; i++) {
+                if (positions[i][p[i]] < positions[min][p[min]]) min = i;
+                max = Math.max(max, positions[i][p[i]]);
+            }
+            window = Math.min(window, max - positions[min][p[min]]);
+            if (++p[min] == positions[min].length) return window;
+        }
+    }
+
+    /**
+     * @param words the position references of the words
+     * @return true if all references exist and are complete
+     */
+    public static boolean isComplete(final PositionReference[] words) {
+        for (final PositionReference word: words) if (word == null || !word.isComplete()) return false;
+        return true;
+    }
+
+}
@@ -0,0 +1,47 @@
+/**
+ *  PositionReferenceFactory
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.kelondro.data.word;
+
+import java.io.Serializable;
+
+import net.yacy.kelondro.index.Row;
+import net.yacy.kelondro.index.Row.Entry;
+import net.yacy.kelondro.rwi.ReferenceFactory;
+
+public class PositionReferenceFactory implements ReferenceFactory<PositionReference>, Serializable {
+
+    private static final long serialVersionUID=6102957316045203779L;
+
+    @Override
+    public PositionReference produceSlow(final Entry e) {
+        return new PositionReference(e);
+    }
+
+    @Override
+    public PositionReference produceFast(final PositionReference r, final boolean local) {
+        return r;
+    }
+
+    @Override
+    public Row getRow() {
+        return PositionReference.positionRow;
+    }
+
+}
@@ -27,6 +27,7 @@
 package net.yacy.kelondro.data.word;
 
 import java.util.Collection;
+import java.util.Arrays;
 import java.util.Locale;
 
 import net.yacy.cora.order.Base64Order;
@@ -70,6 +71,8 @@ public class Word {
     public  int      posInPhrase; // position of word in phrase
     public  int      numOfPhrase; // number of phrase. 'normal' phrases begin with number 100
     public  Bitfield flags;       // the flag bits for each word
+    private int[]    positions;   // all positions of the word in text, null if positions are not recorded
+    private int      positionCount;
 
     public Word(final int handle, final int pip, final int nop) {
         this.count = 1;
@@ -77,6 +80,28 @@ public class Word {
         this.posInPhrase = pip;
         this.numOfPhrase = nop;
         this.flags = null;
+        this.positions = null;
+        this.positionCount = 0;
+    }
+
+    /**
+     * record a position of the word in text
+     * @param pos the position, starting at 1; positions must be added in ascending order
+     */
+    public void addPosition(final int pos) {
+        if (this.positions == null) {
+            this.positions = new int[4];
+        } else if (this.positionCount == this.positions.length) {
+            this.positions = Arrays.copyOf(this.positions, this.positionCount * 2);
+        }
+        this.positions[this.positionCount++] = pos;
+    }
+
+    /**
+     * @return the recorded positions of the word in text in ascending order; an empty array if no positions were recorded
+     */
+    public int[] positions() {
+        return this.positions == null ? new int[0] : Arrays.copyOf(this.positions, this.positionCount);
     }
 
     public static void clearCache() {
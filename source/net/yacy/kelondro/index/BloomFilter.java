@@ -0,0 +1,213 @@
+/**
+ *  BloomFilter
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.kelondro.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * A Bloom filter for fixed-length keys. It answers the question if a key may be contained in a set:
+ * if mightContain() returns false, the key was never added; if it returns true, the key was added
+ * or this is a false positive. Removing keys from the set does not make the filter wrong, it only
+ * increases the rate of false positives. The filter is used to skip index lookups in BLOB files
+ * which do not contain a key.
+ * Keys are hashed over the first keylength bytes only; shorter keys are not supported.
+ */
+public final class BloomFilter {
+
+    public static final double defaultFalsePositiveRate = 0.01d;
+
+    private static final int magic = 0x424C4D31; // "BLM1"
+
+    private final int keylength;
+    private final int hashes;  // number of probes per key
+    private final long bitCount;
+    private final long[] bits;
+
+    /**
+     * create an empty filter
+     * @param keylength the length of the keys
+     * @param expectedKeys the number of keys that will be added
+     * @param falsePositiveRate the rate of false positives when the expected number of keys is added
+     */
+    public BloomFilter(final int keylength, final long expectedKeys, final double falsePositiveRate) {
+        final long n = Math.max(1, expectedKeys);
+        final double ln2 = Math.log(2.0d);
+        final long m = Math.max(64, (long) Math.ceil(-n * Math.log(falsePositiveRate) / (ln2 * ln2)));
+        final int words = (int) Math.min(Integer.MAX_VALUE - 8, (m + 63) / 64);
+        this.keylength = keylength;
+        this.bits = new long[words];
+        this.bitCount = 64L * words;
+        this.hashes = Math.max(1, Math.min(16, (int) Math.round(((double) this.bitCount) / n * ln2)));
+    }
+
+    /**
+     * read a filter from a file that was written with dump()
+     * @param file
+     * @throws IOException if the file cannot be read or is not a filter dump
+     */
+    public BloomFilter(final File file) throws IOException {
+        final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        try {
+            this.keylength = readHeader(is, file.getName());
+            this.hashes = is.readInt();
+            final int words = is.readInt();
+            if (this.keylength <= 0 || this.hashes <= 0 || words <= 0 || file.length() != 16L + 8L * words) throw new IOException("bloom filter file " + file.getName() + " is damaged");
+            this.bits = new long[words];
+            for (int i = 0; i < words; i++) this.bits[i] = is.readLong();
+            this.bitCount = 64L * words;
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * read a filter from a stream that was written with write()
+     * @param is
+     * @throws IOException if the stream cannot be read or does not contain a filter
+     */
+    BloomFilter(final DataInputStream is) throws IOException {
+        this.keylength = readHeader(is, "stream");
+        this.hashes = is.readInt();
+        final int words = is.readInt();
+        if (this.keylength <= 0 || this.hashes <= 0 || words <= 0) throw new IOException("bloom filter is damaged");
+        this.bits = new long[words];
+        for (int i = 0; i < words; i++) this.bits[i] = is.readLong();
+        this.bitCount = 64L * words;
+    }
+
+    private static int readHeader(final DataInputStream is, final String name) throws IOException {
+        if (is.readInt() != magic) throw new IOException("not a bloom filter: " + name);
+        return is.readInt();
+    }
+
+    /**
+     * create a filter containing all keys of an iteration
+     * @param keylength
+     * @param keys
+     * @param expectedKeys
+     * @return the filter
+     */
+    public static BloomFilter build(final int keylength, final Iterator<byte[]> keys, final long expectedKeys) {
+        final BloomFilter filter = new BloomFilter(keylength, expectedKeys, defaultFalsePositiveRate);
+        while (keys.hasNext()) filter.put(keys.next());
+        return filter;
+    }
+
+    public int keylength() {
+        return this.keylength;
+    }
+
+    /**
+     * @return the size of the filter in bytes
+     */
+    public long mem() {
+        return 8L * this.bits.length;
+    }
+
+    public void put(final byte[] key) {
+        assert key.length >= this.keylength;
+        final long h1 = hash(key, this.keylength, 0x9E3779B97F4A7C15L);
+        final long h2 = hash(key, this.keylength, 0xC2B2AE3D27D4EB4FL) | 1L;
+        for (int i = 0; i < this.hashes; i++) {
+            final long bit = ((h1 + i * h2) & Long.MAX_VALUE) % this.bitCount;
+            this.bits[(int) (bit >>> 6)] |= 1L << (bit & 63);
+        }
+    }
+
+    /**
+     * @return the rate of false positives of the filter with its current content
+     */
+    public double falsePositiveRate() {
+        long set = 0;
+        for (final long word: this.bits) set += Long.bitCount(word);
+        return Math.pow(((double) set) / this.bitCount, this.hashes);
+    }
+
+    /**
+     * @param key
+     * @return false if the key was never added to the filter, true if it may have been added
+     */
+    public boolean mightContain(final byte[] key) {
+        if (key.length < this.keylength) return true; // cannot be answered, the key must be looked up
+        final long h1 = hash(key, this.keylength, 0x9E3779B97F4A7C15L);
+        final long h2 = hash(key, this.keylength, 0xC2B2AE3D27D4EB4FL) | 1L;
+        for (int i = 0; i < this.hashes; i++) {
+            final long bit = ((h1 + i * h2) & Long.MAX_VALUE) % this.bitCount;
+            if ((this.bits[(int) (bit >>> 6)] & (1L << (bit & 63))) == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * write the filter to a file. The file is written to a temporary file first and renamed when it is complete.
+     * @param file
+     * @throws IOException
+     */
+    public void dump(final File file) throws IOException {
+        final File tmp = new File(file.getParentFile(), file.getName() + ".prt");
+        final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024));
+        try {
+            this.write(os);
+        } finally {
+            os.close();
+        }
+        if (file.exists()) FileUtils.deletedelete(file);
+        if (!tmp.renameTo(file)) throw new IOException("cannot rename " + tmp + " to " + file);
+    }
+
+    /**
+     * write the filter to a stream in the format of dump()
+     * @param os
+     * @throws IOException
+     */
+    void write(final DataOutputStream os) throws IOException {
+        os.writeInt(magic);
+        os.writeInt(this.keylength);
+        os.writeInt(this.hashes);
+        os.writeInt(this.bits.length);
+        for (final long word: this.bits) os.writeLong(word);
+    }
+
+    static long hash(final byte[] key, final int length, final long seed) {
+        // FNV-1a over the key bytes with a 64 bit finalizer, so that also similar keys spread over all bits
+        long h = seed ^ 0xCBF29CE484222325L;
+        for (int i = 0; i < length; i++) {
+            h ^= key[i] & 0xff;
+            h *= 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
@@ -0,0 +1,319 @@
+/**
+ *  FrequencySketch
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.kelondro.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.yacy.cora.order.NaturalOrder;
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * An approximation of the values which are assigned to fixed-length keys, i.e. the length of the records
+ * of a BLOB file. The values of the largest keys are held exactly in a small table, all other values are
+ * added to a count-min sketch with conservative update. An estimate is never smaller than the value of a key
+ * which was added; it is larger if other keys collide in all rows of the sketch. Keys which were never added
+ * may get a value larger than zero; use a BloomFilter to sort them out.
+ * Sketches of several files are combined by adding the estimates of each file.
+ * The sketches of mounted files share a memory budget: a sketch which is read with {@link #mount(File)}
+ * is folded to a smaller width if the budget does not allow the full width, which keeps the estimates
+ * upper bounds but makes them less exact.
+ */
+public final class FrequencySketch {
+
+    public static final int defaultTopSize = 64;
+
+    private static final int magic = 0x434D5331; // "CMS1"
+    private static final int depth = 4;
+    private static final int minWidth = 64;
+    private static final int maxWidth = 1 << 20;
+
+    /** the largest memory in bytes of all mounted sketches together; 0 or less for no limit */
+    public static long memoryLimit = 64L * 1024L * 1024L;
+    private static final AtomicLong memoryUsed = new AtomicLong(0);
+    private static final long[] seeds = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+
+    private final int keylength;
+    private final int width;       // a power of 2
+    private final int[] counters;  // depth rows of width counters, saturated at Integer.MAX_VALUE
+    private final int topSize;
+    private final TreeMap<byte[], Long> top; // the exact values of the largest keys
+    private long topMin;           // the smallest value in the top table
+    private long reserved;         // the memory which is reserved in the budget of mounted sketches
+
+    /**
+     * create an empty sketch
+     * @param keylength the length of the keys
+     * @param expectedKeys the number of keys that will be added
+     * @param topSize the number of keys whose values are stored exactly
+     */
+    public FrequencySketch(final int keylength, final long expectedKeys, final int topSize) {
+        this.keylength = keylength;
+        this.width = Math.min(maxWidth, Integer.highestOneBit((int) Math.min(maxWidth, Math.max(minWidth, expectedKeys / 2)) * 2 - 1));
+        this.counters = new int[depth * this.width];
+        this.topSize = topSize;
+        this.top = new TreeMap<byte[], Long>(NaturalOrder.naturalOrder);
+        this.topMin = 0;
+        this.reserved = 0;
+    }
+
+    /**
+     * read a sketch from a file that was written with dump()
+     * @param file
+     * @throws IOException if the file cannot be read or is not a sketch dump
+     */
+    public FrequencySketch(final File file) throws IOException {
+        this(file, Long.MAX_VALUE);
+    }
+
+    /**
+     * read a sketch from a file that was written with dump(), folded to the largest width that fits into the given memory
+     * @param file
+     * @param maxMem the largest size of the sketch in bytes
+     * @throws IOException if the file cannot be read or is not a sketch dump
+     */
+    private FrequencySketch(final File file, final long maxMem) throws IOException {
+        final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        try {
+            if (is.readInt() != magic) throw new IOException("not a frequency sketch file: " + file.getName());
+            this.keylength = is.readInt();
+            final int fileWidth = is.readInt();
+            this.topSize = is.readInt();
+            if (this.keylength <= 0 || fileWidth <= 0 || fileWidth > maxWidth || Integer.bitCount(fileWidth) != 1 || this.topSize < 0 ||
+                file.length() != 16L + 4L * depth * fileWidth + (long) this.topSize * (this.keylength + 8)) throw new IOException("frequency sketch file " + file.getName() + " is damaged");
+            int w = fileWidth;
+            while (w > minWidth && mem(w, this.topSize, this.keylength) > maxMem) w >>= 1;
+            this.width = w;
+            this.counters = new int[depth * this.width];
+            // folding: the counter of a column is the maximum of the counters of all columns which are mapped to it,
+            // so that it is not smaller than the counter of any key which was added
+            for (int row = 0; row < depth; row++) {
+                for (int j = 0; j < fileWidth; j++) {
+                    final int c = is.readInt();
+                    final int i = row * this.width + (j & (this.width - 1));
+                    if (c > this.counters[i]) this.counters[i] = c;
+                }
+            }
+            this.top = new TreeMap<byte[], Long>(NaturalOrder.naturalOrder);
+            for (int i = 0; i < this.topSize; i++) {
+                final byte[] key = new byte[this.keylength];
+                is.readFully(key);
+                this.top.put(key, is.readLong());
+            }
+            this.topMin = minimum();
+            this.reserved = 0;
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * read the sketch of a mounted file within the memory budget of all mounted sketches (see memoryLimit).
+     * The sketch is folded to a smaller width if the remaining budget does not allow the width of the file.
+     * The memory must be given back with release() when the file is unmounted.
+     * @param file
+     * @return the sketch or null if the budget does not even allow the smallest width
+     * @throws IOException if the file cannot be read or is not a sketch dump
+     */
+    public static FrequencySketch mount(final File file) throws IOException {
+        // the memory is taken from the budget before the file is read, so that concurrent mounts cannot exceed it
+        final long fileMem;
+        final DataInputStream is = new DataInputStream(new FileInputStream(file));
+        try {
+            // the header: magic, keylength, width, topSize; it is checked when the file is read
+            is.readInt();
+            final int keylength = is.readInt();
+            final int width = is.readInt();
+            final int topSize = is.readInt();
+            fileMem = mem(Math.max(minWidth, Math.min(maxWidth, width)), Math.max(0, topSize), Math.max(0, keylength));
+        } finally {
+            is.close();
+        }
+        long take;
+        while (true) {
+            final long used = memoryUsed.get();
+            final long limit = memoryLimit;
+            take = limit <= 0 ? fileMem : Math.min(fileMem, limit - used);
+            if (take <= 0) return null;
+            if (memoryUsed.compareAndSet(used, used + take)) break;
+        }
+        final FrequencySketch sketch;
+        try {
+            sketch = new FrequencySketch(file, take);
+        } catch (final IOException e) {
+            memoryUsed.addAndGet(-take);
+            throw e;
+        }
+        final long m = sketch.mem();
+        if (memoryLimit > 0 && m > take) {
+            // not even the smallest width fits
+            memoryUsed.addAndGet(-take);
+            return null;
+        }
+        // give back what was reserved but not used
+        sketch.reserved = m;
+        memoryUsed.addAndGet(m - take);
+        return sketch;
+    }
+
+    /**
+     * give back the memory of a mounted sketch to the budget; the sketch can still be used
+     */
+    public synchronized void release() {
+        memoryUsed.addAndGet(-this.reserved);
+        this.reserved = 0;
+    }
+
+    /**
+     * @return the memory in bytes of all mounted sketches which are not released
+     */
+    public static long memoryUsed() {
+        return memoryUsed.get();
+    }
+
+    public int width() {
+        return this.width;
+    }
+
+    private static long mem(final int width, final int topSize, final int keylength) {
+        return 4L * depth * width + (long) topSize * (keylength + 48);
+    }
+
+    public int keylength() {
+        return this.keylength;
+    }
+
+    /**
+     * @return the size of the sketch in bytes
+     */
+    public long mem() {
+        return mem(this.width, this.top.size(), this.keylength);
+    }
+
+    /**
+     * add the value of a key. Each key should be added only once; the values of a key which is added several times are summed up.
+     * @param key
+     * @param value a value larger than zero
+     */
+    public void add(final byte[] key, final long value) {
+        assert key.length >= this.keylength;
+        if (value <= 0) return;
+        final byte[] k = normalize(key);
+        final Long v = this.top.get(k);
+        if (v != null) {
+            this.top.put(k, v.longValue() + value);
+            return;
+        }
+        if (this.top.size() < this.topSize) {
+            this.top.put(k, value);
+            this.topMin = minimum();
+            return;
+        }
+        if (this.topSize > 0 && value > this.topMin) {
+            // the smallest key of the table goes into the sketch
+            byte[] smallest = null;
+            for (final Map.Entry<byte[], Long> entry: this.top.entrySet()) {
+                if (entry.getValue().longValue() == this.topMin) {smallest = entry.getKey(); break;}
+            }
+            this.top.remove(smallest);
+            addSketch(smallest, this.topMin);
+            this.top.put(k, value);
+            this.topMin = minimum();
+            return;
+        }
+        addSketch(k, value);
+    }
+
+    private byte[] normalize(final byte[] key) {
+        return key.length == this.keylength ? key : Arrays.copyOf(key, this.keylength);
+    }
+
+    private long minimum() {
+        long min = Long.MAX_VALUE;
+        for (final Long v: this.top.values()) min = Math.min(min, v.longValue());
+        return min == Long.MAX_VALUE ? 0 : min;
+    }
+
+    private void addSketch(final byte[] key, final long value) {
+        // conservative update: no counter is raised higher than the new estimate of the key
+        final long e = Math.min(Integer.MAX_VALUE, estimateSketch(key) + value);
+        for (int row = 0; row < depth; row++) {
+            final int i = index(key, row);
+            if (this.counters[i] < e) this.counters[i] = (int) e;
+        }
+    }
+
+    private int index(final byte[] key, final int row) {
+        return row * this.width + (int) (BloomFilter.hash(key, this.keylength, seeds[row]) & (this.width - 1));
+    }
+
+    private long estimateSketch(final byte[] key) {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) min = Math.min(min, this.counters[index(key, row)]);
+        return min;
+    }
+
+    /**
+     * @param key
+     * @return the value of the key or a larger value
+     */
+    public long estimate(final byte[] key) {
+        if (key.length < this.keylength) return 0;
+        final Long v = this.top.get(normalize(key));
+        if (v != null) return v.longValue();
+        return estimateSketch(key);
+    }
+
+    /**
+     * write the sketch to a file. The file is written to a temporary file first and renamed when it is complete.
+     * @param file
+     * @throws IOException
+     */
+    public void dump(final File file) throws IOException {
+        final File tmp = new File(file.getParentFile(), file.getName() + ".prt");
+        final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024));
+        try {
+            os.writeInt(magic);
+            os.writeInt(this.keylength);
+            os.writeInt(this.width);
+            os.writeInt(this.top.size());
+            for (final int c: this.counters) os.writeInt(c);
+            for (final Map.Entry<byte[], Long> entry: this.top.entrySet()) {
+                os.write(entry.getKey(), 0, this.keylength);
+                os.writeLong(entry.getValue().longValue());
+            }
+        } finally {
+            os.close();
+        }
+        if (file.exists()) FileUtils.deletedelete(file);
+        if (!tmp.renameTo(file)) throw new IOException("cannot rename " + tmp + " to " + file);
+    }
+
+}
@@ -0,0 +1,73 @@
+/**
+ *  HandleMapFactory
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.kelondro.index;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.yacy.cora.order.ByteOrder;
+import net.yacy.cora.storage.HandleMap;
+import net.yacy.cora.util.SpaceExceededException;
+
+/**
+ * Creates the HandleMap objects for the heap indexes and the crawler depth cache.
+ * The implementation is selected with the static offHeap switch: either a {@link RowHandleMap}
+ * in the java heap or an {@link OffHeapHandleMap} in direct memory. Both have the same dump format.
+ */
+public final class HandleMapFactory {
+
+    /** if true, new maps are OffHeapHandleMap objects, otherwise RowHandleMap objects */
+    public static boolean offHeap = false;
+
+    private HandleMapFactory() {
+    }
+
+    /**
+     * create an empty map
+     * @param keylength
+     * @param objectOrder
+     * @param idxbytes
+     * @param expectedspace
+     * @param name
+     * @return a new map
+     */
+    public static HandleMap newHandleMap(final int keylength, final ByteOrder objectOrder, final int idxbytes, final int expectedspace, final String name) {
+        return offHeap ?
+                new OffHeapHandleMap(keylength, objectOrder, idxbytes, expectedspace, name) :
+                new RowHandleMap(keylength, objectOrder, idxbytes, expectedspace, name);
+    }
+
+    /**
+     * create a map with the content of an index dump
+     * @param keylength
+     * @param objectOrder
+     * @param idxbytes
+     * @param file
+     * @return a new map
+     * @throws IOException
+     * @throws SpaceExceededException
+     */
+    public static HandleMap loadHandleMap(final int keylength, final ByteOrder objectOrder, final int idxbytes, final File file) throws IOException, SpaceExceededException {
+        return offHeap ?
+                new OffHeapHandleMap(keylength, objectOrder, idxbytes, file) :
+                new RowHandleMap(keylength, objectOrder, idxbytes, file);
+    }
+
+}
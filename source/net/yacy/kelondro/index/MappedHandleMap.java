@@ -0,0 +1,422 @@
+/**
+ *  MappedHandleMap
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.kelondro.index;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import net.yacy.cora.order.ByteOrder;
+import net.yacy.cora.order.CloneableIterator;
+import net.yacy.cora.order.NaturalOrder;
+import net.yacy.cora.storage.HandleMap;
+import net.yacy.cora.util.ConcurrentLog;
+import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.io.ChunkedMappedFile;
+
+/**
+ * A HandleMap that reads its entries directly from an uncompressed index dump as written by
+ * {@link RowHandleMap#dump(File)}. Such a dump is a sequence of fixed-width entries
+ * (key, value as b256 long) in the order of the key ordering, so it can be memory-mapped and
+ * searched with a binary search. Opening the map does not read the file at all; only the pages
+ * that are touched by lookups are loaded by the operating system and they do not count to the java heap.
+ * Changes are recorded in a small in-heap overlay: a RowHandleMap with new or changed entries
+ * and a set of keys from the dump which are removed or shadowed by the overlay.
+ * The dump file itself is never written; a dump() of this map writes a new file with the merged content.
+ */
+public final class MappedHandleMap implements HandleMap {
+
+    private final int keylength, idxbytes, width;
+    private final ByteOrder ordering;
+    private final String name;
+    private ChunkedMappedFile mapped; // the sorted index dump; null after clear()
+    private long mappedSize;           // number of entries in the dump
+    private RowHandleMap overlay;      // entries that are new or changed since the dump was mapped
+    private RowHandleSet shadowed;     // keys from the dump that are removed or replaced by an entry in the overlay
+
+    /**
+     * map an uncompressed index dump
+     * @param keylength
+     * @param objectOrder the ordering that was used to write the dump
+     * @param idxbytes the length of the value column
+     * @param file an index dump as written by RowHandleMap.dump() with a file name not ending with .gz
+     * @throws IOException if the file cannot be mapped or does not have the size of a sequence of entries
+     */
+    public MappedHandleMap(final int keylength, final ByteOrder objectOrder, final int idxbytes, final File file) throws IOException {
+        if (file.getName().endsWith(".gz")) throw new IOException("compressed index dump cannot be mapped: " + file.getName());
+        this.keylength = keylength;
+        this.idxbytes = idxbytes;
+        this.width = keylength + idxbytes;
+        this.ordering = objectOrder;
+        this.name = file.getAbsolutePath();
+        this.mapped = new ChunkedMappedFile(file);
+        if (this.mapped.length() % this.width != 0) throw new IOException("index dump " + file.getName() + " has length " + this.mapped.length() + " which is not a multiple of the entry width " + this.width);
+        this.mappedSize = this.mapped.length() / this.width;
+        this.overlay = new RowHandleMap(keylength, objectOrder, idxbytes, 100, this.name + ".overlay");
+        this.shadowed = new RowHandleSet(keylength, objectOrder, 100);
+    }
+
+    /**
+     * @return the number of entries that are read from the mapped dump
+     */
+    public long mappedSize() {
+        return this.mappedSize;
+    }
+
+    /**
+     * @return the number of entries in the in-heap overlay
+     */
+    public int overlaySize() {
+        return this.overlay.size();
+    }
+
+    @Override
+    public synchronized long mem() {
+        return this.overlay.mem() + this.shadowed.size() * this.keylength;
+    }
+
+    @Override
+    public synchronized void optimize() {
+        this.overlay.optimize();
+        this.shadowed.optimize();
+    }
+
+    /**
+     * write all entries of the map, including the overlay, in order to a file
+     * @param file
+     * @return the number of written entries
+     * @throws IOException
+     */
+    @Override
+    public synchronized int dump(final File file) throws IOException {
+        final File tmp = new File(file.getParentFile(), file.getName() + ".prt");
+        final MergedKeys i = new MergedKeys(true, null);
+        final byte[] b = new byte[this.width];
+        int c = 0;
+        final FileOutputStream fileStream = new FileOutputStream(tmp);
+        OutputStream os = null;
+        try {
+            os = new BufferedOutputStream(fileStream, 4 * 1024 * 1024);
+            if (file.getName().endsWith(".gz")) os = new GZIPOutputStream(os, 65536){{def.setLevel(Deflater.BEST_COMPRESSION);}};
+            byte[] key;
+            while (i.hasNext()) {
+                key = i.next();
+                System.arraycopy(key, 0, b, 0, this.keylength);
+                NaturalOrder.encodeLong(get(key), b, this.keylength, this.idxbytes);
+                os.write(b);
+                c++;
+            }
+            os.flush();
+        } finally {
+            if (os != null) os.close(); else fileStream.close();
+        }
+        // the mapping of the old file stays valid even if it is replaced by the renamed file
+        tmp.renameTo(file);
+        assert file.exists() : file.toString();
+        return c;
+    }
+
+    @Override
+    public synchronized void clear() {
+        this.mapped = null;
+        this.mappedSize = 0;
+        this.overlay.clear();
+        this.shadowed.clear();
+    }
+
+    @Override
+    public synchronized byte[] smallestKey() {
+        final MergedKeys i = new MergedKeys(true, null);
+        return i.hasNext() ? i.next() : null;
+    }
+
+    @Override
+    public synchronized byte[] largestKey() {
+        final MergedKeys i = new MergedKeys(false, null);
+        return i.hasNext() ? i.next() : null;
+    }
+
+    @Override
+    public boolean has(final byte[] key) {
+        return get(key) >= 0;
+    }
+
+    @Override
+    public synchronized long get(final byte[] key) {
+        assert (key != null);
+        final long l = this.overlay.get(key);
+        if (l >= 0) return l;
+        if (this.shadowed.has(key)) return -1;
+        final long p = find(key);
+        return p < 0 ? -1 : value(p);
+    }
+
+    @Override
+    public synchronized long put(final byte[] key, final long l) throws SpaceExceededException {
+        final long o = this.overlay.put(key, l);
+        if (o >= 0) return o;
+        if (this.shadowed.has(key)) return -1;
+        final long p = find(key);
+        if (p < 0) return -1;
+        // the entry in the dump is replaced by the new entry in the overlay
+        this.shadowed.put(key);
+        return value(p);
+    }
+
+    @Override
+    public void putUnique(final byte[] key, final long l) throws SpaceExceededException {
+        put(key, l);
+    }
+
+    @Override
+    public synchronized long add(final byte[] key, final long a) throws SpaceExceededException {
+        final long o = get(key);
+        if (o < 0) {
+            put(key, a);
+            return a;
+        }
+        put(key, o + a);
+        return o + a;
+    }
+
+    @Override
+    public long inc(final byte[] key) throws SpaceExceededException {
+        return add(key, 1);
+    }
+
+    @Override
+    public long dec(final byte[] key) throws SpaceExceededException {
+        return add(key, -1);
+    }
+
+    /**
+     * keys are unique in the dump and the overlay shadows all keys of the dump that it contains,
+     * so there are never doubles in this map
+     */
+    @Override
+    public ArrayList<long[]> removeDoubles() {
+        return new ArrayList<long[]>(0);
+    }
+
+    @Override
+    public synchronized ArrayList<byte[]> top(final int count) {
+        final ArrayList<byte[]> list = new ArrayList<byte[]>();
+        final MergedKeys i = new MergedKeys(true, null);
+        while (i.hasNext() && list.size() < count) list.add(i.next());
+        return list;
+    }
+
+    @Override
+    public synchronized long remove(final byte[] key) {
+        assert (key != null);
+        final long o = this.overlay.remove(key);
+        if (this.shadowed.has(key)) return o; // the entry in the dump was already removed or replaced
+        final long p = find(key);
+        if (p < 0) return o;
+        try {
+            this.shadowed.put(key);
+        } catch (final SpaceExceededException e) {
+            // we cannot remember that the entry was removed; then we must not pretend that it is removed
+            ConcurrentLog.logException(e);
+            return o;
+        }
+        return o >= 0 ? o : value(p);
+    }
+
+    @Override
+    public synchronized long removeone() {
+        final byte[] key = smallestKey();
+        if (key == null) return -1;
+        return remove(key);
+    }
+
+    @Override
+    public synchronized int size() {
+        return (int) (this.mappedSize - this.shadowed.size() + this.overlay.size());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public synchronized CloneableIterator<byte[]> keys(final boolean up, final byte[] firstKey) {
+        return new MergedKeys(up, firstKey);
+    }
+
+    @Override
+    public synchronized void close() {
+        this.mapped = null;
+        this.mappedSize = 0;
+        if (this.overlay != null) this.overlay.close();
+        this.overlay = null;
+        if (this.shadowed != null) this.shadowed.close();
+        this.shadowed = null;
+    }
+
+    @Override
+    public Iterator<Map.Entry<byte[], Long>> iterator() {
+        final CloneableIterator<byte[]> i = keys(true, null);
+        return new Iterator<Map.Entry<byte[], Long>>() {
+            @Override
+            public boolean hasNext() {
+                return i.hasNext();
+            }
+            @Override
+            public Map.Entry<byte[], Long> next() {
+                final byte[] key = i.next();
+                return new AbstractMap.SimpleImmutableEntry<byte[], Long>(key, get(key));
+            }
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * binary search of a key in the mapped dump
+     * @param key
+     * @return the entry number of the key or -(insertion point) - 1 if the key is not in the dump
+     */
+    private long find(final byte[] key) {
+        assert key.length >= this.keylength;
+        final byte[] probe = new byte[this.keylength];
+        long low = 0;
+        long high = this.mappedSize - 1;
+        while (low <= high) {
+            final long mid = (low + high) >>> 1;
+            readKey(mid, probe);
+            final int c = this.ordering.compare(probe, 0, key, 0, this.keylength);
+            if (c < 0) low = mid + 1;
+            else if (c > 0) high = mid - 1;
+            else return mid;
+        }
+        return -(low + 1);
+    }
+
+    private void readKey(final long entry, final byte[] key) {
+        try {
+            this.mapped.get(entry * this.width, key);
+        } catch (final IOException e) {
+            // cannot happen because the entry number is always inside of the mapped file
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    private long value(final long entry) {
+        try {
+            final long pos = entry * this.width + this.keylength;
+            if (this.idxbytes == 8) return this.mapped.getLong(pos);
+            final byte[] b = new byte[this.idxbytes];
+            this.mapped.get(pos, b);
+            return NaturalOrder.decodeLong(b);
+        } catch (final IOException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    /**
+     * iteration over the entries of the dump which are not shadowed, merged with the keys of the overlay.
+     * The iterator reflects the content of the map at the time of each next() call.
+     */
+    private final class MergedKeys implements CloneableIterator<byte[]> {
+
+        private final boolean up;
+        private final CloneableIterator<byte[]> overlayKeys;
+        private long entry;  // the next entry of the dump to look at
+        private byte[] nextMapped, nextOverlay;
+
+        private MergedKeys(final boolean up, final byte[] firstKey) {
+            this.up = up;
+            this.overlayKeys = MappedHandleMap.this.overlay.keys(up, firstKey);
+            if (firstKey == null) {
+                this.entry = up ? 0 : MappedHandleMap.this.mappedSize - 1;
+            } else {
+                final long p = find(firstKey);
+                this.entry = p >= 0 ? p : (up ? -p - 1 : -p - 2);
+            }
+            advanceMapped();
+            this.nextOverlay = this.overlayKeys.hasNext() ? this.overlayKeys.next() : null;
+        }
+
+        private void advanceMapped() {
+            this.nextMapped = null;
+            while (this.entry >= 0 && this.entry < MappedHandleMap.this.mappedSize && MappedHandleMap.this.mapped != null) {
+                final byte[] key = new byte[MappedHandleMap.this.keylength];
+                readKey(this.entry, key);
+                this.entry += this.up ? 1 : -1;
+                if (!MappedHandleMap.this.shadowed.has(key)) {
+                    this.nextMapped = key;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.nextMapped != null || this.nextOverlay != null;
+        }
+
+        @Override
+        public byte[] next() {
+            final byte[] key;
+            if (this.nextOverlay == null || (this.nextMapped != null && (MappedHandleMap.this.ordering.compare(this.nextMapped, this.nextOverlay) < 0) == this.up)) {
+                if (this.nextMapped == null) throw new NoSuchElementException();
+                key = this.nextMapped;
+                advanceMapped();
+            } else {
+                key = this.nextOverlay;
+                this.nextOverlay = this.overlayKeys.hasNext() ? this.overlayKeys.next() : null;
+            }
+            return key;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CloneableIterator<byte[]> clone(final Object modifier) {
+            return new MergedKeys(this.up, (byte[]) modifier);
+        }
+
+        @Override
+        public void close() {
+            this.overlayKeys.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MappedHandleMap " + this.name + ": " + this.mappedSize + " mapped entries, " + this.overlay.size() + " in overlay, " + this.shadowed.size() + " shadowed";
+    }
+}
@@ -0,0 +1,809 @@
+/**
+ *  OffHeapHandleMap
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.kelondro.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.yacy.cora.order.CloneableIterator;
+import net.yacy.cora.order.NaturalOrder;
+import net.yacy.cora.storage.HandleMap;
+import net.yacy.cora.util.SpaceExceededException;
+
+/**
+ * A HandleMap that stores its entries in open-addressing hash tables outside of the java heap.
+ * Each entry is a fixed-width slot of the key bytes followed by the value as a primitive long in a direct
+ * ByteBuffer, so a map with hundreds of millions of entries consists of a few large buffers instead of
+ * many small objects and does not contribute to the work of the garbage collector.
+ * The keys are distributed by their hash over a fixed number of stripes; each stripe is a table with
+ * linear probing and its own lock, so that concurrent accesses to different stripes do not block each other.
+ * The hash order has nothing to do with the key ordering: for the ordered operations (keys(), dump(), top())
+ * each stripe keeps a sorted run of its entries in direct memory together with a small sorted delta of the
+ * changes since the run was written. An iteration merges the runs and deltas of all stripes without copying them;
+ * a run is written again from the hash table only when it is missing or its delta became too large,
+ * which needs a sorted copy of a single stripe on the java heap.
+ * The dump format is the same as in {@link RowHandleMap}, so that both implementations can read each others dumps.
+ * The direct memory is released when the map is garbage collected after close().
+ */
+public final class OffHeapHandleMap implements HandleMap {
+
+    private static final int stripeCount = 32; // must be a power of 2
+    private static final int stripeShift = 64 - Integer.numberOfTrailingZeros(stripeCount);
+    private static final int minCapacity = 16;
+    private static final long hashSeed = 0x2545F4914F6CDD1DL;
+    private static final int maxDelta = 4096; // the largest number of changes of a stripe that are kept beside its sorted run
+    private static final long REMOVED = Long.MIN_VALUE; // the delta value of a removed key
+
+    private final int keylength, idxbytes, width;
+    private final net.yacy.cora.order.ByteOrder ordering;
+    private final String name;
+    private final Stripe[] stripes;
+
+    /**
+     * initialize an empty map
+     * @param keylength
+     * @param objectOrder the ordering of the keys for the iteration and the dump
+     * @param idxbytes the number of bytes of the values in a dump
+     * @param expectedspace the expected number of entries
+     * @param name
+     */
+    public OffHeapHandleMap(final int keylength, final net.yacy.cora.order.ByteOrder objectOrder, final int idxbytes, final int expectedspace, final String name) {
+        this.keylength = keylength;
+        this.idxbytes = idxbytes;
+        this.width = keylength + 8;
+        this.ordering = objectOrder;
+        this.name = name;
+        this.stripes = new Stripe[stripeCount];
+        final int capacity = capacityFor(Math.max(0, expectedspace) / stripeCount, this.width);
+        for (int i = 0; i < stripeCount; i++) this.stripes[i] = new Stripe(capacity);
+    }
+
+    /**
+     * initialize a map with the content of an index dump
+     * @param keylength
+     * @param objectOrder
+     * @param idxbytes
+     * @param file a dump as written by dump(), a file name ending with .gz is read as compressed dump
+     * @throws IOException
+     * @throws SpaceExceededException if there is not enough direct memory for the content
+     */
+    public OffHeapHandleMap(final int keylength, final net.yacy.cora.order.ByteOrder objectOrder, final int idxbytes, final File file) throws IOException, SpaceExceededException {
+        this(keylength, objectOrder, idxbytes, (int) Math.min(Integer.MAX_VALUE, file.length() / (keylength + idxbytes)), file.getAbsolutePath());
+        InputStream is = new BufferedInputStream(new FileInputStream(file), 1024 * 1024);
+        try {
+            if (file.getName().endsWith(".gz")) is = new GZIPInputStream(is);
+            final byte[] a = new byte[keylength + idxbytes];
+            final byte[] key = new byte[keylength];
+            int p, c;
+            while (true) {
+                // read one complete entry; a truncated entry at the end of the file is ignored
+                p = 0;
+                while (p < a.length && (c = is.read(a, p, a.length - p)) > 0) p += c;
+                if (p < a.length) break;
+                if (!objectOrder.wellformed(a, 0, keylength)) continue;
+                System.arraycopy(a, 0, key, 0, keylength);
+                put(key, NaturalOrder.decodeLong(a, keylength, idxbytes));
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    private static int capacityFor(final int entries, final int width) {
+        // the load factor is kept below 3/4; a table must fit into one ByteBuffer
+        final int maxCapacity = Integer.highestOneBit(Integer.MAX_VALUE / width);
+        final long c = Math.max(minCapacity, (long) entries * 4 / 3 + 1);
+        return c > maxCapacity ? maxCapacity : Integer.highestOneBit((int) c - 1) << 1;
+    }
+
+    private static long hash(final byte[] key, final int keylength) {
+        return BloomFilter.hash(key, keylength, hashSeed);
+    }
+
+    private Stripe stripe(final long hash) {
+        return this.stripes[(int) (hash >>> stripeShift)];
+    }
+
+    // an empty slot has the raw value 0; the values are stored with a flipped sign bit to distinguish them from empty slots
+    private static long encode(final long value) {
+        return value ^ Long.MIN_VALUE;
+    }
+
+    private static long decode(final long raw) {
+        return raw ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * one hash table with linear probing. All methods must be called while holding the lock of the stripe object.
+     */
+    private final class Stripe {
+
+        private ByteBuffer table;
+        private int capacity, mask, count;
+        private ByteBuffer run; // the sorted entries of the table as (key, value) or null if not written yet
+        private int runCount;
+        private TreeMap<byte[], Long> delta; // the changes since the run was written, REMOVED for removed keys
+
+        private Stripe(final int capacity) {
+            allocate(capacity);
+        }
+
+        private void allocate(final int c) {
+            this.table = ByteBuffer.allocateDirect(c * OffHeapHandleMap.this.width).order(ByteOrder.nativeOrder());
+            this.capacity = c;
+            this.mask = c - 1;
+            this.count = 0;
+        }
+
+        private long rawValue(final int slot) {
+            return this.table.getLong(slot * OffHeapHandleMap.this.width + OffHeapHandleMap.this.keylength);
+        }
+
+        private boolean keyEquals(final int slot, final byte[] key) {
+            final int base = slot * OffHeapHandleMap.this.width;
+            for (int i = 0; i < OffHeapHandleMap.this.keylength; i++) {
+                if (this.table.get(base + i) != key[i]) return false;
+            }
+            return true;
+        }
+
+        private void readKey(final int slot, final byte[] key, final int offset) {
+            final int base = slot * OffHeapHandleMap.this.width;
+            for (int i = 0; i < OffHeapHandleMap.this.keylength; i++) key[offset + i] = this.table.get(base + i);
+        }
+
+        /**
+         * @return the slot of the key or -1 if the key is not in the table
+         */
+        private int find(final byte[] key, final long hash) {
+            int slot = (int) hash & this.mask;
+            while (rawValue(slot) != 0) {
+                if (keyEquals(slot, key)) return slot;
+                slot = (slot + 1) & this.mask;
+            }
+            return -1;
+        }
+
+        private long get(final byte[] key, final long hash) {
+            final int slot = find(key, hash);
+            return slot < 0 ? -1 : decode(rawValue(slot));
+        }
+
+        /**
+         * @return the previous value or -1 if the key was not in the table
+         */
+        private long put(final byte[] key, final long hash, final long value) throws SpaceExceededException {
+            assert value != Long.MIN_VALUE;
+            int slot = (int) hash & this.mask;
+            long raw;
+            while ((raw = rawValue(slot)) != 0) {
+                if (keyEquals(slot, key)) {
+                    this.table.putLong(slot * OffHeapHandleMap.this.width + OffHeapHandleMap.this.keylength, encode(value));
+                    changed(key, value);
+                    return decode(raw);
+                }
+                slot = (slot + 1) & this.mask;
+            }
+            if ((this.count + 1) * 4L > this.capacity * 3L) {
+                grow();
+                slot = (int) hash & this.mask;
+                while (rawValue(slot) != 0) slot = (slot + 1) & this.mask;
+            }
+            final int base = slot * OffHeapHandleMap.this.width;
+            for (int i = 0; i < OffHeapHandleMap.this.keylength; i++) this.table.put(base + i, key[i]);
+            this.table.putLong(base + OffHeapHandleMap.this.keylength, encode(value));
+            this.count++;
+            changed(key, value);
+            return -1;
+        }
+
+        private void grow() throws SpaceExceededException {
+            final long needed = 2L * this.capacity * OffHeapHandleMap.this.width;
+            if (needed > Integer.MAX_VALUE) throw new SpaceExceededException(needed, "OffHeapHandleMap " + OffHeapHandleMap.this.name + ": stripe is full");
+            final ByteBuffer old = this.table;
+            final int oldCapacity = this.capacity;
+            final int oldCount = this.count;
+            try {
+                allocate(this.capacity * 2);
+            } catch (final OutOfMemoryError e) {
+                // the direct memory is exhausted (see -XX:MaxDirectMemorySize); the old table is still intact
+                this.table = old;
+                this.capacity = oldCapacity;
+                this.mask = oldCapacity - 1;
+                throw new SpaceExceededException(needed, "OffHeapHandleMap " + OffHeapHandleMap.this.name + ": " + e.getMessage());
+            }
+            final int w = OffHeapHandleMap.this.width;
+            final int kl = OffHeapHandleMap.this.keylength;
+            final byte[] key = new byte[kl];
+            for (int s = 0; s < oldCapacity; s++) {
+                final long raw = old.getLong(s * w + kl);
+                if (raw == 0) continue;
+                for (int i = 0; i < kl; i++) key[i] = old.get(s * w + i);
+                int slot = (int) hash(key, kl) & this.mask;
+                while (rawValue(slot) != 0) slot = (slot + 1) & this.mask;
+                final int base = slot * w;
+                for (int i = 0; i < kl; i++) this.table.put(base + i, key[i]);
+                this.table.putLong(base + kl, raw);
+            }
+            this.count = oldCount;
+        }
+
+        /**
+         * @return the removed value or -1 if the key was not in the table
+         */
+        private long remove(final byte[] key, final long hash) {
+            int slot = find(key, hash);
+            if (slot < 0) return -1;
+            final long value = decode(rawValue(slot));
+            // backward shift deletion: move following entries of the probe sequence into the gap,
+            // so that lookups never need tombstones
+            final int w = OffHeapHandleMap.this.width;
+            final int kl = OffHeapHandleMap.this.keylength;
+            final byte[] k = new byte[kl];
+            int next = (slot + 1) & this.mask;
+            while (rawValue(next) != 0) {
+                readKey(next, k, 0);
+                final int home = (int) hash(k, kl) & this.mask;
+                // the entry at next may be moved to slot if its home position is not in the cyclic range (slot, next]
+                if (((next - home) & this.mask) >= ((next - slot) & this.mask)) {
+                    for (int i = 0; i < w; i++) this.table.put(slot * w + i, this.table.get(next * w + i));
+                    slot = next;
+                }
+                next = (next + 1) & this.mask;
+            }
+            this.table.putLong(slot * w + kl, 0);
+            this.count--;
+            changed(key, REMOVED);
+            return value;
+        }
+
+        private void clear() {
+            allocate(minCapacity);
+            this.run = null;
+            this.delta = null;
+        }
+
+        /**
+         * record a change in the delta of the sorted run; the run is dropped if there are too many changes
+         */
+        private void changed(final byte[] key, final long value) {
+            if (this.run == null) return;
+            if (this.delta.size() >= maxDelta) {
+                this.run = null;
+                this.delta = null;
+                return;
+            }
+            final byte[] k = new byte[OffHeapHandleMap.this.keylength];
+            System.arraycopy(key, 0, k, 0, k.length);
+            this.delta.put(k, value);
+        }
+
+        /**
+         * get the sorted entries of this stripe. The run is written from a sorted snapshot if it is missing;
+         * a large delta is merged into a new run, otherwise a copy of the delta is returned together with the run.
+         */
+        private SortedView sortedView() {
+            if (this.run == null) {
+                final Snapshot snapshot = snapshot();
+                final int kl = OffHeapHandleMap.this.keylength;
+                final ByteBuffer b = ByteBuffer.allocateDirect(Math.max(1, snapshot.size()) * OffHeapHandleMap.this.width).order(ByteOrder.nativeOrder());
+                for (int p = 0; p < snapshot.size(); p++) {
+                    final int e = snapshot.order[p];
+                    for (int i = 0; i < kl; i++) b.put(snapshot.keys[e * kl + i]);
+                    b.putLong(snapshot.values[e]);
+                }
+                this.run = b;
+                this.runCount = snapshot.size();
+                this.delta = new TreeMap<byte[], Long>(OffHeapHandleMap.this.ordering);
+            } else if (this.delta.size() > this.runCount / 32) {
+                // merge the delta into a new run; the old run may still be in use by running iterations
+                final ByteBuffer b = ByteBuffer.allocateDirect(Math.max(1, this.count) * OffHeapHandleMap.this.width).order(ByteOrder.nativeOrder());
+                final SortedCursor c = new SortedCursor(new SortedView(this.run, this.runCount, this.delta), true, null);
+                int n = 0;
+                while (c.key != null) {
+                    b.put(c.key);
+                    b.putLong(c.value);
+                    n++;
+                    c.advance();
+                }
+                assert n == this.count;
+                this.run = b;
+                this.runCount = n;
+                this.delta = new TreeMap<byte[], Long>(OffHeapHandleMap.this.ordering);
+            }
+            return new SortedView(this.run, this.runCount, this.delta.isEmpty() ? this.delta : new TreeMap<byte[], Long>(this.delta));
+        }
+
+        /**
+         * copy all entries of this stripe to the heap in the order of the keys
+         */
+        private Snapshot snapshot() {
+            final int kl = OffHeapHandleMap.this.keylength;
+            final byte[] keys = new byte[this.count * kl];
+            final long[] values = new long[this.count];
+            int c = 0;
+            for (int s = 0; s < this.capacity; s++) {
+                final long raw = rawValue(s);
+                if (raw == 0) continue;
+                readKey(s, keys, c * kl);
+                values[c++] = decode(raw);
+            }
+            assert c == this.count;
+            return new Snapshot(keys, values, c);
+        }
+    }
+
+    /**
+     * a sorted copy of the entries of a stripe
+     */
+    private final class Snapshot {
+
+        private final byte[] keys;
+        private final long[] values;
+        private final int[] order; // positions of the entries in keys/values, sorted by key
+
+        private Snapshot(final byte[] keys, final long[] values, final int count) {
+            this.keys = keys;
+            this.values = values;
+            this.order = new int[count];
+            for (int i = 0; i < count; i++) this.order[i] = i;
+            sort(0, count - 1);
+        }
+
+        private int size() {
+            return this.order.length;
+        }
+
+        private int compare(final int a, final int b) {
+            final int kl = OffHeapHandleMap.this.keylength;
+            return OffHeapHandleMap.this.ordering.compare(this.keys, a * kl, this.keys, b * kl, kl);
+        }
+
+        private void swap(final int i, final int j) {
+            final int t = this.order[i];
+            this.order[i] = this.order[j];
+            this.order[j] = t;
+        }
+
+        private void sort(int lo, int hi) {
+            // quicksort of the order array; recursion only into the smaller part
+            while (hi - lo > 16) {
+                final int mid = (lo + hi) >>> 1;
+                if (compare(this.order[mid], this.order[lo]) < 0) swap(mid, lo);
+                if (compare(this.order[hi], this.order[lo]) < 0) swap(hi, lo);
+                if (compare(this.order[hi], this.order[mid]) < 0) swap(hi, mid);
+                final int pivot = this.order[mid];
+                int i = lo, j = hi;
+                while (i <= j) {
+                    while (compare(this.order[i], pivot) < 0) i++;
+                    while (compare(this.order[j], pivot) > 0) j--;
+                    if (i <= j) swap(i++, j--);
+                }
+                if (j - lo < hi - i) {
+                    sort(lo, j);
+                    lo = i;
+                } else {
+                    sort(i, hi);
+                    hi = j;
+                }
+            }
+            for (int i = lo + 1; i <= hi; i++) {
+                for (int j = i; j > lo && compare(this.order[j], this.order[j - 1]) < 0; j--) swap(j, j - 1);
+            }
+        }
+    }
+
+    /**
+     * the sorted run of a stripe together with the changes since the run was written
+     */
+    private static final class SortedView {
+        private final ByteBuffer run;
+        private final int runCount;
+        private final TreeMap<byte[], Long> delta;
+        private SortedView(final ByteBuffer run, final int runCount, final TreeMap<byte[], Long> delta) {
+            this.run = run;
+            this.runCount = runCount;
+            this.delta = delta;
+        }
+    }
+
+    /**
+     * a cursor on the sorted view of a stripe which merges the run with the delta;
+     * key is the key at the cursor position or null at the end
+     */
+    private final class SortedCursor {
+
+        private final SortedView view;
+        private final boolean up;
+        private final Iterator<Map.Entry<byte[], Long>> deltaIterator;
+        private Map.Entry<byte[], Long> deltaHead;
+        private int position;
+        private byte[] key;
+        private long value;
+
+        private SortedCursor(final SortedView view, final boolean up, final byte[] firstKey) {
+            this.view = view;
+            this.up = up;
+            this.deltaIterator = (firstKey == null ?
+                    (up ? view.delta : view.delta.descendingMap()) :
+                    (up ? view.delta.tailMap(firstKey, true) : view.delta.headMap(firstKey, true).descendingMap())).entrySet().iterator();
+            this.deltaHead = this.deltaIterator.hasNext() ? this.deltaIterator.next() : null;
+            this.position = firstKey == null ? (up ? 0 : view.runCount - 1) : search(firstKey);
+            advance();
+        }
+
+        private byte[] runKey(final int position) {
+            final int kl = OffHeapHandleMap.this.keylength;
+            final byte[] k = new byte[kl];
+            final int base = position * OffHeapHandleMap.this.width;
+            for (int i = 0; i < kl; i++) k[i] = this.view.run.get(base + i);
+            return k;
+        }
+
+        /**
+         * @return the first position in the run with a key >= key (up) or the last position with a key <= key (down)
+         */
+        private int search(final byte[] key) {
+            int low = 0, high = this.view.runCount - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int c = OffHeapHandleMap.this.ordering.compare(runKey(mid), key);
+                if (c < 0) low = mid + 1;
+                else if (c > 0) high = mid - 1;
+                else return mid;
+            }
+            return this.up ? low : low - 1;
+        }
+
+        /**
+         * move to the next entry; a delta entry replaces a run entry with the same key
+         */
+        private void advance() {
+            while (true) {
+                final byte[] r = this.position >= 0 && this.position < this.view.runCount ? runKey(this.position) : null;
+                if (r == null && this.deltaHead == null) {
+                    this.key = null;
+                    return;
+                }
+                int c = r == null ? 1 : this.deltaHead == null ? -1 : OffHeapHandleMap.this.ordering.compare(r, this.deltaHead.getKey());
+                if (!this.up && r != null && this.deltaHead != null) c = -c;
+                if (c < 0) {
+                    this.key = r;
+                    this.value = this.view.run.getLong(this.position * OffHeapHandleMap.this.width + OffHeapHandleMap.this.keylength);
+                    this.position += this.up ? 1 : -1;
+                    return;
+                }
+                if (c == 0) this.position += this.up ? 1 : -1;
+                final Map.Entry<byte[], Long> d = this.deltaHead;
+                this.deltaHead = this.deltaIterator.hasNext() ? this.deltaIterator.next() : null;
+                if (d.getValue().longValue() == REMOVED) continue;
+                this.key = d.getKey();
+                this.value = d.getValue().longValue();
+                return;
+            }
+        }
+    }
+
+    /**
+     * iteration over the sorted views of all stripes. The views are taken stripe by stripe,
+     * so the iteration does not reflect changes that are done during the iteration.
+     */
+    private final class SortedEntries implements CloneableIterator<byte[]> {
+
+        private final boolean up;
+        private final PriorityQueue<SortedCursor> heads;
+        private long value;
+
+        private SortedEntries(final boolean up, final byte[] firstKey) {
+            this.up = up;
+            this.heads = new PriorityQueue<SortedCursor>(stripeCount, (a, b) -> up ? OffHeapHandleMap.this.ordering.compare(a.key, b.key) : OffHeapHandleMap.this.ordering.compare(b.key, a.key));
+            for (final Stripe stripe: OffHeapHandleMap.this.stripes) {
+                final SortedView view;
+                synchronized (stripe) {
+                    view = stripe.sortedView();
+                }
+                final SortedCursor cursor = new SortedCursor(view, up, firstKey);
+                if (cursor.key != null) this.heads.add(cursor);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !this.heads.isEmpty();
+        }
+
+        @Override
+        public byte[] next() {
+            final SortedCursor c = this.heads.poll();
+            if (c == null) throw new NoSuchElementException();
+            final byte[] key = c.key;
+            this.value = c.value;
+            c.advance();
+            if (c.key != null) this.heads.add(c);
+            return key;
+        }
+
+        /**
+         * @return the value of the entry of the latest next() call
+         */
+        private long value() {
+            return this.value;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CloneableIterator<byte[]> clone(final Object modifier) {
+            return new SortedEntries(this.up, (byte[]) modifier);
+        }
+
+        @Override
+        public void close() {
+            this.heads.clear();
+        }
+    }
+
+    @Override
+    public long mem() {
+        long m = 0;
+        for (final Stripe stripe: this.stripes) synchronized (stripe) {
+            m += (long) stripe.capacity * this.width;
+            if (stripe.run != null) m += (long) stripe.run.capacity();
+        }
+        return m;
+    }
+
+    /**
+     * nothing to do: the tables have always the same structure
+     */
+    @Override
+    public void optimize() {
+    }
+
+    /**
+     * write all entries in order to a file, in the same format as {@link RowHandleMap#dump(File)}
+     * @param file
+     * @return the number of written entries
+     * @throws IOException
+     */
+    @Override
+    public int dump(final File file) throws IOException {
+        final File tmp = new File(file.getParentFile(), file.getName() + ".prt");
+        final SortedEntries i = new SortedEntries(true, null);
+        final byte[] b = new byte[this.keylength + this.idxbytes];
+        int c = 0;
+        final FileOutputStream fileStream = new FileOutputStream(tmp);
+        OutputStream os = null;
+        try {
+            os = new BufferedOutputStream(fileStream, 4 * 1024 * 1024);
+            if (file.getName().endsWith(".gz")) os = new GZIPOutputStream(os, 65536){{def.setLevel(Deflater.BEST_COMPRESSION);}};
+            while (i.hasNext()) {
+                System.arraycopy(i.next(), 0, b, 0, this.keylength);
+                NaturalOrder.encodeLong(i.value(), b, this.keylength, this.idxbytes);
+                os.write(b);
+                c++;
+            }
+            os.flush();
+        } finally {
+            if (os != null) os.close(); else fileStream.close();
+        }
+        tmp.renameTo(file);
+        assert file.exists() : file.toString();
+        return c;
+    }
+
+    @Override
+    public void clear() {
+        for (final Stripe stripe: this.stripes) synchronized (stripe) {
+            stripe.clear();
+        }
+    }
+
+    @Override
+    public byte[] smallestKey() {
+        return extremeKey(true);
+    }
+
+    @Override
+    public byte[] largestKey() {
+        return extremeKey(false);
+    }
+
+    private byte[] extremeKey(final boolean smallest) {
+        // a linear scan is cheaper than a sorted snapshot
+        byte[] best = null;
+        final byte[] key = new byte[this.keylength];
+        for (final Stripe stripe: this.stripes) synchronized (stripe) {
+            for (int s = 0; s < stripe.capacity; s++) {
+                if (stripe.rawValue(s) == 0) continue;
+                stripe.readKey(s, key, 0);
+                if (best == null || (this.ordering.compare(key, best) < 0) == smallest) best = key.clone();
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public boolean has(final byte[] key) {
+        return get(key) >= 0;
+    }
+
+    @Override
+    public long get(final byte[] key) {
+        assert (key != null);
+        if (key.length < this.keylength) return -1;
+        final long h = hash(key, this.keylength);
+        final Stripe stripe = stripe(h);
+        synchronized (stripe) {
+            return stripe.get(key, h);
+        }
+    }
+
+    @Override
+    public long put(final byte[] key, final long l) throws SpaceExceededException {
+        assert (key != null && key.length >= this.keylength);
+        final long h = hash(key, this.keylength);
+        final Stripe stripe = stripe(h);
+        synchronized (stripe) {
+            return stripe.put(key, h, l);
+        }
+    }
+
+    /**
+     * keys are always unique in this map; an entry with the same key is replaced
+     */
+    @Override
+    public void putUnique(final byte[] key, final long l) throws SpaceExceededException {
+        put(key, l);
+    }
+
+    @Override
+    public long add(final byte[] key, final long a) throws SpaceExceededException {
+        assert key != null;
+        final long h = hash(key, this.keylength);
+        final Stripe stripe = stripe(h);
+        synchronized (stripe) {
+            final long o = stripe.get(key, h);
+            final long n = o < 0 ? a : o + a;
+            stripe.put(key, h, n);
+            return n;
+        }
+    }
+
+    @Override
+    public long inc(final byte[] key) throws SpaceExceededException {
+        return add(key, 1L);
+    }
+
+    @Override
+    public long dec(final byte[] key) throws SpaceExceededException {
+        return add(key, -1L);
+    }
+
+    /**
+     * keys are unique in the hash tables, so there are never doubles in this map
+     */
+    @Override
+    public ArrayList<long[]> removeDoubles() {
+        return new ArrayList<long[]>(0);
+    }
+
+    @Override
+    public ArrayList<byte[]> top(final int count) {
+        final ArrayList<byte[]> list = new ArrayList<byte[]>();
+        final SortedEntries i = new SortedEntries(true, null);
+        while (i.hasNext() && list.size() < count) list.add(i.next());
+        return list;
+    }
+
+    @Override
+    public long remove(final byte[] key) {
+        assert (key != null);
+        if (key.length < this.keylength) return -1;
+        final long h = hash(key, this.keylength);
+        final Stripe stripe = stripe(h);
+        synchronized (stripe) {
+            return stripe.remove(key, h);
+        }
+    }
+
+    @Override
+    public long removeone() {
+        final byte[] key = smallestKey();
+        if (key == null) return -1;
+        return remove(key);
+    }
+
+    @Override
+    public int size() {
+        long c = 0;
+        for (final Stripe stripe: this.stripes) synchronized (stripe) {
+            c += stripe.count;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, c);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (final Stripe stripe: this.stripes) synchronized (stripe) {
+            if (stripe.count > 0) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public CloneableIterator<byte[]> keys(final boolean up, final byte[] firstKey) {
+        return new SortedEntries(up, firstKey);
+    }
+
+    /**
+     * release the tables; the direct memory is freed when the buffers are garbage collected
+     */
+    @Override
+    public void close() {
+        clear();
+    }
+
+    @Override
+    public Iterator<Map.Entry<byte[], Long>> iterator() {
+        final SortedEntries i = new SortedEntries(true, null);
+        return new Iterator<Map.Entry<byte[], Long>>() {
+            @Override
+            public boolean hasNext() {
+                return i.hasNext();
+            }
+            @Override
+            public Map.Entry<byte[], Long> next() {
+                final byte[] key = i.next();
+                return new AbstractMap.SimpleImmutableEntry<byte[], Long>(key, i.value());
+            }
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "OffHeapHandleMap " + this.name + ": " + size() + " entries, " + (mem() / 1024) + " KB direct memory";
+    }
+}
@@ -28,6 +28,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
@@ -57,6 +58,11 @@ public class RowCollection implements Sortable<Row.Entry>, Iterable<Row.Entry>,
     public  static final long growfactorSmall100 = 110L;
     private static final int isortlimit = 20;
 
+    /**
+     * if true, collections with a Base64Order are sorted by the sort prefixes of their keys (see Base64Order.sortPrefix)
+     */
+    public static boolean sortByPrefix = true;
+
     private static final int exp_chunkcount  = 0;
     private static final int exp_last_read   = 1;
     private static final int exp_last_wrote  = 2;
@@ -686,11 +692,75 @@ public class RowCollection implements Sortable<Row.Entry>, Iterable<Row.Entry>,
         synchronized (this) {
             if (this.sortBound == this.chunkcount) return; // check again
             //Log.logInfo("RowCollection.sort()", "sorting array of size " + this.chunkcount + ", sortBound = " + this.sortBound);
-            net.yacy.cora.sorting.Array.sort(this);
+            if (!sortByPrefix || !sortByPrefix()) net.yacy.cora.sorting.Array.sort(this);
             this.sortBound = this.chunkcount;
         }
     }
 
+    /**
+     * sort the rows by the sort prefixes of their keys: each prefix is computed once and packed together with
+     * the row number into a long, so that the rows are sorted with a primitive sort. Only rows with equal packed
+     * prefixes are compared by their keys. Finally the rows are moved to their positions along the permutation cycles.
+     * @return false if the rows were not sorted because the order has no sort prefixes, a key is not well-formed
+     *   or there is not enough memory for the prefixes
+     */
+    private boolean sortByPrefix() {
+        if (!(this.rowdef.objectOrder instanceof Base64Order)) return false;
+        final Base64Order order = (Base64Order) this.rowdef.objectOrder;
+        final int n = this.chunkcount;
+        if (n < isortlimit || !order.hasSortPrefix() || !MemoryControl.request(8L * n, false)) return false;
+        final int objectsize = this.rowdef.objectsize;
+        final int keylength = this.rowdef.primaryKeyLength;
+
+        // the row number takes the lower bits, the prefix is cut to the remaining bits of a positive long
+        final int indexBits = 32 - Integer.numberOfLeadingZeros(n - 1);
+        final int prefixBits = Math.min(6 * Base64Order.sortPrefixLength, 63 - indexBits);
+        final int cut = 6 * Base64Order.sortPrefixLength - prefixBits;
+        final long indexMask = (1L << indexBits) - 1;
+        final long[] packed = new long[n];
+        for (int i = 0; i < n; i++) {
+            final long prefix = order.sortPrefix(this.chunkcache, i * objectsize, keylength);
+            if (prefix < 0) return false;
+            packed[i] = ((prefix >>> cut) << indexBits) | i;
+        }
+        Arrays.sort(packed);
+
+        final int[] index = new int[n];
+        for (int i = 0; i < n; i++) index[i] = (int) (packed[i] & indexMask);
+        if (cut > 0 || keylength > Base64Order.sortPrefixLength) {
+            // sort the runs of equal prefixes by their keys
+            int s = 0;
+            for (int i = 1; i <= n; i++) {
+                if (i < n && (packed[i] >>> indexBits) == (packed[s] >>> indexBits)) continue;
+                for (int j = s + 1; j < i; j++) {
+                    for (int k = j; k > s && order.compare(this.chunkcache, index[k] * objectsize, this.chunkcache, index[k - 1] * objectsize, keylength) < 0; k--) {
+                        final int t = index[k]; index[k] = index[k - 1]; index[k - 1] = t;
+                    }
+                }
+                s = i;
+            }
+        }
+
+        // move the row index[p] to position p
+        final byte[] swapspace = new byte[objectsize];
+        for (int p = 0; p < n; p++) {
+            if (index[p] == p) continue;
+            System.arraycopy(this.chunkcache, p * objectsize, swapspace, 0, objectsize);
+            int j = p;
+            while (true) {
+                final int source = index[j];
+                index[j] = j;
+                if (source == p) {
+                    System.arraycopy(swapspace, 0, this.chunkcache, j * objectsize, objectsize);
+                    break;
+                }
+                System.arraycopy(this.chunkcache, source * objectsize, this.chunkcache, j * objectsize, objectsize);
+                j = source;
+            }
+        }
+        return true;
+    }
+
     public static class partitionthread implements Callable<Integer> {
         RowCollection rc;
         int L, R, S;
@@ -26,6 +26,7 @@ package net.yacy.kelondro.index;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
@@ -78,19 +79,33 @@ public class RowSet extends RowCollection implements Index, Iterable<Row.Entry>,
     }
 
     public final static RowSet importRowSet(final byte[] b, final Row rowdef) throws SpaceExceededException {
-    	assert b.length >= exportOverheadSize : "b.length = " + b.length;
-    	if (b.length < exportOverheadSize) return new RowSet(rowdef, 0);
-        final int size = (int) NaturalOrder.decodeLong(b, 0, 4);
+        return importRowSet(ByteBuffer.wrap(b), rowdef);
+    }
+
+    /**
+     * import an exported collection from a buffer. The buffer may be a view on a memory-mapped file;
+     * its content is copied once into the chunk cache of the new RowSet, the buffer is not modified.
+     * @param b a buffer with the exported collection between position and limit
+     * @param rowdef
+     * @return the imported RowSet
+     * @throws SpaceExceededException
+     */
+    public final static RowSet importRowSet(final ByteBuffer b, final Row rowdef) throws SpaceExceededException {
+        final int blength = b.remaining();
+        final int p = b.position();
+    	assert blength >= exportOverheadSize : "b.length = " + blength;
+    	if (blength < exportOverheadSize) return new RowSet(rowdef, 0);
+        final int size = b.getInt(p);
         assert size >= 0 : "size = " + size;
         if (size < 0) return new RowSet(rowdef, 0);
-        final int orderbound = (int) NaturalOrder.decodeLong(b, 10, 4);
+        final int orderbound = b.getInt(p + 10);
         assert orderbound >= 0 : "orderbound = " + orderbound;
         if (orderbound < 0) return new RowSet(rowdef, 0); // error
         final long alloc = ((long) size) * ((long) rowdef.objectsize);
         assert alloc <= Integer.MAX_VALUE : "alloc = " + alloc;
         if (alloc > Integer.MAX_VALUE) throw new SpaceExceededException((int) alloc, "importRowSet: alloc > Integer.MAX_VALUE");
-        assert alloc == b.length - exportOverheadSize;
-        if (alloc != b.length - exportOverheadSize) throw new SpaceExceededException((int) alloc, "importRowSet: alloc != b.length - exportOverheadSize");
+        assert alloc == blength - exportOverheadSize;
+        if (alloc != blength - exportOverheadSize) throw new SpaceExceededException((int) alloc, "importRowSet: alloc != b.length - exportOverheadSize");
         MemoryControl.request((int) alloc, true);
         final byte[] chunkcache;
         try {
@@ -99,14 +114,33 @@ public class RowSet extends RowCollection implements Index, Iterable<Row.Entry>,
             throw new SpaceExceededException((int) alloc, "importRowSet: OutOfMemoryError");
         }
         //assert b.length - exportOverheadSize == size * rowdef.objectsize : "b.length = " + b.length + ", size * rowdef.objectsize = " + size * rowdef.objectsize;
-        if (b.length - exportOverheadSize != alloc) {
-            ConcurrentLog.severe("RowSet", "exportOverheadSize wrong: b.length = " + b.length + ", size * rowdef.objectsize = " + size * rowdef.objectsize);
+        if (blength - exportOverheadSize != alloc) {
+            ConcurrentLog.severe("RowSet", "exportOverheadSize wrong: b.length = " + blength + ", size * rowdef.objectsize = " + size * rowdef.objectsize);
             return new RowSet(rowdef, 0);
         }
-        System.arraycopy(b, (int) exportOverheadSize, chunkcache, 0, chunkcache.length);
+        final ByteBuffer collection = b.duplicate();
+        collection.position(p + (int) exportOverheadSize);
+        collection.get(chunkcache, 0, chunkcache.length);
         return new RowSet(rowdef, size, chunkcache, orderbound);
     }
 
+    /**
+     * import an exported collection from an untrusted source like a remote peer. The sort bound of the export
+     * is not used: the rows are sorted and double entries are removed, so that binary searches and merges
+     * on the imported collection are correct whatever the sender wrote.
+     * @param b the exported collection
+     * @param rowdef
+     * @return the imported RowSet, sorted and without double entries
+     * @throws SpaceExceededException
+     */
+    public final static RowSet importUntrustedRowSet(final byte[] b, final Row rowdef) throws SpaceExceededException {
+        final RowSet set = importRowSet(b, rowdef);
+        set.sortBound = 0;
+        set.sort();
+        set.uniq();
+        return set;
+    }
+
     public final static int importRowCount(final long blength, final Row rowdef) {
         assert blength >= exportOverheadSize : "blength = " + blength;
         if (blength < exportOverheadSize) return 0;
@@ -352,6 +386,42 @@ public class RowSet extends RowCollection implements Index, Iterable<Row.Entry>,
         return l;
     }
 
+    /**
+     * find a key with an exponential (galloping) search which starts at a given position, followed by
+     * a binary search within the last step. If keys are searched in ascending order, each key is found
+     * with O(log d) comparisons where d is the distance to the position of the previous key; this makes
+     * the intersection of a small with a large set proportional to the size of the small set.
+     * The collection is sorted before the search.
+     * @param key
+     * @param from the start position of the search; all keys before this position must be smaller than key
+     * @return the position of the key if it exists, otherwise -(p + 1) where p is the position of the first greater key
+     */
+    public final synchronized int gallop(final byte[] key, final int from) {
+        assert key.length == this.rowdef.primaryKeyLength;
+        assert (this.rowdef.objectOrder != null);
+        sort();
+        final int size = this.chunkcount;
+        int l = from; // all keys before l are smaller than key
+        int r = from;
+        int step = 1;
+        while (r < size) {
+            final int d = compare(key, 0, r);
+            if (d == 0) return r;
+            if (d < 0) break;
+            l = r + 1;
+            r = l + step;
+            step <<= 1;
+        }
+        r = Math.min(r, size);
+        while (l < r) {
+            final int p = (l + r) >>> 1;
+            final int d = compare(key, 0, p);
+            if (d == 0) return p;
+            if (d < 0) r = p; else l = p + 1;
+        }
+        return -(l + 1);
+    }
+
     public final synchronized Iterator<byte[]> keys() {
         sort();
         return super.keys(true);
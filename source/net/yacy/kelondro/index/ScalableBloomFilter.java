@@ -0,0 +1,220 @@
+/**
+ *  ScalableBloomFilter
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.kelondro.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * A Bloom filter for a set of keys which grows without a known final size.
+ * The keys are distributed over partitions, each with its own lock, so that concurrent writers
+ * do not wait for each other. Each partition is a list of {@link BloomFilter} generations: when the
+ * newest generation holds as many keys as it was made for, a new generation with twice the capacity
+ * and half the false positive rate is added. A key is contained if any generation contains it, and
+ * the false positive rate of all generations together stays below the rate given at the start.
+ */
+public final class ScalableBloomFilter {
+
+    private static final int magic = 0x53424631; // "SBF1"
+
+    private final class Partition {
+        private final List<BloomFilter> generations = new ArrayList<BloomFilter>(4);
+        private long capacity; // number of keys for the newest generation
+        private long count;    // number of keys in the newest generation
+
+        private Partition(final long capacity) {
+            this.capacity = capacity;
+            this.count = 0;
+            this.generations.add(new BloomFilter(ScalableBloomFilter.this.keylength, capacity, ScalableBloomFilter.this.falsePositiveRate / 2));
+        }
+
+        private Partition(final DataInputStream is) throws IOException {
+            this.capacity = is.readLong();
+            this.count = is.readLong();
+            final int g = is.readInt();
+            if (g <= 0 || this.capacity <= 0 || this.count < 0) throw new IOException("scalable bloom filter is damaged");
+            for (int i = 0; i < g; i++) this.generations.add(new BloomFilter(is));
+        }
+
+        private boolean mightContain(final byte[] key) {
+            for (int i = this.generations.size() - 1; i >= 0; i--) {
+                if (this.generations.get(i).mightContain(key)) return true;
+            }
+            return false;
+        }
+
+        private void put(final byte[] key) {
+            if (this.mightContain(key)) return; // do not count keys twice
+            if (this.count >= this.capacity) {
+                this.capacity *= 2;
+                this.count = 0;
+                // the rates of the generations are p/2, p/4, p/8 ... so that their sum stays below p
+                final double p = ScalableBloomFilter.this.falsePositiveRate / (2L << Math.min(30, this.generations.size()));
+                this.generations.add(new BloomFilter(ScalableBloomFilter.this.keylength, this.capacity, p));
+            }
+            this.generations.get(this.generations.size() - 1).put(key);
+            this.count++;
+        }
+
+        private void write(final DataOutputStream os) throws IOException {
+            os.writeLong(this.capacity);
+            os.writeLong(this.count);
+            os.writeInt(this.generations.size());
+            for (final BloomFilter filter: this.generations) filter.write(os);
+        }
+    }
+
+    private final int keylength;
+    private final double falsePositiveRate;
+    private final Partition[] partitions;
+
+    /**
+     * create an empty filter
+     * @param keylength the length of the keys
+     * @param partitions the number of partitions
+     * @param expectedKeys the number of keys for the first generation of all partitions together
+     * @param falsePositiveRate the maximum rate of false positives
+     */
+    public ScalableBloomFilter(final int keylength, final int partitions, final long expectedKeys, final double falsePositiveRate) {
+        this.keylength = keylength;
+        this.falsePositiveRate = falsePositiveRate;
+        this.partitions = new Partition[Math.max(1, partitions)];
+        final long capacity = Math.max(1024, expectedKeys / this.partitions.length);
+        for (int i = 0; i < this.partitions.length; i++) this.partitions[i] = new Partition(capacity);
+    }
+
+    /**
+     * read a filter from a file that was written with dump()
+     * @param file
+     * @throws IOException if the file cannot be read or is not a filter dump
+     */
+    public ScalableBloomFilter(final File file) throws IOException {
+        final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        try {
+            if (is.readInt() != magic) throw new IOException("not a scalable bloom filter file: " + file.getName());
+            this.keylength = is.readInt();
+            this.falsePositiveRate = is.readDouble();
+            final int p = is.readInt();
+            if (this.keylength <= 0 || p <= 0 || this.falsePositiveRate <= 0.0d) throw new IOException("scalable bloom filter file " + file.getName() + " is damaged");
+            this.partitions = new Partition[p];
+            for (int i = 0; i < p; i++) this.partitions[i] = new Partition(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    public int keylength() {
+        return this.keylength;
+    }
+
+    private Partition partition(final byte[] key) {
+        return this.partitions[(int) ((BloomFilter.hash(key, this.keylength, 0x632BE59BD9B4E019L) & Long.MAX_VALUE) % this.partitions.length)];
+    }
+
+    public void put(final byte[] key) {
+        assert key.length >= this.keylength;
+        final Partition partition = this.partition(key);
+        synchronized (partition) {
+            partition.put(key);
+        }
+    }
+
+    /**
+     * @param key
+     * @return false if the key was never added to the filter, true if it may have been added
+     */
+    public boolean mightContain(final byte[] key) {
+        if (key.length < this.keylength) return true; // cannot be answered, the key must be looked up
+        final Partition partition = this.partition(key);
+        synchronized (partition) {
+            return partition.mightContain(key);
+        }
+    }
+
+    /**
+     * @return the number of different keys in the filter; keys which were false positives when they were added are not counted
+     */
+    public long size() {
+        long size = 0;
+        for (final Partition partition: this.partitions) synchronized (partition) {
+            for (int i = 0; i < partition.generations.size() - 1; i++) size += partition.capacity >>> (partition.generations.size() - 1 - i);
+            size += partition.count;
+        }
+        return size;
+    }
+
+    /**
+     * @return the size of the filter in bytes
+     */
+    public long mem() {
+        long mem = 0;
+        for (final Partition partition: this.partitions) synchronized (partition) {
+            for (final BloomFilter filter: partition.generations) mem += filter.mem();
+        }
+        return mem;
+    }
+
+    /**
+     * @return the rate of false positives of the filter with its current content
+     */
+    public double falsePositiveRate() {
+        double rate = 0.0d;
+        for (final Partition partition: this.partitions) synchronized (partition) {
+            double negative = 1.0d;
+            for (final BloomFilter filter: partition.generations) negative *= 1.0d - filter.falsePositiveRate();
+            rate += 1.0d - negative;
+        }
+        return rate / this.partitions.length;
+    }
+
+    /**
+     * write the filter to a file. The file is written to a temporary file first and renamed when it is complete.
+     * @param file
+     * @throws IOException
+     */
+    public void dump(final File file) throws IOException {
+        final File tmp = new File(file.getParentFile(), file.getName() + ".prt");
+        final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024));
+        try {
+            os.writeInt(magic);
+            os.writeInt(this.keylength);
+            os.writeDouble(this.falsePositiveRate);
+            os.writeInt(this.partitions.length);
+            for (final Partition partition: this.partitions) synchronized (partition) {
+                partition.write(os);
+            }
+        } finally {
+            os.close();
+        }
+        if (file.exists()) FileUtils.deletedelete(file);
+        if (!tmp.renameTo(file)) throw new IOException("cannot rename " + tmp + " to " + file);
+    }
+
+}
@@ -143,6 +143,17 @@ public final class CachedFileWriter extends AbstractWriter implements Writer {
         this.RAFile.seek(pos);
     }
 
+    /**
+     * force all written content of the file to the storage device;
+     * after this method returned, the content survives a crash of the process or the operating system
+     * @throws IOException
+     */
+    @Override
+    public final synchronized void sync() throws IOException {
+        this.checkReopen();
+        this.RAFile.getChannel().force(false);
+    }
+
     @Override
     public final synchronized void close() {
         if (this.RAFile != null) try {
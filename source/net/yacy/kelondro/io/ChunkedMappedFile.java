@@ -0,0 +1,146 @@
+// ChunkedMappedFile.java
+// ---------------------
+// part of YaCy
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+
+package net.yacy.kelondro.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only memory mapping of a whole file. Because a single MappedByteBuffer cannot
+ * address more than 2GB, the file is mapped in chunks of a fixed size. Reads that lie inside
+ * one chunk are returned as zero-copy slices of the mapping; the rare reads that cross a chunk
+ * border are copied into a heap buffer.
+ * The file must not be truncated while it is mapped: access to a mapped region beyond the end
+ * of the file fails with an InternalError. There is no explicit unmap in Java 8, the mapping is
+ * released when the object is garbage collected.
+ */
+public final class ChunkedMappedFile {
+
+    public static final int defaultChunkSize = 1 << 30; // 1 GB
+
+    private final File file;
+    private final long length;
+    private final int chunkSize;
+    private final MappedByteBuffer[] chunks;
+
+    public ChunkedMappedFile(final File file) throws IOException {
+        this(file, defaultChunkSize);
+    }
+
+    public ChunkedMappedFile(final File file, final int chunkSize) throws IOException {
+        this.file = file;
+        this.chunkSize = chunkSize;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            this.length = channel.size();
+            final int count = (int) ((this.length + chunkSize - 1) / chunkSize);
+            this.chunks = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                final long start = ((long) i) * chunkSize;
+                this.chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize, this.length - start));
+            }
+        }
+    }
+
+    public File file() {
+        return this.file;
+    }
+
+    /**
+     * @return the length of the file at the time when it was mapped
+     */
+    public long length() {
+        return this.length;
+    }
+
+    public int getInt(final long pos) throws IOException {
+        checkBounds(pos, 4);
+        final int chunk = (int) (pos / this.chunkSize);
+        final int offset = (int) (pos % this.chunkSize);
+        if (offset + 4 <= this.chunks[chunk].limit()) return this.chunks[chunk].getInt(offset);
+        return slice(pos, 4).getInt(0);
+    }
+
+    public long getLong(final long pos) throws IOException {
+        checkBounds(pos, 8);
+        final int chunk = (int) (pos / this.chunkSize);
+        final int offset = (int) (pos % this.chunkSize);
+        if (offset + 8 <= this.chunks[chunk].limit()) return this.chunks[chunk].getLong(offset);
+        return slice(pos, 8).getLong(0);
+    }
+
+    /**
+     * copy bytes from the file into an array without creating a view on the mapping
+     * @param pos the start position in the file
+     * @param b the target array, it is filled completely
+     * @throws IOException if the requested region is outside of the mapped file
+     */
+    public void get(final long pos, final byte[] b) throws IOException {
+        checkBounds(pos, b.length);
+        int chunk = (int) (pos / this.chunkSize);
+        int offset = (int) (pos % this.chunkSize);
+        for (int i = 0; i < b.length; i++) {
+            if (offset == this.chunks[chunk].limit()) {
+                chunk++;
+                offset = 0;
+            }
+            b[i] = this.chunks[chunk].get(offset++);
+        }
+    }
+
+    /**
+     * get a read-only view on a part of the file
+     * @param pos the start position in the file
+     * @param len the number of bytes
+     * @return a buffer with position 0 and limit len
+     * @throws IOException if the requested region is outside of the mapped file
+     */
+    public ByteBuffer slice(final long pos, final int len) throws IOException {
+        checkBounds(pos, len);
+        int chunk = (int) (pos / this.chunkSize);
+        int offset = (int) (pos % this.chunkSize);
+        if (offset + len <= this.chunks[chunk].limit()) {
+            final ByteBuffer b = this.chunks[chunk].duplicate();
+            b.position(offset);
+            b.limit(offset + len);
+            return b.slice().asReadOnlyBuffer();
+        }
+        // the region crosses the border of a chunk: copy it
+        final ByteBuffer copy = ByteBuffer.allocate(len);
+        while (copy.hasRemaining()) {
+            final ByteBuffer b = this.chunks[chunk].duplicate();
+            b.position(offset);
+            b.limit(Math.min(b.limit(), offset + copy.remaining()));
+            copy.put(b);
+            chunk++;
+            offset = 0;
+        }
+        copy.flip();
+        return copy.asReadOnlyBuffer();
+    }
+
+    private void checkBounds(final long pos, final int len) throws IOException {
+        if (pos < 0 || len < 0 || pos + len > this.length) throw new IOException("read outside of mapped file " + this.file.getName() + ": pos = " + pos + ", len = " + len + ", length = " + this.length);
+    }
+
+}
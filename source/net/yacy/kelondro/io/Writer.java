@@ -41,5 +41,8 @@ public interface Writer extends Reader {
     public void writeMap(Map<String, String> props, String comment) throws IOException;
     public HashMap<String, String> readMap() throws IOException;
 
+    // force all written content to the storage device
+    public void sync() throws IOException;
+
     public void deleteOnExit();
 }
@@ -28,6 +28,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.yacy.cora.util.ConcurrentLog;
 import net.yacy.kelondro.blob.ArrayStack;
@@ -57,6 +58,12 @@ public class IODispatcher extends Thread {
     private   boolean                      terminate;
     private final int                      writeBufferSize;
 
+    // statistics for the tuning of merge policies
+    private final AtomicLong               dumpBytes = new AtomicLong(0); // bytes written by dumps of RAM caches
+    private final AtomicLong               mergeCount = new AtomicLong(0), mergeFiles = new AtomicLong(0);
+    private final AtomicLong               mergeBytes = new AtomicLong(0); // bytes written by merges
+    private final AtomicLong               mergeTime = new AtomicLong(0);  // milliseconds
+
     public IODispatcher(final int dumpQueueLength, final int mergeQueueLength, final int writeBufferSize) {
     	super("IODispatcher");
         this.termination = new Semaphore(0);
@@ -111,24 +118,42 @@ public class IODispatcher extends Thread {
         return (this.controlQueue == null || !isAlive()) ? 0 : this.controlQueue.availablePermits();
     }
 
-    protected synchronized void merge(final File f1, final File f2, final ReferenceFactory<? extends Reference> factory, final ArrayStack array, final File newFile) {
+    /**
+     * @return the number of merge jobs that wait for execution
+     */
+    public int mergeQueueLength() {
+        final ArrayBlockingQueue<MergeJob> q = this.mergeQueue;
+        return q == null ? 0 : q.size();
+    }
+
+    /**
+     * @return {number of merges, number of merged files, bytes written by merges, milliseconds spent in merges, bytes written by dumps}
+     */
+    public long[] mergeStatistics() {
+        return new long[]{this.mergeCount.get(), this.mergeFiles.get(), this.mergeBytes.get(), this.mergeTime.get(), this.dumpBytes.get()};
+    }
+
+    protected void merge(final File f1, final File f2, final ReferenceFactory<? extends Reference> factory, final ArrayStack array, final File newFile) {
+        merge(f2 == null ? new File[]{f1} : new File[]{f1, f2}, factory, array, newFile);
+    }
+
+    /**
+     * queue a merge of a number of files into one. A single file is only rewritten.
+     * @param files the files, they must be unmounted from the array before
+     * @param factory
+     * @param array
+     * @param newFile
+     */
+    protected synchronized void merge(final File[] files, final ReferenceFactory<? extends Reference> factory, final ArrayStack array, final File newFile) {
+        final MergeJob job = new MergeJob(files, factory, array, newFile);
         if (this.mergeQueue == null || this.controlQueue == null || !isAlive()) {
-            if (f2 == null) {
-                log.warn("emergency rewrite of file " + f1.getName() + " to " + newFile.getName());
-            } else {
-                log.warn("emergency merge of files " + f1.getName() + ", " + f2.getName() + " to " + newFile.getName());
-            }
-            array.mergeMount(f1, f2, factory, newFile, (int) Math.min(MemoryControl.available() / 3, this.writeBufferSize));
+            log.warn("emergency " + job.toString());
+            job.merge();
         } else {
-            final MergeJob job = new MergeJob(f1, f2, factory, array, newFile);
             if (isAlive()) {
                 try {
                     this.mergeQueue.add(job);
-                    if (f2 == null) {
-                        log.info("appended rewrite job of file " + f1.getName() + " to " + newFile.getName());
-                    } else {
-                        log.info("appended merge job of files " + f1.getName() + ", " + f2.getName() + " to " + newFile.getName());
-                    }
+                    log.info("appended " + job.toString());
                 } catch (final IllegalStateException e) { // because mergeQueue size is 1, IllegalStateException could happen frequently (serial execution ensured in run() )
                 	log.warn("Could not add merge job to queue: " + e.getMessage());
                 } finally {
@@ -136,11 +161,7 @@ public class IODispatcher extends Thread {
                 }
             } else {
                 job.merge();
-                if (f2 == null) {
-                    log.warn("dispatcher not running, merged files " + f1.getName() + " to " + newFile.getName());
-                } else {
-                    log.warn("dispatcher not running, rewrote file " + f1.getName() + ", " + f2.getName() + " to " + newFile.getName());
-                }
+                log.warn("dispatcher not running, finished " + job.toString());
             }
         }
     }
@@ -173,21 +194,14 @@ public class IODispatcher extends Thread {
 
                 // otherwise do a merge operation
                 if (!this.mergeQueue.isEmpty() && !MemoryControl.shortStatus()) {
-                	File f = null, f1 = null, f2 = null;
+                    mergeJob = null;
                     try {
                         mergeJob = this.mergeQueue.take();
-                        f = mergeJob.newFile;
-                        f1 = mergeJob.f1;
-                        f2 = mergeJob.f2;
                         mergeJob.merge();
                     } catch (final InterruptedException e) {
                         log.severe("main run job was interrupted (2)", e);
                     } catch (final Throwable e) {
-                        if (f2 == null) {
-                            log.severe("main run job had errors (2), dump to " + f + " failed. Input file is " + f1, e);
-                        } else {
-                            log.severe("main run job had errors (2), dump to " + f + " failed. Input files are " + f1 + " and " + f2, e);
-                        }
+                        log.severe("main run job had errors (2), " + mergeJob + " failed", e);
                     } finally {
                         // make sure (on error) loop never hangs on controlQueue.acquire() (after/on error)
                         if (this.terminate) this.controlQueue.release();
@@ -228,6 +242,7 @@ public class IODispatcher extends Thread {
         private void dump() {
             try {
                 if (!this.cache.isEmpty()) this.cache.dump(this.file, (int) Math.min(MemoryControl.available() / 3, IODispatcher.this.writeBufferSize), true);
+                IODispatcher.this.dumpBytes.addAndGet(this.file.length());
                 this.array.mountBLOBFile(this.file);
             } catch (final IOException e) {
                 ConcurrentLog.logException(e);
@@ -237,33 +252,48 @@ public class IODispatcher extends Thread {
 
     private class MergeJob {
 
-        private final File f1, f2, newFile;
+        private final File[] files;
+        private final File newFile;
         private final ArrayStack array;
         private final ReferenceFactory<? extends Reference> factory;
 
         private MergeJob(
-                final File f1,
-                final File f2,
+                final File[] files,
                 final ReferenceFactory<? extends Reference> factory,
                 final ArrayStack array,
                 final File newFile) {
-            this.f1 = f1;
-            this.f2 = f2;
+            this.files = files;
             this.factory = factory;
             this.newFile = newFile;
             this.array = array;
         }
 
         private File merge() {
-        	if (!this.f1.exists()) {
-        	    log.warn("merge of file (1) " + this.f1.getName() + " failed: file does not exists");
-        		return null;
-        	}
-        	if (this.f2 != null && !this.f2.exists()) {
-        	    log.warn("merge of file (2) " + this.f2.getName() + " failed: file does not exists");
-        		return null;
-        	}
-            return this.array.mergeMount(this.f1, this.f2, this.factory, this.newFile, (int) Math.min(MemoryControl.available() / 3, IODispatcher.this.writeBufferSize));
+            for (int i = 0; i < this.files.length; i++) {
+                if (!this.files[i].exists()) {
+                    log.warn("merge of file (" + (i + 1) + ") " + this.files[i].getName() + " failed: file does not exists");
+                    return null;
+                }
+            }
+            final long start = System.currentTimeMillis();
+            final File result = this.array.mergeMount(this.files, this.factory, this.newFile, (int) Math.min(MemoryControl.available() / 3, IODispatcher.this.writeBufferSize));
+            IODispatcher.this.mergeTime.addAndGet(System.currentTimeMillis() - start);
+            IODispatcher.this.mergeCount.incrementAndGet();
+            IODispatcher.this.mergeFiles.addAndGet(this.files.length);
+            if (result != null) IODispatcher.this.mergeBytes.addAndGet(result.length());
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(this.files.length == 1 ? "rewrite job of file " : "merge job of files ");
+            for (int i = 0; i < this.files.length; i++) {
+                if (i > 0) sb.append(", ");
+                sb.append(this.files[i].getName());
+            }
+            sb.append(" to ").append(this.newFile.getName());
+            return sb.toString();
         }
     }
 
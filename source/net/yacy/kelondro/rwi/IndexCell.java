@@ -29,14 +29,27 @@ package net.yacy.kelondro.rwi;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.yacy.cora.order.Base64Order;
 import net.yacy.cora.order.ByteOrder;
 import net.yacy.cora.order.CloneableIterator;
 import net.yacy.cora.order.Order;
+import net.yacy.cora.order.RatingOrder;
 import net.yacy.cora.sorting.Rating;
 import net.yacy.cora.storage.ComparableARC;
 import net.yacy.cora.storage.HandleSet;
@@ -45,8 +58,11 @@ import net.yacy.cora.util.ConcurrentLog;
 import net.yacy.cora.util.SpaceExceededException;
 import net.yacy.kelondro.data.word.Word;
 import net.yacy.kelondro.index.RowHandleSet;
+import net.yacy.kelondro.util.FileUtils;
 import net.yacy.kelondro.util.MemoryControl;
 import net.yacy.kelondro.util.MergeIterator;
+import net.yacy.kelondro.util.NamePrefixThreadFactory;
+import net.yacy.kelondro.util.StackIterator;
 import net.yacy.search.EventTracker;
 import net.yacy.search.Switchboard;
 
@@ -60,26 +76,132 @@ import net.yacy.search.Switchboard;
  * in normal operation, there are only a number of read-only BLOB files and a single RAM cache that is
  * kept in the RAM as long as a given limit of entries is reached. Then the cache is flushed and becomes
  * another BLOB file in the index array.
+ * A cell may be split into shards, each holding the BLOB files of a range of the term space in its own
+ * directory with its own merger; dumps, merges and the reads of different terms of a search then run in parallel.
  */
 
 public final class IndexCell<ReferenceType extends Reference> extends AbstractBufferedIndex<ReferenceType> implements BufferedIndex<ReferenceType>, Iterable<ReferenceContainer<ReferenceType>> {
 
     private static final long cleanupCycle =  60000;
     private static final long dumpCycle    = 300000;
+    private static final int  generationStripes = 1024;
+
+    /** the number of partitions of the RAM write buffer of new cells */
+    public static int writeBufferPartitions = 4;
+
+    /** reads the containers of the terms of different shards for a conjunctive search */
+    private final static ThreadPoolExecutor searchExecutor = new ThreadPoolExecutor(
+            Math.max(2, Runtime.getRuntime().availableProcessors()),
+            Math.max(2, Runtime.getRuntime().availableProcessors()),
+            10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new NamePrefixThreadFactory("IndexCell.search"));
+    static {
+        searchExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * the strategy to merge the BLOB files of the array
+     */
+    public static enum CompactionPolicy {
+        /** merge pairs of files of similar size, then any small files, then pairs up to the maximum file size */
+        PAIRWISE,
+        /** merge groups of 4 to 16 files of similar size in one pass (size-tiered compaction) */
+        TIERED;
+
+        public static CompactionPolicy parse(final String name) {
+            for (final CompactionPolicy p: values()) if (p.name().equalsIgnoreCase(name)) return p;
+            return PAIRWISE;
+        }
+    }
+
+    /**
+     * the BLOB files of a range of the term space
+     */
+    private final class Shard {
+        private final ReferenceContainerArray<ReferenceType> array;
+        private final IODispatcher merger;
+        private final boolean ownMerger; // true if the merger is not the shared merger and must be terminated with the shard
+
+        private Shard(final ReferenceContainerArray<ReferenceType> array, final IODispatcher merger, final boolean ownMerger) {
+            this.array = array;
+            this.merger = merger;
+            this.ownMerger = ownMerger;
+        }
+
+        private boolean shrink(final long targetFileSize, final long maxFileSize) {
+            if (this.array.entries() < 2) return false;
+            boolean donesomething = false;
+
+            if (IndexCell.this.compactionPolicy == CompactionPolicy.TIERED) {
+                // merge groups of files of similar size; a merge of many files takes long, so queue only one at a time
+                int term = 10;
+                while (term-- > 0 && (this.merger.queueLength() < 1)) {
+                    if (!this.array.shrinkTieredFiles(this.merger, targetFileSize, maxFileSize)) break;
+                    donesomething = true;
+                }
+                // rewrite old files
+                term = 10;
+                while (term-- > 0 && (this.merger.queueLength() < 1)) {
+                    if (!this.array.shrinkOldFiles(this.merger)) break;
+                    donesomething = true;
+                }
+                return donesomething;
+            }
+
+            // first try to merge small files that match
+            int term = 10;
+            while (term-- > 0 && (this.merger.queueLength() < 3 || this.array.entries() >= 50)) {
+                if (!this.array.shrinkBestSmallFiles(this.merger, targetFileSize)) break;
+                donesomething = true;
+            }
+
+            // then try to merge simply any small file
+            term = 10;
+            while (term-- > 0 && (this.merger.queueLength() < 2)) {
+                if (!this.array.shrinkAnySmallFiles(this.merger, targetFileSize)) break;
+                donesomething = true;
+            }
+
+            // if there is no small file, then merge matching files up to limit
+            term = 10;
+            while (term-- > 0 && (this.merger.queueLength() < 1)) {
+                if (!this.array.shrinkUpToMaxSizeFiles(this.merger, maxFileSize)) break;
+                donesomething = true;
+            }
+
+            // rewrite old files (hack from sixcooler, see http://forum.yacy-websuche.de/viewtopic.php?p=15004#p15004)
+            term = 10;
+            while (term-- > 0 && (this.merger.queueLength() < 1)) {
+                if (!this.array.shrinkOldFiles(this.merger)) break;
+                donesomething = true;
+            }
+
+            return donesomething;
+        }
+
+        private void close() {
+            this.array.close();
+            if (this.ownMerger) this.merger.terminate();
+        }
+    }
 
     // class variables
-    private final ReferenceContainerArray<ReferenceType> array;
-    private       ReferenceContainerCache<ReferenceType> ram;
+    private final List<Shard>                            shards; // the BLOB files, sharded by term
+    private final ReferenceContainerBuffer<ReferenceType> ram;
     private final ComparableARC<byte[], Integer>         countCache;
     private       int                                    maxRamEntries;
-    private       IODispatcher                           merger; // pointer to shared merger
     private       long                                   lastCleanup;
     private long  lastDump;
     private final long                                   targetFileSize, maxFileSize;
     private final int                                    writeBufferSize;
     private final Map<byte[], HandleSet>                 removeDelayedURLs; // mapping from word hashes to a list of url hashes
     private       boolean                                flushShallRun;
+    private volatile CompactionPolicy                    compactionPolicy;
     private final Thread                                 flushThread;
+    private volatile TermSearchCache<ReferenceType>      termSearchCache; // null if term searches are not cached
+    private final AtomicLongArray                        termGenerations; // modification counters for stripes of the term space
+    private final AtomicLong                             cellGeneration;  // modification counter for the whole cell
 
     public IndexCell(
             final File cellPath,
@@ -93,11 +215,43 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
             final int writeBufferSize,
             final IODispatcher merger
             ) throws IOException {
+        this(cellPath, prefix, factory, termOrder, termSize, maxRamEntries, targetFileSize, maxFileSize, writeBufferSize, merger, 1);
+    }
+
+    /**
+     * open a cell which is split into shards by term. With one shard the BLOB files are in the cell path, otherwise
+     * each shard has its own sub-directory and merger; shard 0 uses the given merger. BLOB files which were written
+     * with another number of shards are imported into the shards when the cell is opened.
+     * @param shards the number of shards, at least 1
+     */
+    public IndexCell(
+            final File cellPath,
+            final String prefix,
+            final ReferenceFactory<ReferenceType> factory,
+            final ByteOrder termOrder,
+            final int termSize,
+            final int maxRamEntries,
+            final long targetFileSize,
+            final long maxFileSize,
+            final int writeBufferSize,
+            final IODispatcher merger,
+            final int shards
+            ) throws IOException {
         super(factory);
 
-        this.merger = merger;
-        this.array = new ReferenceContainerArray<ReferenceType>(cellPath, prefix, factory, termOrder, termSize);
-        this.ram = new ReferenceContainerCache<ReferenceType>(factory, termOrder, termSize);
+        final int n = Math.max(1, shards);
+        this.shards = new ArrayList<Shard>(n);
+        for (int i = 0; i < n; i++) {
+            final ReferenceContainerArray<ReferenceType> array = new ReferenceContainerArray<ReferenceType>(shardPath(cellPath, prefix, n, i), prefix, factory, termOrder, termSize);
+            if (i == 0) {
+                this.shards.add(new Shard(array, merger, false));
+            } else {
+                final IODispatcher shardMerger = new IODispatcher(2, 2, writeBufferSize);
+                shardMerger.start();
+                this.shards.add(new Shard(array, shardMerger, true));
+            }
+        }
+        this.ram = new ReferenceContainerBuffer<ReferenceType>(factory, termOrder, termSize, writeBufferPartitions, n);
         this.countCache = new ComparableARC<byte[], Integer>(1000, termOrder);
         this.maxRamEntries = maxRamEntries;
         this.lastCleanup = System.currentTimeMillis();
@@ -107,10 +261,82 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
         this.writeBufferSize = writeBufferSize;
         this.removeDelayedURLs = new TreeMap<byte[], HandleSet>(Word.commonHashOrder);
         this.flushShallRun = true;
+        this.compactionPolicy = CompactionPolicy.PAIRWISE;
+        this.termSearchCache = null;
+        this.termGenerations = new AtomicLongArray(generationStripes);
+        this.cellGeneration = new AtomicLong(0);
+        importForeignShards(cellPath, prefix, factory, termOrder, termSize);
         this.flushThread = new FlushThread(cellPath.toString());
         this.flushThread.start();
     }
 
+    private static File shardPath(final File cellPath, final String prefix, final int shards, final int shard) {
+        if (shards == 1) return cellPath;
+        return new File(cellPath, prefix + ".shard" + shards + "." + shard);
+    }
+
+    /**
+     * move the references of BLOB files which were written with another number of shards into the shards of this cell
+     * and delete the old files
+     */
+    private void importForeignShards(final File cellPath, final String prefix, final ReferenceFactory<ReferenceType> factory, final ByteOrder termOrder, final int termSize) throws IOException {
+        final int n = this.shards.size();
+        final String[] names = cellPath.list();
+        if (names == null) return;
+        final List<File> foreign = new ArrayList<File>();
+        boolean unsharded = false;
+        for (final String name: names) {
+            if (n > 1 && name.startsWith(prefix + ".") && name.endsWith(".blob")) unsharded = true;
+            if (name.startsWith(prefix + ".shard") && (n == 1 || !name.startsWith(prefix + ".shard" + n + ".")) && new File(cellPath, name).isDirectory()) foreign.add(new File(cellPath, name));
+        }
+        if (unsharded) foreign.add(0, cellPath);
+        final int maxPieceEntries = Math.max(1000, this.maxRamEntries / n);
+        for (final File location: foreign) {
+            ConcurrentLog.info("IndexCell", "importing the references of " + location + " into " + n + " shards");
+            final ReferenceContainerArray<ReferenceType> source = new ReferenceContainerArray<ReferenceType>(location, prefix, factory, termOrder, termSize);
+            final List<ReferenceContainerCache<ReferenceType>> pieces = new ArrayList<ReferenceContainerCache<ReferenceType>>(n);
+            for (int s = 0; s < n; s++) pieces.add(new ReferenceContainerCache<ReferenceType>(factory, termOrder, termSize));
+            final CloneableIterator<ReferenceContainer<ReferenceType>> i = source.referenceContainerIterator(null, false, false);
+            try {
+                while (i.hasNext()) {
+                    final ReferenceContainer<ReferenceType> container = i.next();
+                    if (container == null) break;
+                    final int s = this.ram.shard(container.getTermHash());
+                    try {
+                        pieces.get(s).add(container);
+                    } catch (final SpaceExceededException e) {
+                        for (int t = 0; t < n; t++) importDump(t, pieces.get(t));
+                        try {
+                            pieces.get(s).add(container);
+                        } catch (final SpaceExceededException e1) {
+                            throw new IOException("not enough memory to import " + location, e1);
+                        }
+                    }
+                    if (pieces.get(s).size() >= maxPieceEntries) importDump(s, pieces.get(s));
+                }
+            } finally {
+                i.close();
+            }
+            for (int s = 0; s < n; s++) importDump(s, pieces.get(s));
+            source.clear();
+            source.close();
+            if (!location.equals(cellPath)) FileUtils.deletedelete(location);
+        }
+    }
+
+    private void importDump(final int s, final ReferenceContainerCache<ReferenceType> piece) throws IOException {
+        if (piece.isEmpty()) return;
+        final ReferenceContainerArray<ReferenceType> array = this.shards.get(s).array;
+        final File dumpFile = array.newContainerBLOBFile();
+        piece.dump(dumpFile, (int) Math.min(MemoryControl.available() / 3, this.writeBufferSize), true);
+        piece.clear();
+        array.mountBLOBFile(dumpFile);
+    }
+
+    private Shard shard(final byte[] termHash) {
+        return this.shards.get(this.ram.shard(termHash));
+    }
+
     private class FlushThread extends Thread {
         public FlushThread(String name) {
             super("IndexCell.FlushThread(" + name + ")");
@@ -130,92 +356,212 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
 
         private void flushBuffer() {
 
-            // dump the cache if necessary
+            // dump the partitions of the buffer if necessary; each partition is dumped into its own file
             final long t = System.currentTimeMillis();
-            if ((IndexCell.this.ram.size() >= IndexCell.this.maxRamEntries ||
-                (IndexCell.this.ram.size() > 2000 && !MemoryControl.request(120L * 1024L * 1024L, false)) ||
-                (!IndexCell.this.ram.isEmpty() && IndexCell.this.lastDump + dumpCycle < t))) {
-                synchronized (IndexCell.this.merger) {
-                    if (IndexCell.this.ram.size() >= IndexCell.this.maxRamEntries ||
-                        (IndexCell.this.ram.size() > 3000 && !MemoryControl.request(80L * 1024L * 1024L, false)) ||
-                        (!IndexCell.this.ram.isEmpty() && IndexCell.this.lastDump + dumpCycle < t)) try {
-                            IndexCell.this.lastDump = System.currentTimeMillis();
-                        // removed delayed
-                        try {removeDelayed();} catch (final IOException e) {}
-                        // dump the ram
-                        final File dumpFile = IndexCell.this.array.newContainerBLOBFile();
-                        // a critical point: when the ram is handed to the dump job,
-                        // don't write into it any more. Use a fresh one instead
-                        ReferenceContainerCache<ReferenceType> ramdump;
-                        final ByteOrder termOrder = IndexCell.this.ram.termKeyOrdering();
-                        final int termSize = IndexCell.this.ram.termKeyLength();
-                        synchronized (this) {
-                            ramdump = IndexCell.this.ram;
-                            // get a fresh ram cache
-                            IndexCell.this.ram = new ReferenceContainerCache<ReferenceType>(IndexCell.this.factory, termOrder, termSize);
+            final ReferenceContainerBuffer<ReferenceType> ram = IndexCell.this.ram;
+            final int partitions = ram.partitions();
+            final int maxPartitionEntries = Math.max(1, IndexCell.this.maxRamEntries / partitions);
+            final boolean memoryShort = ram.size() > 2000 && !MemoryControl.request(120L * 1024L * 1024L, false);
+            final List<Integer> dumps = new ArrayList<Integer>(partitions);
+            for (int p = 0; p < partitions; p++) {
+                final int size = ram.size(p);
+                if (size >= maxPartitionEntries || (memoryShort && size > 0) || (size > 0 && ram.lastDump(p) + dumpCycle < t)) dumps.add(p);
+            }
+            if (!dumps.isEmpty()) {
+                IndexCell.this.lastDump = System.currentTimeMillis();
+                // removed delayed
+                try {removeDelayed();} catch (final IOException e) {}
+                for (final int p: dumps) {
+                    // all terms of a partition belong to the same shard
+                    final Shard shard = IndexCell.this.shards.get(ram.shardOf(p));
+                    synchronized (shard.merger) {
+                        try {
+                            if (ram.size(p) == 0) continue;
+                            final File dumpFile = shard.array.newContainerBLOBFile();
+                            // a critical point: when the partition is handed to the dump job,
+                            // don't write into it any more. The buffer uses a fresh one instead
+                            final ReferenceContainerCache<ReferenceType> ramdump = ram.swap(p);
+                            // WARNING : if this cell is queried before this dump termination, terms are no longer in the cache and would therefore not be found
+                            // dump the partition
+                            shard.merger.dump(ramdump, dumpFile, shard.array);
+                        } catch (final Throwable e) {
+                            // catch all exceptions
+                            ConcurrentLog.logException(e);
                         }
-                        // WARNING : if this cell is queried before this dump termination, terms are no longer in the cache and would therefore not be found
-                        // dump the buffer
-                        IndexCell.this.merger.dump(ramdump, dumpFile, IndexCell.this.array);
-                        IndexCell.this.lastDump = System.currentTimeMillis();
-                    } catch (final Throwable e) {
-                        // catch all exceptions
-                        ConcurrentLog.logException(e);
                     }
                 }
+                IndexCell.this.lastDump = System.currentTimeMillis();
             }
 
             // clean-up the cache
-            if ((IndexCell.this.array.entries() > 50 ||
-                 IndexCell.this.lastCleanup + cleanupCycle < t)) {
-                synchronized (IndexCell.this.array) {
-                    if (IndexCell.this.array.entries() > 50 || (IndexCell.this.lastCleanup + cleanupCycle < System.currentTimeMillis())) try {
-                        IndexCell.this.lastCleanup = System.currentTimeMillis(); // set time to prevent that this is called to soon again
-                        IndexCell.this.shrink(IndexCell.this.targetFileSize, IndexCell.this.maxFileSize);
-                        IndexCell.this.lastCleanup = System.currentTimeMillis(); // set again to mark end of procedure
+            final boolean cleanupDue = IndexCell.this.lastCleanup + cleanupCycle < t;
+            for (final Shard shard: IndexCell.this.shards) {
+                if (!cleanupDue && shard.array.entries() <= 50) continue;
+                synchronized (shard.array) {
+                    try {
+                        shard.shrink(IndexCell.this.targetFileSize, IndexCell.this.maxFileSize);
                     } catch (final Throwable e) {
                         // catch all exceptions
                         ConcurrentLog.logException(e);
                     }
                 }
+                IndexCell.this.lastCleanup = System.currentTimeMillis(); // set to mark end of procedure and to prevent that this is called to soon again
             }
         }
 
     }
 
-    private boolean shrink(final long targetFileSize, final long maxFileSize) {
-        if (this.array.entries() < 2) return false;
-        boolean donesomething = false;
+    public void setCompactionPolicy(final CompactionPolicy compactionPolicy) {
+        this.compactionPolicy = compactionPolicy;
+    }
 
-        // first try to merge small files that match
-        int term = 10;
-        while (term-- > 0 && (this.merger.queueLength() < 3 || this.array.entries() >= 50)) {
-            if (!this.array.shrinkBestSmallFiles(this.merger, targetFileSize)) break;
-            donesomething = true;
-        }
+    public CompactionPolicy getCompactionPolicy() {
+        return this.compactionPolicy;
+    }
 
-        // then try to merge simply any small file
-        term = 10;
-        while (term-- > 0 && (this.merger.queueLength() < 2)) {
-            if (!this.array.shrinkAnySmallFiles(this.merger, targetFileSize)) break;
-            donesomething = true;
-        }
+    /**
+     * cache the results of term searches
+     * @param maxMem the maximum number of bytes of the cached containers; 0 switches the cache off
+     */
+    public void setTermSearchCacheSize(final long maxMem) {
+        this.termSearchCache = maxMem > 0 ? new TermSearchCache<ReferenceType>(maxMem) : null;
+    }
+
+    /**
+     * @return the cache of term searches or null if term searches are not cached
+     */
+    public TermSearchCache<ReferenceType> getTermSearchCache() {
+        return this.termSearchCache;
+    }
+
+    private static int generationStripe(final byte[] termHash) {
+        return (Arrays.hashCode(termHash) & Integer.MAX_VALUE) % generationStripes;
+    }
+
+    /**
+     * mark the references of a term as modified
+     */
+    private void touch(final byte[] termHash) {
+        if (termHash != null) this.termGenerations.incrementAndGet(generationStripe(termHash));
+    }
+
+    /**
+     * compute the generation of a set of terms: a number that changes whenever the references of
+     * one of the terms may have changed, including the time when a dump or merge of BLOB files is finished
+     * @param termHashes
+     * @return the generation of the terms
+     */
+    public long generation(final HandleSet termHashes) {
+        long g = this.cellGeneration.get();
+        for (final Shard shard: this.shards) g += shard.array.mounts();
+        for (final byte[] termHash: termHashes) g += this.termGenerations.get(generationStripe(termHash));
+        return g;
+    }
 
-        // if there is no small file, then merge matching files up to limit
-        term = 10;
-        while (term-- > 0 && (this.merger.queueLength() < 1)) {
-            if (!this.array.shrinkUpToMaxSizeFiles(this.merger, maxFileSize)) break;
-            donesomething = true;
+    /**
+     * search the conjunction of the terms; without an url selection the result is cached
+     * until the references of one of the terms are modified
+     */
+    @Override
+    public TermSearch<ReferenceType> query(
+            final HandleSet queryHashes,
+            final HandleSet excludeHashes,
+            final HandleSet urlselection,
+            final ReferenceFactory<ReferenceType> termFactory,
+            final int maxDistance) throws SpaceExceededException {
+        final TermSearchCache<ReferenceType> cache = this.termSearchCache;
+        if (cache == null || urlselection != null) return super.query(queryHashes, excludeHashes, urlselection, termFactory, maxDistance);
+        final String key = TermSearchCache.key(queryHashes, excludeHashes, maxDistance);
+        // the generation is computed before the search, so a modification during the search invalidates the result
+        final long generation = generation(queryHashes) + generation(excludeHashes);
+        TermSearch<ReferenceType> search = cache.get(key, generation);
+        if (search != null) return search;
+        search = super.query(queryHashes, excludeHashes, urlselection, termFactory, maxDistance);
+        cache.put(key, generation, search);
+        return search;
+    }
+
+    /**
+     * search the conjunction of the terms; the containers of terms in different shards are read in parallel
+     */
+    @Override
+    public TreeMap<byte[], ReferenceContainer<ReferenceType>> searchConjunction(final HandleSet wordHashes, final HandleSet urlselection) {
+        if (this.shards.size() == 1 || wordHashes.size() < 2) return super.searchConjunction(wordHashes, urlselection);
+        final Map<Integer, List<byte[]>> groups = new TreeMap<Integer, List<byte[]>>();
+        for (final byte[] wordHash: wordHashes) {
+            final Integer s = this.ram.shard(wordHash);
+            List<byte[]> group = groups.get(s);
+            if (group == null) {
+                group = new ArrayList<byte[]>();
+                groups.put(s, group);
+            }
+            group.add(wordHash);
+        }
+        if (groups.size() == 1) return super.searchConjunction(wordHashes, urlselection);
+
+        // a term without references makes the conjunction empty; then the other groups stop early
+        final AtomicBoolean missing = new AtomicBoolean(false);
+        final List<Future<Map<byte[], ReferenceContainer<ReferenceType>>>> futures = new ArrayList<Future<Map<byte[], ReferenceContainer<ReferenceType>>>>(groups.size());
+        for (final List<byte[]> group: groups.values()) {
+            futures.add(searchExecutor.submit(new Callable<Map<byte[], ReferenceContainer<ReferenceType>>>() {
+                @Override
+                public Map<byte[], ReferenceContainer<ReferenceType>> call() {
+                    final Map<byte[], ReferenceContainer<ReferenceType>> containers = new TreeMap<byte[], ReferenceContainer<ReferenceType>>(Base64Order.enhancedCoder);
+                    for (final byte[] wordHash: group) {
+                        if (missing.get()) break;
+                        final ReferenceContainer<ReferenceType> container;
+                        try {
+                            container = get(wordHash, urlselection);
+                        } catch (final IOException e) {
+                            ConcurrentLog.logException(e);
+                            continue;
+                        }
+                        if (container == null || container.isEmpty()) {
+                            missing.set(true);
+                            break;
+                        }
+                        containers.put(wordHash, container);
+                    }
+                    return containers;
+                }
+            }));
+        }
+        final TreeMap<byte[], ReferenceContainer<ReferenceType>> containers = new TreeMap<byte[], ReferenceContainer<ReferenceType>>(Base64Order.enhancedCoder);
+        for (final Future<Map<byte[], ReferenceContainer<ReferenceType>>> future: futures) {
+            try {
+                containers.putAll(future.get());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                missing.set(true);
+            } catch (final ExecutionException e) {
+                ConcurrentLog.logException(e.getCause());
+                missing.set(true);
+            }
         }
+        if (missing.get()) return new TreeMap<byte[], ReferenceContainer<ReferenceType>>(Base64Order.enhancedCoder);
+        return containers;
+    }
 
-        // rewrite old files (hack from sixcooler, see http://forum.yacy-websuche.de/viewtopic.php?p=15004#p15004)
-        term = 10;
-        while (term-- > 0 && (this.merger.queueLength() < 1)) {
-            if (!this.array.shrinkOldFiles(this.merger)) break;
-            donesomething = true;
+    /**
+     * @return {number of queued merge jobs, number of merges, number of merged files, bytes written by merges, milliseconds spent in merges, bytes written by dumps}
+     * for the merger that is shared by all cells of a segment and the mergers of the other shards of this cell
+     */
+    public long[] mergeStatistics() {
+        long[] r = null;
+        for (final Shard shard: this.shards) {
+            final long[] s = shard.merger.mergeStatistics();
+            if (r == null) r = new long[s.length + 1];
+            r[0] += shard.merger.mergeQueueLength();
+            for (int i = 0; i < s.length; i++) r[i + 1] += s[i];
         }
+        return r;
+    }
 
-        return donesomething;
+    /**
+     * @return the number of shards of the BLOB files
+     */
+    public int getShardCount() {
+        return this.shards.size();
     }
 
     public int deleteOld(int minsize, long maxtime) throws IOException {
@@ -242,10 +588,13 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
             byte[] k = ci.next().asBytes();
             if (this.ram.count(k) >= minsize) keys.add(k);
         }
-        CloneableIterator<byte[]> ki = this.array.keys(true, false);
-        while (ki.hasNext()) {
-            byte[] k = ki.next();
-            if (this.array.count(k) >= minsize) keys.add(k);
+        for (final Shard shard: this.shards) {
+            CloneableIterator<byte[]> ki = shard.array.keys(true, false);
+            while (ki.hasNext()) {
+                byte[] k = ki.next();
+                if (shard.array.count(k) >= minsize) keys.add(k);
+                if (System.currentTimeMillis() > timeout) break;
+            }
             if (System.currentTimeMillis() > timeout) break;
         }
         return keys;
@@ -281,6 +630,8 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
         } catch (final SpaceExceededException e) {
             EventTracker.update(EventTracker.EClass.WORDCACHE, Long.valueOf(this.ram.size()), true);
             this.ram.add(newEntries);
+        } finally {
+            touch(newEntries.getTermHash()); // after the modification, so that no search caches the old references with the new generation
         }
 
     }
@@ -296,6 +647,8 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
         } catch (final SpaceExceededException e) {
             EventTracker.update(EventTracker.EClass.WORDCACHE, Long.valueOf(this.ram.size()), true);
             this.ram.add(termHash, entry);
+        } finally {
+            touch(termHash);
         }
     }
 
@@ -305,7 +658,7 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
     @Override
     public boolean has(final byte[] termHash) {
         if (this.ram.has(termHash)) return true;
-        return this.array.has(termHash);
+        return shard(termHash).array.has(termHash);
     }
 
     /**
@@ -314,13 +667,24 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
      */
     @Override
     public int count(final byte[] termHash) {
+        return count(termHash, false);
+    }
+
+    /**
+     * count number of references for a given term
+     * @param termHash
+     * @param approximate if true, the counts of the BLOB files are estimated from their frequency sketches
+     *   where possible; the result is then an upper bound that is computed without disk access
+     * @return the number of references
+     */
+    public int count(final byte[] termHash, final boolean approximate) {
         final Integer cachedCount = this.countCache.get(termHash);
         if (cachedCount != null) return cachedCount.intValue();
 
         int countFile = 0;
         // read fresh values from file
         try {
-            countFile = this.array.count(termHash);
+            countFile = shard(termHash).array.count(termHash, approximate);
         } catch (final Throwable e) {
             ConcurrentLog.logException(e);
         }
@@ -336,7 +700,8 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
             if (s != null) c -= s.size();
             if (c < 0) c = 0;
         }
-        // put count result into cache
+        // put count result into cache; estimates are not cached because they would be taken for exact counts
+        if (approximate) return c;
         if (MemoryControl.shortStatus()) this.countCache.clear();
         this.countCache.insert(termHash, c);
         return c;
@@ -354,7 +719,7 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
         final ReferenceContainer<ReferenceType> c0 = this.ram.get(termHash, null);
         ReferenceContainer<ReferenceType> c1 = null;
         try {
-            c1 = this.array.get(termHash);
+            c1 = shard(termHash).array.get(termHash);
         } catch (final SpaceExceededException e2) {
             ConcurrentLog.logException(e2);
         }
@@ -393,16 +758,18 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
     @Override
     public ReferenceContainer<ReferenceType> remove(final byte[] termHash) throws IOException {
         removeDelayed();
+        final ReferenceContainerArray<ReferenceType> array = shard(termHash).array;
         ReferenceContainer<ReferenceType> c1 = null;
         try {
-            c1 = this.array.get(termHash);
+            c1 = array.get(termHash);
         } catch (final SpaceExceededException e2) {
             ConcurrentLog.logException(e2);
         }
         if (c1 != null) {
-            this.array.delete(termHash);
+            array.delete(termHash);
         }
         final ReferenceContainer<ReferenceType> c0 = this.ram.remove(termHash);
+        touch(termHash);
         if (c1 == null) return c0;
         if (c0 == null) return c1;
         try {
@@ -421,16 +788,18 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
     @Override
     public void delete(final byte[] termHash) throws IOException {
         removeDelayed();
+        final ReferenceContainerArray<ReferenceType> array = shard(termHash).array;
         ReferenceContainer<ReferenceType> c1 = null;
         try {
-            c1 = this.array.get(termHash);
+            c1 = array.get(termHash);
         } catch (final SpaceExceededException e2) {
             ConcurrentLog.logException(e2);
         }
         if (c1 != null) {
-            this.array.delete(termHash);
+            array.delete(termHash);
         }
         this.ram.delete(termHash);
+        touch(termHash);
         return;
     }
 
@@ -452,6 +821,7 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
         synchronized (this.removeDelayedURLs) {
             this.removeDelayedURLs.put(termHash, r);
         }
+        touch(termHash);
     }
 
     @Override
@@ -484,13 +854,14 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
         int reduced;
         //final long am = this.array.mem();
         try {
-            reduced = this.array.reduce(termHash, new RemoveReducer<ReferenceType>(urlHashes));
+            reduced = shard(termHash).array.reduce(termHash, new RemoveReducer<ReferenceType>(urlHashes));
         } catch (final SpaceExceededException e) {
             reduced = 0;
             ConcurrentLog.warn("IndexCell", "not possible to remove urlHashes from a RWI because of too low memory. Remove was not applied. Please increase RAM assignment");
         }
         //assert this.array.mem() <= am : "am = " + am + ", array.mem() = " + this.array.mem();
-        return removed + (reduced / this.array.rowdef().objectsize);
+        touch(termHash);
+        return removed + (reduced / this.ram.rowdef().objectsize);
     }
 
     @Override
@@ -500,12 +871,13 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
         int reduced;
         //final long am = this.array.mem();
         try {
-            reduced = this.array.reduce(termHash, new RemoveReducer<ReferenceType>(urlHashBytes));
+            reduced = shard(termHash).array.reduce(termHash, new RemoveReducer<ReferenceType>(urlHashBytes));
         } catch (final SpaceExceededException e) {
             reduced = 0;
             ConcurrentLog.warn("IndexCell", "not possible to remove urlHashes from a RWI because of too low memory. Remove was not applied. Please increase RAM assignment");
         }
         //assert this.array.mem() <= am : "am = " + am + ", array.mem() = " + this.array.mem();
+        touch(termHash);
         return removed || (reduced > 0);
     }
 
@@ -542,7 +914,19 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
 
     @Override
     public CloneableIterator<Rating<byte[]>> referenceCountIterator(final byte[] starttermHash, final boolean rot, final boolean excludePrivate) {
-        return this.array.referenceCountIterator(starttermHash, false, excludePrivate);
+        if (this.shards.size() == 1) return this.shards.get(0).array.referenceCountIterator(starttermHash, false, excludePrivate);
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        final CloneableIterator<Rating<byte[]>>[] iterators = new CloneableIterator[this.shards.size()];
+        for (int s = 0; s < iterators.length; s++) iterators[s] = this.shards.get(s).array.referenceCountIterator(starttermHash, false, excludePrivate);
+        return StackIterator.stack(iterators, new RatingOrder<byte[]>(termKeyOrdering()), true);
+    }
+
+    private CloneableIterator<ReferenceContainer<ReferenceType>> arrayIterator(final byte[] startTermHash, final boolean excludePrivate) {
+        if (this.shards.size() == 1) return this.shards.get(0).array.referenceContainerIterator(startTermHash, false, excludePrivate);
+        final List<CloneableIterator<ReferenceContainer<ReferenceType>>> iterators = new ArrayList<CloneableIterator<ReferenceContainer<ReferenceType>>>(this.shards.size());
+        for (final Shard shard: this.shards) iterators.add(shard.array.referenceContainerIterator(startTermHash, false, excludePrivate));
+        final Order<ReferenceContainer<ReferenceType>> containerOrder = new ReferenceContainerOrder<ReferenceType>(this.factory, this.ram.rowdef().getOrdering().clone());
+        return MergeIterator.cascade(iterators, containerOrder, ReferenceContainer.containerMergeMethod, true);
     }
 
     @Override
@@ -561,7 +945,7 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
             this.ram.referenceContainerIterator(startTermHash, rot, excludePrivate),
             new MergeIterator<ReferenceContainer<ReferenceType>>(
                 this.ram.referenceContainerIterator(startTermHash, false, excludePrivate),
-                this.array.referenceContainerIterator(startTermHash, false, excludePrivate),
+                arrayIterator(startTermHash, excludePrivate),
                 containerOrder,
                 ReferenceContainer.containerMergeMethod,
                 true),
@@ -579,7 +963,8 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
         this.countCache.clear();
         this.removeDelayedURLs.clear();
         this.ram.clear();
-        this.array.clear();
+        for (final Shard shard: this.shards) shard.array.clear();
+        this.cellGeneration.incrementAndGet();
         if (Switchboard.getSwitchboard() != null &&
                 Switchboard.getSwitchboard().peers != null &&
                 Switchboard.getSwitchboard().peers.mySeed() != null) Switchboard.getSwitchboard().peers.mySeed().resetCounters();
@@ -587,6 +972,8 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
     
     public synchronized void clearCache() {
         this.countCache.clear();
+        final TermSearchCache<ReferenceType> cache = this.termSearchCache;
+        if (cache != null) cache.clear();
     }
 
     /**
@@ -598,17 +985,21 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
     public synchronized void close() {
         this.countCache.clear();
         try {removeDelayed();} catch (final IOException e) {}
-        if (!this.ram.isEmpty()) this.ram.dump(this.array.newContainerBLOBFile(), (int) Math.min(MemoryControl.available() / 3, this.writeBufferSize), true);
+        for (int p = 0; p < this.ram.partitions(); p++) {
+            if (this.ram.size(p) > 0) this.ram.swap(p).dump(this.shards.get(this.ram.shardOf(p)).array.newContainerBLOBFile(), (int) Math.min(MemoryControl.available() / 3, this.writeBufferSize), true);
+        }
         // close all
         this.flushShallRun = false;
         if (this.flushThread != null) try { this.flushThread.join(); } catch (final InterruptedException e) {}
         this.ram.close();
-        this.array.close();
+        for (final Shard shard: this.shards) shard.close();
     }
 
     public boolean isEmpty() {
         if (this.ram.size() > 0) return false;
-        for (int s: this.array.sizes()) if (s > 0) return false;
+        for (final Shard shard: this.shards) {
+            for (int s: shard.array.sizes()) if (s > 0) return false;
+        }
         return true;
     }
 
@@ -621,10 +1012,20 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
     }
 
     private int[] sizes() {
-        final int[] as = this.array.sizes();
-        final int[] asr = new int[as.length + 1];
-        System.arraycopy(as, 0, asr, 0, as.length);
-        asr[as.length] = this.ram.size();
+        final List<int[]> shardSizes = new ArrayList<int[]>(this.shards.size());
+        int length = 0;
+        for (final Shard shard: this.shards) {
+            final int[] as = shard.array.sizes();
+            shardSizes.add(as);
+            length += as.length;
+        }
+        final int[] asr = new int[length + 1];
+        int i = 0;
+        for (final int[] as: shardSizes) {
+            System.arraycopy(as, 0, asr, i, as.length);
+            i += as.length;
+        }
+        asr[length] = this.ram.size();
         return asr;
     }
 
@@ -637,7 +1038,30 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
     }
 
     public int getSegmentCount() {
-        return this.array.entries();
+        int c = 0;
+        for (final Shard shard: this.shards) c += shard.array.entries();
+        return c;
+    }
+
+    /**
+     * switch the memory-mapped read mode for all BLOB files of this cell
+     * @param memoryMapped
+     */
+    public void setMemoryMapped(final boolean memoryMapped) {
+        for (final Shard shard: this.shards) shard.array.setMemoryMapped(memoryMapped);
+    }
+
+    /**
+     * @return {mapped reads, mapped read time (ns), copying reads, copying read time (ns)} of the BLOB files
+     */
+    public long[] readStatistics() {
+        long[] r = null;
+        for (final Shard shard: this.shards) {
+            final long[] s = shard.array.readStatistics();
+            if (r == null) r = new long[s.length];
+            for (int i = 0; i < s.length; i++) r[i] += s[i];
+        }
+        return r;
     }
 
     @Override
@@ -647,7 +1071,7 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
 
     @Override
     public ByteOrder termKeyOrdering() {
-        return this.array.ordering();
+        return this.shards.get(0).array.ordering();
     }
 
     @Override
@@ -665,6 +1089,13 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
         return System.currentTimeMillis();
     }
 
+    /**
+     * @return the RAM write buffer, for the statistics of its partitions
+     */
+    public ReferenceContainerBuffer<ReferenceType> getBuffer() {
+        return this.ram;
+    }
+
     @Override
     public int getBufferSize() {
         return this.ram.size();
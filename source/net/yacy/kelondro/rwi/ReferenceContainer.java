@@ -343,7 +343,7 @@ public class ReferenceContainer<ReferenceType extends Reference> extends RowSet
             if (singleContainer == null || singleContainer.isEmpty()) return null; // as this is a cunjunction of searches, we have no result if any word is not known
 
             // store result in order of result size
-            map.put(Long.valueOf(singleContainer.size() * 1000 + count), singleContainer);
+            map.put(Long.valueOf(singleContainer.size() * 1000L + count), singleContainer);
             count++;
         }
 
@@ -406,41 +406,51 @@ public class ReferenceContainer<ReferenceType extends Reference> extends RowSet
         final int high = ((i1.size() > i2.size()) ? i1.size() : i2.size());
         final int low  = ((i1.size() > i2.size()) ? i2.size() : i1.size());
         final int stepsEnum = 10 * (high + low - 1);
-        final int stepsTest = 12 * log2(high) * low;
+        final long stepsGallop = 12L * (2 * log2(high / low) + 1) * low;
 
         // start most efficient method
-        if (stepsEnum > stepsTest) {
-            if (i1.size() < i2.size()) return joinConstructiveByTest(factory, i1, i2, maxDistance);
-            return joinConstructiveByTest(factory, i2, i1, maxDistance);
+        if (stepsEnum > stepsGallop) {
+            if (i1.size() < i2.size()) return joinConstructiveByGalloping(factory, i1, i2, maxDistance);
+            return joinConstructiveByGalloping(factory, i2, i1, maxDistance);
         }
         return joinConstructiveByEnumeration(factory, i1, i2, maxDistance);
     }
 
-    private static <ReferenceType extends Reference> ReferenceContainer<ReferenceType> joinConstructiveByTest(
+    /**
+     * join by enumeration of the small container and a galloping search in the large container:
+     * the search for the next url hash starts behind the position of the previous one, so the cost
+     * grows with the size of the small container and only logarithmically with the large one
+     */
+    private static <ReferenceType extends Reference> ReferenceContainer<ReferenceType> joinConstructiveByGalloping(
             final ReferenceFactory<ReferenceType> factory,
             final ReferenceContainer<ReferenceType> small,
             final ReferenceContainer<ReferenceType> large,
             final int maxDistance) throws SpaceExceededException {
-        //System.out.println("DEBUG: JOIN METHOD BY TEST, maxdistance = " + maxDistance);
+        //System.out.println("DEBUG: JOIN METHOD BY GALLOPING, maxdistance = " + maxDistance);
         assert small.rowdef.equals(large.rowdef) : "small = " + small.rowdef.toString() + "; large = " + large.rowdef.toString();
         final int keylength = small.rowdef.width(0);
         assert (keylength == large.rowdef.width(0));
         final ReferenceContainer<ReferenceType> conj = new ReferenceContainer<ReferenceType>(factory, null, 0); // start with empty search result
-        final Iterator<ReferenceType> se = small.entries();
+        if (!((small.rowdef.getOrdering().signature().equals(large.rowdef.getOrdering().signature())))) return conj; // ordering must be equal
+        final Iterator<ReferenceType> se = small.entries(); // sorted
+        final int largeSize = large.size();
+        int p = 0;
         ReferenceType ie1;
         ReferenceType ie2;
-        while (se.hasNext()) {
+        while (se.hasNext() && p < largeSize) {
             ie1 = se.next();
-            ie2 = large.getReference(ie1.urlhash());
-            if ((ie1 != null) && (ie2 != null)) {
-                assert (ie1.urlhash().length == keylength) : "ie0.urlHash() = " + ASCII.String(ie1.urlhash());
-                assert (ie2.urlhash().length == keylength) : "ie1.urlHash() = " + ASCII.String(ie2.urlhash());
-                // this is a hit. Calculate word distance:
-
-                ie1 = factory.produceFast(ie2, true);
-                ie1.join(ie2);
-                if (ie1.distance() <= maxDistance) conj.add(ie1);
+            assert (ie1.urlhash().length == keylength) : "ie1.urlHash() = " + ASCII.String(ie1.urlhash());
+            final int q = large.gallop(ie1.urlhash(), p);
+            if (q < 0) {
+                p = -q - 1;
+                continue;
             }
+            p = q + 1;
+            // this is a hit. Calculate word distance:
+            ie2 = factory.produceSlow(large.get(q, false));
+            ie1 = factory.produceFast(ie1, true);
+            ie1.join(ie2);
+            if (ie1.distance() <= maxDistance) conj.add(ie1);
         }
         return conj;
     }
@@ -26,9 +26,20 @@ package net.yacy.kelondro.rwi;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.Iterator;
-
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.yacy.cora.document.encoding.ASCII;
 import net.yacy.cora.order.ByteOrder;
 import net.yacy.cora.order.CloneableIterator;
 import net.yacy.cora.sorting.Rating;
@@ -36,17 +47,38 @@ import net.yacy.cora.util.ConcurrentLog;
 import net.yacy.cora.util.SpaceExceededException;
 import net.yacy.kelondro.blob.ArrayStack;
 import net.yacy.kelondro.blob.BLOB;
+import net.yacy.kelondro.blob.HeapReader;
 import net.yacy.kelondro.data.word.Word;
 import net.yacy.kelondro.index.Row;
 import net.yacy.kelondro.index.RowSet;
+import net.yacy.kelondro.util.NamePrefixThreadFactory;
 
 
 public final class ReferenceContainerArray<ReferenceType extends Reference> {
 
     private final static long METHOD_MAXRUNTIME = 5000L;
+    private final static int  minTierFiles = 4;  // minimum number of files of similar size for a tiered merge
+    private final static int  maxTierFiles = 16; // maximum number of files that are merged in one pass
+    private final static long readAheadBytes = 4L * 1024L * 1024L; // maximum size of the containers that are read ahead from one file
+
+    /** the number of containers that referenceContainerIterator() reads ahead from each BLOB file; 0 switches the read-ahead off */
+    public static int readAhead = 0;
+
+    /** reads the containers of the BLOB files for the read-ahead iterators */
+    private final static ThreadPoolExecutor readAheadExecutor = new ThreadPoolExecutor(
+            Math.max(2, Runtime.getRuntime().availableProcessors()),
+            Math.max(2, Runtime.getRuntime().availableProcessors()),
+            10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new NamePrefixThreadFactory("ReferenceContainerArray.readAhead"));
+    static {
+        readAheadExecutor.allowCoreThreadTimeOut(true);
+    }
 
     private final ReferenceFactory<ReferenceType> factory;
     private final ArrayStack array;
+    private final HeapReader.BlobReader<RowSet> rowSetReader;
+    private final AtomicLong lastBLOBTime; // the time in the name of the latest new file
 
     /**
      * open a index container array based on BLOB dumps. The content of the BLOBs will not be read
@@ -65,6 +97,7 @@ public final class ReferenceContainerArray<ReferenceType extends Reference> {
     		final ByteOrder termOrder,
     		final int termSize) throws IOException {
         this.factory = factory;
+        this.lastBLOBTime = new AtomicLong(0);
         this.array = new ArrayStack(
             heapLocation,
             prefix,
@@ -73,6 +106,13 @@ public final class ReferenceContainerArray<ReferenceType extends Reference> {
             0,
             true,
             true);
+        final Row row = factory.getRow();
+        this.rowSetReader = new HeapReader.BlobReader<RowSet>() {
+            @Override
+            public RowSet read(final ByteBuffer blob) throws SpaceExceededException {
+                return RowSet.importRowSet(blob, row);
+            }
+        };
     }
 
     public synchronized void close() {
@@ -91,8 +131,17 @@ public final class ReferenceContainerArray<ReferenceType extends Reference> {
         return this.array.ordering();
     }
 
+    /**
+     * @return a file for a new BLOB; the names of the files are made from the date and differ
+     * by at least one millisecond, also if several files are requested at the same time
+     */
     public File newContainerBLOBFile() {
-    	return this.array.newBLOB(new Date());
+        long t, last;
+        do {
+            last = this.lastBLOBTime.get();
+            t = Math.max(System.currentTimeMillis(), last + 1);
+        } while (!this.lastBLOBTime.compareAndSet(last, t));
+    	return this.array.newBLOB(new Date(t));
     }
 
     public void mountBLOBFile(final File location) throws IOException {
@@ -103,6 +152,29 @@ public final class ReferenceContainerArray<ReferenceType extends Reference> {
         return this.factory.getRow();
     }
 
+    /**
+     * switch the memory-mapped read mode of the BLOB files
+     * @param memoryMapped
+     */
+    public void setMemoryMapped(final boolean memoryMapped) {
+        this.array.setMemoryMapped(memoryMapped);
+    }
+
+    /**
+     * @return {mapped reads, mapped read time (ns), copying reads, copying read time (ns)}
+     */
+    public long[] readStatistics() {
+        return this.array.readStatistics();
+    }
+
+    /**
+     * @return the number of BLOB files that were mounted after the array was opened; during a dump or a merge
+     * the references of the involved files are not found until the new file is mounted
+     */
+    public long mounts() {
+        return this.array.mounts();
+    }
+
     /**
      * return an iterator object that creates top-level-clones of the indexContainers
      * in the cache, so that manipulations of the iterated objects do not change
@@ -111,6 +183,7 @@ public final class ReferenceContainerArray<ReferenceType extends Reference> {
      */
     public CloneableIterator<ReferenceContainer<ReferenceType>> referenceContainerIterator(final byte[] startWordHash, final boolean rot, final boolean excludePrivate) {
         try {
+            if (readAhead > 0) return new ReadAheadIterator(startWordHash, rot, excludePrivate);
             return new ReferenceContainerIterator(startWordHash, rot, excludePrivate);
         } catch (final IOException e) {
             ConcurrentLog.logException(e);
@@ -197,6 +270,223 @@ public final class ReferenceContainerArray<ReferenceType extends Reference> {
 
     }
 
+    /**
+     * an iteration of the containers like ReferenceContainerIterator which reads ahead: the containers of each BLOB file
+     * are read and decoded by tasks of a thread pool into a queue of the file, while the consumer merges the containers
+     * with the same term from the heads of the queues. A task reads only a limited number of containers and is started
+     * again when the queue runs low, so an iterator that is not read to the end does not block a thread.
+     */
+    public class ReadAheadIterator implements CloneableIterator<ReferenceContainer<ReferenceType>>, Iterable<ReferenceContainer<ReferenceType>> {
+
+        private final boolean rot, excludePrivate;
+        private PriorityQueue<Head> heads;
+        private volatile boolean closed;
+
+        public ReadAheadIterator(final byte[] startWordHash, final boolean rot, final boolean excludePrivate) throws IOException {
+            this.rot = rot;
+            this.excludePrivate = excludePrivate;
+            this.closed = false;
+            open(startWordHash);
+        }
+
+        private void open(final byte[] startWordHash) throws IOException {
+            final List<BLOB> blobs = ReferenceContainerArray.this.array.blobs();
+            this.heads = new PriorityQueue<Head>(Math.max(1, blobs.size()), new Comparator<Head>() {
+                @Override
+                public int compare(final Head o1, final Head o2) {
+                    final int c = ReferenceContainerArray.this.array.ordering().compare(o1.termHash, o2.termHash);
+                    // containers of the same term are merged in the order of the files, like in get()
+                    return c != 0 ? c : o1.source.index - o2.source.index;
+                }
+            });
+            // start reading in all files before the first container is taken
+            final List<Source> sources = new ArrayList<Source>(blobs.size());
+            for (int i = 0; i < blobs.size(); i++) sources.add(new Source(i, blobs.get(i), startWordHash));
+            for (final Source source: sources) {
+                final Head head = source.take();
+                if (head != null) this.heads.add(head);
+            }
+        }
+
+        @Override
+        public ReadAheadIterator clone(final Object secondWordHash) {
+            try {
+                return new ReadAheadIterator((byte[]) secondWordHash, this.rot, this.excludePrivate);
+            } catch (final IOException e) {
+                ConcurrentLog.logException(e);
+                return null;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.rot) return true;
+            return !this.heads.isEmpty();
+        }
+
+        @Override
+        public ReferenceContainer<ReferenceType> next() {
+            if (this.heads.isEmpty()) {
+                // rotation iteration
+                if (!this.rot) return null;
+                try {
+                    open(null);
+                } catch (final IOException e) {
+                    ConcurrentLog.logException(e);
+                    return null;
+                }
+                if (this.heads.isEmpty()) return null;
+            }
+            Head head = this.heads.poll();
+            ReferenceContainer<ReferenceType> c = new ReferenceContainer<ReferenceType>(ReferenceContainerArray.this.factory, head.termHash, head.rows);
+            advance(head.source);
+            while (!this.heads.isEmpty() && ReferenceContainerArray.this.array.ordering().equal(this.heads.peek().termHash, c.getTermHash())) {
+                head = this.heads.poll();
+                try {
+                    c = c.merge(new ReferenceContainer<ReferenceType>(ReferenceContainerArray.this.factory, head.termHash, head.rows));
+                } catch (final SpaceExceededException e) {
+                    ConcurrentLog.warn("ReferenceContainerArray", "cannot merge container " + ASCII.String(head.termHash) + ": " + e.getMessage());
+                }
+                advance(head.source);
+            }
+            return c;
+        }
+
+        private void advance(final Source source) {
+            final Head head = source.take();
+            if (head != null) this.heads.add(head);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Iterator<ReferenceContainer<ReferenceType>> iterator() {
+            return this;
+        }
+
+        @Override
+        public void close() {
+            this.closed = true;
+        }
+
+        private final class Head {
+            private final byte[] termHash;
+            private final RowSet rows;
+            private final Source source;
+
+            private Head(final byte[] termHash, final RowSet rows, final Source source) {
+                this.termHash = termHash;
+                this.rows = rows;
+                this.source = source;
+            }
+        }
+
+        /**
+         * the containers of one BLOB file in the order of the term hashes
+         */
+        private final class Source implements Runnable {
+
+            private final int index;
+            private final BLOB blob;
+            private final CloneableIterator<byte[]> keys;
+            private final LinkedBlockingQueue<Head> queue;
+            private final Head end;
+            private final AtomicLong queuedBytes;
+            private boolean running, exhausted; // guarded by the monitor of this
+
+            private Source(final int index, final BLOB blob, final byte[] startWordHash) throws IOException {
+                this.index = index;
+                this.blob = blob;
+                this.keys = blob.keys(true, startWordHash);
+                this.queue = new LinkedBlockingQueue<Head>();
+                this.end = new Head(null, null, this);
+                this.queuedBytes = new AtomicLong(0);
+                this.running = false;
+                this.exhausted = this.keys == null;
+                if (this.exhausted) this.queue.add(this.end); else schedule();
+            }
+
+            private void schedule() {
+                synchronized (this) {
+                    if (this.running || this.exhausted || ReadAheadIterator.this.closed) return;
+                    this.running = true;
+                }
+                try {
+                    readAheadExecutor.execute(this);
+                } catch (final RejectedExecutionException e) {
+                    run();
+                }
+            }
+
+            /**
+             * take the next container of the file
+             * @return the next container or null if the file has no more containers
+             */
+            private Head take() {
+                Head head;
+                try {
+                    while ((head = this.queue.poll()) == null) {
+                        // the task may have finished just before the queue was emptied: start it again
+                        schedule();
+                        head = this.queue.poll(100, TimeUnit.MILLISECONDS);
+                        if (head != null) break;
+                    }
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+                if (head == this.end) return null;
+                this.queuedBytes.addAndGet(-head.rows.mem());
+                if (this.queue.size() <= readAhead / 2) schedule();
+                return head;
+            }
+
+            @Override
+            public void run() {
+                try {
+                    while (!ReadAheadIterator.this.closed && this.queue.size() < readAhead && this.queuedBytes.get() < readAheadBytes) {
+                        if (!this.keys.hasNext()) {
+                            finish();
+                            return;
+                        }
+                        final byte[] termHash = this.keys.next();
+                        if (termHash == null) continue;
+                        if (ReadAheadIterator.this.excludePrivate && Word.isPrivate(termHash)) continue;
+                        final RowSet rows = read(termHash);
+                        if (rows == null) continue;
+                        this.queuedBytes.addAndGet(rows.mem());
+                        this.queue.add(new Head(termHash, rows, this));
+                    }
+                } catch (final Throwable e) {
+                    ConcurrentLog.logException(e);
+                    finish();
+                } finally {
+                    synchronized (this) {
+                        this.running = false;
+                    }
+                }
+            }
+
+            private void finish() {
+                synchronized (this) {
+                    if (this.exhausted) return;
+                    this.exhausted = true;
+                }
+                this.queue.add(this.end);
+            }
+
+            private RowSet read(final byte[] termHash) throws IOException, SpaceExceededException {
+                if (this.blob instanceof HeapReader) return ((HeapReader) this.blob).get(termHash, ReferenceContainerArray.this.rowSetReader);
+                final byte[] b = this.blob.get(termHash);
+                return b == null ? null : RowSet.importRowSet(b, ReferenceContainerArray.this.factory.getRow());
+            }
+        }
+
+    }
+
     /**
      * return an iterator object that counts the number of references in indexContainers
      * the startWordHash may be null to iterate all from the beginning
@@ -304,17 +594,17 @@ public final class ReferenceContainerArray<ReferenceType extends Reference> {
      */
     public ReferenceContainer<ReferenceType> get(final byte[] termHash) throws IOException, SpaceExceededException {
         final long timeout = System.currentTimeMillis() + METHOD_MAXRUNTIME;
-        final Iterator<byte[]> entries = this.array.getAll(termHash).iterator();
+        final Iterator<RowSet> entries = this.array.getAll(termHash, this.rowSetReader).iterator();
     	if (entries == null || !entries.hasNext()) return null;
-    	final byte[] a = entries.next();
+    	final RowSet a = entries.next();
     	int k = 1;
-    	ReferenceContainer<ReferenceType> c = new ReferenceContainer<ReferenceType>(this.factory, termHash, RowSet.importRowSet(a, this.factory.getRow()));
+    	ReferenceContainer<ReferenceType> c = new ReferenceContainer<ReferenceType>(this.factory, termHash, a);
     	if (System.currentTimeMillis() > timeout) {
     	    ConcurrentLog.warn("ReferenceContainerArray", "timout in get() (1): " + k + " tables searched. timeout = " + METHOD_MAXRUNTIME);
     	    return c;
     	}
     	while (entries.hasNext()) {
-    		c = c.merge(new ReferenceContainer<ReferenceType>(this.factory, termHash, RowSet.importRowSet(entries.next(), this.factory.getRow())));
+    		c = c.merge(new ReferenceContainer<ReferenceType>(this.factory, termHash, entries.next()));
     		k++;
     		if (System.currentTimeMillis() > timeout) {
     		    ConcurrentLog.warn("ReferenceContainerArray", "timout in get() (2): " + k + " tables searched. timeout = " + METHOD_MAXRUNTIME);
@@ -325,8 +615,20 @@ public final class ReferenceContainerArray<ReferenceType extends Reference> {
     }
 
     public int count(final byte[] termHash) throws IOException {
+        return count(termHash, false);
+    }
+
+    /**
+     * count the references of a term in all files
+     * @param termHash
+     * @param approximate if true, the counts are taken from the frequency sketches of the files where possible,
+     *   without disk access; they are upper bounds of the real counts
+     * @return the number of references
+     * @throws IOException
+     */
+    public int count(final byte[] termHash, final boolean approximate) throws IOException {
         final long timeout = System.currentTimeMillis() + METHOD_MAXRUNTIME;
-        final Iterator<Long> entries = this.array.lengthAll(termHash).iterator();
+        final Iterator<Long> entries = (approximate ? this.array.lengthAllApproximate(termHash) : this.array.lengthAll(termHash)).iterator();
         if (entries == null || !entries.hasNext()) return 0;
         final Long a = entries.next();
         int k = 1;
@@ -423,6 +725,21 @@ public final class ReferenceContainerArray<ReferenceType extends Reference> {
         return true;
     }
 
+    /**
+     * size-tiered merge: merge a group of files of similar size in one pass
+     * @param merger
+     * @param targetFileSize the size of the files in the lowest tier
+     * @param maxFileSize the maximum size of the merge result
+     * @return true if a merge job was queued
+     */
+    public boolean shrinkTieredFiles(final IODispatcher merger, final long targetFileSize, final long maxFileSize) {
+        final File[] ff = this.array.unmountTier(minTierFiles, maxTierFiles, targetFileSize >> 2, maxFileSize);
+        if (ff == null) return false;
+        ConcurrentLog.info("RICELL-shrink5/tiered", "unmountTier(" + minTierFiles + ", " + maxTierFiles + ", " + (targetFileSize >> 2) + ", " + maxFileSize + "): " + ff.length + " files");
+        merger.merge(ff, this.factory, this.array, newContainerBLOBFile());
+        return true;
+    }
+
     public boolean shrinkOldFiles(final IODispatcher merger) {
         final File ff = this.array.unmountOldest();
         if (ff == null) return false;
@@ -0,0 +1,393 @@
+/**
+ *  ReferenceContainerBuffer
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.kelondro.rwi;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import net.yacy.cora.order.ByteOrder;
+import net.yacy.cora.order.CloneableIterator;
+import net.yacy.cora.order.Order;
+import net.yacy.cora.storage.HandleSet;
+import net.yacy.cora.util.ByteArray;
+import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.index.Row;
+import net.yacy.kelondro.util.MergeIterator;
+
+/**
+ * the RAM write buffer of an IndexCell, partitioned into ranges of the term space.
+ * Each partition is a ReferenceContainerCache with its own locks, so that concurrent indexing threads which
+ * write references of different terms do not contend on a single cache, and each partition can be swapped
+ * out and dumped into its own heap file while the other partitions still take new references.
+ * Writes hold the read lock of their partition, a swap holds the write lock: no write can go into a cache
+ * after it was handed over to a dump.
+ * If the index is sharded by term, each partition holds terms of only one shard, so that a swapped partition
+ * is dumped into the BLOB files of that shard.
+ */
+public final class ReferenceContainerBuffer<ReferenceType extends Reference> {
+
+    private final class Partition {
+        private final ReentrantReadWriteLock lock;
+        private volatile ReferenceContainerCache<ReferenceType> cache;
+        private volatile long lastDump; // time of the last swap or of the creation
+        private final AtomicLong dumps, dumpedContainers;
+
+        private Partition() {
+            this.lock = new ReentrantReadWriteLock();
+            this.cache = newCache();
+            this.lastDump = System.currentTimeMillis();
+            this.dumps = new AtomicLong(0);
+            this.dumpedContainers = new AtomicLong(0);
+        }
+    }
+
+    private final ReferenceFactory<ReferenceType> factory;
+    private final ByteOrder termOrder;
+    private final int termSize;
+    private final int shards, partitionsPerShard;
+    private final List<Partition> partitions;
+
+    /**
+     * @param factory the factory for payload reference objects
+     * @param termOrder the order on search terms
+     * @param termSize the fixed size of search terms
+     * @param partitions the number of partitions of the term space, at least 1
+     */
+    public ReferenceContainerBuffer(final ReferenceFactory<ReferenceType> factory, final ByteOrder termOrder, final int termSize, final int partitions) {
+        this(factory, termOrder, termSize, partitions, 1);
+    }
+
+    /**
+     * @param factory the factory for payload reference objects
+     * @param termOrder the order on search terms
+     * @param termSize the fixed size of search terms
+     * @param partitions the number of partitions of the term space, at least 1; it is rounded up to a multiple of the number of shards
+     * @param shards the number of shards of the index, at least 1
+     */
+    public ReferenceContainerBuffer(final ReferenceFactory<ReferenceType> factory, final ByteOrder termOrder, final int termSize, final int partitions, final int shards) {
+        this.factory = factory;
+        this.termOrder = termOrder;
+        this.termSize = termSize;
+        this.shards = Math.max(1, shards);
+        this.partitionsPerShard = Math.max(1, (partitions + this.shards - 1) / this.shards);
+        final int n = this.shards * this.partitionsPerShard;
+        this.partitions = new ArrayList<Partition>(n);
+        for (int p = 0; p < n; p++) this.partitions.add(new Partition());
+    }
+
+    private ReferenceContainerCache<ReferenceType> newCache() {
+        return new ReferenceContainerCache<ReferenceType>(this.factory, this.termOrder, this.termSize);
+    }
+
+    /**
+     * @return the number of partitions
+     */
+    public int partitions() {
+        return this.partitions.size();
+    }
+
+    /**
+     * @param termHash
+     * @return the number of the partition which holds the references of the term
+     */
+    public int partition(final byte[] termHash) {
+        final int n = this.partitions.size();
+        if (n == 1) return 0;
+        if (this.shards == 1) return (int) Math.max(0, Math.min(n - 1, this.termOrder.partition(termHash, n)));
+        // the partitions of a shard are consecutive; within the shard the terms are spread over its partitions
+        final int sub = (int) (Math.max(0, this.termOrder.partition(termHash, n)) % this.partitionsPerShard);
+        return shard(termHash) * this.partitionsPerShard + sub;
+    }
+
+    /**
+     * @return the number of shards
+     */
+    public int shards() {
+        return this.shards;
+    }
+
+    /**
+     * @param termHash
+     * @return the number of the shard which holds the term; the shards are ranges of the term space
+     */
+    public int shard(final byte[] termHash) {
+        if (this.shards == 1) return 0;
+        return (int) Math.max(0, Math.min(this.shards - 1, this.termOrder.partition(termHash, this.shards)));
+    }
+
+    /**
+     * @param p the number of a partition
+     * @return the number of the shard of all terms in the partition
+     */
+    public int shardOf(final int p) {
+        return p / this.partitionsPerShard;
+    }
+
+    private Partition of(final byte[] termHash) {
+        return this.partitions.get(partition(termHash));
+    }
+
+    public Row rowdef() {
+        return this.factory.getRow();
+    }
+
+    public int termKeyLength() {
+        return this.termSize;
+    }
+
+    public ByteOrder termKeyOrdering() {
+        return this.termOrder;
+    }
+
+    public void add(final ReferenceContainer<ReferenceType> container) throws SpaceExceededException {
+        final Partition partition = of(container.getTermHash());
+        partition.lock.readLock().lock();
+        try {
+            partition.cache.add(container);
+        } finally {
+            partition.lock.readLock().unlock();
+        }
+    }
+
+    public void add(final byte[] termHash, final ReferenceType entry) throws SpaceExceededException {
+        final Partition partition = of(termHash);
+        partition.lock.readLock().lock();
+        try {
+            partition.cache.add(termHash, entry);
+        } finally {
+            partition.lock.readLock().unlock();
+        }
+    }
+
+    public boolean has(final byte[] termHash) {
+        return of(termHash).cache.has(termHash);
+    }
+
+    public ReferenceContainer<ReferenceType> get(final byte[] termHash, final HandleSet urlselection) {
+        return of(termHash).cache.get(termHash, urlselection);
+    }
+
+    public int count(final byte[] termHash) {
+        return of(termHash).cache.count(termHash);
+    }
+
+    public ReferenceContainer<ReferenceType> remove(final byte[] termHash) {
+        final Partition partition = of(termHash);
+        partition.lock.readLock().lock();
+        try {
+            return partition.cache.remove(termHash);
+        } finally {
+            partition.lock.readLock().unlock();
+        }
+    }
+
+    public void delete(final byte[] termHash) {
+        final Partition partition = of(termHash);
+        partition.lock.readLock().lock();
+        try {
+            partition.cache.delete(termHash);
+        } finally {
+            partition.lock.readLock().unlock();
+        }
+    }
+
+    public boolean remove(final byte[] termHash, final byte[] urlHashBytes) {
+        final Partition partition = of(termHash);
+        partition.lock.readLock().lock();
+        try {
+            return partition.cache.remove(termHash, urlHashBytes);
+        } finally {
+            partition.lock.readLock().unlock();
+        }
+    }
+
+    public int remove(final byte[] termHash, final HandleSet urlHashes) {
+        final Partition partition = of(termHash);
+        partition.lock.readLock().lock();
+        try {
+            return partition.cache.remove(termHash, urlHashes);
+        } finally {
+            partition.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * replace the cache of a partition with an empty one. The returned cache is not written any more
+     * and can be dumped while new references of the partition go into the new cache.
+     * @param p the number of the partition
+     * @return the cache with the references of the partition
+     */
+    public ReferenceContainerCache<ReferenceType> swap(final int p) {
+        final Partition partition = this.partitions.get(p);
+        final ReferenceContainerCache<ReferenceType> cache;
+        partition.lock.writeLock().lock();
+        try {
+            cache = partition.cache;
+            partition.cache = newCache();
+        } finally {
+            partition.lock.writeLock().unlock();
+        }
+        partition.lastDump = System.currentTimeMillis();
+        partition.dumps.incrementAndGet();
+        partition.dumpedContainers.addAndGet(cache.size());
+        return cache;
+    }
+
+    /**
+     * @param p the number of the partition
+     * @return the number of term containers in the partition
+     */
+    public int size(final int p) {
+        return this.partitions.get(p).cache.size();
+    }
+
+    /**
+     * @param p the number of the partition
+     * @return the time when the partition was swapped out for a dump the last time, or the creation time
+     */
+    public long lastDump(final int p) {
+        return this.partitions.get(p).lastDump;
+    }
+
+    /**
+     * @param p the number of the partition
+     * @return the number of dumps of the partition
+     */
+    public long dumps(final int p) {
+        return this.partitions.get(p).dumps.get();
+    }
+
+    /**
+     * @param p the number of the partition
+     * @return the number of term containers which were dumped from the partition
+     */
+    public long dumpedContainers(final int p) {
+        return this.partitions.get(p).dumpedContainers.get();
+    }
+
+    /**
+     * @return the number of term containers in all partitions
+     */
+    public int size() {
+        int s = 0;
+        for (final Partition partition: this.partitions) s += partition.cache.size();
+        return s;
+    }
+
+    public boolean isEmpty() {
+        for (final Partition partition: this.partitions) if (!partition.cache.isEmpty()) return false;
+        return true;
+    }
+
+    public long usedMemory() {
+        long b = 0;
+        for (final Partition partition: this.partitions) b += partition.cache.usedMemory();
+        return b;
+    }
+
+    public int maxReferences() {
+        int max = 0;
+        for (final Partition partition: this.partitions) max = Math.max(max, partition.cache.maxReferences());
+        return max;
+    }
+
+    /**
+     * @return the term hashes of all partitions
+     */
+    public Iterator<ByteArray> keys() {
+        final Iterator<Partition> p = this.partitions.iterator();
+        return new Iterator<ByteArray>() {
+            private Iterator<ByteArray> keys = null;
+            @Override
+            public boolean hasNext() {
+                while ((this.keys == null || !this.keys.hasNext()) && p.hasNext()) this.keys = p.next().cache.keys();
+                return this.keys != null && this.keys.hasNext();
+            }
+            @Override
+            public ByteArray next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return this.keys.next();
+            }
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * iterate the containers of all partitions in the order of the terms; the containers are top-level clones.
+     * @param startTermHash the first term or null
+     * @param rot if true, the iteration starts again with the first term after the last term
+     * @param excludePrivate
+     */
+    public CloneableIterator<ReferenceContainer<ReferenceType>> referenceContainerIterator(final byte[] startTermHash, final boolean rot, final boolean excludePrivate) {
+        if (this.partitions.size() == 1) return this.partitions.get(0).cache.referenceContainerIterator(startTermHash, rot, excludePrivate);
+        if (!rot) return mergedIterator(startTermHash, excludePrivate);
+        final CloneableIterator<ReferenceContainer<ReferenceType>> first = mergedIterator(startTermHash, excludePrivate);
+        return new CloneableIterator<ReferenceContainer<ReferenceType>>() {
+            private CloneableIterator<ReferenceContainer<ReferenceType>> i = first;
+            @Override
+            public boolean hasNext() {
+                if (this.i.hasNext()) return true;
+                if (isEmpty()) return false;
+                this.i.close();
+                this.i = mergedIterator(null, excludePrivate);
+                return this.i.hasNext();
+            }
+            @Override
+            public ReferenceContainer<ReferenceType> next() {
+                return hasNext() ? this.i.next() : null;
+            }
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+            @Override
+            public CloneableIterator<ReferenceContainer<ReferenceType>> clone(final Object modifier) {
+                return referenceContainerIterator((byte[]) modifier, true, excludePrivate);
+            }
+            @Override
+            public void close() {
+                this.i.close();
+            }
+        };
+    }
+
+    private CloneableIterator<ReferenceContainer<ReferenceType>> mergedIterator(final byte[] startTermHash, final boolean excludePrivate) {
+        final List<CloneableIterator<ReferenceContainer<ReferenceType>>> iterators = new ArrayList<CloneableIterator<ReferenceContainer<ReferenceType>>>(this.partitions.size());
+        for (final Partition partition: this.partitions) iterators.add(partition.cache.referenceContainerIterator(startTermHash, false, excludePrivate));
+        final Order<ReferenceContainer<ReferenceType>> containerOrder = new ReferenceContainerOrder<ReferenceType>(this.factory, this.termOrder.clone());
+        return MergeIterator.cascade(iterators, containerOrder, ReferenceContainer.containerMergeMethod, true);
+    }
+
+    public void clear() {
+        for (final Partition partition: this.partitions) partition.cache.clear();
+    }
+
+    public void close() {
+        for (final Partition partition: this.partitions) partition.cache.close();
+    }
+
+}
@@ -0,0 +1,140 @@
+/**
+ *  ReferenceContainerStream
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.kelondro.rwi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.index.RowSet;
+
+/**
+ * a binary transfer format for reference containers, used for the transmission of RWIs between peers.
+ * The references of a term are written as the exported collection of the container, so that the receiver
+ * gets whole containers without parsing the text form of every single reference:
+ * <pre>
+ * magic (int) | entry size (int) | container count (int)
+ * { term length (short) | term | collection length (int) | exported collection }*
+ * </pre>
+ * The stream may be gzip-compressed; the decoder detects this from the gzip header.
+ */
+public final class ReferenceContainerStream {
+
+    private static final int magic = 0x52574931; // "RWI1"
+
+    /**
+     * @param containers the containers to be written; empty containers are skipped
+     * @param gzip if true the stream is gzip-compressed
+     * @return the encoded containers
+     * @throws IOException
+     */
+    public static <ReferenceType extends Reference> byte[] encode(final Iterable<ReferenceContainer<ReferenceType>> containers, final boolean gzip) throws IOException {
+        final List<ReferenceContainer<ReferenceType>> list = new ArrayList<ReferenceContainer<ReferenceType>>();
+        int objectsize = 0;
+        for (final ReferenceContainer<ReferenceType> container: containers) {
+            if (container == null || container.isEmpty()) continue;
+            list.add(container);
+            objectsize = container.row().objectsize;
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + list.size() * 64);
+        final OutputStream os = gzip ? new GZIPOutputStream(bytes) : bytes;
+        final DataOutputStream dos = new DataOutputStream(os);
+        dos.writeInt(magic);
+        dos.writeInt(objectsize);
+        dos.writeInt(list.size());
+        for (final ReferenceContainer<ReferenceType> container: list) {
+            final byte[] term = container.getTermHash();
+            final byte[] collection = container.exportCollection();
+            dos.writeShort(term.length);
+            dos.write(term);
+            dos.writeInt(collection.length);
+            dos.write(collection);
+        }
+        dos.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param b the encoded containers, possibly gzip-compressed
+     * @param factory the factory for the references of the containers
+     * @return the decoded containers; the references of each container are sorted and unique
+     * @throws IOException if the stream is not well-formed or does not match the row of the factory
+     */
+    public static <ReferenceType extends Reference> List<ReferenceContainer<ReferenceType>> decode(final byte[] b, final ReferenceFactory<ReferenceType> factory) throws IOException {
+        InputStream is = new ByteArrayInputStream(b);
+        if (b.length >= 2 && (b[0] & 0xff) == 0x1f && (b[1] & 0xff) == 0x8b) is = new GZIPInputStream(is);
+        final DataInputStream dis = new DataInputStream(is);
+        try {
+            if (dis.readInt() != magic) throw new IOException("not a reference container stream");
+            final int objectsize = dis.readInt();
+            final int count = dis.readInt();
+            if (count < 0) throw new IOException("wrong container count " + count);
+            if (count > 0 && objectsize != factory.getRow().objectsize) throw new IOException("wrong entry size " + objectsize + ", expected " + factory.getRow().objectsize);
+            final List<ReferenceContainer<ReferenceType>> containers = new ArrayList<ReferenceContainer<ReferenceType>>(Math.min(count, 1000));
+            for (int i = 0; i < count; i++) {
+                final int termLength = dis.readUnsignedShort();
+                if (termLength != factory.getRow().primaryKeyLength) throw new IOException("wrong term length " + termLength);
+                final byte[] term = new byte[termLength];
+                dis.readFully(term);
+                if (!factory.getRow().objectOrder.wellformed(term)) throw new IOException("malformed term hash");
+                final int collectionLength = dis.readInt();
+                // the length must fit into the remaining input; a gzip stream cannot be checked in advance, but readFully fails at its end
+                if (collectionLength < 0 || (is instanceof ByteArrayInputStream && collectionLength > is.available())) throw new IOException("wrong collection length " + collectionLength);
+                final byte[] collection = readCollection(dis, collectionLength);
+                try {
+                    // the order of the sender is not trusted, the collection is sorted again
+                    containers.add(new ReferenceContainer<ReferenceType>(factory, term, RowSet.importUntrustedRowSet(collection, factory.getRow())));
+                } catch (final SpaceExceededException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+            }
+            return containers;
+        } catch (final EOFException e) {
+            throw new IOException("truncated reference container stream", e);
+        } finally {
+            dis.close();
+        }
+    }
+
+    private static byte[] readCollection(final DataInputStream dis, final int length) throws IOException {
+        // read in chunks, so that a wrong length in a compressed stream does not allocate the whole length at once
+        final ByteArrayOutputStream collection = new ByteArrayOutputStream(Math.min(length, 64 * 1024));
+        final byte[] buffer = new byte[Math.min(length, 64 * 1024)];
+        int remaining = length;
+        while (remaining > 0) {
+            final int n = Math.min(remaining, buffer.length);
+            dis.readFully(buffer, 0, n);
+            collection.write(buffer, 0, n);
+            remaining -= n;
+        }
+        return collection.toByteArray();
+    }
+
+}
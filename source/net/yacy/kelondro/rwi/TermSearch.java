@@ -27,16 +27,23 @@
 
 package net.yacy.kelondro.rwi;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.TreeMap;
 
 import net.yacy.cora.order.Base64Order;
 import net.yacy.cora.storage.HandleSet;
 import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.data.word.PositionReference;
+import net.yacy.kelondro.index.RowHandleSet;
 
 
 public class TermSearch <ReferenceType extends Reference> {
 
     private final ReferenceContainer<ReferenceType> joinResult;
+    private final ReferenceFactory<ReferenceType> termFactory;
     private TreeMap<byte[], ReferenceContainer<ReferenceType>> inclusionContainers;
 
     public TermSearch(
@@ -47,6 +54,7 @@ public class TermSearch <ReferenceType extends Reference> {
             ReferenceFactory<ReferenceType> termFactory,
             int maxDistance) throws SpaceExceededException {
 
+        this.termFactory = termFactory;
         this.inclusionContainers =
             (queryHashes.isEmpty()) ?
                 new TreeMap<byte[], ReferenceContainer<ReferenceType>>(Base64Order.enhancedCoder) :
@@ -73,6 +81,68 @@ public class TermSearch <ReferenceType extends Reference> {
         return this.joinResult;
     }
 
+    /**
+     * verify the joined references with the positions of the words in text: each phrase must appear in the text,
+     * and the smallest window of the text which contains all query words must not be larger than maxDistance
+     * positions per word. References without complete positions are checked with their joined distance instead.
+     * The joined container of this search is not changed, so that a cached search can be verified several times;
+     * the search should be done with maxDistance = Integer.MAX_VALUE because the joined distance is only an estimation.
+     * @param positionIndex the positions of the words in text
+     * @param phrases the word hashes of each phrase in the order of the phrase
+     * @param maxDistance the maximum distance between query words, Integer.MAX_VALUE for no limit
+     * @return the verified references
+     * @throws IOException
+     * @throws SpaceExceededException
+     */
+    public ReferenceContainer<ReferenceType> joined(final Index<PositionReference> positionIndex, final List<byte[][]> phrases, final int maxDistance) throws IOException, SpaceExceededException {
+        final boolean window = maxDistance < Integer.MAX_VALUE && this.inclusionContainers.size() > 1;
+        if (this.joinResult.isEmpty() || (phrases.isEmpty() && !window)) return this.joinResult;
+
+        // load the positions of the words for the joined references only
+        final HandleSet urls = new RowHandleSet(this.joinResult.row().primaryKeyLength, this.joinResult.row().objectOrder, this.joinResult.size());
+        Iterator<ReferenceType> i = this.joinResult.entries();
+        while (i.hasNext()) urls.put(i.next().urlhash());
+        final TreeMap<byte[], ReferenceContainer<PositionReference>> positions = new TreeMap<byte[], ReferenceContainer<PositionReference>>(Base64Order.enhancedCoder);
+        final List<byte[]> words = new ArrayList<byte[]>();
+        for (final byte[][] phrase: phrases) for (final byte[] word: phrase) words.add(word);
+        if (window) words.addAll(this.inclusionContainers.keySet());
+        for (final byte[] word: words) {
+            if (!positions.containsKey(word)) positions.put(word, positionIndex.get(word, urls)); // null if there are no positions of the word
+        }
+
+        final ReferenceContainer<ReferenceType> verified = new ReferenceContainer<ReferenceType>(this.termFactory, null, this.joinResult.size());
+        i = this.joinResult.entries();
+        verify: while (i.hasNext()) {
+            final ReferenceType reference = i.next();
+            final byte[] urlhash = reference.urlhash();
+            boolean estimate = false; // true if the positions cannot decide
+            for (final byte[][] phrase: phrases) {
+                final Boolean contains = PositionReference.containsPhrase(references(positions, phrase, urlhash));
+                if (contains == null) estimate = true; else if (!contains.booleanValue()) continue verify;
+            }
+            if (window) {
+                final PositionReference[] all = references(positions, this.inclusionContainers.keySet().toArray(new byte[this.inclusionContainers.size()][]), urlhash);
+                final int w = PositionReference.minimalWindow(all);
+                if (w < 0 || w > (long) maxDistance * (all.length - 1)) {
+                    if (w >= 0 && PositionReference.isComplete(all)) continue verify;
+                    estimate = true;
+                }
+            }
+            if (estimate && reference.distance() > maxDistance) continue verify;
+            verified.add(reference);
+        }
+        return verified;
+    }
+
+    private static PositionReference[] references(final TreeMap<byte[], ReferenceContainer<PositionReference>> positions, final byte[][] words, final byte[] urlhash) {
+        final PositionReference[] references = new PositionReference[words.length];
+        for (int j = 0; j < words.length; j++) {
+            final ReferenceContainer<PositionReference> container = positions.get(words[j]);
+            references[j] = container == null ? null : container.getReference(urlhash);
+        }
+        return references;
+    }
+
     public TreeMap<byte[], ReferenceContainer<ReferenceType>> inclusion() {
         return this.inclusionContainers;
     }
@@ -0,0 +1,166 @@
+/**
+ *  TermSearchCache
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.kelondro.rwi;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import net.yacy.cora.document.encoding.ASCII;
+import net.yacy.cora.storage.HandleSet;
+
+/**
+ * a cache of the results of term searches, so that repeated queries, i.e. when a user pages
+ * through the results, do not retrieve and join the term containers again.
+ * The cache is bounded by the memory of the cached containers and evicts the least recently used
+ * results. Each result is stored with the generation of its terms at the time of the search;
+ * a result is only returned if the generation of its terms did not change since then.
+ */
+public final class TermSearchCache<ReferenceType extends Reference> {
+
+    private static class Entry<ReferenceType extends Reference> {
+        private final TermSearch<ReferenceType> search;
+        private final long generation;
+        private final long mem;
+
+        private Entry(final TermSearch<ReferenceType> search, final long generation, final long mem) {
+            this.search = search;
+            this.generation = generation;
+            this.mem = mem;
+        }
+    }
+
+    private final long maxMem;
+    private final LinkedHashMap<String, Entry<ReferenceType>> cache; // in access order
+    private long mem, hits, misses, invalidations;
+
+    /**
+     * @param maxMem the maximum number of bytes of the cached containers
+     */
+    public TermSearchCache(final long maxMem) {
+        this.maxMem = maxMem;
+        this.cache = new LinkedHashMap<String, Entry<ReferenceType>>(16, 0.75f, true);
+        this.mem = 0;
+        this.hits = 0;
+        this.misses = 0;
+        this.invalidations = 0;
+    }
+
+    /**
+     * compute the cache key of a term search
+     * @param queryHashes the hashes of the included terms
+     * @param excludeHashes the hashes of the excluded terms
+     * @param maxDistance
+     * @return a key which is independent from the order of the terms
+     */
+    public static String key(final HandleSet queryHashes, final HandleSet excludeHashes, final int maxDistance) {
+        final StringBuilder sb = new StringBuilder((queryHashes.size() + excludeHashes.size()) * 12 + 8);
+        for (final String h: sorted(queryHashes)) sb.append(h);
+        sb.append('-');
+        for (final String h: sorted(excludeHashes)) sb.append(h);
+        sb.append('/').append(maxDistance);
+        return sb.toString();
+    }
+
+    private static TreeSet<String> sorted(final HandleSet hashes) {
+        final TreeSet<String> s = new TreeSet<String>();
+        for (final byte[] h: hashes) s.add(ASCII.String(h));
+        return s;
+    }
+
+    /**
+     * @param key the result of key()
+     * @param generation the current generation of the terms of the search
+     * @return the cached search or null if there is none or if it was computed with another generation of the terms
+     */
+    public synchronized TermSearch<ReferenceType> get(final String key, final long generation) {
+        final Entry<ReferenceType> entry = this.cache.get(key);
+        if (entry == null) {
+            this.misses++;
+            return null;
+        }
+        if (entry.generation != generation) {
+            this.cache.remove(key);
+            this.mem -= entry.mem;
+            this.invalidations++;
+            this.misses++;
+            return null;
+        }
+        this.hits++;
+        return entry.search;
+    }
+
+    /**
+     * store a search result. Results which need more than a quarter of the cache memory are not stored.
+     * @param key the result of key()
+     * @param generation the generation of the terms before the search was started
+     * @param search
+     */
+    public synchronized void put(final String key, final long generation, final TermSearch<ReferenceType> search) {
+        long m = search.joined().mem();
+        for (final ReferenceContainer<ReferenceType> container: search.inclusion().values()) m += container.mem();
+        if (m > this.maxMem / 4) return;
+        final Entry<ReferenceType> old = this.cache.put(key, new Entry<ReferenceType>(search, generation, m));
+        if (old != null) this.mem -= old.mem;
+        this.mem += m;
+        final Iterator<Map.Entry<String, Entry<ReferenceType>>> i = this.cache.entrySet().iterator();
+        while (this.mem > this.maxMem && i.hasNext()) {
+            this.mem -= i.next().getValue().mem;
+            i.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        this.cache.clear();
+        this.mem = 0;
+    }
+
+    public synchronized int size() {
+        return this.cache.size();
+    }
+
+    /**
+     * @return the number of bytes of the cached containers
+     */
+    public synchronized long mem() {
+        return this.mem;
+    }
+
+    public long maxMem() {
+        return this.maxMem;
+    }
+
+    public synchronized long hits() {
+        return this.hits;
+    }
+
+    public synchronized long misses() {
+        return this.misses;
+    }
+
+    /**
+     * @return the number of cached results that were dropped because the references of their terms had changed
+     */
+    public synchronized long invalidations() {
+        return this.invalidations;
+    }
+
+}
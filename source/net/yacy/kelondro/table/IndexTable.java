@@ -22,6 +22,7 @@ package net.yacy.kelondro.table;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Iterator;
 
 import net.yacy.cora.order.NaturalOrder;
 import net.yacy.cora.util.SpaceExceededException;
@@ -108,6 +109,21 @@ public class IndexTable {
         return table.has(key);
     }
 
+    /**
+     * @return the number of entries in the index
+     */
+    public int size() {
+        return this.table.size();
+    }
+
+    /**
+     * @return an iteration of all keys of the index in ascending order
+     * @throws IOException
+     */
+    public Iterator<byte[]> keys() throws IOException {
+        return this.table.keys(true, null);
+    }
+
     /**
      * remove a given key from the index
      * @param key
@@ -0,0 +1,131 @@
+/**
+ *  IOThreadFactory
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.kelondro.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.yacy.cora.util.ConcurrentLog;
+
+/**
+ * creates threads for tasks which mostly wait for network I/O, like loaders and remote searches.
+ * These are virtual threads if they are switched on and the JVM supports them (Java 21 and later),
+ * otherwise platform threads as before. The mode is read each time a thread is created, so a change
+ * applies to all threads which are created afterwards.
+ * Virtual threads are accessed with reflection because the source level of YaCy does not know them.
+ */
+public class IOThreadFactory implements ThreadFactory {
+
+    private final static ConcurrentLog log = new ConcurrentLog("IOThreadFactory");
+
+    /** Thread.ofVirtual() and the name and unstarted methods of its builder, or null if the JVM has no virtual threads */
+    private static final Method ofVirtual, builderName, builderUnstarted;
+    static {
+        Method o = null, n = null, u = null;
+        try {
+            o = Thread.class.getMethod("ofVirtual");
+            final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            n = builder.getMethod("name", String.class);
+            u = builder.getMethod("unstarted", Runnable.class);
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            o = null;
+        }
+        ofVirtual = o;
+        builderName = n;
+        builderUnstarted = u;
+    }
+
+    private static volatile boolean virtual = false;
+
+    /**
+     * @return true if the JVM supports virtual threads
+     */
+    public static boolean isVirtualSupported() {
+        return ofVirtual != null;
+    }
+
+    /**
+     * switch virtual threads on or off
+     * @param on
+     * @return true if virtual threads are used from now on; this is false if the JVM does not support them
+     */
+    public static boolean setVirtual(final boolean on) {
+        virtual = on && isVirtualSupported();
+        return virtual;
+    }
+
+    /**
+     * @return true if new threads are virtual threads
+     */
+    public static boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * create a thread which is not started yet
+     * @param name the name of the thread
+     * @param r the task of the thread
+     * @return a virtual thread if these are switched on, otherwise a platform thread
+     */
+    public static Thread newThread(final String name, final Runnable r) {
+        final Thread t = newVirtualThread(name, r);
+        return t == null ? new Thread(r, name) : t;
+    }
+
+    /**
+     * @return a virtual thread or null if virtual threads are switched off
+     */
+    private static Thread newVirtualThread(final String name, final Runnable r) {
+        if (!virtual) return null;
+        try {
+            return (Thread) builderUnstarted.invoke(builderName.invoke(ofVirtual.invoke(null), name), r);
+        } catch (final ReflectiveOperationException e) {
+            log.warn("cannot create virtual thread, using platform threads: " + e.getMessage());
+            virtual = false;
+            return null;
+        }
+    }
+
+    private final String prefix;
+    private final AtomicInteger count;
+
+    /**
+     * @param prefix each thread is named 'prefix' + "_" + number
+     */
+    public IOThreadFactory(final String prefix) {
+        this.prefix = prefix;
+        this.count = new AtomicInteger(0);
+    }
+
+    @Override
+    public Thread newThread(final Runnable r) {
+        final String name = this.prefix + "_" + this.count.incrementAndGet();
+        Thread t = newVirtualThread(name, r);
+        if (t == null) {
+            // like the default thread factory
+            t = new Thread(r, name);
+            if (t.isDaemon()) t.setDaemon(false);
+            if (t.getPriority() != Thread.NORM_PRIORITY) t.setPriority(Thread.NORM_PRIORITY);
+        }
+        return t;
+    }
+
+}
@@ -93,6 +93,7 @@ import net.yacy.cora.federate.solr.connector.SolrConnector;
 import net.yacy.cora.federate.solr.instance.RemoteInstance;
 import net.yacy.cora.order.Base64Order;
 import net.yacy.cora.order.Digest;
+import net.yacy.cora.protocol.ByteArrayBody;
 import net.yacy.cora.protocol.ClientIdentification;
 import net.yacy.cora.protocol.Domains;
 import net.yacy.cora.protocol.http.HTTPClient;
@@ -112,6 +113,7 @@ import net.yacy.kelondro.data.word.WordReferenceFactory;
 import net.yacy.kelondro.rwi.Reference;
 import net.yacy.kelondro.rwi.ReferenceContainer;
 import net.yacy.kelondro.rwi.ReferenceContainerCache;
+import net.yacy.kelondro.rwi.ReferenceContainerStream;
 import net.yacy.kelondro.util.FileUtils;
 import net.yacy.kelondro.util.MemoryControl;
 import net.yacy.peers.graphics.ProfilingGraph;
@@ -1708,8 +1710,13 @@ public final class Protocol {
         final boolean preferHttps = sb.getConfigBool(SwitchboardConstants.NETWORK_PROTOCOL_HTTPS_PREFERRED,
                 SwitchboardConstants.NETWORK_PROTOCOL_HTTPS_PREFERRED_DEFAULT);
 
-        // transfer the RWI without the URLs
-        Map<String, String> in = transferRWI(targetSeed, indexes, gzipBody, timeout, preferHttps);
+        // transfer the RWI without the URLs; binary containers if the target peer accepts them
+        final boolean binary = targetSeed.getFlagBinaryRWI() && sb.getConfigBool(SwitchboardConstants.INDEX_DIST_BINARY, SwitchboardConstants.INDEX_DIST_BINARY_DEFAULT);
+        Map<String, String> in = transferRWI(targetSeed, indexes, gzipBody, timeout, preferHttps, binary);
+        if (binary && in != null && "missing indexes".equals(in.get("result"))) {
+            // the peer does not understand the binary format: fall back to the text form
+            in = transferRWI(targetSeed, indexes, gzipBody, timeout, preferHttps, false);
+        }
 
         if ( in == null ) {
             // targetSeed interface departure is already handled within transferRWI() for no response situation
@@ -1792,6 +1799,9 @@ public final class Protocol {
      *            http(s) request(s) to the remote peer
      * @param preferHttps
      *            when true, use https when available on the target peer
+     * @param binary
+     *            when true, the containers are sent in the binary format of ReferenceContainerStream,
+     *            otherwise each reference is sent in its text form
      * @return peer response or null if transfer failed
      */
     private static Map<String, String> transferRWI(
@@ -1799,7 +1809,8 @@ public final class Protocol {
         final ReferenceContainerCache<WordReference> indexes,
         boolean gzipBody,
         final int timeout,
-        final boolean preferHttps) {
+        final boolean preferHttps,
+        final boolean binary) {
         for (final String ip : targetSeed.getIPs()) {
             if (ip == null) {
                 Network.log.warn("no address for transferRWI");
@@ -1824,10 +1835,14 @@ public final class Protocol {
             }
 
             int indexcount = 0;
-            final StringBuilder entrypost = new StringBuilder(indexes.size() * 73);
+            final StringBuilder entrypost = new StringBuilder(binary ? 0 : indexes.size() * 73);
             Iterator<WordReference> eenum;
             Reference entry;
             for ( final ReferenceContainer<WordReference> ic : indexes ) {
+                if (binary) {
+                    indexcount += ic.size();
+                    continue;
+                }
                 eenum = ic.entries();
                 while ( eenum.hasNext() ) {
                     entry = eenum.next();
@@ -1850,18 +1865,29 @@ public final class Protocol {
                 final Map<String, ContentBody> parts = basicRequestParts(Switchboard.getSwitchboard(), targetSeed.hash, salt);
                 parts.put("wordc", UTF8.StringBody(Integer.toString(indexes.size())));
                 parts.put("entryc", UTF8.StringBody(Integer.toString(indexcount)));
-                parts.put("indexes", UTF8.StringBody(entrypost.toString()));
+                final int payloadSize;
+                boolean gzipPost = gzipBody;
+                if (binary) {
+                    // the file name must end with .gz, so that the receiving servlet keeps the bytes; the payload is compressed here and not again in the post
+                    final byte[] containers = ReferenceContainerStream.encode(indexes, gzipBody);
+                    parts.put("containers", new ByteArrayBody(containers, "containers.gz"));
+                    payloadSize = containers.length;
+                    gzipPost = false;
+                } else {
+                    parts.put("indexes", UTF8.StringBody(entrypost.toString()));
+                    payloadSize = entrypost.length();
+                }
                 byte[] content = null;
                 try (final HTTPClient httpClient = new HTTPClient(ClientIdentification.yacyInternetCrawlerAgent, timeout)) {
                     try {
                         content = httpClient.POSTbytes(new MultiProtocolURL(targetBaseURL, "/yacy/transferRWI.html"),
-                                targetSeed.getHexHash() + ".yacyh", parts, gzipBody, true);
+                                targetSeed.getHexHash() + ".yacyh", parts, gzipPost, true);
                     } catch(final IOException e) {
                         if(targetBaseURL.isHTTPS()) {
                             targetBaseURL = targetSeed.getPublicMultiprotocolURL(ip, false);
                             /* Failed with https : retry with http on the same address */
                             content = httpClient.POSTbytes(new MultiProtocolURL(targetBaseURL, "/yacy/transferRWI.html"),
-                                    targetSeed.getHexHash() + ".yacyh", parts, gzipBody, true);
+                                    targetSeed.getHexHash() + ".yacyh", parts, gzipPost, true);
                             if(content != null) {
                                 /* Success with http : mark SSL as unavailable on the target peer */
                                 markSSLUnavailableOnPeer(Switchboard.getSwitchboard().peers, targetSeed, ip, "yacyClient.transferRWI");
@@ -1876,7 +1902,7 @@ public final class Protocol {
 
                 final Map<String, String> result = FileUtils.table(v);
                 // return the transfered index data in bytes (for debugging only)
-                result.put("indexPayloadSize", Integer.toString(entrypost.length()));
+                result.put("indexPayloadSize", Integer.toString(payloadSize));
                 result.put(Seed.IP, ip); // add used ip to result for error handling (in case no "result" key was received)
                 return result;
             } catch (final Exception e ) {
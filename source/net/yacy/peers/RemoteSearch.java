@@ -41,6 +41,7 @@ import net.yacy.cora.storage.HandleSet;
 import net.yacy.cora.util.ConcurrentLog;
 import net.yacy.cora.util.Memory;
 import net.yacy.kelondro.data.word.Word;
+import net.yacy.kelondro.util.IOThreadFactory;
 import net.yacy.kelondro.util.MemoryControl;
 import net.yacy.repository.Blacklist;
 import net.yacy.search.Switchboard;
@@ -334,7 +335,7 @@ public class RemoteSearch extends Thread {
         // prepare seed targets and threads
         final Seed targetPeer = event.peers.getConnected(targethash);
         if (targetPeer == null || targetPeer.hash == null) return null;
-        Thread secondary = new Thread("RemoteSearch.secondaryRemoteSearch(" + wordhashes + " to " + targethash + ")") {
+        Thread secondary = IOThreadFactory.newThread("RemoteSearch.secondaryRemoteSearch(" + wordhashes + " to " + targethash + ")", new Runnable() {
             @Override
             public void run() {
                 event.oneFeederStarted();
@@ -367,7 +368,7 @@ public class RemoteSearch extends Thread {
                     event.oneFeederTerminated();
                 }
             }
-        };
+        });
         secondary.start();
         return secondary;
     }
@@ -402,7 +403,7 @@ public class RemoteSearch extends Thread {
         // check own peer status
         if (event.peers.mySeed() == null) { return null; }
         // prepare threads
-        Thread solr = new Thread("RemoteSearch.solrRemoteSearch(" + solrQuery.getQuery() + " to " + (targetPeer == null ? "myself" : targetPeer.hash) + ")") {
+        Thread solr = IOThreadFactory.newThread("RemoteSearch.solrRemoteSearch(" + solrQuery.getQuery() + " to " + (targetPeer == null ? "myself" : targetPeer.hash) + ")", new Runnable() {
             @Override
             public void run() {
                     int urls = 0;
@@ -435,7 +436,7 @@ public class RemoteSearch extends Thread {
                         event.oneFeederTerminated();
                     }
             }
-        };
+        });
         /*if (targetPeer == null) solr.run(); else*/ solr.start();
         return solr;
     }
@@ -214,6 +214,7 @@ public class Seed implements Cloneable, Comparable<Seed>, Comparator<Seed>
     private static final int FLAG_ACCEPT_REMOTE_INDEX = 2;
     private static final int FLAG_ROOT_NODE = 3;
     private static final int FLAG_SSL_AVAILABLE = 4;
+    private static final int FLAG_BINARY_RWI = 5;
 
     public static final String DFLT_NETWORK_UNIT = "freeworld";
     public static final String DFLT_NETWORK_GROUP = "";
@@ -1075,6 +1076,17 @@ public class Seed implements Cloneable, Comparable<Seed>, Comparator<Seed>
         return getFlag(FLAG_SSL_AVAILABLE);
     }
 
+    public final void setFlagBinaryRWI(final boolean value) {
+        setFlag(FLAG_BINARY_RWI, value);
+    }
+
+    /**
+     * @return true if the peer accepts RWIs in the binary transfer format of ReferenceContainerStream
+     */
+    public final boolean getFlagBinaryRWI() {
+        return getFlag(FLAG_BINARY_RWI);
+    }
+
     /**
      * remembers status of remote Solr interface dynamicly
      * should not be used for the local peer
@@ -1102,10 +1114,10 @@ public class Seed implements Cloneable, Comparable<Seed>, Comparator<Seed>
 
     /**
      * set unused flags to zero
-     * currently last used flag is FLAG_SSL_AVAILABLE=4 (2015-10-24)
+     * currently last used flag is FLAG_BINARY_RWI=5
      */
     public final void setUnusedFlags() {
-        for ( int i = 5; i < 20; i++ ) {
+        for ( int i = 6; i < 20; i++ ) {
             setFlag(i, false);
         }
     }
@@ -737,6 +737,76 @@ public class Blacklist {
         return matched;
 	}
 
+    /**
+     * Collect the path patterns of all blacklist entries which apply to the given host. A list of urls
+     * on the same host can then be checked with {@link #isListed(Pattern[], String)} without matching
+     * the host against the blacklist again for each url.
+     * @param blacklistType type of blacklist (DHT, CRAWLER ...)
+     * @param hostlow host part in lower case, must not be null
+     * @return the path patterns for the host, an empty array if the host is not listed at all
+     */
+    public final Pattern[] hostPatterns(final BlacklistType blacklistType, final String hostlow) {
+        if (hostlow == null) {
+            throw new IllegalArgumentException("hostlow may not be null");
+        }
+        return Blacklist.hostPatterns(hostlow, getBlacklistMap(blacklistType, true), getBlacklistMap(blacklistType, false));
+    }
+
+    /**
+     * Collect the path patterns of all blacklist entries which apply to the given host. All parameters must not be null.
+     * @param hostlow host part in lower case
+     * @param blacklistMapMatched blacklist patterns indexed by matched hosts
+     * @param blacklistMapNotMatched blacklist patterns indexed by not matched hosts
+     * @return the path patterns for the host, an empty array if the host is not listed at all
+     */
+    protected final static Pattern[] hostPatterns(final String hostlow,
+            final Map<String, Set<Pattern>> blacklistMapMatched,
+            final Map<String, Set<Pattern>> blacklistMapNotMatched) {
+        final List<Pattern> patterns = new ArrayList<Pattern>();
+
+        // the same host keys as in isListed(hostlow, path, blacklistMapMatched, blacklistMapNotMatched)
+        final List<String> keys = new ArrayList<String>();
+        keys.add(hostlow);
+        int index = 0;
+        while ((index = hostlow.indexOf('.', index + 1)) != -1) {
+            keys.add(hostlow.substring(0, index + 1) + "*");
+            keys.add(hostlow.substring(0, index));
+        }
+        index = hostlow.length();
+        while ((index = hostlow.lastIndexOf('.', index - 1)) != -1) {
+            keys.add("*" + hostlow.substring(index, hostlow.length()));
+            keys.add(hostlow.substring(index + 1, hostlow.length()));
+        }
+        for (final String key: keys) {
+            final Set<Pattern> app = blacklistMapMatched.get(key);
+            if (app != null) patterns.addAll(app);
+        }
+
+        // all Regex-entries which match the host
+        for (final Entry<String, Set<Pattern>> entry : blacklistMapNotMatched.entrySet()) {
+            try {
+                if (Pattern.matches(entry.getKey(), hostlow)) patterns.addAll(entry.getValue());
+            } catch (final PatternSyntaxException e) {
+            }
+        }
+        return patterns.toArray(new Pattern[patterns.size()]);
+    }
+
+    /**
+     * Check a path against the patterns of a host which were collected with {@link #hostPatterns(BlacklistType, String)}
+     * @param patterns the path patterns of the host
+     * @param path path on the host, must not be null
+     * @return true when the path is blacklisted for the host
+     */
+    public static boolean isListed(final Pattern[] patterns, final String path) {
+        if (patterns.length == 0) return false;
+        final String p = (!path.isEmpty() && path.charAt(0) == '/') ? path.substring(1) : path;
+        for (final Pattern pp: patterns) {
+            if (pp.matcher(p).matches()) return true;
+        }
+        return false;
+    }
+
     public static BlacklistError checkError(final String element, final Map<String, String> properties) {
 
         final boolean allowRegex = (properties != null) && properties.get("allowRegex").equalsIgnoreCase("true");
@@ -64,6 +64,7 @@ import net.yacy.document.Document;
 import net.yacy.document.Parser;
 import net.yacy.document.TextParser;
 import net.yacy.kelondro.util.FileUtils;
+import net.yacy.kelondro.util.IOThreadFactory;
 import net.yacy.repository.Blacklist.BlacklistType;
 import net.yacy.search.Switchboard;
 
@@ -729,14 +730,14 @@ public final class LoaderDispatcher {
     }
 
     public void loadIfNotExistBackground(final DigestURL url, final File cache, final int maxFileSize, BlacklistType blacklistType, final ClientIdentification.Agent agent) {
-        new Loader(url, cache, maxFileSize, CacheStrategy.IFEXIST, blacklistType, agent).start();
+        IOThreadFactory.newThread("LoaderDispatcher.Loader", new Loader(url, cache, maxFileSize, CacheStrategy.IFEXIST, blacklistType, agent)).start();
     }
 
     public void loadIfNotExistBackground(final DigestURL url, final int maxFileSize, BlacklistType blacklistType, final ClientIdentification.Agent agent) {
-        new Loader(url, null, maxFileSize, CacheStrategy.IFEXIST, blacklistType, agent).start();
+        IOThreadFactory.newThread("LoaderDispatcher.Loader", new Loader(url, null, maxFileSize, CacheStrategy.IFEXIST, blacklistType, agent)).start();
     }
 
-    private class Loader extends Thread {
+    private class Loader implements Runnable {
 
         private final DigestURL url;
         private final File cache;
@@ -746,7 +747,6 @@ public final class LoaderDispatcher {
         private final ClientIdentification.Agent agent;
 
         public Loader(final DigestURL url, final File cache, final int maxFileSize, final CacheStrategy cacheStrategy, BlacklistType blacklistType, final ClientIdentification.Agent agent) {
-        	super("LoaderDispatcher.Loader");
             this.url = url;
             this.cache = cache;
             this.maxFileSize = maxFileSize;
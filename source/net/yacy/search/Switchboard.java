@@ -200,14 +200,21 @@ import net.yacy.gui.Tray;
 import net.yacy.http.YaCyHttpServer;
 import net.yacy.kelondro.blob.ArrayStack;
 import net.yacy.kelondro.blob.BEncodedHeap;
+import net.yacy.kelondro.blob.Heap;
+import net.yacy.kelondro.blob.HeapReader;
 import net.yacy.kelondro.blob.Tables;
 import net.yacy.kelondro.blob.Tables.SortDirection;
 import net.yacy.kelondro.data.meta.URIMetadataNode;
 import net.yacy.kelondro.data.word.Word;
+import net.yacy.kelondro.index.FrequencySketch;
+import net.yacy.kelondro.index.HandleMapFactory;
 import net.yacy.kelondro.logging.GuiHandler;
 import net.yacy.kelondro.logging.ThreadDump;
+import net.yacy.kelondro.rwi.IndexCell;
 import net.yacy.kelondro.rwi.ReferenceContainer;
+import net.yacy.kelondro.rwi.ReferenceContainerArray;
 import net.yacy.kelondro.util.FileUtils;
+import net.yacy.kelondro.util.IOThreadFactory;
 import net.yacy.kelondro.util.MemoryControl;
 import net.yacy.kelondro.util.OS;
 import net.yacy.kelondro.util.SetTools;
@@ -241,6 +248,7 @@ import net.yacy.search.query.AccessTracker;
 import net.yacy.search.query.SearchEvent;
 import net.yacy.search.query.SearchEventCache;
 import net.yacy.search.ranking.RankingProfile;
+import net.yacy.search.ranking.ReferenceOrder;
 import net.yacy.search.schema.CollectionConfiguration;
 import net.yacy.search.schema.CollectionSchema;
 import net.yacy.search.schema.WebgraphConfiguration;
@@ -485,7 +493,9 @@ public final class Switchboard extends serverSwitch {
         this.log.config("Loading sessionid file " + sessionidNamesFile);
         MultiProtocolURL.initSessionIDNames(FileUtils.loadList(new File(this.getAppPath(), sessionidNamesFile)));
 
-        // init tables
+        // init tables; the write mode of the heap files must be set before the first heap is opened
+        Heap.useAppendLog = this.getConfigBool(SwitchboardConstants.INDEX_HEAP_APPENDLOG, SwitchboardConstants.INDEX_HEAP_APPENDLOG_DEFAULT);
+        Heap.checkpointInterval = Math.max(1, this.getConfigInt(SwitchboardConstants.INDEX_HEAP_CHECKPOINT, SwitchboardConstants.INDEX_HEAP_CHECKPOINT_DEFAULT)) * 1024L * 1024L;
         this.tables = new WorkTables(this.workPath);
 
         // set a high maximum cache size to current size; this is adopted later automatically
@@ -594,19 +604,37 @@ public final class Switchboard extends serverSwitch {
 
         // initialize index
         ReferenceContainer.maxReferences = this.getConfigInt("index.maxReferences", 0);
+        HeapReader.mapIndexDump = this.getConfigBool(SwitchboardConstants.INDEX_BLOB_MAPINDEXDUMP, SwitchboardConstants.INDEX_BLOB_MAPINDEXDUMP_DEFAULT);
+        FrequencySketch.memoryLimit = Math.max(0, this.getConfigLong(SwitchboardConstants.INDEX_BLOB_SKETCHMEMORY, SwitchboardConstants.INDEX_BLOB_SKETCHMEMORY_DEFAULT)) * 1024L * 1024L;
+        HandleMapFactory.offHeap = this.getConfigBool(SwitchboardConstants.INDEX_HANDLEMAP_OFFHEAP, SwitchboardConstants.INDEX_HANDLEMAP_OFFHEAP_DEFAULT);
+        ReferenceContainerArray.readAhead = Math.max(0, this.getConfigInt(SwitchboardConstants.INDEX_RWI_READAHEAD, SwitchboardConstants.INDEX_RWI_READAHEAD_DEFAULT));
+        IndexCell.writeBufferPartitions = Math.max(1, this.getConfigInt(SwitchboardConstants.INDEX_RWI_WRITEBUFFER_PARTITIONS, SwitchboardConstants.INDEX_RWI_WRITEBUFFER_PARTITIONS_DEFAULT));
+        ReferenceOrder.batchRanking = this.getConfigBool(SwitchboardConstants.SEARCH_RANKING_RWI_BATCH, SwitchboardConstants.SEARCH_RANKING_RWI_BATCH_DEFAULT);
         final File segmentsPath = new File(new File(indexPath, networkName), "SEGMENTS");
         try {this.index = new Segment(this.log, segmentsPath, archivePath, solrCollectionConfigurationWork, solrWebgraphConfigurationWork);} catch (final IOException e) {ConcurrentLog.logException(e);}
+        this.index.setMemoryMappedRWI(this.getConfigBool(SwitchboardConstants.INDEX_RWI_MEMORYMAPPED, SwitchboardConstants.INDEX_RWI_MEMORYMAPPED_DEFAULT));
+        this.index.setCompactionPolicy(IndexCell.CompactionPolicy.parse(this.getConfig(SwitchboardConstants.INDEX_RWI_COMPACTION, SwitchboardConstants.INDEX_RWI_COMPACTION_DEFAULT)));
+        this.index.setTermSearchCacheSize(Math.max(0, this.getConfigLong(SwitchboardConstants.INDEX_RWI_JOINCACHE, SwitchboardConstants.INDEX_RWI_JOINCACHE_DEFAULT)) * 1024L * 1024L);
+        this.index.setRWIShards(this.getConfigInt(SwitchboardConstants.INDEX_RWI_SHARDS, SwitchboardConstants.INDEX_RWI_SHARDS_DEFAULT));
         if (this.getConfigBool(SwitchboardConstants.CORE_SERVICE_RWI, true)) try {
             this.index.connectRWI(wordCacheMaxCount, fileSizeMax);
         } catch (final IOException e) {ConcurrentLog.logException(e);}
         if (this.getConfigBool(SwitchboardConstants.CORE_SERVICE_CITATION, true)) try {
             this.index.connectCitation(wordCacheMaxCount, fileSizeMax);
         } catch (final IOException e) {ConcurrentLog.logException(e);}
+        if (this.getConfigBool(SwitchboardConstants.CORE_SERVICE_POSITIONS, SwitchboardConstants.CORE_SERVICE_POSITIONS_DEFAULT)) try {
+            this.index.connectPositions(wordCacheMaxCount, fileSizeMax);
+        } catch (final IOException e) {ConcurrentLog.logException(e);}
         if (this.getConfigBool(SwitchboardConstants.CORE_SERVICE_FULLTEXT,
                 SwitchboardConstants.CORE_SERVICE_FULLTEXT_DEFAULT)) {
             try {this.index.fulltext().connectLocalSolr();} catch (final IOException e) {ConcurrentLog.logException(e);}
         }
         this.index.fulltext().setUseWebgraph(this.getConfigBool(SwitchboardConstants.CORE_SERVICE_WEBGRAPH, false));
+        if (this.getConfigBool(SwitchboardConstants.CRAWLER_URLSEENFILTER, SwitchboardConstants.CRAWLER_URLSEENFILTER_DEFAULT)) {
+            this.index.connectSeenFilter();
+        } else {
+            this.index.deleteSeenFilterDump();
+        }
 
         // set up the solr interface
         final String solrurls = this.getConfig(SwitchboardConstants.FEDERATED_SERVICE_SOLR_INDEXING_URL, "http://127.0.0.1:8983/solr");
@@ -951,6 +979,12 @@ public final class Switchboard extends serverSwitch {
 
         // start a loader
         this.log.config("Starting Crawl Loader");
+        final boolean virtualThreads = this.getConfigBool(SwitchboardConstants.CRAWLER_THREADS_VIRTUAL, SwitchboardConstants.CRAWLER_THREADS_VIRTUAL_DEFAULT);
+        if (IOThreadFactory.setVirtual(virtualThreads)) {
+            this.log.config("Loader threads are virtual threads");
+        } else if (virtualThreads) {
+            this.log.warn("Virtual threads are not supported by this Java version, loader threads are platform threads");
+        }
         this.loader = new LoaderDispatcher(this);
 
         // load the robots.txt db
@@ -1038,6 +1072,7 @@ public final class Switchboard extends serverSwitch {
         }.start();
 
         // initializing the stackCrawlThread
+        CrawlStacker.batchStacking = this.getConfigBool(SwitchboardConstants.CRAWLER_STACKER_BATCH, SwitchboardConstants.CRAWLER_STACKER_BATCH_DEFAULT);
         this.crawlStacker =
             new CrawlStacker(
                 this.robots,
@@ -1552,13 +1587,23 @@ public final class Switchboard extends serverSwitch {
             final File segmentsPath = new File(new File(indexPrimaryPath, networkName), "SEGMENTS");
             final File archivePath = this.getDataPath(SwitchboardConstants.INDEX_ARCHIVE_PATH, SwitchboardConstants.INDEX_ARCHIVE_DEFAULT);
             this.index = new Segment(this.log, segmentsPath, archivePath, collectionConfiguration, webgraphConfiguration);
+            this.index.setMemoryMappedRWI(this.getConfigBool(SwitchboardConstants.INDEX_RWI_MEMORYMAPPED, SwitchboardConstants.INDEX_RWI_MEMORYMAPPED_DEFAULT));
+            this.index.setCompactionPolicy(IndexCell.CompactionPolicy.parse(this.getConfig(SwitchboardConstants.INDEX_RWI_COMPACTION, SwitchboardConstants.INDEX_RWI_COMPACTION_DEFAULT)));
+            this.index.setTermSearchCacheSize(Math.max(0, this.getConfigLong(SwitchboardConstants.INDEX_RWI_JOINCACHE, SwitchboardConstants.INDEX_RWI_JOINCACHE_DEFAULT)) * 1024L * 1024L);
+            this.index.setRWIShards(this.getConfigInt(SwitchboardConstants.INDEX_RWI_SHARDS, SwitchboardConstants.INDEX_RWI_SHARDS_DEFAULT));
             if (this.getConfigBool(SwitchboardConstants.CORE_SERVICE_RWI, true)) this.index.connectRWI(wordCacheMaxCount, fileSizeMax);
             if (this.getConfigBool(SwitchboardConstants.CORE_SERVICE_CITATION, true)) this.index.connectCitation(wordCacheMaxCount, fileSizeMax);
+            if (this.getConfigBool(SwitchboardConstants.CORE_SERVICE_POSITIONS, SwitchboardConstants.CORE_SERVICE_POSITIONS_DEFAULT)) this.index.connectPositions(wordCacheMaxCount, fileSizeMax);
             if (this.getConfigBool(SwitchboardConstants.CORE_SERVICE_FULLTEXT,
                     SwitchboardConstants.CORE_SERVICE_FULLTEXT_DEFAULT)) {
                 this.index.fulltext().connectLocalSolr();
             }
             this.index.fulltext().setUseWebgraph(this.getConfigBool(SwitchboardConstants.CORE_SERVICE_WEBGRAPH, false));
+            if (this.getConfigBool(SwitchboardConstants.CRAWLER_URLSEENFILTER, SwitchboardConstants.CRAWLER_URLSEENFILTER_DEFAULT)) {
+                this.index.connectSeenFilter();
+            } else {
+                this.index.deleteSeenFilterDump();
+            }
 
             // set up the solr interface
             final String solrurls = this.getConfig(SwitchboardConstants.FEDERATED_SERVICE_SOLR_INDEXING_URL, "http://127.0.0.1:8983/solr");
@@ -3284,6 +3329,7 @@ public final class Switchboard extends serverSwitch {
 
                 // insert those hyperlinks to the crawler
                 MultiProtocolURL nextUrl;
+                final List<Request> nextRequests = new ArrayList<Request>(hl.size());
                 for ( final Map.Entry<AnchorURL, String> nextEntry : hl.entrySet() ) {
                     // check for interruption
                     this.checkInterruption();
@@ -3310,7 +3356,7 @@ public final class Switchboard extends serverSwitch {
                     // enqueue the hyperlink into the pre-notice-url db
                     final int nextdepth = nextEntry.getValue() != null && nextEntry.getValue().equals(Document.CANONICAL_MARKER) ? response.depth() : response.depth() + 1; // canonical documents are on the same depth
                     try {
-                        this.crawlStacker.enqueueEntry(new Request(
+                        nextRequests.add(new Request(
                             response.initiator(),
                             new DigestURL(u),
                             response.url().hash(),
@@ -3323,6 +3369,7 @@ public final class Switchboard extends serverSwitch {
                         ConcurrentLog.logException(e);
                     }
                 }
+                this.crawlStacker.enqueueEntries(nextRequests); // grouped by host
                 final long stackEndTime = System.currentTimeMillis();
                 if ( this.log.isInfo() ) {
                     this.log.info("CRAWL: ADDED "
@@ -3432,7 +3479,7 @@ public final class Switchboard extends serverSwitch {
                         in.queueEntry.profile().indexMedia(),
                         LibraryProvider.dymLib, true,
                         this.index.fulltext().getDefaultConfiguration().contains(CollectionSchema.dates_in_content_dts),
-                        profile.timezoneOffset());
+                        profile.timezoneOffset(), this.index.connectedPositions());
 
             // update image result list statistics
             // its good to do this concurrently here, because it needs a DNS lookup
@@ -3978,7 +4025,8 @@ public final class Switchboard extends serverSwitch {
                                 final Condenser condenser = new Condenser(
                                         document, null, true, true, LibraryProvider.dymLib, true,
                                         Switchboard.this.index.fulltext().getDefaultConfiguration().contains(CollectionSchema.dates_in_content_dts),
-                                        searchEvent == null ? 0 : searchEvent.query.timezoneOffset);
+                                        searchEvent == null ? 0 : searchEvent.query.timezoneOffset,
+                                        Switchboard.this.index.connectedPositions());
                                 ResultImages.registerImages(url, document, true);
                                 Switchboard.this.webStructure.generateCitationReference(url, document);
                                 Switchboard.this.storeDocumentIndex(
@@ -4556,6 +4604,7 @@ public final class Switchboard extends serverSwitch {
         mySeed.put(Seed.UTC, GenericFormatter.UTCDiffString());
         mySeed.setFlagAcceptRemoteCrawl(this.getConfigBool(SwitchboardConstants.CRAWLJOB_REMOTE, false));
         mySeed.setFlagAcceptRemoteIndex(this.getConfigBool(SwitchboardConstants.INDEX_RECEIVE_ALLOW, true));
+        mySeed.setFlagBinaryRWI(true);
         mySeed.setFlagSSLAvailable(this.getHttpServer() != null && this.getHttpServer().withSSL() && this.getConfigBool("server.https", false));
         if (mySeed.getFlagSSLAvailable()) mySeed.put(Seed.PORTSSL, Integer.toString(this.getPublicPort(SwitchboardConstants.SERVER_SSLPORT, 8443)));
 
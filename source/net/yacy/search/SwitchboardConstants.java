@@ -194,6 +194,12 @@ public final class SwitchboardConstants {
      * <p>Name of the setting whether DHT chunks shall be transferred gzip-encodedly</p>
      */
     public static final String INDEX_DIST_GZIP_BODY             = "indexDistribution.gzipBody";
+    /**
+     * <p><code>public static final String <strong>INDEX_DIST_BINARY</strong> = "indexDistribution.binary"</code></p>
+     * <p>Name of the setting whether RWIs are sent in the binary container format to peers which accept it</p>
+     */
+    public static final String INDEX_DIST_BINARY                = "indexDistribution.binary";
+    public static final boolean INDEX_DIST_BINARY_DEFAULT       = true;
     /**
      * <p><code>public static final String <strong>INDEX_DIST_ALLOW</strong> = "allowDistributeIndex"</code></p>
      * <p>Name of the setting whether Index Distribution shall be allowed (and the DHT-thread therefore started) or not</p>
@@ -340,6 +346,57 @@ public final class SwitchboardConstants {
     public static final String CORE_SERVICE_CITATION            = "core.service.citation.tmp";
     public static final String CORE_SERVICE_WEBGRAPH            = "core.service.webgraph.tmp";
 
+    /** Key of the setting controlling whether the positions of the words in text are stored beside the RWI to verify phrase and proximity queries */
+    public static final String CORE_SERVICE_POSITIONS           = "core.service.positions";
+
+    /** Default setting value controlling whether the positions of the words in text are stored */
+    public static final boolean CORE_SERVICE_POSITIONS_DEFAULT  = false;
+
+    /** Setting key controlling whether the BLOB files of the RWI and citation index that are not written any more are read through memory mappings */
+    public static final String INDEX_RWI_MEMORYMAPPED           = "index.rwi.memoryMapped";
+    /** Default setting value for memory-mapped reads of RWI BLOB files */
+    public static final boolean INDEX_RWI_MEMORYMAPPED_DEFAULT  = false;
+    /** Setting key controlling whether the index dumps of BLOB files are memory-mapped at startup instead of being loaded into the java heap */
+    public static final String INDEX_BLOB_MAPINDEXDUMP          = "index.blob.mapIndexDump";
+    /** Default setting value for memory-mapped index dumps */
+    public static final boolean INDEX_BLOB_MAPINDEXDUMP_DEFAULT = false;
+    /** Setting key for the memory in MB of the frequency sketches of all mounted BLOB files together */
+    public static final String INDEX_BLOB_SKETCHMEMORY          = "index.blob.sketchMemory";
+    /** Default setting value for the memory of the frequency sketches */
+    public static final int INDEX_BLOB_SKETCHMEMORY_DEFAULT     = 64;
+    /** Setting key controlling whether the indexes of BLOB files and the crawler depth cache are held in direct memory outside of the java heap */
+    public static final String INDEX_HANDLEMAP_OFFHEAP          = "index.handlemap.offHeap";
+    /** Default setting value for off-heap indexes */
+    public static final boolean INDEX_HANDLEMAP_OFFHEAP_DEFAULT = false;
+    /** Setting key controlling whether heap files are written as an append-only log with group commits and checkpoints */
+    public static final String INDEX_HEAP_APPENDLOG             = "index.heap.appendLog";
+    /** Default setting value for the append log mode of heap files */
+    public static final boolean INDEX_HEAP_APPENDLOG_DEFAULT    = false;
+    /** Setting key for the number of megabytes that are appended to a heap file in append log mode before a checkpoint is written */
+    public static final String INDEX_HEAP_CHECKPOINT            = "index.heap.appendLog.checkpointMB";
+    /** Default setting value for the checkpoint interval of the append log mode */
+    public static final int INDEX_HEAP_CHECKPOINT_DEFAULT       = 64;
+    /** Setting key for the merge strategy of the RWI and citation BLOB files: pairwise or tiered */
+    public static final String INDEX_RWI_COMPACTION             = "index.rwi.compaction";
+    /** Default setting value for the merge strategy of the RWI and citation BLOB files */
+    public static final String INDEX_RWI_COMPACTION_DEFAULT     = "pairwise";
+    /** Setting key for the number of containers that are read ahead from each RWI BLOB file when the term space is iterated; 0 switches the read-ahead off */
+    public static final String INDEX_RWI_READAHEAD              = "index.rwi.readAhead";
+    /** Default setting value for the read-ahead of RWI containers */
+    public static final int INDEX_RWI_READAHEAD_DEFAULT         = 8;
+    /** Setting key for the memory in MB of the cache of joined RWI term searches; 0 switches the cache off */
+    public static final String INDEX_RWI_JOINCACHE              = "index.rwi.joinCache";
+    /** Default setting value for the memory of the cache of joined RWI term searches */
+    public static final int INDEX_RWI_JOINCACHE_DEFAULT         = 32;
+    /** Setting key for the number of partitions of the RAM write buffer of the RWI and citation index; each partition is locked and dumped on its own */
+    public static final String INDEX_RWI_WRITEBUFFER_PARTITIONS = "index.rwi.writeBuffer.partitions";
+    /** Default setting value for the number of partitions of the RWI write buffer */
+    public static final int INDEX_RWI_WRITEBUFFER_PARTITIONS_DEFAULT = 4;
+    /** Setting key for the number of shards of the RWI BLOB files; each shard holds a range of the term space in its own directory with its own merger */
+    public static final String INDEX_RWI_SHARDS                 = "index.rwi.shards";
+    /** Default setting value for the number of shards of the RWI */
+    public static final int INDEX_RWI_SHARDS_DEFAULT            = 1;
+
     /**
      * <p><code>public static final String <strong>CRAWLER_THREADS_ACTIVE_MAX</strong> = "crawler.MaxActiveThreads"</code></p>
      * <p>Name of the setting how many active crawler-threads may maximal be running on the same time</p>
@@ -349,6 +406,38 @@ public final class SwitchboardConstants {
     public static final String CRAWLER_MAX_SAME_HOST_IN_QUEUE   = "crawler.MaxSameHostInQueue";
     public static final String CRAWLER_FOLLOW_REDIRECTS         = "crawler.http.FollowRedirects"; // ignore the target url and follow to the redirect
     public static final String CRAWLER_RECORD_REDIRECTS         = "crawler.http.RecordRedirects"; // record the ignored redirected page to the index store
+    /** Setting key to load http and https crawl requests with one non-blocking client instead of a loader thread for each request */
+    public static final String CRAWLER_FETCHER_ASYNC            = "crawler.fetcher.async";
+    /** Default setting value for the non-blocking crawl client */
+    public static final boolean CRAWLER_FETCHER_ASYNC_DEFAULT   = false;
+    /** Setting key for the maximum number of requests which the non-blocking crawl client loads at the same time */
+    public static final String CRAWLER_FETCHER_ASYNC_MAX        = "crawler.fetcher.async.maxInFlight";
+    /** Default setting value for the maximum number of requests of the non-blocking crawl client */
+    public static final int CRAWLER_FETCHER_ASYNC_MAX_DEFAULT   = 2000;
+    /** Setting key for the maximum number of requests to the same host which the non-blocking crawl client loads at the same time */
+    public static final String CRAWLER_FETCHER_ASYNC_MAX_PER_HOST = "crawler.fetcher.async.maxPerHost";
+    /** Default setting value for the maximum number of requests to the same host of the non-blocking crawl client */
+    public static final int CRAWLER_FETCHER_ASYNC_MAX_PER_HOST_DEFAULT = 2;
+    /** Setting key for the number of threads of the non-blocking crawl client */
+    public static final String CRAWLER_FETCHER_ASYNC_THREADS    = "crawler.fetcher.async.threads";
+    /** Default setting value for the number of threads of the non-blocking crawl client */
+    public static final int CRAWLER_FETCHER_ASYNC_THREADS_DEFAULT = 8;
+    /** Setting key for the number of worker threads of the non-blocking crawl client for robots.txt loads, cache storage and the hand-over to the indexer */
+    public static final String CRAWLER_FETCHER_ASYNC_WORKERS    = "crawler.fetcher.async.workers";
+    /** Default setting value for the number of worker threads of the non-blocking crawl client */
+    public static final int CRAWLER_FETCHER_ASYNC_WORKERS_DEFAULT = 16;
+    /** Setting key to run crawler loaders, robots.txt loads and remote searches in virtual threads if the JVM supports them */
+    public static final String CRAWLER_THREADS_VIRTUAL          = "crawler.threads.virtual";
+    /** Default setting value for virtual threads */
+    public static final boolean CRAWLER_THREADS_VIRTUAL_DEFAULT = false;
+    /** Setting key to check urls in a filter of all indexed, failed and loaded urls before they are looked up in the index and crawl queues */
+    public static final String CRAWLER_URLSEENFILTER            = "crawler.urlSeenFilter";
+    /** Default setting value for the url seen filter */
+    public static final boolean CRAWLER_URLSEENFILTER_DEFAULT   = true;
+    /** Setting key to stack the links of a document in groups of the same host */
+    public static final String CRAWLER_STACKER_BATCH            = "crawler.stacker.batch";
+    /** Default setting value for stacking links in groups of the same host */
+    public static final boolean CRAWLER_STACKER_BATCH_DEFAULT   = true;
     
     public static final String CRAWLER_USER_AGENT_NAME          = "crawler.userAgent.name";
     public static final String CRAWLER_USER_AGENT_STRING        = "crawler.userAgent.string";
@@ -688,6 +777,14 @@ public final class SwitchboardConstants {
      * ranking+evaluation
      */
     public static final String SEARCH_RANKING_RWI_PROFILE = "search.ranking.rwi.profile"; // old rwi rankingProfile ranking
+    /** Setting key controlling whether the RWI search results are ranked in one batch per container instead of one entry at a time with normalizer threads */
+    public static final String SEARCH_RANKING_RWI_BATCH = "search.ranking.rwi.batch";
+    /** Default setting value for the batch ranking of RWI search results */
+    public static final boolean SEARCH_RANKING_RWI_BATCH_DEFAULT = true;
+    /** Setting key for the number of best RWI results which are collected with early termination; 0 collects all results. Applies only to batch ranking. */
+    public static final String SEARCH_RANKING_RWI_TOPK = "search.ranking.rwi.topk";
+    /** Default setting value for the top-k collection of RWI search results : switched off */
+    public static final int SEARCH_RANKING_RWI_TOPK_DEFAULT = 0;
     public static final String SEARCH_RANKING_SOLR_DOUBLEDETECTION_MINLENGTH = "search.ranking.solr.doubledetection.minlength";
     public static final String SEARCH_RANKING_SOLR_DOUBLEDETECTION_QUANTRATE = "search.ranking.solr.doubledetection.quantrate";
 
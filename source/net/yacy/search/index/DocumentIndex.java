@@ -180,7 +180,7 @@ public class DocumentIndex extends Segment {
         int c = 0;
         for ( final Document document : documents ) {
         	if (document == null) continue;
-            final Condenser condenser = new Condenser(document, null, true, true, LibraryProvider.dymLib, true, true, 0);
+            final Condenser condenser = new Condenser(document, null, true, true, LibraryProvider.dymLib, true, true, 0, this.connectedPositions());
             rows[c++] =
                 super.storeDocument(
                     url,
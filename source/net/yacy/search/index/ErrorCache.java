@@ -113,8 +113,8 @@ public class ErrorCache {
             if (this.sb.index.fulltext().getDefaultConnector() != null && failCategory.store && !RobotsTxt.isRobotsURL(url)) {
                 // send the error to solr
                 try {
-                    // do not overwrite error reports with error reports
-                    SolrDocument olddoc = this.sb.index.fulltext().getDefaultConnector().getDocumentById(ASCII.String(failDoc.getDigestURL().hash()), CollectionSchema.httpstatus_i.getSolrFieldName());
+                    // do not overwrite error reports with error reports; there is no document if the url was never seen
+                    SolrDocument olddoc = this.sb.index.mightBeSeen(url.hash()) ? this.sb.index.fulltext().getDefaultConnector().getDocumentById(ASCII.String(failDoc.getDigestURL().hash()), CollectionSchema.httpstatus_i.getSolrFieldName()) : null;
                     if (olddoc == null ||
                         olddoc.getFieldValue(CollectionSchema.httpstatus_i.getSolrFieldName()) == null ||
                         ((Integer) olddoc.getFieldValue(CollectionSchema.httpstatus_i.getSolrFieldName())) == 200) {
@@ -125,6 +125,7 @@ public class ErrorCache {
                     ConcurrentLog.warn("SOLR", "failed to send error " + url.toNormalform(true) + " to solr: " + e.getMessage());
                 }
             }
+            this.sb.index.setSeen(url.hash());
             synchronized (this.cache) {
                 this.cache.put(ASCII.String(url.hash()), failDoc);
             }
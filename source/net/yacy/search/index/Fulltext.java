@@ -91,6 +91,7 @@ public final class Fulltext {
 
     private static final String SOLR_PATH = "solr_8_8_1"; // the number should be identical to the number in the property luceneMatchVersion in solrconfig.xml
 //    private static final String SOLR_OLD_PATH[] = new String[]{"solr_36", "solr_40", "solr_44", "solr_45", "solr_46", "solr_47", "solr_4_9", "solr_4_10", "solr_5_2", "solr_5_5", "solr_6_6"};
+    private static final Pattern ID_PATTERN = Pattern.compile("[A-Za-z0-9_\\-]+"); // the characters of url hashes
 
     // class objects
     private final File                    segmentPath;
@@ -572,6 +573,36 @@ public final class Fulltext {
         return this.getDefaultConnector().exists(id);
     }
 
+    /**
+     * check which of the given documents exist; all ids are checked with one query
+     * @param ids the url hashes and document ids
+     * @return the ids of the documents which exist
+     */
+    public Set<String> exists(final Collection<String> ids) {
+        final Set<String> existing = new HashSet<String>();
+        if (ids.isEmpty()) return existing;
+        final String idField = CollectionSchema.id.getSolrFieldName();
+        final StringBuilder query = new StringBuilder(ids.size() * 13 + 32).append("{!terms cache=false f=").append(idField).append('}');
+        int terms = 0;
+        for (final String id: ids) {
+            if (!ID_PATTERN.matcher(id).matches()) {
+                // not a hash: this cannot be put into a terms list
+                if (exists(id)) existing.add(id);
+                continue;
+            }
+            query.append(terms++ == 0 ? "" : ",").append(id);
+        }
+        if (terms == 0) return existing;
+        try {
+            final SolrDocumentList docs = this.getDefaultConnector().getDocumentListByQuery(query.toString(), null, 0, terms, idField);
+            for (final SolrDocument doc: docs) existing.add((String) doc.getFieldValue(idField));
+        } catch (final IOException e) {
+            ConcurrentLog.logException(e);
+            for (final String id: ids) if (exists(id)) existing.add(id);
+        }
+        return existing;
+    }
+
     public List<File> dumpFiles() {
         EmbeddedInstance esc = this.solrInstances.getEmbedded();
         ArrayList<File> zips = new ArrayList<File>();
@@ -40,6 +40,7 @@ import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 import org.apache.solr.common.SolrDocument;
@@ -71,17 +72,22 @@ import net.yacy.document.Parser;
 import net.yacy.document.parser.htmlParser;
 import net.yacy.kelondro.data.citation.CitationReference;
 import net.yacy.kelondro.data.citation.CitationReferenceFactory;
+import net.yacy.kelondro.data.word.PositionReference;
+import net.yacy.kelondro.data.word.PositionReferenceFactory;
 import net.yacy.kelondro.data.word.Word;
 import net.yacy.kelondro.data.word.WordReference;
 import net.yacy.kelondro.data.word.WordReferenceFactory;
 import net.yacy.kelondro.data.word.WordReferenceRow;
+import net.yacy.kelondro.index.BloomFilter;
 import net.yacy.kelondro.index.RowHandleSet;
+import net.yacy.kelondro.index.ScalableBloomFilter;
 import net.yacy.kelondro.rwi.IODispatcher;
 import net.yacy.kelondro.rwi.IndexCell;
 import net.yacy.kelondro.rwi.ReferenceContainer;
 import net.yacy.kelondro.rwi.ReferenceFactory;
 import net.yacy.kelondro.table.IndexTable;
 import net.yacy.kelondro.util.Bitfield;
+import net.yacy.kelondro.util.FileUtils;
 import net.yacy.kelondro.util.ISO639;
 import net.yacy.kelondro.util.MemoryControl;
 import net.yacy.repository.LoaderDispatcher;
@@ -111,12 +117,15 @@ public class Segment {
     public static final int  writeBufferSize = 4 * 1024 * 1024;
     public static final String termIndexName = "text.index";
     public static final String citationIndexName  = "citation.index";
+    public static final String positionIndexName  = "position.index";
     public static final String firstseenIndexName = "firstseen.index";
     public static final String loadtimeIndexName  = "loadtime.index";
+    public static final String seenFilterName     = "urlseen.sbf";
 
     // the reference factory
     public static final ReferenceFactory<WordReference> wordReferenceFactory = new WordReferenceFactory();
     public static final ReferenceFactory<CitationReference> citationReferenceFactory = new CitationReferenceFactory();
+    public static final ReferenceFactory<PositionReference> positionReferenceFactory = new PositionReferenceFactory();
     public static final ByteOrder wordOrder = Base64Order.enhancedCoder;
 
     private   final ConcurrentLog                  log;
@@ -124,9 +133,17 @@ public class Segment {
     protected final Fulltext                       fulltext;
     protected       IndexCell<WordReference>       termIndex;
     private         IndexCell<CitationReference>   urlCitationIndex;
+    private         IndexCell<PositionReference>   positionIndex; // word positions in text of the termIndex references, null if not connected
     private         IndexTable                     firstSeenIndex;
     private         IndexTable                     loadTimeIndex;
     private         IODispatcher                   merger = null; // shared iodispatcher for kelondro indexes
+    private         boolean                        memoryMappedRWI = false; // read mode for the BLOB files of termIndex and urlCitationIndex
+    private         IndexCell.CompactionPolicy     compactionPolicy = IndexCell.CompactionPolicy.PAIRWISE; // merge strategy for termIndex and urlCitationIndex
+    private         long                           termSearchCacheSize = 0; // maximum bytes of cached term searches in termIndex
+    private         int                            rwiShards = 1; // number of shards of termIndex
+    private volatile ScalableBloomFilter           seenFilter = null; // url hashes which are indexed, failed or queued; null if not connected
+    private volatile boolean                       seenFilterReady = false; // false while the seenFilter is built
+    private final   AtomicLong                     seenQueries = new AtomicLong(0), seenMisses = new AtomicLong(0);
 
     /**
      * create a new Segment
@@ -144,6 +161,7 @@ public class Segment {
         this.fulltext = new Fulltext(segmentPath, archivePath, collectionConfiguration, webgraphConfiguration);
         this.termIndex = null;
         this.urlCitationIndex = null;
+        this.positionIndex = null;
         this.firstSeenIndex = new IndexTable(new File(segmentPath, firstseenIndexName), 12, 8, false, false);
         this.loadTimeIndex = new IndexTable(new File(segmentPath, loadtimeIndexName), 12, 8, false, false);
     }
@@ -169,7 +187,11 @@ public class Segment {
                         targetFileSize,
                         maxFileSize,
                         writeBufferSize,
-                        this.merger);
+                        this.merger,
+                        this.rwiShards);
+        if (this.memoryMappedRWI) this.termIndex.setMemoryMapped(true);
+        this.termIndex.setCompactionPolicy(this.compactionPolicy);
+        this.termIndex.setTermSearchCacheSize(this.termSearchCacheSize);
     }
 
     public void disconnectRWI() {
@@ -178,6 +200,49 @@ public class Segment {
         this.termIndex = null;
     }
 
+    /**
+     * switch the memory-mapped read mode for the BLOB files of the RWI and the citation index.
+     * The setting is also applied to indexes that are connected later.
+     * @param memoryMapped
+     */
+    public void setMemoryMappedRWI(final boolean memoryMapped) {
+        this.memoryMappedRWI = memoryMapped;
+        if (this.termIndex != null) this.termIndex.setMemoryMapped(memoryMapped);
+        if (this.urlCitationIndex != null) this.urlCitationIndex.setMemoryMapped(memoryMapped);
+        if (this.positionIndex != null) this.positionIndex.setMemoryMapped(memoryMapped);
+    }
+
+    /**
+     * set the merge strategy for the BLOB files of the RWI and the citation index.
+     * The setting is also applied to indexes that are connected later.
+     * @param compactionPolicy
+     */
+    public void setCompactionPolicy(final IndexCell.CompactionPolicy compactionPolicy) {
+        this.compactionPolicy = compactionPolicy;
+        if (this.termIndex != null) this.termIndex.setCompactionPolicy(compactionPolicy);
+        if (this.urlCitationIndex != null) this.urlCitationIndex.setCompactionPolicy(compactionPolicy);
+        if (this.positionIndex != null) this.positionIndex.setCompactionPolicy(compactionPolicy);
+    }
+
+    /**
+     * set the size of the cache of joined term searches of the RWI.
+     * The setting is also applied to an index that is connected later.
+     * @param maxMem the maximum number of bytes of the cached containers; 0 switches the cache off
+     */
+    public void setTermSearchCacheSize(final long maxMem) {
+        this.termSearchCacheSize = maxMem;
+        if (this.termIndex != null) this.termIndex.setTermSearchCacheSize(maxMem);
+    }
+
+    /**
+     * set the number of shards of the RWI. The setting is applied when the RWI is connected;
+     * BLOB files of another number of shards are then moved into the new shards.
+     * @param shards the number of shards, at least 1
+     */
+    public void setRWIShards(final int shards) {
+        this.rwiShards = Math.max(1, shards);
+    }
+
     public boolean connectedCitation() {
         return this.urlCitationIndex != null;
     }
@@ -200,6 +265,8 @@ public class Segment {
                         maxFileSize,
                         writeBufferSize,
                         this.merger);
+        if (this.memoryMappedRWI) this.urlCitationIndex.setMemoryMapped(true);
+        this.urlCitationIndex.setCompactionPolicy(this.compactionPolicy);
     }
 
     public void disconnectCitation() {
@@ -208,6 +275,45 @@ public class Segment {
         this.urlCitationIndex = null;
     }
 
+    public boolean connectedPositions() {
+        return this.positionIndex != null;
+    }
+
+    /**
+     * connect the index of word positions. Positions are stored for all words of documents that are added
+     * to the RWI, and they are used to verify phrase and proximity queries in TermSearch.
+     * @param entityCacheMaxSize
+     * @param maxFileSize
+     * @throws IOException
+     */
+    public void connectPositions(final int entityCacheMaxSize, final long maxFileSize) throws IOException {
+        if (this.positionIndex != null) return;
+
+        if (this.merger == null) { // init shared iodispatcher if none running
+            this.merger = new IODispatcher(2, 2, writeBufferSize);
+            this.merger.start();
+        }
+        this.positionIndex = new IndexCell<PositionReference>(
+                        new File(this.segmentPath, "default"),
+                        positionIndexName,
+                        positionReferenceFactory,
+                        wordOrder,
+                        Word.commonHashLength,
+                        entityCacheMaxSize,
+                        targetFileSize,
+                        maxFileSize,
+                        writeBufferSize,
+                        this.merger);
+        if (this.memoryMappedRWI) this.positionIndex.setMemoryMapped(true);
+        this.positionIndex.setCompactionPolicy(this.compactionPolicy);
+    }
+
+    public void disconnectPositions() {
+        if (this.positionIndex == null) return;
+        this.positionIndex.close();
+        this.positionIndex = null;
+    }
+
     public int citationCount() {
         return this.urlCitationIndex == null ? 0 : this.urlCitationIndex.sizesMax();
     }
@@ -228,6 +334,13 @@ public class Segment {
         return this.urlCitationIndex;
     }
 
+    /**
+     * @return the index of word positions or null if it is not connected
+     */
+    public IndexCell<PositionReference> positionIndex() {
+        return this.positionIndex;
+    }
+
     public IndexTable firstSeenIndex() {
         return this.firstSeenIndex;
     }
@@ -366,13 +479,14 @@ public class Segment {
      * influenced by index transmission processes in its statistic word distribution. However, it can be a hint for heuristics
      * which use the word count. Please do NOT use this if the termIndex is not present because it otherwise uses the solr index
      * which makes it painfully slow.
+     * The counts of the term index are estimated from the frequency sketches of its files, without disk access.
      * @param word
      * @return the number of references for this word.
      */
     public int getWordCountGuess(String word) {
         if (word == null || word.indexOf(':') >= 0 || word.indexOf(' ') >= 0 || word.indexOf('/') >= 0 || word.indexOf('\"') >= 0) return 0;
         if (this.termIndex != null) {
-            int count = this.termIndex.count(Word.word2hash(word));
+            int count = this.termIndex.count(Word.word2hash(word), true);
             return count;
         }
         if (this.fulltext.getDefaultConnector() == null) return 0;
@@ -407,6 +521,7 @@ public class Segment {
 
     public void setLoadTime(final byte[] urlhash, long time) {
         if (urlhash == null || time <= 0) return;
+        this.setSeen(urlhash);
         try {
             this.loadTimeIndex.put(urlhash, time); // ALWAYS overwrite!
         } catch (IOException e) {
@@ -424,6 +539,109 @@ public class Segment {
         }
     }
 
+    /**
+     * connect the filter of known urls. The filter is read from the dump of the last shutdown. If there is none,
+     * it is built concurrently from the load time index and the ids of the fulltext index; until that is finished
+     * all urls are considered as known. The dump is deleted when it is read, so that the filter is built again
+     * after a crash which would lose the urls added after the last dump. A start without the filter deletes the dump,
+     * see {@link #deleteSeenFilterDump()}.
+     * Must be called after the fulltext index is connected.
+     */
+    public void connectSeenFilter() {
+        if (this.seenFilter != null) return;
+        final File dump = new File(this.segmentPath, seenFilterName);
+        if (dump.exists()) {
+            try {
+                final ScalableBloomFilter filter = new ScalableBloomFilter(dump);
+                this.seenFilter = filter;
+                this.seenFilterReady = true;
+                this.log.info("loaded url seen filter with " + filter.size() + " urls, " + (filter.mem() / 1024) + " KB");
+            } catch (final IOException e) {
+                this.log.warn("cannot read url seen filter, building it again: " + e.getMessage());
+            }
+            FileUtils.deletedelete(dump);
+            if (this.seenFilter != null) return;
+        }
+        final ScalableBloomFilter filter = new ScalableBloomFilter(Word.commonHashLength, 16,
+                this.loadTimeIndex.size() + this.fulltext.collectionSize(), BloomFilter.defaultFalsePositiveRate);
+        this.seenFilter = filter;
+        new Thread("Segment.buildSeenFilter") {
+            @Override
+            public void run() {
+                Segment.this.buildSeenFilter(filter);
+            }
+        }.start();
+    }
+
+    /**
+     * delete the dump of the filter of known urls. This must be done at a start without the filter:
+     * the urls which are added in such a run are missing in the dump, so that it must not be used
+     * when the filter is switched on again later.
+     */
+    public void deleteSeenFilterDump() {
+        final File dump = new File(this.segmentPath, seenFilterName);
+        if (dump.exists()) {
+            FileUtils.deletedelete(dump);
+            this.log.info("deleted url seen filter dump because the filter is switched off");
+        }
+    }
+
+    private void buildSeenFilter(final ScalableBloomFilter filter) {
+        final long start = System.currentTimeMillis();
+        try {
+            final Iterator<byte[]> i = this.loadTimeIndex.keys();
+            while (i.hasNext()) filter.put(i.next());
+            final SolrConnector connector = this.fulltext.getDefaultConnector();
+            if (connector != null) {
+                final BlockingQueue<String> ids = connector.concurrentIDsByQuery(AbstractSolrConnector.CATCHALL_QUERY, null, 0, Integer.MAX_VALUE, Long.MAX_VALUE, 1000, 1);
+                String id;
+                while ((id = ids.take()) != AbstractSolrConnector.POISON_ID) filter.put(ASCII.getBytes(id));
+            }
+        } catch (final IOException | InterruptedException | RuntimeException e) {
+            // the filter stays unused because it may be incomplete
+            this.log.warn("cannot build url seen filter: " + e.getMessage());
+            return;
+        }
+        if (this.seenFilter != filter) return;
+        this.seenFilterReady = true;
+        this.log.info("built url seen filter with " + filter.size() + " urls, " + (filter.mem() / 1024) + " KB in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * mark an url as known because it is indexed, failed or queued for the crawler
+     * @param urlhash
+     */
+    public void setSeen(final byte[] urlhash) {
+        final ScalableBloomFilter filter = this.seenFilter;
+        if (filter != null && urlhash != null) filter.put(urlhash);
+    }
+
+    /**
+     * check if an url may be known, before looking it up in the indexes or crawl queues.
+     * An url which was indexed, failed or queued after the filter was connected is always reported as seen.
+     * @param urlhash
+     * @return false if the url is certainly unknown, true if it may be known or the filter is not available
+     */
+    public boolean mightBeSeen(final byte[] urlhash) {
+        final ScalableBloomFilter filter = this.seenFilter;
+        if (filter == null || !this.seenFilterReady) return true;
+        this.seenQueries.incrementAndGet();
+        if (filter.mightContain(urlhash)) return true;
+        this.seenMisses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return a report of the url seen filter: its size, the number of queries and of queries which saved a lookup
+     */
+    public String seenFilterReport() {
+        final ScalableBloomFilter filter = this.seenFilter;
+        if (filter == null) return "url seen filter not connected";
+        return "url seen filter: " + filter.size() + " urls, " + (filter.mem() / 1024) + " KB, false positive rate "
+                + String.format(Locale.ROOT, "%.4f", filter.falsePositiveRate()) + ", " + this.seenQueries.get() + " queries, "
+                + this.seenMisses.get() + " lookups saved" + (this.seenFilterReady ? "" : ", building");
+    }
+
     /**
      * check if a given document, identified by url hash as document id exists
      * @param id the url hash and document id
@@ -489,6 +707,7 @@ public class Segment {
             if (this.fulltext != null) this.fulltext.clearLocalSolr();
             if (this.fulltext != null) this.fulltext.clearRemoteSolr();
             if (this.urlCitationIndex != null) this.urlCitationIndex.clear();
+            if (this.positionIndex != null) this.positionIndex.clear();
         } catch (final IOException e) {
             ConcurrentLog.logException(e);
         }
@@ -497,6 +716,7 @@ public class Segment {
     public void clearCaches() {
         if (this.urlCitationIndex != null) this.urlCitationIndex.clearCache();
         if (this.termIndex != null) this.termIndex.clearCache();
+        if (this.positionIndex != null) this.positionIndex.clearCache();
         this.fulltext.clearCaches();
     }
 
@@ -508,8 +728,20 @@ public class Segment {
     	if (this.termIndex != null) this.termIndex.close();
         if (this.fulltext != null) this.fulltext.close();
         if (this.urlCitationIndex != null) this.urlCitationIndex.close();
+        if (this.positionIndex != null) this.positionIndex.close();
         if (this.firstSeenIndex != null) this.firstSeenIndex.close();
         if (this.loadTimeIndex != null) this.loadTimeIndex.close();
+        final ScalableBloomFilter filter = this.seenFilter;
+        if (filter != null) {
+            this.log.info(this.seenFilterReport());
+            if (this.seenFilterReady) try {
+                filter.dump(new File(this.segmentPath, seenFilterName));
+            } catch (final IOException e) {
+                this.log.warn("cannot write url seen filter: " + e.getMessage());
+            }
+            this.seenFilter = null;
+            this.seenFilterReady = false;
+        }
         if (this.merger != null) {
             this.merger.terminate();
             this.merger = null;
@@ -770,6 +1002,8 @@ public class Segment {
                 wordhash = Word.word2hash(word);
                 if (this.termIndex != null && storeToRWI) try {
                     this.termIndex.add(wordhash, ientry);
+                    final int[] positions = wprop.positions();
+                    if (this.positionIndex != null && positions.length > 0) this.positionIndex.add(wordhash, new PositionReference(url.hash(), positions));
                 } catch (final Exception e) {
                     ConcurrentLog.logException(e);
                 }
@@ -850,6 +1084,7 @@ public class Segment {
             // delete all word references
             int count = 0;
             if (words != null && termIndex() != null) count = termIndex().remove(Word.words2hashesHandles(words), urlhash);
+            if (words != null && this.positionIndex != null) this.positionIndex.remove(Word.words2hashesHandles(words), urlhash);
 
             // finally delete the url entry itself
             fulltext().remove(urlhash);
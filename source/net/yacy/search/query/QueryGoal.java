@@ -40,6 +40,9 @@ import net.yacy.cora.federate.solr.connector.AbstractSolrConnector;
 import net.yacy.cora.order.NaturalOrder;
 import net.yacy.cora.protocol.Domains;
 import net.yacy.cora.storage.HandleSet;
+import net.yacy.document.SentenceReader;
+import net.yacy.document.Tokenizer;
+import net.yacy.document.WordTokenizer;
 import net.yacy.document.parser.html.AbstractScraper;
 import net.yacy.document.parser.html.CharacterCoding;
 import net.yacy.kelondro.data.word.Word;
@@ -285,6 +288,29 @@ public class QueryGoal {
         return this.include_strings.iterator();
     }
 
+    /**
+     * @return the word hashes of each include string with several words, in the order of the words in the string.
+     * The string is split into words in the same way as the Tokenizer counts the word positions in text.
+     */
+    public List<byte[][]> getIncludePhrases() {
+        final List<byte[][]> phrases = new ArrayList<byte[][]>();
+        for (final String s: this.include_strings) {
+            if (s.indexOf(space) < 0) continue;
+            final List<byte[]> hashes = new ArrayList<byte[]>();
+            final WordTokenizer words = new WordTokenizer(new SentenceReader(s), null);
+            try {
+                while (words.hasMoreElements()) {
+                    final String word = words.nextElement().toString();
+                    if (word.length() >= Tokenizer.wordminsize) hashes.add(Word.word2hash(word));
+                }
+            } finally {
+                words.close();
+            }
+            if (hashes.size() > 1) phrases.add(hashes.toArray(new byte[hashes.size()][]));
+        }
+        return phrases;
+    }
+
     /**
      * @return a list of exclude strings which reproduces the original order of the search words and quotation
      */
@@ -174,6 +174,12 @@ public final class QueryParams {
 	 * </ul> 
 	 */
     private boolean strictContentDom = false;
+
+    /**
+     * The number of best RWI results that are collected with early termination: references which
+     * cannot be among the best rwiTopK references are neither checked nor counted. 0 collects all references.
+     */
+    private int rwiTopK = 0;
     
 	/**
 	 * The maximum number of suggestions ("Did you mean") to display at the top of
@@ -444,6 +450,20 @@ public final class QueryParams {
     public void setStrictContentDom(final boolean strictContentDom) {
 		this.strictContentDom = strictContentDom;
 	}
+
+    /**
+     * @return the number of best RWI results that are collected with early termination, 0 if all results are collected
+     */
+    public int getRwiTopK() {
+        return this.rwiTopK;
+    }
+
+    /**
+     * @param rwiTopK the number of best RWI results that are collected with early termination, 0 to collect all results
+     */
+    public void setRwiTopK(final int rwiTopK) {
+        this.rwiTopK = Math.max(0, rwiTopK);
+    }
     
 	/**
 	 * @return The maximum number of suggestions ("Did you mean") to display at the
@@ -968,6 +988,7 @@ public final class QueryParams {
             context.append(asterisk);
             context.append(this.contentdom).append(asterisk);
             context.append(this.strictContentDom).append(asterisk);
+            if (this.rwiTopK > 0) context.append("topk").append(this.rwiTopK).append(asterisk);
             context.append(this.zonecode).append(asterisk);
             context.append(ASCII.String(Word.word2hash(this.ranking.toExternalString()))).append(asterisk);
             context.append(Base64Order.enhancedCoder.encodeString(this.prefer.toString())).append(asterisk);
@@ -81,11 +81,13 @@ import net.yacy.document.LibraryProvider;
 import net.yacy.document.ProbabilisticClassifier;
 import net.yacy.document.Tokenizer;
 import net.yacy.kelondro.data.meta.URIMetadataNode;
+import net.yacy.kelondro.data.word.PositionReference;
 import net.yacy.kelondro.data.word.Word;
 import net.yacy.kelondro.data.word.WordReference;
 import net.yacy.kelondro.data.word.WordReferenceFactory;
 import net.yacy.kelondro.data.word.WordReferenceVars;
 import net.yacy.kelondro.index.RowHandleSet;
+import net.yacy.kelondro.rwi.IndexCell;
 import net.yacy.kelondro.rwi.ReferenceContainer;
 import net.yacy.kelondro.rwi.TermSearch;
 import net.yacy.kelondro.util.Bitfield;
@@ -103,7 +105,9 @@ import net.yacy.search.SwitchboardConstants;
 import net.yacy.search.index.Segment;
 import net.yacy.search.navigator.Navigator;
 import net.yacy.search.navigator.NavigatorPlugins;
+import net.yacy.search.ranking.ReferenceColumns;
 import net.yacy.search.ranking.ReferenceOrder;
+import net.yacy.search.ranking.TopScores;
 import net.yacy.search.schema.CollectionConfiguration;
 import net.yacy.search.schema.CollectionSchema;
 import net.yacy.search.snippet.TextSnippet;
@@ -220,6 +224,7 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
     
     /** thats the bag where the RWI search process writes to. Contains both references from both local and remote RWIs. */
     private final WeakPriorityBlockingQueue<WordReferenceVars> rwiStack;
+    private final TopScores rwiTopScores; // the best scores of the rwiStack entries in top-k mode, otherwise null
     
     /** thats the bag where the solr results are written to */
     private final WeakPriorityBlockingQueue<URIMetadataNode> nodeStack;
@@ -423,6 +428,7 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
         this.ref = new ConcurrentScoreMap<String>(this);
         this.maxtime = query.maxtime;
         this.rwiStack = new WeakPriorityBlockingQueue<WordReferenceVars>(max_results_rwi, false);
+        this.rwiTopScores = query.getRwiTopK() > 0 ? new TopScores(query.getRwiTopK()) : null;
         this.doubleDomCache = new ConcurrentHashMap<String, WeakPriorityBlockingQueue<WordReferenceVars>>();
         this.flagcount = new int[32];
         for ( int i = 0; i < 32; i++ ) {
@@ -609,6 +615,10 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
             // so following sortings together with the global results will be fast
             try {
                 final long timer = System.currentTimeMillis();
+                // if the word positions are indexed, phrases and distances are verified with the positions after the join
+                final IndexCell<PositionReference> positionIndex = SearchEvent.this.query.getSegment().positionIndex();
+                final List<byte[][]> phrases = SearchEvent.this.query.getQueryGoal().getIncludePhrases();
+                final boolean verify = positionIndex != null && (!phrases.isEmpty() || SearchEvent.this.query.maxDistance < Integer.MAX_VALUE);
                 TermSearch<WordReference> search =
                     SearchEvent.this.query
                         .getSegment()
@@ -618,9 +628,9 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
                                 SearchEvent.this.query.getQueryGoal().getExcludeHashes(),
                             null,
                             Segment.wordReferenceFactory,
-                            SearchEvent.this.query.maxDistance);
+                            verify ? Integer.MAX_VALUE : SearchEvent.this.query.maxDistance);
                 SearchEvent.this.localSearchInclusion = search.inclusion();
-                ReferenceContainer<WordReference> index = search.joined();
+                ReferenceContainer<WordReference> index = verify ? search.joined(positionIndex, phrases, SearchEvent.this.query.maxDistance) : search.joined();
                 if ( !index.isEmpty() ) {
                     // in case that another thread has priority for their results, wait until this is finished
                     if (this.waitForThread != null && this.waitForThread.isAlive()) {
@@ -692,6 +702,7 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
             this.remote_rwi_peerCount.incrementAndGet();
         }
         long timer = System.currentTimeMillis();
+        if (ReferenceOrder.batchRanking) return addRankedRWIs(index, local, resourceName, maxtime, timer);
 
         // normalize entries
         final BlockingQueue<WordReferenceVars> decodedEntries = this.order.normalizeWith(index, maxtime, local);
@@ -713,10 +724,7 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
         try {
             WordReferenceVars iEntry;
             long remaining;
-            String acceptableAlternativeSitehash = null;
-            if (this.query.modifier.sitehost != null && this.query.modifier.sitehost.length() > 0) try {
-                acceptableAlternativeSitehash = DigestURL.hosthash(this.query.modifier.sitehost.startsWith("www.") ? this.query.modifier.sitehost.substring(4) : "www." + this.query.modifier.sitehost, 80);
-            } catch (MalformedURLException e1) {}
+            final String acceptableAlternativeSitehash = acceptableAlternativeSitehash();
             pollloop: while ( true ) {
                 remaining = timeout - System.currentTimeMillis();
                 if (remaining <= 0) {
@@ -733,74 +741,7 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
                 }
                 assert (iEntry.urlhash().length == index.row().primaryKeyLength);
 
-                // doublecheck for urls
-                if (this.urlhashes.has(iEntry.urlhash())) {
-                    if (log.isFine()) log.fine("dropped RWI: doublecheck");
-                    continue pollloop;
-                }
-                
-                // increase flag counts
-                Bitfield flags = iEntry.flags();
-                for (int j = 0; j < 32; j++) {
-                    if (flags.get(j)) this.flagcount[j]++;
-                }
-
-                // check constraints
-                if (!this.testFlags(flags)) {
-                    if (log.isFine()) log.fine("dropped RWI: flag test failed");
-                    continue pollloop;
-                }
-
-                // check document domain
-                if (this.query.contentdom.getCode() > 0) {
-                	boolean domainMatch = true;
-                	if(this.query.isStrictContentDom()) {
-                		if((this.query.contentdom == ContentDomain.AUDIO && iEntry.getType() != Response.DT_AUDIO) || 
-                                (this.query.contentdom == ContentDomain.VIDEO && iEntry.getType() != Response.DT_MOVIE) ||
-                                (this.query.contentdom == ContentDomain.IMAGE && iEntry.getType() != Response.DT_IMAGE) ||
-                                (this.query.contentdom == ContentDomain.APP && !(flags.get(Tokenizer.flag_cat_hasapp)))) {
-                                	domainMatch = false;    	
-                                }
-                	} else if((this.query.contentdom == ContentDomain.AUDIO && !(flags.get(Tokenizer.flag_cat_hasaudio))) || 
-                                (this.query.contentdom == ContentDomain.VIDEO && !(flags.get(Tokenizer.flag_cat_hasvideo))) ||
-                                (this.query.contentdom == ContentDomain.IMAGE && !(flags.get(Tokenizer.flag_cat_hasimage))) ||
-                                (this.query.contentdom == ContentDomain.APP && !(flags.get(Tokenizer.flag_cat_hasapp)))) {
-                			domainMatch = false;
-                	}
-                	if(!domainMatch) {
-                		if (log.isFine()) {
-                			log.fine("dropped RWI: contentdom fail");
-                		}
-                		continue pollloop;
-                	}
-                }
-                
-                // check language
-				if (this.query.modifier.language != null && !this.query.modifier.language.isEmpty()
-						&& !this.query.modifier.language.equals(iEntry.getLanguageString())) {
-                	if (log.isFine()) {
-                		log.fine("dropped RWI: language constraint = " + this.query.modifier.language);
-                	}
-                	continue pollloop;
-                }
-                
-                // count domZones
-                //this.domZones[DigestURI.domDomain(iEntry.metadataHash())]++;
-
-                // check site constraints
-                final String hosthash = iEntry.hosthash();
-                if ( this.query.modifier.sitehash == null ) {
-                    if (this.query.siteexcludes != null && this.query.siteexcludes.contains(hosthash)) {
-                        if (log.isFine()) log.fine("dropped RWI: siteexcludes");
-                        continue pollloop;
-                    }
-                } else {
-                    // filter out all domains that do not match with the site constraint
-                    if (!hosthash.equals(this.query.modifier.sitehash) && (acceptableAlternativeSitehash == null || !hosthash.equals(acceptableAlternativeSitehash))) {
-                        if (log.isFine()) log.fine("dropped RWI: modifier.sitehash");
-                        continue pollloop;
-                    }
-                }
+                if (!acceptRWI(iEntry, acceptableAlternativeSitehash)) continue pollloop;
 
                 // finally extend the double-check and insert result to stack
                 this.urlhashes.putUnique(iEntry.urlhash());
@@ -834,6 +775,175 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
             System.currentTimeMillis() - timer), false);
         return successcounter;
     }
+
+    /**
+     * add the references of a container like addRWIs, but rank them in one batch with ReferenceOrder.rank():
+     * only the references which pass the constraints are transformed into WordReferenceVars objects.
+     */
+    private int addRankedRWIs(
+        final ReferenceContainer<WordReference> index,
+        final boolean local,
+        final String resourceName,
+        final long maxtime,
+        long timer) {
+
+        // rank entries; in top-k mode the entries are only decoded here and scored block-wise below
+        final ReferenceColumns ranked = this.rwiTopScores == null ? this.order.rank(index) : this.order.decode(index);
+        final int is = ranked.size();
+        EventTracker.update(EventTracker.EClass.SEARCH, new ProfilingGraph.EventSearch(
+            this.query.id(true),
+            SearchEventType.NORMALIZING,
+            resourceName,
+            is,
+            System.currentTimeMillis() - timer), false);
+        if (!local) this.receivedRemoteReferences.addAndGet(is);
+
+        // select the entries which are better than currently stored
+        timer = System.currentTimeMillis();
+        final long timeout = maxtime == Long.MAX_VALUE ? Long.MAX_VALUE : System.currentTimeMillis() + maxtime;
+        int successcounter = 0;
+        final String acceptableAlternativeSitehash = acceptableAlternativeSitehash();
+        if (this.rwiTopScores != null) {
+            // visit only the entries which may be among the best k entries
+            final int[] accepted = new int[1];
+            final int visited = this.order.rankTopK(ranked, this.rwiTopScores, new ReferenceOrder.ReferenceVisitor() {
+                @Override
+                public boolean visit(final int i) {
+                    try {
+                        if (!addRankedRWI(ranked, i, local, acceptableAlternativeSitehash)) return false;
+                    } catch (final SpaceExceededException e) {
+                        return false;
+                    }
+                    accepted[0]++;
+                    return true;
+                }
+            });
+            successcounter = accepted[0];
+            if (log.isFine()) log.fine("top-" + this.rwiTopScores.k() + " ranking visited " + visited + " of " + is + " RWI entries");
+        } else try {
+            for (int i = 0; i < is; i++) {
+                if ((i & 0xff) == 0 && System.currentTimeMillis() > timeout) {
+                    ConcurrentLog.warn("SearchEvent", "rwi ranking ended with timeout = " + maxtime + " after " + i + " of " + is + " entries");
+                    break;
+                }
+                if (addRankedRWI(ranked, i, local, acceptableAlternativeSitehash)) successcounter++;
+            }
+        } catch (final SpaceExceededException e ) {
+        }
+
+        EventTracker.update(EventTracker.EClass.SEARCH, new ProfilingGraph.EventSearch(
+            this.query.id(true),
+            SearchEventType.PRESORT,
+            resourceName,
+            is,
+            System.currentTimeMillis() - timer), false);
+        return successcounter;
+    }
+
+    /**
+     * check the constraints for a ranked entry and put it on the rwiStack
+     * @return true if the entry was accepted
+     */
+    private boolean addRankedRWI(final ReferenceColumns ranked, final int i, final boolean local, final String acceptableAlternativeSitehash) throws SpaceExceededException {
+        final WordReference iRef = ranked.reference(i);
+        if (!acceptRWI(iRef, acceptableAlternativeSitehash)) return false;
+
+        // finally extend the double-check and insert result to stack
+        this.urlhashes.putUnique(ranked.urlhash(i));
+        this.rwiStack.put(new ReverseElement<WordReferenceVars>(new WordReferenceVars(iRef, local), ranked.score(i))); // inserts the element and removes the worst (which is smallest)
+
+        // increase counter for statistics
+        if (local) this.local_rwi_available.incrementAndGet(); else this.remote_rwi_available.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return the host hash of the www-variant of the host of the site constraint, or null
+     */
+    private String acceptableAlternativeSitehash() {
+        if (this.query.modifier.sitehost != null && this.query.modifier.sitehost.length() > 0) try {
+            return DigestURL.hosthash(this.query.modifier.sitehost.startsWith("www.") ? this.query.modifier.sitehost.substring(4) : "www." + this.query.modifier.sitehost, 80);
+        } catch (MalformedURLException e1) {}
+        return null;
+    }
+
+    /**
+     * count the flags of a RWI reference and check the constraints of the query
+     * @param iEntry
+     * @param acceptableAlternativeSitehash
+     * @return true if the reference is not a double and matches the constraints
+     */
+    private boolean acceptRWI(final WordReference iEntry, final String acceptableAlternativeSitehash) {
+        // doublecheck for urls
+        if (this.urlhashes.has(iEntry.urlhash())) {
+            if (log.isFine()) log.fine("dropped RWI: doublecheck");
+            return false;
+        }
+        
+        // increase flag counts
+        Bitfield flags = iEntry.flags();
+        for (int j = 0; j < 32; j++) {
+            if (flags.get(j)) this.flagcount[j]++;
+        }
+
+        // check constraints
+        if (!this.testFlags(flags)) {
+            if (log.isFine()) log.fine("dropped RWI: flag test failed");
+            return false;
+        }
+
+        // check document domain
+        if (this.query.contentdom.getCode() > 0) {
+        	boolean domainMatch = true;
+        	if(this.query.isStrictContentDom()) {
+        		if((this.query.contentdom == ContentDomain.AUDIO && iEntry.getType() != Response.DT_AUDIO) || 
+                        (this.query.contentdom == ContentDomain.VIDEO && iEntry.getType() != Response.DT_MOVIE) ||
+                        (this.query.contentdom == ContentDomain.IMAGE && iEntry.getType() != Response.DT_IMAGE) ||
+                        (this.query.contentdom == ContentDomain.APP && !(flags.get(Tokenizer.flag_cat_hasapp)))) {
+                        	domainMatch = false;    	
+                        }
+        	} else if((this.query.contentdom == ContentDomain.AUDIO && !(flags.get(Tokenizer.flag_cat_hasaudio))) || 
+                        (this.query.contentdom == ContentDomain.VIDEO && !(flags.get(Tokenizer.flag_cat_hasvideo))) ||
+                        (this.query.contentdom == ContentDomain.IMAGE && !(flags.get(Tokenizer.flag_cat_hasimage))) ||
+                        (this.query.contentdom == ContentDomain.APP && !(flags.get(Tokenizer.flag_cat_hasapp)))) {
+        			domainMatch = false;
+        	}
+        	if(!domainMatch) {
+        		if (log.isFine()) {
+        			log.fine("dropped RWI: contentdom fail");
+        		}
+        		return false;
+        	}
+        }
+        
+        // check language
+		if (this.query.modifier.language != null && !this.query.modifier.language.isEmpty()
+				&& !this.query.modifier.language.equals(ASCII.String(iEntry.getLanguage()))) {
+        	if (log.isFine()) {
+        		log.fine("dropped RWI: language constraint = " + this.query.modifier.language);
+        	}
+        	return false;
+        }
+        
+        // count domZones
+        //this.domZones[DigestURI.domDomain(iEntry.metadataHash())]++;
+
+        // check site constraints
+        final String hosthash = iEntry.hosthash();
+        if ( this.query.modifier.sitehash == null ) {
+            if (this.query.siteexcludes != null && this.query.siteexcludes.contains(hosthash)) {
+                if (log.isFine()) log.fine("dropped RWI: siteexcludes");
+                return false;
+            }
+        } else {
+            // filter out all domains that do not match with the site constraint
+            if (!hosthash.equals(this.query.modifier.sitehash) && (acceptableAlternativeSitehash == null || !hosthash.equals(acceptableAlternativeSitehash))) {
+                if (log.isFine()) log.fine("dropped RWI: modifier.sitehash");
+                return false;
+            }
+        }
+        return true;
+    }
     
     public long getEventTime() {
         return this.eventTime;
@@ -0,0 +1,172 @@
+/**
+ *  ReferenceColumns
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.search.ranking;
+
+import java.util.Arrays;
+
+import net.yacy.cora.document.encoding.ASCII;
+import net.yacy.cora.document.id.DigestURL;
+import net.yacy.kelondro.data.word.WordReference;
+import net.yacy.kelondro.data.word.WordReferenceFactory;
+import net.yacy.kelondro.index.Row;
+import net.yacy.kelondro.rwi.ReferenceContainer;
+
+/**
+ * the ranking features of the references of a container, decoded into one array per feature.
+ * The arrays are filled by ReferenceOrder.decode() and scored by ReferenceOrder.rank() or
+ * ReferenceOrder.rankTopK(); slices of the arrays may be processed concurrently.
+ */
+public final class ReferenceColumns {
+
+    private static final WordReferenceFactory factory = new WordReferenceFactory();
+
+    // the features which are normalized with their minimum and maximum
+    static final int URLCOMPS      = 0;
+    static final int URLLENGTH     = 1;
+    static final int POSINTEXT     = 2;
+    static final int POSOFPHRASE   = 3;
+    static final int POSINPHRASE   = 4;
+    static final int DISTANCE      = 5;
+    static final int VIRTUALAGE    = 6;
+    static final int WORDSINTITLE  = 7;
+    static final int WORDSINTEXT   = 8;
+    static final int PHRASESINTEXT = 9;
+    static final int LLOCAL        = 10;
+    static final int LOTHER        = 11;
+    static final int HITCOUNT      = 12;
+    static final int FEATURES      = 13;
+
+    private final Row.Entry[] entries;
+    private final byte[] language;
+    final byte[][] urlhash;
+    final String[] hosthash;
+    final int[][] feature;      // the features that are normalized with their minimum and maximum, indexed by the constants above
+    final double[] termFrequency;
+    final int[] domlength;      // the normalized domain length
+    final int[] flags;          // the first 32 bits of the flags
+    final boolean[] inLanguage; // true if the reference has the language of the query
+    final long[] score;
+    int[] min, max;             // the bounds of the features which are used for the normalization
+    double tfMin, tfMax;        // the bounds of the term frequency which are used for the normalization
+
+    /**
+     * prepare the columns for the references of a container
+     * @param container
+     * @param language the language of the query, may be null
+     */
+    public ReferenceColumns(final ReferenceContainer<WordReference> container, final String language) {
+        final int size = container.size();
+        this.entries = new Row.Entry[size];
+        for (int i = 0; i < size; i++) this.entries[i] = container.get(i, false);
+        this.language = language == null ? null : ASCII.getBytes(language);
+        this.urlhash = new byte[size][];
+        this.hosthash = new String[size];
+        this.feature = new int[FEATURES][size];
+        this.termFrequency = new double[size];
+        this.domlength = new int[size];
+        this.flags = new int[size];
+        this.inLanguage = new boolean[size];
+        this.score = new long[size];
+    }
+
+    public int size() {
+        return this.entries.length;
+    }
+
+    /**
+     * decode a slice of the references
+     * @param from the first index
+     * @param to the index after the last index
+     */
+    void decode(final int from, final int to) {
+        final int[][] f = this.feature;
+        for (int i = from; i < to; i++) {
+            final WordReference r = factory.produceSlow(this.entries[i]);
+            final byte[] h = r.urlhash();
+            this.urlhash[i] = h;
+            this.hosthash[i] = ASCII.String(h, 6, 6);
+            this.domlength[i] = DigestURL.domLengthNormalized(h);
+            f[URLCOMPS][i] = r.urlcomps();
+            f[URLLENGTH][i] = r.urllength();
+            f[POSINTEXT][i] = r.posintext();
+            f[POSOFPHRASE][i] = r.posofphrase();
+            f[POSINPHRASE][i] = r.posinphrase();
+            f[DISTANCE][i] = r.distance();
+            f[VIRTUALAGE][i] = r.virtualAge();
+            f[WORDSINTITLE][i] = r.wordsintitle();
+            f[WORDSINTEXT][i] = r.wordsintext();
+            f[PHRASESINTEXT][i] = r.phrasesintext();
+            f[LLOCAL][i] = r.llocal();
+            f[LOTHER][i] = r.lother();
+            f[HITCOUNT][i] = r.hitcount();
+            this.termFrequency[i] = r.termFrequency();
+            final byte[] b = r.flags().bytes();
+            int m = 0;
+            for (int j = Math.min(4, b.length) - 1; j >= 0; j--) m = (m << 8) | (b[j] & 0xff);
+            this.flags[i] = m;
+            this.inLanguage[i] = Arrays.equals(r.getLanguage(), this.language);
+        }
+    }
+
+    /**
+     * compute the minimum and maximum of the decoded features
+     * @param min the minimum of each feature, updated in place
+     * @param max the maximum of each feature, updated in place
+     */
+    void bounds(final int[] min, final int[] max) {
+        final int size = this.entries.length;
+        for (int f = 0; f < FEATURES; f++) {
+            final int[] c = this.feature[f];
+            int mn = min[f], mx = max[f];
+            for (int i = 0; i < size; i++) {
+                final int v = c[i];
+                mn = Math.min(mn, v);
+                mx = Math.max(mx, v);
+            }
+            min[f] = mn;
+            max[f] = mx;
+        }
+    }
+
+    /**
+     * @param i the index of a reference
+     * @return the reference with index i
+     */
+    public WordReference reference(final int i) {
+        return factory.produceSlow(this.entries[i]);
+    }
+
+    /**
+     * @param i the index of a reference
+     * @return the url hash of the reference with index i
+     */
+    public byte[] urlhash(final int i) {
+        return this.urlhash[i];
+    }
+
+    /**
+     * @param i the index of a reference
+     * @return the ranking of the reference with index i; the higher the number, the better is the ranking
+     */
+    public long score(final int i) {
+        return this.score[i];
+    }
+
+}
@@ -26,13 +26,22 @@
 
 package net.yacy.search.ranking;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import net.yacy.cora.document.encoding.ASCII;
 import net.yacy.cora.document.id.DigestURL;
@@ -46,14 +55,33 @@ import net.yacy.kelondro.data.word.WordReferenceRow;
 import net.yacy.kelondro.data.word.WordReferenceVars;
 import net.yacy.kelondro.rwi.ReferenceContainer;
 import net.yacy.kelondro.util.Bitfield;
+import net.yacy.kelondro.util.NamePrefixThreadFactory;
 
 
 public class ReferenceOrder {
 
     private static int cores = Runtime.getRuntime().availableProcessors();
 
+    /** if true, the RWI search results are ranked with rank() instead of normalizeWith() and cardinal() */
+    public static boolean batchRanking = true;
+
+    private final static int sliceSize = 8192; // the minimum number of references that are decoded or ranked in one task of the rank pool
+    private final static int blockSize = 256;  // the number of references with a common upper bound of their scores in rankTopK()
+
+    /** the shared thread pool for the slices of rank() */
+    private final static ThreadPoolExecutor rankExecutor = new ThreadPoolExecutor(
+            cores, cores,
+            10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new NamePrefixThreadFactory("ReferenceOrder.rank"));
+    static {
+        rankExecutor.allowCoreThreadTimeOut(true);
+    }
+
     private       int maxdomcount;
     private       WordReferenceVars min, max;
+    private final int[] featureMin, featureMax; // the bounds of the features of all references that were ranked with rank()
+    private       double tfMin, tfMax;
     private final ConcurrentScoreMap<String> doms; // collected for "authority" heuristic
     private final RankingProfile ranking;
     private final String language;
@@ -65,6 +93,286 @@ public class ReferenceOrder {
         this.doms = new ConcurrentScoreMap<String>();
         this.maxdomcount = 0;
         this.language = language;
+        this.featureMin = new int[ReferenceColumns.FEATURES];
+        this.featureMax = new int[ReferenceColumns.FEATURES];
+        Arrays.fill(this.featureMin, Integer.MAX_VALUE);
+        Arrays.fill(this.featureMax, Integer.MIN_VALUE);
+        this.tfMin = Double.MAX_VALUE;
+        this.tfMax = -Double.MAX_VALUE;
+    }
+
+    /**
+     * rank all references of a container in one batch: the references are decoded into columns,
+     * the bounds of the features are computed and all references are scored in one loop.
+     * The bounds and the domain counts are merged with those of the containers that were
+     * ranked before with this object, like in normalizeWith(). Large containers are decoded
+     * and scored in slices on a shared thread pool.
+     * @param container
+     * @return the columns of the container with the score of each reference
+     */
+    public ReferenceColumns rank(final ReferenceContainer<WordReference> container) {
+        final ReferenceColumns columns = decode(container);
+        forSlices(columns.size(), new Slice() {
+            @Override
+            public void run(final int from, final int to) {
+                score(columns, from, to);
+            }
+        });
+        return columns;
+    }
+
+    /**
+     * decode the references of a container into columns and merge the bounds and the domain counts
+     * of the container with those of the containers that were ranked before with this object.
+     * The references are not scored; use rank() or rankTopK() for the scores.
+     * @param container
+     * @return the columns of the container
+     */
+    public ReferenceColumns decode(final ReferenceContainer<WordReference> container) {
+        final ReferenceColumns columns = new ReferenceColumns(container, this.language);
+        final int size = columns.size();
+        if (size == 0) return columns;
+        forSlices(size, new Slice() {
+            @Override
+            public void run(final int from, final int to) {
+                columns.decode(from, to);
+            }
+        });
+
+        // merge the bounds and the domain counts
+        final int[] fmin = new int[ReferenceColumns.FEATURES], fmax = new int[ReferenceColumns.FEATURES];
+        Arrays.fill(fmin, Integer.MAX_VALUE);
+        Arrays.fill(fmax, Integer.MIN_VALUE);
+        columns.bounds(fmin, fmax);
+        double tmin = Double.MAX_VALUE, tmax = -Double.MAX_VALUE;
+        for (final double tf: columns.termFrequency) {
+            tmin = Math.min(tmin, tf);
+            tmax = Math.max(tmax, tf);
+        }
+        final Map<String, Integer> doms0 = new HashMap<String, Integer>();
+        for (final String dom: columns.hosthash) {
+            final Integer count = doms0.get(dom);
+            doms0.put(dom, count == null ? 1 : LargeNumberCache.valueOf(count.intValue() + 1));
+        }
+        for (final Map.Entry<String, Integer> entry: doms0.entrySet()) this.doms.inc(entry.getKey(), entry.getValue().intValue());
+        synchronized (this.featureMin) {
+            for (int f = 0; f < ReferenceColumns.FEATURES; f++) {
+                fmin[f] = this.featureMin[f] = Math.min(this.featureMin[f], fmin[f]);
+                fmax[f] = this.featureMax[f] = Math.max(this.featureMax[f], fmax[f]);
+            }
+            tmin = this.tfMin = Math.min(this.tfMin, tmin);
+            tmax = this.tfMax = Math.max(this.tfMax, tmax);
+            this.maxdomcount = this.doms.getMaxScore();
+        }
+        columns.min = fmin;
+        columns.max = fmax;
+        columns.tfMin = tmin;
+        columns.tfMax = tmax;
+        return columns;
+    }
+
+    /**
+     * a consumer of the references that are selected by rankTopK()
+     */
+    public interface ReferenceVisitor {
+        /**
+         * @param i the index of a reference in the columns
+         * @return true if the reference was accepted as a result
+         */
+        public boolean visit(int i);
+    }
+
+    /**
+     * score the references of decoded columns in blocks of blockSize references and pass all references to
+     * the visitor which may be among the best references that are collected in top. For each block, an upper
+     * bound of the scores is computed from the extreme values of the features within the block and the
+     * coefficients of the ranking profile. The blocks are visited in descending order of their upper bound, so
+     * the iteration terminates when the upper bound of the next block is below the threshold of top; within a
+     * block, the references with a score below the threshold are skipped.
+     * @param columns the result of decode()
+     * @param top the best scores of the accepted references, updated with each accepted reference
+     * @param visitor
+     * @return the number of references that were passed to the visitor
+     */
+    public int rankTopK(final ReferenceColumns columns, final TopScores top, final ReferenceVisitor visitor) {
+        final int size = columns.size();
+        final int blocks = (size + blockSize - 1) / blockSize;
+        final long[] bound = new long[blocks];
+        final Integer[] order = new Integer[blocks];
+        for (int b = 0; b < blocks; b++) {
+            bound[b] = upperBound(columns, b * blockSize, Math.min(size, (b + 1) * blockSize));
+            order[b] = b;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer o1, final Integer o2) {
+                return Long.compare(bound[o2.intValue()], bound[o1.intValue()]);
+            }
+        });
+        int visited = 0;
+        for (final Integer b: order) {
+            if (bound[b.intValue()] < top.threshold()) break; // no reference in this and the following blocks can be among the best
+            final int from = b.intValue() * blockSize, to = Math.min(size, from + blockSize);
+            score(columns, from, to);
+            for (int i = from; i < to; i++) {
+                final long score = columns.score[i];
+                if (score < top.threshold()) continue;
+                visited++;
+                if (visitor.visit(i)) top.offer(score);
+            }
+        }
+        return visited;
+    }
+
+    private static int up(final int v, final int min, final int max) {
+        return max == min ? 0 : ((v - min) << 8) / (max - min);
+    }
+
+    private static int down(final int v, final int min, final int max) {
+        return max == min ? 0 : 256 - (((v - min) << 8) / (max - min));
+    }
+
+    /**
+     * compute the same ranking as cardinal(WordReference) for a slice of the columns
+     */
+    private void score(final ReferenceColumns c, final int from, final int to) {
+        final RankingProfile p = this.ranking;
+        final int[] min = c.min, max = c.max;
+        final double tfmin = c.tfMin, tfmax = c.tfMax;
+        final int[] urlcomps = c.feature[ReferenceColumns.URLCOMPS], urllength = c.feature[ReferenceColumns.URLLENGTH],
+                posintext = c.feature[ReferenceColumns.POSINTEXT], posofphrase = c.feature[ReferenceColumns.POSOFPHRASE],
+                posinphrase = c.feature[ReferenceColumns.POSINPHRASE], distance = c.feature[ReferenceColumns.DISTANCE],
+                virtualAge = c.feature[ReferenceColumns.VIRTUALAGE], wordsintitle = c.feature[ReferenceColumns.WORDSINTITLE],
+                wordsintext = c.feature[ReferenceColumns.WORDSINTEXT], phrasesintext = c.feature[ReferenceColumns.PHRASESINTEXT],
+                llocal = c.feature[ReferenceColumns.LLOCAL], lother = c.feature[ReferenceColumns.LOTHER],
+                hitcount = c.feature[ReferenceColumns.HITCOUNT];
+        final boolean authority = p.coeff_authority > 12;
+        for (int i = from; i < to; i++) {
+            // the sum is computed in the same int and long steps as in cardinal(WordReference)
+            final int r0 =
+                 ((256 - c.domlength[i]) << p.coeff_domlength)
+               + (down(urlcomps[i],      min[ReferenceColumns.URLCOMPS],      max[ReferenceColumns.URLCOMPS])      << p.coeff_urlcomps)
+               + (down(urllength[i],     min[ReferenceColumns.URLLENGTH],     max[ReferenceColumns.URLLENGTH])     << p.coeff_urllength)
+               + (down(posintext[i],     min[ReferenceColumns.POSINTEXT],     max[ReferenceColumns.POSINTEXT])     << p.coeff_posintext)
+               + (down(posofphrase[i],   min[ReferenceColumns.POSOFPHRASE],   max[ReferenceColumns.POSOFPHRASE])   << p.coeff_posofphrase)
+               + (down(posinphrase[i],   min[ReferenceColumns.POSINPHRASE],   max[ReferenceColumns.POSINPHRASE])   << p.coeff_posinphrase)
+               + (down(distance[i],      min[ReferenceColumns.DISTANCE],      max[ReferenceColumns.DISTANCE])      << p.coeff_worddistance)
+               + (up(virtualAge[i],      min[ReferenceColumns.VIRTUALAGE],    max[ReferenceColumns.VIRTUALAGE])    << p.coeff_date)
+               + (up(wordsintitle[i],    min[ReferenceColumns.WORDSINTITLE],  max[ReferenceColumns.WORDSINTITLE])  << p.coeff_wordsintitle)
+               + (up(wordsintext[i],     min[ReferenceColumns.WORDSINTEXT],   max[ReferenceColumns.WORDSINTEXT])   << p.coeff_wordsintext)
+               + (up(phrasesintext[i],   min[ReferenceColumns.PHRASESINTEXT], max[ReferenceColumns.PHRASESINTEXT]) << p.coeff_phrasesintext)
+               + (up(llocal[i],          min[ReferenceColumns.LLOCAL],        max[ReferenceColumns.LLOCAL])        << p.coeff_llocal)
+               + (up(lother[i],          min[ReferenceColumns.LOTHER],        max[ReferenceColumns.LOTHER])        << p.coeff_lother)
+               + (up(hitcount[i],        min[ReferenceColumns.HITCOUNT],      max[ReferenceColumns.HITCOUNT])      << p.coeff_hitcount);
+            final long tf = tfmax == tfmin ? 0 : (((int) (((c.termFrequency[i] - tfmin) * 256.0) / (tfmax - tfmin))) << p.coeff_termfrequency);
+            c.score[i] = r0 + tf
+               + (authority ? (authority(c.hosthash[i]) << p.coeff_authority) : 0)
+               + flagScore(p, c.flags[i], c.inLanguage[i]);
+        }
+    }
+
+    private static long flagScore(final RankingProfile p, final int f, final boolean inLanguage) {
+        return (((f >>> WordReferenceRow.flag_app_dc_identifier)  & 1) != 0 ? 255 << p.coeff_appurl             : 0)
+             + (((f >>> WordReferenceRow.flag_app_dc_title)       & 1) != 0 ? 255 << p.coeff_app_dc_title       : 0)
+             + (((f >>> WordReferenceRow.flag_app_dc_creator)     & 1) != 0 ? 255 << p.coeff_app_dc_creator     : 0)
+             + (((f >>> WordReferenceRow.flag_app_dc_subject)     & 1) != 0 ? 255 << p.coeff_app_dc_subject     : 0)
+             + (((f >>> WordReferenceRow.flag_app_dc_description) & 1) != 0 ? 255 << p.coeff_app_dc_description : 0)
+             + (((f >>> WordReferenceRow.flag_app_emphasized)     & 1) != 0 ? 255 << p.coeff_appemph            : 0)
+             + (((f >>> Tokenizer.flag_cat_indexof)  & 1) != 0 ? 255 << p.coeff_catindexof  : 0)
+             + (((f >>> Tokenizer.flag_cat_hasimage) & 1) != 0 ? 255 << p.coeff_cathasimage : 0)
+             + (((f >>> Tokenizer.flag_cat_hasaudio) & 1) != 0 ? 255 << p.coeff_cathasaudio : 0)
+             + (((f >>> Tokenizer.flag_cat_hasvideo) & 1) != 0 ? 255 << p.coeff_cathasvideo : 0)
+             + (((f >>> Tokenizer.flag_cat_hasapp)   & 1) != 0 ? 255 << p.coeff_cathasapp   : 0)
+             + (inLanguage ? 255 << p.coeff_language : 0);
+    }
+
+    /**
+     * compute an upper bound of the scores of a slice of the columns: every term of the score is computed
+     * with the value of its feature within the slice that gives the highest term
+     */
+    private long upperBound(final ReferenceColumns c, final int from, final int to) {
+        final RankingProfile p = this.ranking;
+        final int[] min = c.min, max = c.max;
+        final int[] low = new int[ReferenceColumns.FEATURES], high = new int[ReferenceColumns.FEATURES];
+        for (int f = 0; f < ReferenceColumns.FEATURES; f++) {
+            final int[] column = c.feature[f];
+            int mn = Integer.MAX_VALUE, mx = Integer.MIN_VALUE;
+            for (int i = from; i < to; i++) {
+                final int v = column[i];
+                mn = Math.min(mn, v);
+                mx = Math.max(mx, v);
+            }
+            low[f] = mn;
+            high[f] = mx;
+        }
+        int domlength = Integer.MAX_VALUE, flags = 0, authority = 0;
+        double tf = -Double.MAX_VALUE;
+        boolean inLanguage = false;
+        for (int i = from; i < to; i++) {
+            domlength = Math.min(domlength, c.domlength[i]);
+            flags |= c.flags[i];
+            tf = Math.max(tf, c.termFrequency[i]);
+            inLanguage |= c.inLanguage[i];
+        }
+        if (p.coeff_authority > 12) {
+            for (int i = from; i < to; i++) authority = Math.max(authority, authority(c.hosthash[i]));
+        }
+        final int r0 =
+             ((256 - domlength) << p.coeff_domlength)
+           + (down(low[ReferenceColumns.URLCOMPS],       min[ReferenceColumns.URLCOMPS],      max[ReferenceColumns.URLCOMPS])      << p.coeff_urlcomps)
+           + (down(low[ReferenceColumns.URLLENGTH],      min[ReferenceColumns.URLLENGTH],     max[ReferenceColumns.URLLENGTH])     << p.coeff_urllength)
+           + (down(low[ReferenceColumns.POSINTEXT],      min[ReferenceColumns.POSINTEXT],     max[ReferenceColumns.POSINTEXT])     << p.coeff_posintext)
+           + (down(low[ReferenceColumns.POSOFPHRASE],    min[ReferenceColumns.POSOFPHRASE],   max[ReferenceColumns.POSOFPHRASE])   << p.coeff_posofphrase)
+           + (down(low[ReferenceColumns.POSINPHRASE],    min[ReferenceColumns.POSINPHRASE],   max[ReferenceColumns.POSINPHRASE])   << p.coeff_posinphrase)
+           + (down(low[ReferenceColumns.DISTANCE],       min[ReferenceColumns.DISTANCE],      max[ReferenceColumns.DISTANCE])      << p.coeff_worddistance)
+           + (up(high[ReferenceColumns.VIRTUALAGE],      min[ReferenceColumns.VIRTUALAGE],    max[ReferenceColumns.VIRTUALAGE])    << p.coeff_date)
+           + (up(high[ReferenceColumns.WORDSINTITLE],    min[ReferenceColumns.WORDSINTITLE],  max[ReferenceColumns.WORDSINTITLE])  << p.coeff_wordsintitle)
+           + (up(high[ReferenceColumns.WORDSINTEXT],     min[ReferenceColumns.WORDSINTEXT],   max[ReferenceColumns.WORDSINTEXT])   << p.coeff_wordsintext)
+           + (up(high[ReferenceColumns.PHRASESINTEXT],   min[ReferenceColumns.PHRASESINTEXT], max[ReferenceColumns.PHRASESINTEXT]) << p.coeff_phrasesintext)
+           + (up(high[ReferenceColumns.LLOCAL],          min[ReferenceColumns.LLOCAL],        max[ReferenceColumns.LLOCAL])        << p.coeff_llocal)
+           + (up(high[ReferenceColumns.LOTHER],          min[ReferenceColumns.LOTHER],        max[ReferenceColumns.LOTHER])        << p.coeff_lother)
+           + (up(high[ReferenceColumns.HITCOUNT],        min[ReferenceColumns.HITCOUNT],      max[ReferenceColumns.HITCOUNT])      << p.coeff_hitcount);
+        final long tfs = c.tfMax == c.tfMin ? 0 : (((int) (((tf - c.tfMin) * 256.0) / (c.tfMax - c.tfMin))) << p.coeff_termfrequency);
+        return r0 + tfs + (authority << p.coeff_authority) + flagScore(p, flags, inLanguage);
+    }
+
+    private interface Slice {
+        public void run(int from, int to);
+    }
+
+    /**
+     * run a task for all slices of the range 0..size; the first slice is processed by the calling thread
+     */
+    private static void forSlices(final int size, final Slice slice) {
+        final int slices = Math.max(1, Math.min(cores, size / sliceSize));
+        final int step = (size + slices - 1) / slices;
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>(slices - 1);
+        for (int s = 1; s < slices; s++) {
+            final int from = s * step, to = Math.min(size, from + step);
+            final Callable<Void> task = new Callable<Void>() {
+                @Override
+                public Void call() {
+                    slice.run(from, to);
+                    return null;
+                }
+            };
+            try {
+                futures.add(rankExecutor.submit(task));
+            } catch (final RejectedExecutionException e) {
+                slice.run(from, to);
+            }
+        }
+        slice.run(0, Math.min(size, step));
+        for (final Future<Void> future: futures) {
+            try {
+                future.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (final ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
     }
 
     public BlockingQueue<WordReferenceVars> normalizeWith(final ReferenceContainer<WordReference> container, long maxtime, final boolean local) {
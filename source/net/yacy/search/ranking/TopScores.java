@@ -0,0 +1,67 @@
+/**
+ *  TopScores
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.search.ranking;
+
+import java.util.PriorityQueue;
+
+/**
+ * the k best scores of the results of a search. The smallest of these scores is the
+ * threshold which a result must reach to be among the k best results.
+ */
+public final class TopScores {
+
+    private final int k;
+    private final PriorityQueue<Long> scores; // a min-heap of the k best scores
+    private volatile long threshold;
+
+    /**
+     * @param k the number of best scores
+     */
+    public TopScores(final int k) {
+        this.k = k;
+        this.scores = new PriorityQueue<Long>(k + 1);
+        this.threshold = Long.MIN_VALUE;
+    }
+
+    /**
+     * add the score of a result
+     * @param score
+     */
+    public synchronized void offer(final long score) {
+        if (this.scores.size() >= this.k) {
+            if (score <= this.scores.peek().longValue()) return;
+            this.scores.poll();
+        }
+        this.scores.add(score);
+        if (this.scores.size() >= this.k) this.threshold = this.scores.peek().longValue();
+    }
+
+    /**
+     * @return the smallest score of the k best scores or Long.MIN_VALUE if less than k scores were added
+     */
+    public long threshold() {
+        return this.threshold;
+    }
+
+    public int k() {
+        return this.k;
+    }
+
+}
@@ -1,6 +1,7 @@
 package net.yacy.crawler;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -107,6 +108,112 @@ public class HostBalancerTest {
         }
         hb.close();
 
+    }
+
+    /**
+     * Test of push method for a list of requests with urls of different hosts
+     */
+    @Test
+    public void testPushList() throws IOException, SpaceExceededException {
+        FileUtils.deletedelete(QUEUES_ROOT); // start clean test
+
+        HostBalancer hb = new HostBalancer(QUEUES_ROOT, ON_DEMAND_LIMIT, EXCEED_134217727, false);
+        hb.clear();
+        WorkTables wt = new WorkTables(DATA_DIR);
+        RobotsTxt rob = new RobotsTxt(wt, null, 10);
+
+        // local hosts, so that no robots.txt is loaded
+        final DigestURL a1 = new DigestURL("http://127.0.0.1/a1.html");
+        final DigestURL a2 = new DigestURL("http://127.0.0.1/a2.html");
+        final DigestURL b1 = new DigestURL("http://localhost:8090/b1.html");
+        final List<Request> reqs = new ArrayList<>();
+        reqs.add(new Request(a1, null));
+        reqs.add(new Request(b1, null));
+        reqs.add(new Request(a2, null));
+        reqs.add(new Request(a1, null));
+
+        String[] res = hb.push(reqs, null, rob);
+        assertEquals(4, res.length);
+        assertNull(res[0]);
+        assertNull(res[1]);
+        assertNull(res[2]);
+        assertNotNull("double occurrence in list", res[3]);
+        assertEquals(3, hb.size());
+        assertTrue(hb.has(a1.hash()));
+        assertTrue(hb.has(a2.hash()));
+        assertTrue(hb.has(b1.hash()));
+
+        // all urls are known now
+        res = hb.push(reqs, null, rob);
+        for (final String r: res) assertNotNull(r);
+        assertEquals(3, hb.size());
+
+        hb.clear();
+        hb.close();
+    }
+
+    /**
+     * Test of push method for a list of requests under a domain limit of the crawl profile:
+     * the rejected urls must not be known as queued, and no queue is created for a host without a pushed url
+     */
+    @Test
+    public void testPushListDomainLimit() throws IOException, SpaceExceededException {
+        FileUtils.deletedelete(QUEUES_ROOT); // start clean test
+
+        HostBalancer hb = new HostBalancer(QUEUES_ROOT, ON_DEMAND_LIMIT, EXCEED_134217727, false);
+        hb.clear();
+        WorkTables wt = new WorkTables(DATA_DIR);
+        RobotsTxt rob = new RobotsTxt(wt, null, 10);
+        final CrawlProfile profile = new CrawlProfile(
+                "domainLimitTest", CrawlProfile.MATCH_ALL_STRING, CrawlProfile.MATCH_NEVER_STRING,
+                CrawlProfile.MATCH_ALL_STRING, CrawlProfile.MATCH_NEVER_STRING,
+                CrawlProfile.MATCH_NEVER_STRING, CrawlProfile.MATCH_NEVER_STRING,
+                CrawlProfile.MATCH_ALL_STRING, CrawlProfile.MATCH_NEVER_STRING,
+                CrawlProfile.MATCH_ALL_STRING, CrawlProfile.MATCH_NEVER_STRING,
+                1, false, null,
+                2, // domMaxPages
+                true, true, true, false, true, true, false, false, -1, false, true, CrawlProfile.MATCH_NEVER_STRING,
+                CacheStrategy.NOCACHE, "", ClientIdentification.yacyIntranetCrawlerAgentName, null, null, 0);
+
+        // local hosts, so that no robots.txt is loaded
+        final DigestURL[] urls = new DigestURL[4];
+        for (int i = 0; i < urls.length; i++) urls[i] = new DigestURL("http://127.0.0.1/" + i + ".html");
+        List<Request> reqs = new ArrayList<>();
+        for (final DigestURL url: urls) reqs.add(new Request(url, null));
+
+        String[] res = hb.push(reqs, profile, rob);
+        assertNull(res[0]);
+        assertNull(res[1]);
+        assertEquals(CrawlStacker.CRAWL_REJECT_REASON_DOMAIN_COUNTER, res[2]);
+        assertEquals(CrawlStacker.CRAWL_REJECT_REASON_DOMAIN_COUNTER, res[3]);
+        assertEquals(2, hb.size());
+        assertTrue(hb.has(urls[0].hash()));
+        assertTrue(hb.has(urls[1].hash()));
+        assertFalse("rejected url is not queued", hb.has(urls[2].hash()));
+        assertFalse("rejected url is not queued", hb.has(urls[3].hash()));
+
+        // a rejected url can be pushed when the domain counter went down
+        profile.getCount("127.0.0.1").decrementAndGet();
+        reqs = new ArrayList<>();
+        reqs.add(new Request(urls[2], null));
+        res = hb.push(reqs, profile, rob);
+        assertNull(res[0]);
+        assertTrue(hb.has(urls[2].hash()));
+        assertEquals(3, hb.size());
+
+        // no queue is created for a host where all urls are rejected
+        profile.domInc("localhost");
+        profile.domInc("localhost");
+        final DigestURL b1 = new DigestURL("http://localhost:8090/b1.html");
+        reqs = new ArrayList<>();
+        reqs.add(new Request(b1, null));
+        res = hb.push(reqs, profile, rob);
+        assertEquals(CrawlStacker.CRAWL_REJECT_REASON_DOMAIN_COUNTER, res[0]);
+        assertFalse(hb.has(b1.hash()));
+        assertEquals(1, hb.getDomainStackHosts(rob).size());
+
+        hb.clear();
+        hb.close();
     }
     
 	/**
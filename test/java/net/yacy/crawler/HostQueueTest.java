@@ -4,8 +4,13 @@ package net.yacy.crawler;
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.List;
 import net.yacy.cora.document.id.DigestURL;
+import net.yacy.cora.federate.yacy.CacheStrategy;
+import net.yacy.cora.protocol.ClientIdentification;
 import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.crawler.data.CrawlProfile;
 import net.yacy.crawler.retrieval.Request;
 import static org.junit.Assert.*;
 import org.junit.Test;
@@ -58,4 +63,90 @@ public class HostQueueTest {
 
     }
 
+    /**
+     * Test of push method for a list of requests, of class HostQueue.
+     */
+    @Test
+    public void testPushList() throws MalformedURLException, IOException, SpaceExceededException {
+        File stackDirFile = new File(stackDir);
+        DigestURL url1 = new DigestURL("http://b.com/a.html");
+        DigestURL url2 = new DigestURL("http://b.com/b.html");
+        DigestURL url3 = new DigestURL("http://b.com/c.html");
+
+        HostQueue testhq = new HostQueue(stackDirFile, url1, true, true);
+
+        // a url which is twice in the list is pushed once
+        List<Request> reqs = new ArrayList<Request>();
+        reqs.add(new Request(url1, null));
+        reqs.add(new Request(url2, null));
+        reqs.add(new Request(url1, null));
+        String[] res = testhq.push(reqs, null, null);
+        assertEquals(3, res.length);
+        assertNull(res[0]);
+        assertNull(res[1]);
+        assertNotNull("double occurrence in list", res[2]);
+        assertEquals(2, testhq.size());
+
+        // a url which is already in the queue is rejected
+        reqs = new ArrayList<Request>();
+        reqs.add(new Request(url2, null));
+        reqs.add(new Request(url3, null));
+        res = testhq.push(reqs, null, null);
+        assertNotNull("double occurrence in queue", res[0]);
+        assertNull(res[1]);
+        assertEquals(3, testhq.size());
+        assertTrue(testhq.has(url3.hash()));
+
+        testhq.clear();
+        testhq.close();
+    }
+
+    /**
+     * Test of push method for a list of requests under a domain limit of the crawl profile:
+     * urls which are already in the queue must not use up the limit for new urls.
+     */
+    @Test
+    public void testPushListDomainLimit() throws MalformedURLException, IOException, SpaceExceededException {
+        File stackDirFile = new File(stackDir);
+        final CrawlProfile profile = new CrawlProfile(
+                "domainLimitTest", CrawlProfile.MATCH_ALL_STRING, CrawlProfile.MATCH_NEVER_STRING,
+                CrawlProfile.MATCH_ALL_STRING, CrawlProfile.MATCH_NEVER_STRING,
+                CrawlProfile.MATCH_NEVER_STRING, CrawlProfile.MATCH_NEVER_STRING,
+                CrawlProfile.MATCH_ALL_STRING, CrawlProfile.MATCH_NEVER_STRING,
+                CrawlProfile.MATCH_ALL_STRING, CrawlProfile.MATCH_NEVER_STRING,
+                1, false, null,
+                4, // domMaxPages
+                true, true, true, false, true, true, false, false, -1, false, true, CrawlProfile.MATCH_NEVER_STRING,
+                CacheStrategy.NOCACHE, "", ClientIdentification.yacyIntranetCrawlerAgentName, null, null, 0);
+        DigestURL[] urls = new DigestURL[6];
+        for (int i = 0; i < urls.length; i++) urls[i] = new DigestURL("http://c.com/" + i + ".html");
+
+        HostQueue testhq = new HostQueue(stackDirFile, urls[0], true, true);
+
+        // two urls are queued from a first page
+        List<Request> reqs = new ArrayList<Request>();
+        reqs.add(new Request(urls[0], null));
+        reqs.add(new Request(urls[1], null));
+        String[] res = testhq.push(reqs, profile, null);
+        assertNull(res[0]);
+        assertNull(res[1]);
+        assertEquals(2, profile.getCount("c.com").get());
+
+        // a second page links to the queued urls and to new urls: two new urls fit into the limit
+        reqs = new ArrayList<Request>();
+        for (final DigestURL url: urls) reqs.add(new Request(url, null));
+        res = testhq.push(reqs, profile, null);
+        assertTrue(res[0].startsWith("double occurrence"));
+        assertTrue(res[1].startsWith("double occurrence"));
+        assertNull(res[2]);
+        assertNull(res[3]);
+        assertEquals(CrawlStacker.CRAWL_REJECT_REASON_DOMAIN_COUNTER, res[4]);
+        assertEquals(CrawlStacker.CRAWL_REJECT_REASON_DOMAIN_COUNTER, res[5]);
+        assertEquals(4, testhq.size());
+        assertEquals(4, profile.getCount("c.com").get());
+
+        testhq.clear();
+        testhq.close();
+    }
+
 }
@@ -0,0 +1,214 @@
+// HostSchedulerPerfTest.java
+// -------------------
+// part of YaCy
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package net.yacy.crawler;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Compare the host selection of {@link HostBalancer#pop} with a scan of the waiting times of the round-robin
+ * hosts ("scan") and with the {@link HostScheduler} ("schedule") on synthetic host distributions.
+ * The crawl runs on a simulated clock which advances one millisecond per pop; the waiting time of a host is
+ * its access delay minus the time since its last access, and never accessed hosts have no waiting time.
+ * For each strategy the time for all pops, the number of waiting time computations per pop
+ * (each is a Latency and robots lookup in the balancer) and the number of pops of hosts which
+ * still had to wait are printed.
+ */
+public class HostSchedulerPerfTest {
+
+    private static final int sizeMark = 10;
+
+    /** a synthetic crawl: access delays and queue sizes of the hosts */
+    private static final class Crawl {
+        private final String[] hosthashes;
+        private final int[] delay;
+        private final int[] size;
+        private final long[] lastacc;
+        private long clock = 0;
+        private long computations = 0;
+        private long early = 0;
+
+        private Crawl(final String distribution, final int hostCount, final Random r) {
+            this.hosthashes = new String[hostCount];
+            this.delay = new int[hostCount];
+            this.size = new int[hostCount];
+            this.lastacc = new long[hostCount];
+            for (int h = 0; h < hostCount; h++) {
+                this.hosthashes[h] = Integer.toString(h);
+                this.lastacc[h] = Long.MIN_VALUE;
+                if (distribution.equals("uniform")) {
+                    // all hosts have the default latency and the same number of urls
+                    this.delay[h] = 500;
+                    this.size[h] = 20;
+                } else if (distribution.equals("robots")) {
+                    // every tenth host has a robots.txt crawl-delay of 5 to 30 seconds
+                    this.delay[h] = h % 10 == 0 ? 5000 + r.nextInt(25000) : 500;
+                    this.size[h] = 20;
+                } else {
+                    // "zipf": few hosts have many urls, most hosts have one url
+                    this.delay[h] = 250 + r.nextInt(1000);
+                    this.size[h] = Math.max(1, 1000 / (1 + h));
+                }
+            }
+        }
+
+        private int remaining(final int h) {
+            this.computations++;
+            if (this.lastacc[h] == Long.MIN_VALUE) return Integer.MIN_VALUE;
+            return (int) (this.lastacc[h] + this.delay[h] - this.clock);
+        }
+
+        /** access the host and refill its queue if it is empty, so that the number of hosts stays constant */
+        private void access(final int h) {
+            if (this.lastacc[h] != Long.MIN_VALUE && this.lastacc[h] + this.delay[h] > this.clock) this.early++;
+            this.lastacc[h] = this.clock;
+            if (--this.size[h] == 0) this.size[h] = 1 + (h % 7);
+            this.clock++;
+        }
+    }
+
+    public static void main(final String[] args) {
+        final int hostCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        final int pops = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        for (int round = 0; round < rounds; round++) {
+            for (final String distribution : new String[] { "uniform", "robots", "zipf" }) {
+                for (final String mode : new String[] { "scan", "schedule" }) {
+                    final Crawl crawl = new Crawl(distribution, hostCount, new Random(0));
+                    final long start = System.nanoTime();
+                    if (mode.equals("scan")) scan(crawl, pops); else schedule(crawl, pops);
+                    final long time = (System.nanoTime() - start) / 1000000L;
+                    if (round == rounds - 1) {
+                        System.out.println(distribution + " " + mode + ": " + pops + " pops from " + hostCount + " hosts in " + time + " ms, "
+                                + (pops * 1000L / Math.max(1, time)) + " pops/s, "
+                                + (crawl.computations / pops) + " waiting times per pop, " + crawl.early + " pops of waiting hosts");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * the selection of HostBalancer.pop without schedule, with the waiting time computation replaced by the simulation
+     */
+    private static void scan(final Crawl crawl, final int pops) {
+        final Set<String> roundRobinHostHashes = new HashSet<String>();
+        final Random r = new Random(0);
+        for (int pop = 0; pop < pops; pop++) {
+            if (roundRobinHostHashes.size() == 0) {
+                for (final String h: crawl.hosthashes) roundRobinHostHashes.add(h);
+                boolean smallStacksExist = false;
+                boolean singletonStacksExist = false;
+                smallsearch: for (final String s: roundRobinHostHashes) {
+                    final int size = crawl.size[Integer.parseInt(s)];
+                    if (size == 1) {singletonStacksExist = true; break smallsearch;}
+                    if (size <= sizeMark) {smallStacksExist = true; break smallsearch;}
+                }
+                final ArrayList<String> freshhosts = new ArrayList<String>();
+                final ArrayList<String> removehosts = new ArrayList<String>();
+                final Iterator<String> i = roundRobinHostHashes.iterator();
+                smallstacks: while (i.hasNext()) {
+                    if (roundRobinHostHashes.size() <= 10) break smallstacks;
+                    final String hosthash = i.next();
+                    final int h = Integer.parseInt(hosthash);
+                    final int delta = crawl.remaining(h);
+                    if (delta == Integer.MIN_VALUE) {freshhosts.add(hosthash); i.remove(); continue smallstacks;}
+                    if (singletonStacksExist || smallStacksExist) {
+                        if (delta < 0) continue;
+                        if (delta >= 1000) {removehosts.add(hosthash); i.remove(); continue smallstacks;}
+                        final int size = crawl.size[h];
+                        if (singletonStacksExist) {
+                            if (size != 1) {removehosts.add(hosthash); i.remove(); continue smallstacks;}
+                        } else {
+                            if (size > sizeMark) {removehosts.add(hosthash); i.remove(); continue smallstacks;}
+                        }
+                    }
+                }
+                if (freshhosts.size() > 0) roundRobinHostHashes.add(freshhosts.remove(r.nextInt(freshhosts.size())));
+                while (roundRobinHostHashes.size() < 100 && removehosts.size() > 0) roundRobinHostHashes.add(removehosts.remove(r.nextInt(removehosts.size())));
+                while (roundRobinHostHashes.size() < 100 && freshhosts.size() > 0) roundRobinHostHashes.add(freshhosts.remove(r.nextInt(freshhosts.size())));
+            }
+            String rhh = null;
+            if (roundRobinHostHashes.size() == 1) rhh = roundRobinHostHashes.iterator().next();
+            if (rhh == null) {
+                final TreeMap<Integer, List<String>> fastTree = new TreeMap<Integer, List<String>>();
+                mixedstrategy: for (final String h: roundRobinHostHashes) {
+                    int delta = crawl.remaining(Integer.parseInt(h)) / 200;
+                    if (delta < 0) delta = 0;
+                    List<String> queueHashes = fastTree.get(delta);
+                    if (queueHashes == null) {
+                        queueHashes = new ArrayList<String>(2);
+                        fastTree.put(delta, queueHashes);
+                    }
+                    queueHashes.add(h);
+                    final List<String> firstEntries = fastTree.firstEntry().getValue();
+                    if (firstEntries.size() > 1) {
+                        int largest = Integer.MIN_VALUE;
+                        for (final String hh: firstEntries) {
+                            final int s = crawl.size[Integer.parseInt(hh)];
+                            if (s > largest) {largest = s; rhh = hh;}
+                        }
+                        break mixedstrategy;
+                    }
+                }
+                if (rhh == null && fastTree.size() > 0) rhh = fastTree.firstEntry().getValue().get(0);
+                final List<String> lastEntries = fastTree.size() > 0 ? fastTree.lastEntry().getValue() : null;
+                if (lastEntries != null) for (final String h: lastEntries) roundRobinHostHashes.remove(h);
+            }
+            if (rhh == null) {roundRobinHostHashes.clear(); pop--; continue;}
+            roundRobinHostHashes.remove(rhh);
+            crawl.access(Integer.parseInt(rhh));
+        }
+    }
+
+    /**
+     * the selection of HostBalancer.pop with schedule
+     */
+    private static void schedule(final Crawl crawl, final int pops) {
+        final HostScheduler scheduler = new HostScheduler();
+        for (final String h: crawl.hosthashes) scheduler.add(h, crawl.clock);
+        for (int pop = 0; pop < pops; pop++) {
+            String rhh;
+            int checks = 0;
+            while (true) {
+                rhh = scheduler.first();
+                if (checks++ < 10) {
+                    final long due = due(crawl, Integer.parseInt(rhh));
+                    if (due > Math.max(crawl.clock, scheduler.due(rhh))) {scheduler.schedule(rhh, due); continue;}
+                }
+                scheduler.remove(rhh);
+                break;
+            }
+            final int h = Integer.parseInt(rhh);
+            crawl.access(h);
+            scheduler.schedule(rhh, due(crawl, h));
+        }
+    }
+
+    private static long due(final Crawl crawl, final int h) {
+        final int remaining = crawl.remaining(h);
+        return remaining <= 0 ? crawl.clock : crawl.clock + remaining;
+    }
+
+}
@@ -0,0 +1,136 @@
+/**
+ *  HostSchedulerTest.java
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.crawler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the HostScheduler class.
+ */
+public class HostSchedulerTest {
+
+    /**
+     * Hosts must be returned by due time, and in the order of scheduling if the due times are equal.
+     */
+    @Test
+    public void testOrder() {
+        final HostScheduler scheduler = new HostScheduler();
+        scheduler.add("c", 300);
+        scheduler.add("a", 100);
+        scheduler.add("b", 100);
+        scheduler.add("d", 200);
+        assertFalse(scheduler.add("d", 50)); // already scheduled, the time is kept
+        assertEquals(200, scheduler.due("d"));
+        assertEquals(4, scheduler.size());
+
+        final StringBuilder order = new StringBuilder();
+        String h;
+        while ((h = scheduler.first()) != null) {
+            order.append(h);
+            assertTrue(scheduler.remove(h));
+        }
+        assertEquals("abdc", order.toString());
+        assertTrue(scheduler.isEmpty());
+        assertFalse(scheduler.remove("a"));
+        assertEquals(Long.MIN_VALUE, scheduler.due("a"));
+    }
+
+    /**
+     * Scheduling a host again moves it to the new time.
+     */
+    @Test
+    public void testReschedule() {
+        final HostScheduler scheduler = new HostScheduler();
+        scheduler.schedule("a", 100);
+        scheduler.schedule("b", 200);
+        assertEquals("a", scheduler.first());
+        scheduler.schedule("a", 300);
+        assertEquals(2, scheduler.size());
+        assertEquals("b", scheduler.first());
+        scheduler.schedule("b", 300);
+        assertEquals("a", scheduler.first()); // same time, scheduled first
+        scheduler.clear();
+        assertNull(scheduler.first());
+        assertFalse(scheduler.contains("a"));
+    }
+
+    /**
+     * first(count) must return the head of the schedule in the order of the due times.
+     */
+    @Test
+    public void testFirstCount() {
+        final HostScheduler scheduler = new HostScheduler();
+        scheduler.schedule("c", 300);
+        scheduler.schedule("a", 100);
+        scheduler.schedule("b", 200);
+        scheduler.addFresh("f");
+        assertEquals(Arrays.asList("a", "b"), scheduler.first(2));
+        assertEquals(Arrays.asList("a", "b", "c"), scheduler.first(10));
+    }
+
+    /**
+     * Fresh hosts are ranked behind due hosts: one fresh host is taken at the start of a round,
+     * further ones only if no host is due and not more than freshPerRound in a round
+     * unless there are no other hosts in the schedule.
+     */
+    @Test
+    public void testFresh() {
+        final HostScheduler scheduler = new HostScheduler();
+        for (int i = 0; i < 2 * HostScheduler.roundSize; i++) assertTrue(scheduler.addFresh("f" + i));
+        assertFalse(scheduler.addFresh("f0"));
+        scheduler.schedule("a", 100);
+        assertFalse(scheduler.addFresh("a"));
+        assertEquals(2 * HostScheduler.roundSize + 1, scheduler.size());
+        assertEquals(Long.MIN_VALUE, scheduler.due("f0"));
+
+        // start of a round: one fresh host, even if there are due hosts
+        assertEquals("f0", scheduler.takeFresh(true));
+        assertNull(scheduler.takeFresh(true));
+        // no due hosts: fresh hosts up to the limit
+        for (int i = 1; i < HostScheduler.freshPerRound; i++) assertEquals("f" + i, scheduler.takeFresh(false));
+        assertNull(scheduler.takeFresh(false));
+        // the rest of the round is taken by the scheduled host
+        for (int i = HostScheduler.freshPerRound; i < HostScheduler.roundSize; i++) {
+            assertTrue(scheduler.take("a"));
+            scheduler.schedule("a", 100 + i);
+        }
+        // a new round
+        assertEquals("f" + HostScheduler.freshPerRound, scheduler.takeFresh(true));
+
+        // without scheduled hosts there is no limit
+        assertTrue(scheduler.remove("a"));
+        for (int i = HostScheduler.freshPerRound + 1; i < 2 * HostScheduler.roundSize; i++) assertEquals("f" + i, scheduler.takeFresh(false));
+        assertNull(scheduler.takeFresh(false));
+        assertTrue(scheduler.isEmpty());
+
+        // scheduling a fresh host moves it to the schedule
+        scheduler.addFresh("g");
+        scheduler.schedule("g", 500);
+        assertNull(scheduler.takeFresh(false));
+        assertEquals("g", scheduler.first());
+    }
+
+}
@@ -0,0 +1,253 @@
+/**
+ *  AsyncHTTPLoaderTest
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.crawler.retrieval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import net.yacy.cora.document.id.DigestURL;
+import net.yacy.cora.federate.solr.FailCategory;
+import net.yacy.cora.federate.yacy.CacheStrategy;
+import net.yacy.cora.protocol.ClientIdentification;
+import net.yacy.cora.protocol.HeaderFramework;
+import net.yacy.cora.protocol.RequestHeader;
+import net.yacy.cora.protocol.ResponseHeader;
+import net.yacy.crawler.CrawlSwitchboard;
+import net.yacy.crawler.data.CrawlProfile;
+import net.yacy.crawler.robots.RobotsTxtEntry;
+
+/**
+ * Unit tests for the AsyncHTTPLoader class, loading from a local http server.
+ */
+public class AsyncHTTPLoaderTest {
+
+    private static final CrawlProfile PROFILE = new CrawlProfile(
+            CrawlSwitchboard.CRAWL_PROFILE_SNIPPET_GLOBAL_TEXT, CrawlProfile.MATCH_ALL_STRING, // crawlerUrlMustMatch
+            CrawlProfile.MATCH_NEVER_STRING, // crawlerUrlMustNotMatch
+            CrawlProfile.MATCH_ALL_STRING, // crawlerIpMustMatch
+            CrawlProfile.MATCH_NEVER_STRING, // crawlerIpMustNotMatch
+            CrawlProfile.MATCH_NEVER_STRING, // crawlerCountryMustMatch
+            CrawlProfile.MATCH_NEVER_STRING, // crawlerNoDepthLimitMatch
+            CrawlProfile.MATCH_ALL_STRING, // indexUrlMustMatch
+            CrawlProfile.MATCH_NEVER_STRING, // indexUrlMustNotMatch
+            CrawlProfile.MATCH_ALL_STRING, // indexContentMustMatch
+            CrawlProfile.MATCH_NEVER_STRING, // indexContentMustNotMatch
+            0, false, CrawlProfile.getRecrawlDate(CrawlSwitchboard.CRAWL_PROFILE_SNIPPET_GLOBAL_TEXT_RECRAWL_CYCLE),
+            -1, true, true, true, false, // crawlingQ, followFrames, obeyHtmlRobotsNoindex, obeyHtmlRobotsNofollow,
+            true, true, true, false, -1, false, true, CrawlProfile.MATCH_NEVER_STRING, CacheStrategy.NOCACHE,
+            "robot_" + CrawlSwitchboard.CRAWL_PROFILE_SNIPPET_GLOBAL_TEXT,
+            ClientIdentification.yacyIntranetCrawlerAgentName, null, null, 0);
+
+    /** a context which records the errors and the documents handed to the indexer */
+    private static class TestContext implements AsyncHTTPLoader.Context {
+        private final List<Response> indexed = new CopyOnWriteArrayList<Response>();
+        private final List<String> errors = new CopyOnWriteArrayList<String>();
+        private final Map<String, FailCategory> errorCategories = new ConcurrentHashMap<String, FailCategory>();
+        private int maxFileSize = -1;
+        /** the names of the threads which did blocking steps */
+        private final List<String> blockingThreads = new CopyOnWriteArrayList<String>();
+        private final CountDownLatch done;
+        private TestContext(final int expected) {
+            this.done = new CountDownLatch(expected);
+        }
+        @Override
+        public RobotsTxtEntry robotsEntry(final DigestURL url, final ClientIdentification.Agent agent) {
+            return null;
+        }
+        @Override
+        public void loadRobots(final DigestURL url, final ClientIdentification.Agent agent) {
+            this.blockingThreads.add(Thread.currentThread().getName());
+        }
+        @Override
+        public boolean isBlacklisted(final DigestURL url) {
+            return false;
+        }
+        @Override
+        public long waitingRemaining(final DigestURL url, final ClientIdentification.Agent agent) {
+            return 0;
+        }
+        @Override
+        public DigestURL resolve(final DigestURL url) {
+            return url;
+        }
+        @Override
+        public RequestHeader requestHeader(final Request request, final ClientIdentification.Agent agent) {
+            final RequestHeader requestHeader = new RequestHeader();
+            requestHeader.put(HeaderFramework.USER_AGENT, agent.userAgent);
+            return requestHeader;
+        }
+        @Override
+        public int maxFileSize(final DigestURL url) {
+            return this.maxFileSize;
+        }
+        @Override
+        public void error(final DigestURL url, final int depth, final CrawlProfile profile, final FailCategory category, final String reason, final int httpcode) {
+            this.errors.add(url.getFile() + " " + reason);
+            this.errorCategories.put(url.getFile(), category);
+            this.done.countDown();
+        }
+        @Override
+        public DigestURL redirectURL(final Request request, final CrawlProfile profile, final DigestURL url, final String statusline, final int statusCode, final ResponseHeader responseHeader, final String requestURLString) throws IOException {
+            return DigestURL.newURL(request.url(), responseHeader.get(HeaderFramework.LOCATION));
+        }
+        @Override
+        public boolean followRedirects() {
+            return true;
+        }
+        @Override
+        public String stackCrawl(final Request request) {
+            return "not stacked";
+        }
+        @Override
+        public void storeCache(final Response response) {
+            this.blockingThreads.add(Thread.currentThread().getName());
+        }
+        @Override
+        public String toIndexer(final Response response) {
+            this.blockingThreads.add(Thread.currentThread().getName());
+            this.indexed.add(response);
+            this.done.countDown();
+            return null;
+        }
+    }
+
+    private HttpServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final String path = exchange.getRequestURI().getPath();
+                final StringBuilder text = new StringBuilder();
+                text.append("<html><body>").append(path);
+                if (path.startsWith("/large")) while (text.length() < 100000) text.append(" large document");
+                text.append("</body></html>");
+                final byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "text/html");
+                // the chunked documents have no content length
+                exchange.sendResponseHeaders(path.startsWith("/missing") ? 404 : 200, path.contains("chunked") ? 0 : body.length);
+                final OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        });
+        this.server.start();
+    }
+
+    @After
+    public void stopServer() {
+        this.server.stop(0);
+    }
+
+    private DigestURL url(final String path) throws IOException {
+        return new DigestURL("http://127.0.0.1:" + this.server.getAddress().getPort() + path);
+    }
+
+    /**
+     * Loaded documents must be handed to the indexer, a wrong status must be written to the error cache,
+     * and all blocking steps must be done by the workers and not by the threads of the http client.
+     */
+    @Test
+    public void testLoad() throws Exception {
+        final int docs = 6;
+        final TestContext context = new TestContext(docs + 1);
+        final AsyncHTTPLoader loader = new AsyncHTTPLoader(context, 10000, 10, 2, 2, 2);
+        try {
+            for (int i = 0; i < docs; i++) {
+                assertTrue(loader.load(new Request(this.url("/doc" + i + ".html"), null), PROFILE));
+            }
+            assertTrue(loader.load(new Request(this.url("/missing.html"), null), PROFILE));
+            assertTrue("loads are not finished", context.done.await(30, TimeUnit.SECONDS));
+
+            assertEquals(docs, context.indexed.size());
+            final Map<String, String> contents = new HashMap<String, String>();
+            for (final Response response: context.indexed) {
+                contents.put(response.url().getFile(), new String(response.getContent(), StandardCharsets.UTF_8));
+            }
+            for (int i = 0; i < docs; i++) {
+                assertEquals("<html><body>/doc" + i + ".html</body></html>", contents.get("/doc" + i + ".html"));
+            }
+            assertEquals(Collections.singletonList("/missing.html wrong http status code"), context.errors);
+
+            for (final String thread: context.blockingThreads) {
+                assertTrue("blocking step in thread " + thread, thread.startsWith("AsyncHTTPLoader.worker"));
+            }
+
+            // the slots of the finished loads are free again
+            final long timeout = System.currentTimeMillis() + 10000;
+            while (loader.size() > 0 && System.currentTimeMillis() < timeout) Thread.sleep(10);
+            assertEquals(0, loader.size());
+        } finally {
+            loader.close();
+        }
+    }
+
+    /**
+     * Documents which exceed the maximum file size must get the final error of the HTTPLoader,
+     * with and without a content length in the response header.
+     */
+    @Test
+    public void testMaxFileSize() throws Exception {
+        final TestContext context = new TestContext(3);
+        context.maxFileSize = 10000;
+        final AsyncHTTPLoader loader = new AsyncHTTPLoader(context, 10000, 10, 2, 2, 2);
+        try {
+            assertTrue(loader.load(new Request(this.url("/large.html"), null), PROFILE));
+            assertTrue(loader.load(new Request(this.url("/large-chunked.html"), null), PROFILE));
+            assertTrue(loader.load(new Request(this.url("/small-chunked.html"), null), PROFILE));
+            assertTrue("loads are not finished", context.done.await(30, TimeUnit.SECONDS));
+
+            assertEquals(1, context.indexed.size());
+            assertEquals("/small-chunked.html", context.indexed.get(0).url().getFile());
+            assertEquals(2, context.errors.size());
+            assertTrue(context.errors.contains("/large.html file size limit exceeded"));
+            assertTrue(context.errors.contains("/large-chunked.html file size limit exceeded"));
+            assertEquals(FailCategory.FINAL_PROCESS_CONTEXT, context.errorCategories.get("/large.html"));
+            assertEquals(FailCategory.FINAL_PROCESS_CONTEXT, context.errorCategories.get("/large-chunked.html"));
+        } finally {
+            loader.close();
+        }
+    }
+
+}
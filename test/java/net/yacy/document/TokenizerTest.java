@@ -37,6 +37,21 @@ public class TokenizerTest {
         assertEquals("occurence of 'words' ", 2, w.occurrences());
     }
 
+    /**
+     * Test that the word positions are only recorded when requested.
+     */
+    @Test
+    public void testPositions() {
+        String text = "One word is not a sentence because words are just words.";
+        WordCache meaningLib = new WordCache(null);
+
+        Tokenizer t = new Tokenizer(null, text, meaningLib, false, null);
+        assertEquals("positions of 'words' ", 0, t.words.get("words").positions().length);
+
+        t = new Tokenizer(null, text, meaningLib, false, null, true);
+        assertArrayEquals("positions of 'words' ", new int[]{7, 10}, t.words.get("words").positions());
+    }
+
     /**
      * Test of RESULT_NUMB_SENTENCES, of class Tokenizer.
      */
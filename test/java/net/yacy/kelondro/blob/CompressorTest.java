@@ -0,0 +1,166 @@
+/**
+ *  CompressorTest.java
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.blob;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+
+import net.yacy.cora.order.Base64Order;
+import net.yacy.kelondro.index.IndexTest;
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * Unit tests for the Compressor class.
+ */
+public class CompressorTest {
+
+    private static byte[] content(final int i) {
+        final StringBuilder sb = new StringBuilder();
+        while (sb.length() < 2000) sb.append("content of entry ").append(i).append(' ');
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Entries inserted concurrently must be readable from the buffer and, after the
+     * buffer stripes were flushed, from the compressed backend.
+     */
+    @Test
+    public void testConcurrentInsert() throws Exception {
+        final File file = File.createTempFile("CompressorTest", ".heap");
+        FileUtils.deletedelete(file);
+        final Compressor compressor = new Compressor(new Heap(file, 12, Base64Order.enhancedCoder, 1024 * 1024), 64 * 1024, 10000, Deflater.BEST_SPEED);
+        try {
+            final byte[][] keys = new byte[2000][];
+            final Random r = new Random(0);
+            for (int i = 0; i < keys.length; i++) keys[i] = IndexTest.randomHash(r);
+            final Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                final int offset = t;
+                threads[t] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int i = offset; i < keys.length; i += threads.length) compressor.insert(keys[i], content(i));
+                        } catch (final Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            for (final Thread t : threads) t.join();
+
+            assertEquals(0, compressor.getDroppedInserts());
+            assertEquals(keys.length, compressor.size());
+            assertTrue(compressor.getBufferLength() <= compressor.getMaxBufferLength());
+            assertTrue(compressor.getCompressedBytesIn() > 0);
+            assertTrue(compressor.getCompressedBytesOut() < compressor.getCompressedBytesIn());
+            for (int i = 0; i < keys.length; i += 7) assertArrayEquals(content(i), compressor.get(keys[i]));
+
+            compressor.flushAll();
+            assertEquals(0, compressor.getBufferSize());
+            assertEquals(keys.length, compressor.size());
+            for (int i = 0; i < keys.length; i++) assertArrayEquals(content(i), compressor.get(keys[i]));
+
+            compressor.delete(keys[0]);
+            assertFalse(compressor.containsKey(keys[0]));
+            assertEquals(keys.length - 1, compressor.size());
+        } finally {
+            compressor.close(false);
+            FileUtils.deletedelete(file);
+        }
+    }
+
+    /** an html-like document of the given size */
+    private static byte[] document(final int i, final int size) {
+        final StringBuilder sb = new StringBuilder(size);
+        sb.append("<html><head><title>document ").append(i).append("</title></head><body>");
+        int p = 0;
+        while (sb.length() < size - 14) sb.append("<p>paragraph ").append(p++).append(" of document ").append(i).append("</p>\n");
+        sb.setLength(size - 14);
+        sb.append("</body></html>");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Documents of the size of web pages share the buffer size of the web cache: the buffer is not
+     * flushed before it is full, and then only as many documents are compressed as are necessary.
+     */
+    @Test
+    public void testDocuments() throws Exception {
+        final File file = File.createTempFile("CompressorTest", ".heap");
+        FileUtils.deletedelete(file);
+        final long buffersize = 6 * 1024 * 1024; // the buffer size of the web cache
+        final Compressor compressor = new Compressor(new Heap(file, 12, Base64Order.enhancedCoder, 1024 * 1024), buffersize, 1000, Deflater.BEST_SPEED);
+        try {
+            final Random r = new Random(0);
+            final byte[][] keys = new byte[200][];
+            final int[] sizes = new int[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = IndexTest.randomHash(r);
+                sizes[i] = 20 * 1024 + r.nextInt(600 * 1024);
+            }
+
+            // documents which fit into the buffer stay uncompressed
+            for (int i = 0; i < 8; i++) compressor.insert(keys[i], document(i, 300 * 1024));
+            assertEquals(8, compressor.getBufferSize());
+            assertEquals(0, compressor.getCompressedBytesIn());
+
+            // the next document needs room: only some documents are compressed
+            compressor.insert(keys[8], document(8, 300 * 1024));
+            assertTrue(compressor.getBufferSize() > 1);
+            assertTrue(compressor.getBufferLength() <= buffersize);
+
+            final Thread[] threads = new Thread[8];
+            for (int t = 0; t < threads.length; t++) {
+                final int offset = t;
+                threads[t] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int i = 9 + offset; i < keys.length; i += threads.length) compressor.insert(keys[i], document(i, sizes[i]));
+                        } catch (final Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            for (final Thread t : threads) t.join();
+
+            assertEquals(0, compressor.getDroppedInserts());
+            assertEquals(keys.length, compressor.size());
+            assertTrue(compressor.getBufferLength() <= buffersize);
+            for (int i = 0; i < keys.length; i++) assertArrayEquals(document(i, i < 9 ? 300 * 1024 : sizes[i]), compressor.get(keys[i]));
+        } finally {
+            compressor.close(false);
+            FileUtils.deletedelete(file);
+        }
+    }
+
+}
@@ -0,0 +1,215 @@
+/**
+ *  HeapAppendLogTest.java
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.blob;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.yacy.cora.order.Base64Order;
+import net.yacy.kelondro.index.IndexTest;
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * Unit tests for the append log mode of the Heap class. A crash is simulated with a copy of the
+ * files of an open heap.
+ */
+public class HeapAppendLogTest {
+
+    private File dir;
+    private long checkpointInterval;
+
+    @Before
+    public void setUp() throws IOException {
+        this.dir = Files.createTempDirectory("HeapAppendLogTest").toFile();
+        this.checkpointInterval = Heap.checkpointInterval;
+    }
+
+    @After
+    public void tearDown() {
+        Heap.checkpointInterval = this.checkpointInterval;
+        FileUtils.deletedelete(this.dir);
+    }
+
+    private static byte[] content(final int i, final int version) {
+        return ("content " + i + " version " + version + " ").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * insert, replace and delete entries; the expected content after the last commit is returned
+     */
+    private static TreeMap<byte[], byte[]> modify(final Heap heap, final int count) throws IOException {
+        final TreeMap<byte[], byte[]> expected = new TreeMap<byte[], byte[]>(Base64Order.enhancedCoder);
+        final Random r = new Random(0);
+        final List<byte[]> keys = new ArrayList<byte[]>();
+        for (int i = 0; i < count; i++) {
+            final byte[] key = IndexTest.randomHash(r);
+            keys.add(key);
+            heap.insert(key, content(i, 0));
+            expected.put(key, content(i, 0));
+        }
+        for (int i = 0; i < count; i += 3) {
+            heap.insert(keys.get(i), content(i, 1));
+            expected.put(keys.get(i), content(i, 1));
+        }
+        for (int i = 1; i < count; i += 4) {
+            heap.delete(keys.get(i));
+            expected.remove(keys.get(i));
+        }
+        heap.flushBuffer();
+        return expected;
+    }
+
+    /**
+     * copy the files of the heap as they are on disk at this moment
+     */
+    private File crashCopy(final Heap heap, final boolean withCheckpoint) throws IOException {
+        final File crash = new File(this.dir, "crash");
+        crash.mkdirs();
+        final File copy = new File(crash, heap.location().getName());
+        synchronized (heap) {
+            Files.copy(heap.location().toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            final File chk = HeapReader.checkpointFile(heap.location());
+            if (withCheckpoint && chk.exists()) Files.copy(chk.toPath(), HeapReader.checkpointFile(copy).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return copy;
+    }
+
+    private static void assertContent(final Map<byte[], byte[]> expected, final Heap heap) throws Exception {
+        assertEquals(expected.size(), heap.size());
+        for (final Map.Entry<byte[], byte[]> entry: expected.entrySet()) {
+            assertArrayEquals(entry.getValue(), heap.get(entry.getKey()));
+        }
+    }
+
+    /**
+     * After a crash, the heap is recovered from the checkpoint and the end of the log. An incomplete
+     * record at the end of the file is cut off and deleted entries are not restored.
+     */
+    @Test
+    public void testRecoveryFromCheckpoint() throws Exception {
+        Heap.checkpointInterval = 4 * 1024;
+        final Heap heap = new Heap(new File(this.dir, "test.heap"), 12, Base64Order.enhancedCoder, 2048, true);
+        try {
+            final TreeMap<byte[], byte[]> expected = modify(heap, 1000);
+            assertContent(expected, heap);
+            // not committed: must not be found after the crash
+            final byte[] uncommitted = IndexTest.randomHash(new Random(1));
+            heap.insert(uncommitted, content(0, 2));
+            final File copy = crashCopy(heap, true);
+            assertTrue(HeapReader.checkpointFile(copy).exists());
+
+            // the rest of an interrupted commit
+            try (RandomAccessFile raf = new RandomAccessFile(copy, "rw")) {
+                raf.seek(raf.length());
+                raf.writeInt(1000);
+                raf.write(new byte[20]);
+            }
+            final long length = copy.length();
+
+            final Heap recovered = new Heap(copy, 12, Base64Order.enhancedCoder, 2048, true);
+            try {
+                assertEquals(length - 24, copy.length());
+                assertContent(expected, recovered);
+                assertFalse(recovered.containsKey(uncommitted));
+            } finally {
+                recovered.close(true);
+            }
+        } finally {
+            heap.close(true);
+        }
+    }
+
+    /**
+     * Without a checkpoint the tombstones are found by the index scan and the file is replayed;
+     * opened without append log mode, the deleted records are removed from the file.
+     */
+    @Test
+    public void testRecoveryWithoutCheckpoint() throws Exception {
+        final Heap heap = new Heap(new File(this.dir, "test.heap"), 12, Base64Order.enhancedCoder, 2048, true);
+        try {
+            final TreeMap<byte[], byte[]> expected = modify(heap, 500);
+            final File copy = crashCopy(heap, false);
+            assertFalse(HeapReader.checkpointFile(copy).exists());
+
+            Heap recovered = new Heap(copy, 12, Base64Order.enhancedCoder, 2048, false);
+            try {
+                assertContent(expected, recovered);
+                final byte[] key = expected.firstKey();
+                recovered.delete(key);
+                expected.remove(key);
+                assertNull(recovered.get(key));
+            } finally {
+                recovered.close(true);
+            }
+            recovered = new Heap(copy, 12, Base64Order.enhancedCoder, 2048, false);
+            try {
+                assertContent(expected, recovered);
+            } finally {
+                recovered.close(false);
+            }
+        } finally {
+            heap.close(true);
+        }
+    }
+
+    /**
+     * A clean close removes all tombstones and dead records; the file can be used as a normal heap.
+     */
+    @Test
+    public void testCleanClose() throws Exception {
+        final File file = new File(this.dir, "test.heap");
+        Heap heap = new Heap(file, 12, Base64Order.enhancedCoder, 2048, true);
+        final TreeMap<byte[], byte[]> expected = modify(heap, 500);
+        heap.close(true);
+        assertFalse(HeapReader.checkpointFile(file).exists());
+
+        long records = 0;
+        for (final byte[] blob: expected.values()) records += 4 + 12 + blob.length;
+        assertTrue(file.length() >= records);
+
+        heap = new Heap(file, 12, Base64Order.enhancedCoder, 2048, false);
+        try {
+            assertContent(expected, heap);
+            assertTrue(heap.dead.isEmpty());
+            assertTrue(heap.deadSinceCheckpoint.isEmpty());
+        } finally {
+            heap.close(true);
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+/**
+ *  HeapConcurrentReadTest.java
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.blob;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.yacy.cora.order.Base64Order;
+import net.yacy.kelondro.index.IndexTest;
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * Unit tests for the concurrent read path of Heap.get(): readers run without the heap lock
+ * while other threads insert, replace, delete and compact records.
+ */
+public class HeapConcurrentReadTest {
+
+    private static final int KEYS = 64;
+    private static final int READERS = 4;
+    private static final int WRITES = 20000;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        this.dir = Files.createTempDirectory("HeapConcurrentReadTest").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deletedelete(this.dir);
+    }
+
+    /**
+     * the content of a key in a version. The length changes with the version, so that a replaced record
+     * does not fit into the gap of the old one.
+     */
+    private static byte[] content(final int i, final int version) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("key ").append(i).append(" version ").append(version).append(' ');
+        for (int l = (version % 7) * 40; l > 0; l--) sb.append('x');
+        sb.append(" end");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return null if the blob is a complete content of the key i, an error message otherwise
+     */
+    private static String check(final int i, final byte[] blob) {
+        final String s = new String(blob, StandardCharsets.UTF_8);
+        final String prefix = "key " + i + " version ";
+        if (!s.startsWith(prefix)) return "wrong content for key " + i + ": " + s;
+        final int p = s.indexOf(' ', prefix.length());
+        if (p < 0) return "truncated content for key " + i + ": " + s;
+        final int version = Integer.parseInt(s.substring(prefix.length(), p));
+        if (!s.equals(new String(content(i, version), StandardCharsets.UTF_8))) return "inconsistent content for key " + i + ": " + s;
+        return null;
+    }
+
+    private void concurrentReads(final boolean appendLog) throws Exception {
+        final Heap heap = new Heap(new File(this.dir, "test.heap"), 12, Base64Order.enhancedCoder, 1024, appendLog);
+        final byte[][] keys = new byte[KEYS][];
+        final Random r = new Random(0);
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = IndexTest.randomHash(r);
+            heap.insert(keys[i], content(i, 0));
+        }
+        heap.flushBuffer();
+
+        // the keys with an even number are replaced but never deleted, the other keys are also deleted
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final Thread[] readers = new Thread[READERS];
+        for (int t = 0; t < READERS; t++) {
+            final Random rr = new Random(t);
+            readers[t] = new Thread("HeapConcurrentReadTest.reader" + t) {
+                @Override
+                public void run() {
+                    try {
+                        while (running.get() && failure.get() == null) {
+                            final int i = rr.nextInt(KEYS);
+                            final byte[] blob = heap.get(keys[i]);
+                            final String error = blob == null ? (i % 2 == 0 ? "missing key " + i : null) : check(i, blob);
+                            if (error != null) failure.compareAndSet(null, error);
+                        }
+                    } catch (final Throwable e) {
+                        failure.compareAndSet(null, e.toString());
+                    }
+                }
+            };
+            readers[t].start();
+        }
+
+        final int[] versions = new int[KEYS];
+        final boolean[] deleted = new boolean[KEYS];
+        try {
+            for (int n = 0; n < WRITES && failure.get() == null; n++) {
+                final int i = r.nextInt(KEYS);
+                if (i % 2 == 1 && r.nextInt(4) == 0) {
+                    heap.delete(keys[i]);
+                    deleted[i] = true;
+                } else {
+                    heap.insert(keys[i], content(i, ++versions[i]));
+                    deleted[i] = false;
+                }
+                if (n % 100 == 0) heap.flushBuffer();
+                if (n % 1000 == 0) heap.compact(Integer.MAX_VALUE);
+            }
+        } finally {
+            running.set(false);
+            for (final Thread reader: readers) reader.join();
+        }
+        assertNull(failure.get());
+
+        for (int i = 0; i < KEYS; i++) {
+            if (deleted[i]) {
+                assertNull(heap.get(keys[i]));
+            } else {
+                assertArrayEquals(content(i, versions[i]), heap.get(keys[i]));
+            }
+        }
+        assertTrue(heap.isConcurrentRead());
+        heap.close(true);
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        concurrentReads(false);
+    }
+
+    @Test
+    public void testConcurrentReadsAppendLog() throws Exception {
+        concurrentReads(true);
+    }
+
+}
@@ -0,0 +1,134 @@
+// HeapReaderPerfTest.java
+// -----------------------
+// part of YaCy
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package net.yacy.kelondro.blob;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.yacy.cora.order.Base64Order;
+import net.yacy.cora.util.ConcurrentLog;
+import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.index.IndexTest;
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * Measure the throughput of {@link HeapReader#get(byte[])} with an increasing
+ * number of reader threads, with the synchronized read path, with the
+ * concurrent positional read path and with reads from a memory mapping of the
+ * file through {@link HeapReader#get(byte[], HeapReader.BlobReader)}.
+ */
+public class HeapReaderPerfTest {
+
+	/**
+	 * @param args
+	 *            [blobCount] [blobSize] [secondsPerRun]
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException {
+		final int blobCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		final int blobSize = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		final long runTime = TimeUnit.SECONDS.toMillis(args.length > 2 ? Integer.parseInt(args[2]) : 5);
+
+		final File heapFile = File.createTempFile("HeapReaderPerfTest", ".blob");
+		try {
+			// fill a heap file with random blobs
+			final byte[][] keys = new byte[blobCount][];
+			final Random r = new Random(0);
+			final Heap heap = new Heap(heapFile, 12, Base64Order.enhancedCoder, 1024 * 1024);
+			final byte[] blob = new byte[blobSize];
+			for (int i = 0; i < blobCount; i++) {
+				keys[i] = IndexTest.randomHash(r);
+				r.nextBytes(blob);
+				heap.insert(keys[i], blob);
+			}
+			heap.close(true);
+			System.out.println("Heap file with " + blobCount + " blobs of " + blobSize + " bytes: " + (heapFile.length() / 1024 / 1024) + " MB");
+
+			// open the file as it is opened for all but the newest file in an ArrayStack
+			final HeapModifier reader = new HeapModifier(heapFile, 12, Base64Order.enhancedCoder);
+			try {
+				for (final String mode : new String[] { "synchronized", "concurrent", "mapped" }) {
+					reader.setConcurrentRead(!mode.equals("synchronized"));
+					if (mode.equals("mapped")) {
+						reader.map();
+					}
+					for (int threads = 1; threads <= 2 * Runtime.getRuntime().availableProcessors(); threads *= 2) {
+						final long count = run(reader, keys, threads, runTime);
+						System.out.println(mode + " read, " + threads + " threads: " + (count * 1000 / runTime) + " get/s");
+					}
+				}
+			} finally {
+				reader.close(false);
+			}
+		} finally {
+			FileUtils.deletedelete(heapFile);
+			ConcurrentLog.shutdown();
+		}
+	}
+
+	/** copies the blob like the normal read path does, so that all modes deliver the same result */
+	private static final HeapReader.BlobReader<byte[]> COPY = new HeapReader.BlobReader<byte[]>() {
+		@Override
+		public byte[] read(final ByteBuffer blob) {
+			final byte[] b = new byte[blob.remaining()];
+			blob.duplicate().get(b);
+			return b;
+		}
+	};
+
+	private static long run(final HeapReader reader, final byte[][] keys, final int threadCount, final long runTime) {
+		final AtomicLong count = new AtomicLong(0);
+		final long stop = System.currentTimeMillis() + runTime;
+		final Thread[] threads = new Thread[threadCount];
+		for (int t = 0; t < threadCount; t++) {
+			final Random r = new Random(t);
+			threads[t] = new Thread("HeapReaderPerfTest.reader-" + t) {
+				@Override
+				public void run() {
+					long c = 0;
+					try {
+						while (System.currentTimeMillis() < stop) {
+							final byte[] key = keys[r.nextInt(keys.length)];
+							final Object blob = reader.isMapped() ? reader.get(key, COPY) : reader.get(key);
+							if (blob == null) throw new IOException("blob not found");
+							c++;
+						}
+					} catch (final IOException | SpaceExceededException e) {
+						e.printStackTrace();
+					}
+					count.addAndGet(c);
+				}
+			};
+			threads[t].start();
+		}
+		for (final Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return count.get();
+	}
+
+}
@@ -0,0 +1,92 @@
+/**
+ *  PositionReferenceTest.java
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.data.word;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import net.yacy.cora.document.id.DigestURL;
+
+/**
+ * Unit tests for the PositionReference class.
+ */
+public class PositionReferenceTest {
+
+    private static PositionReference reference(final int... positions) throws Exception {
+        return new PositionReference(new DigestURL("http://host.org/").hash(), positions);
+    }
+
+    @Test
+    public void testPositions() throws Exception {
+        final int[] positions = new int[]{1, 2, 130, 20000, 20001};
+        final PositionReference r = reference(positions);
+        assertEquals(5, r.count());
+        assertArrayEquals(positions, r.positionArray());
+        assertTrue(r.isComplete());
+        assertEquals(1, r.posintext());
+        assertEquals(Arrays.asList(1, 2, 130, 20000, 20001), r.positions());
+
+        // the reference is stored as row and read again
+        final PositionReference s = new PositionReferenceFactory().produceSlow(PositionReference.positionRow.newEntry(r.toKelondroEntry().bytes()));
+        assertArrayEquals(positions, s.positionArray());
+    }
+
+    /**
+     * Positions which do not fit into the cell are cut off.
+     */
+    @Test
+    public void testTruncation() throws Exception {
+        final int[] positions = new int[100];
+        for (int i = 0; i < positions.length; i++) positions[i] = 1000 * (i + 1);
+        final PositionReference r = reference(positions);
+        assertEquals(100, r.count());
+        final int[] stored = r.positionArray();
+        assertTrue(stored.length > 0 && stored.length < 100);
+        assertArrayEquals(Arrays.copyOf(positions, stored.length), stored);
+        assertFalse(r.isComplete());
+    }
+
+    @Test
+    public void testContainsPhrase() throws Exception {
+        assertEquals(Boolean.TRUE, PositionReference.containsPhrase(new PositionReference[]{reference(5, 10), reference(11), reference(3, 12)}));
+        assertEquals(Boolean.FALSE, PositionReference.containsPhrase(new PositionReference[]{reference(5, 10), reference(12)}));
+        assertNull(PositionReference.containsPhrase(new PositionReference[]{reference(5, 10), null}));
+
+        // a phrase which is not in the stored positions of an incomplete reference may still be in the text
+        final int[] many = new int[100];
+        for (int i = 0; i < many.length; i++) many[i] = 1000 * (i + 1);
+        assertNull(PositionReference.containsPhrase(new PositionReference[]{reference(many), reference(99001)}));
+        assertEquals(Boolean.TRUE, PositionReference.containsPhrase(new PositionReference[]{reference(many), reference(1001)}));
+    }
+
+    @Test
+    public void testMinimalWindow() throws Exception {
+        assertEquals(4, PositionReference.minimalWindow(new PositionReference[]{reference(1, 50), reference(20, 52), reference(48)}));
+        assertEquals(1, PositionReference.minimalWindow(new PositionReference[]{reference(1, 7), reference(8)}));
+        assertEquals(-1, PositionReference.minimalWindow(new PositionReference[]{reference(1), null}));
+    }
+
+}
@@ -0,0 +1,66 @@
+/**
+ *  BloomFilterTest.java
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * Unit tests for the BloomFilter class.
+ */
+public class BloomFilterTest {
+
+    /**
+     * All added keys must be found, also after the filter was written and read again,
+     * and the false positive rate must be near the configured rate.
+     */
+    @Test
+    public void testMightContain() throws Exception {
+        final Random r = new Random(0);
+        final List<byte[]> keys = new ArrayList<byte[]>();
+        for (int i = 0; i < 10000; i++) keys.add(IndexTest.randomHash(r));
+        final BloomFilter bloom = BloomFilter.build(12, keys.iterator(), keys.size());
+        for (final byte[] key : keys) assertTrue(bloom.mightContain(key));
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) if (bloom.mightContain(IndexTest.randomHash(r))) falsePositives++;
+        assertTrue("false positives: " + falsePositives, falsePositives < 10000 * BloomFilter.defaultFalsePositiveRate * 2);
+
+        final File file = File.createTempFile("BloomFilterTest", ".blm");
+        try {
+            bloom.dump(file);
+            final BloomFilter read = new BloomFilter(file);
+            assertEquals(bloom.mem(), read.mem());
+            assertEquals(12, read.keylength());
+            for (final byte[] key : keys) assertTrue(read.mightContain(key));
+        } finally {
+            FileUtils.deletedelete(file);
+        }
+    }
+
+}
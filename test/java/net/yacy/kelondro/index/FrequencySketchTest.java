@@ -0,0 +1,124 @@
+/**
+ *  FrequencySketchTest.java
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * Unit tests for the FrequencySketch class.
+ */
+public class FrequencySketchTest {
+
+    /**
+     * Estimates must never be smaller than the added values, the largest values must be exact,
+     * and most other values must be exact as well, also after the sketch was written and read again.
+     */
+    @Test
+    public void testEstimate() throws Exception {
+        final Random r = new Random(0);
+        final List<byte[]> keys = new ArrayList<byte[]>();
+        final List<Long> values = new ArrayList<Long>();
+        for (int i = 0; i < 20000; i++) {
+            keys.add(IndexTest.randomHash(r));
+            // a skewed distribution: few keys have large values
+            values.add(i % 500 == 0 ? 100000L + r.nextInt(100000) : 1L + r.nextInt(100));
+        }
+        final FrequencySketch sketch = new FrequencySketch(12, keys.size(), FrequencySketch.defaultTopSize);
+        for (int i = 0; i < keys.size(); i++) sketch.add(keys.get(i), values.get(i));
+
+        final File file = File.createTempFile("FrequencySketchTest", ".cms");
+        try {
+            sketch.dump(file);
+            final FrequencySketch read = new FrequencySketch(file);
+            assertEquals(sketch.mem(), read.mem());
+            int exact = 0;
+            for (int i = 0; i < keys.size(); i++) {
+                final long v = values.get(i);
+                final long e = sketch.estimate(keys.get(i));
+                assertTrue(e >= v);
+                assertEquals(e, read.estimate(keys.get(i)));
+                if (v >= 100000L) assertEquals(v, e); // in the exact table
+                if (e == v) exact++;
+            }
+            assertTrue("exact estimates: " + exact, exact > keys.size() * 3 / 4);
+        } finally {
+            FileUtils.deletedelete(file);
+        }
+    }
+
+    /**
+     * Mounted sketches must stay within the memory budget: a sketch which does not fit is folded
+     * to a smaller width and still gives upper bounds, and no sketch is mounted if the budget is exhausted.
+     */
+    @Test
+    public void testMountBudget() throws Exception {
+        final Random r = new Random(1);
+        final List<byte[]> keys = new ArrayList<byte[]>();
+        final FrequencySketch sketch = new FrequencySketch(12, 50000, FrequencySketch.defaultTopSize);
+        for (int i = 0; i < 50000; i++) {
+            final byte[] key = IndexTest.randomHash(r);
+            keys.add(key);
+            sketch.add(key, 1 + (i % 100));
+        }
+        final File file = File.createTempFile("FrequencySketchTest", ".cms");
+        final long limit = FrequencySketch.memoryLimit;
+        final long used = FrequencySketch.memoryUsed();
+        try {
+            sketch.dump(file);
+            FrequencySketch.memoryLimit = used + sketch.mem() + sketch.mem() / 2;
+            final FrequencySketch full = FrequencySketch.mount(file);
+            assertEquals(sketch.width(), full.width());
+            assertEquals(used + full.mem(), FrequencySketch.memoryUsed());
+
+            // the rest of the budget allows only a quarter of the width
+            final FrequencySketch folded = FrequencySketch.mount(file);
+            assertEquals(sketch.width() / 4, folded.width());
+            assertTrue(FrequencySketch.memoryUsed() <= FrequencySketch.memoryLimit);
+            for (int i = 0; i < keys.size(); i++) {
+                final long e = sketch.estimate(keys.get(i));
+                assertEquals(e, full.estimate(keys.get(i)));
+                assertTrue(folded.estimate(keys.get(i)) >= e);
+            }
+
+            FrequencySketch.memoryLimit = FrequencySketch.memoryUsed() + 1000; // not enough for the smallest width
+            assertNull(FrequencySketch.mount(file));
+            assertEquals(used + full.mem() + folded.mem(), FrequencySketch.memoryUsed());
+            folded.release();
+            folded.release(); // only once
+            assertEquals(used + full.mem(), FrequencySketch.memoryUsed());
+            full.release();
+            assertEquals(used, FrequencySketch.memoryUsed());
+        } finally {
+            FrequencySketch.memoryLimit = limit;
+            FileUtils.deletedelete(file);
+        }
+    }
+
+}
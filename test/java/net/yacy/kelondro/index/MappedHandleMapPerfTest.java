@@ -0,0 +1,106 @@
+// MappedHandleMapPerfTest.java
+// ----------------------------
+// part of YaCy
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package net.yacy.kelondro.index;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import net.yacy.cora.order.Base64Order;
+import net.yacy.cora.order.NaturalOrder;
+import net.yacy.cora.storage.HandleMap;
+import net.yacy.cora.util.ConcurrentLog;
+import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * Compare the time and the java heap that is needed to open an index dump of a heap file as
+ * {@link RowHandleMap} (which loads all entries) and as {@link MappedHandleMap} (which maps the file),
+ * and the lookup rate of both afterwards. The dump is written directly with synthetic keys in
+ * ascending order, so that also dumps with 100M keys can be generated without holding them in memory.
+ * Run with a heap large enough for the RowHandleMap, i.e. -Xmx8g for 100M keys.
+ */
+public class MappedHandleMapPerfTest {
+
+    private static final int keylength = 12;
+
+    /**
+     * @param args [keyCount] [lookups]
+     */
+    public static void main(final String[] args) throws IOException, SpaceExceededException {
+        final long keyCount = args.length > 0 ? Long.parseLong(args[0]) : 10000000L;
+        final int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        final File dump = File.createTempFile("MappedHandleMapPerfTest", ".idx");
+        try {
+            final long step = Long.MAX_VALUE / 4 / keyCount; // spread the keys over the key space; 12 base64 characters have 72 bits
+            long start = System.currentTimeMillis();
+            writeDump(dump, keyCount, step);
+            System.out.println("wrote dump with " + keyCount + " entries, " + (dump.length() / 1024 / 1024) + " MB in " + (System.currentTimeMillis() - start) + " ms");
+
+            for (final String mode : new String[] { "mapped", "loaded" }) {
+                final long heap0 = usedHeap();
+                start = System.currentTimeMillis();
+                final HandleMap map = mode.equals("mapped")
+                        ? new MappedHandleMap(keylength, Base64Order.enhancedCoder, 8, dump)
+                        : new RowHandleMap(keylength, Base64Order.enhancedCoder, 8, dump);
+                final long openTime = System.currentTimeMillis() - start;
+                final long heap1 = usedHeap();
+                System.out.println(mode + ": open in " + openTime + " ms, heap " + ((heap1 - heap0) / 1024 / 1024) + " MB, size = " + map.size());
+
+                final Random r = new Random(0);
+                start = System.currentTimeMillis();
+                for (int i = 0; i < lookups; i++) {
+                    final long n = (r.nextLong() & Long.MAX_VALUE) % keyCount;
+                    if (map.get(key(n, step)) != n) throw new IOException("wrong value for entry " + n);
+                }
+                final long lookupTime = Math.max(1, System.currentTimeMillis() - start);
+                System.out.println(mode + ": " + (lookups * 1000L / lookupTime) + " get/s");
+                map.close();
+            }
+        } finally {
+            FileUtils.deletedelete(dump);
+            ConcurrentLog.shutdown();
+        }
+    }
+
+    private static byte[] key(final long n, final long step) {
+        return Base64Order.enhancedCoder.encodeLongBA(n * step, keylength);
+    }
+
+    /** write the entries in the format of RowHandleMap.dump(): key and the entry number as 8 byte b256 value */
+    private static void writeDump(final File file, final long keyCount, final long step) throws IOException {
+        final byte[] b = new byte[keylength + 8];
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file), 4 * 1024 * 1024)) {
+            for (long n = 0; n < keyCount; n++) {
+                Base64Order.enhancedCoder.encodeLong(n * step, b, 0, keylength);
+                NaturalOrder.encodeLong(n, b, keylength, 8);
+                os.write(b);
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) System.gc();
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
+}
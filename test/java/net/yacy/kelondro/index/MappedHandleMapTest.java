@@ -0,0 +1,109 @@
+/**
+ *  MappedHandleMapTest.java
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.index;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import net.yacy.cora.order.Base64Order;
+import net.yacy.cora.order.CloneableIterator;
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * Unit tests for the MappedHandleMap class.
+ */
+public class MappedHandleMapTest {
+
+    /**
+     * The mapped dump together with the overlay must behave like a RowHandleMap
+     * that received the same modifications.
+     */
+    @Test
+    public void testOverlay() throws Exception {
+        final File dump = File.createTempFile("MappedHandleMapTest", ".idx");
+        final File redump = File.createTempFile("MappedHandleMapTest", ".idx");
+        try {
+            final Random r = new Random(0);
+            final RowHandleMap reference = new RowHandleMap(12, Base64Order.enhancedCoder, 8, 1000, "reference");
+            final TreeMap<byte[], Long> expected = new TreeMap<byte[], Long>(Base64Order.enhancedCoder);
+            for (int i = 0; i < 1000; i++) {
+                final byte[] key = IndexTest.randomHash(r);
+                reference.put(key, i);
+                expected.put(key, (long) i);
+            }
+            reference.dump(dump);
+
+            final MappedHandleMap map = new MappedHandleMap(12, Base64Order.enhancedCoder, 8, dump);
+            assertEquals(expected.size(), map.size());
+            for (final byte[] key : expected.keySet()) assertEquals(expected.get(key).longValue(), map.get(key));
+
+            // modify the map: replace, remove and add entries
+            final byte[][] keys = expected.keySet().toArray(new byte[expected.size()][]);
+            for (int i = 0; i < 100; i++) {
+                assertEquals(expected.put(keys[i], 5000L + i).longValue(), map.put(keys[i], 5000L + i));
+            }
+            for (int i = 100; i < 200; i++) {
+                assertEquals(expected.remove(keys[i]).longValue(), map.remove(keys[i]));
+                assertEquals(-1, map.remove(keys[i]));
+                assertFalse(map.has(keys[i]));
+            }
+            for (int i = 0; i < 100; i++) {
+                final byte[] key = IndexTest.randomHash(r);
+                expected.put(key, 9000L + i);
+                map.put(key, 9000L + i);
+            }
+            assertTrue(map.overlaySize() > 0);
+            assertEquals(expected.size(), map.size());
+            assertArrayEquals(expected.firstKey(), map.smallestKey());
+            assertArrayEquals(expected.lastKey(), map.largestKey());
+
+            // the iteration must deliver the merged content in order in both directions
+            CloneableIterator<byte[]> i = map.keys(true, null);
+            for (final byte[] key : expected.keySet()) assertArrayEquals(key, i.next());
+            assertFalse(i.hasNext());
+            i = map.keys(false, null);
+            for (final byte[] key : expected.descendingKeySet()) assertArrayEquals(key, i.next());
+            assertFalse(i.hasNext());
+            final byte[] middle = keys[500];
+            i = map.keys(true, middle);
+            for (final byte[] key : expected.tailMap(middle, true).keySet()) assertArrayEquals(key, i.next());
+            assertFalse(i.hasNext());
+
+            // a dump of the modified map can be mapped again and has the same content
+            assertEquals(expected.size(), map.dump(redump));
+            map.close();
+            final MappedHandleMap remapped = new MappedHandleMap(12, Base64Order.enhancedCoder, 8, redump);
+            assertEquals(expected.size(), remapped.size());
+            for (final byte[] key : expected.keySet()) assertEquals(expected.get(key).longValue(), remapped.get(key));
+            remapped.close();
+        } finally {
+            FileUtils.deletedelete(dump);
+            FileUtils.deletedelete(redump);
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+// OffHeapHandleMapPerfTest.java
+// -----------------------------
+// part of YaCy
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package net.yacy.kelondro.index;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.yacy.cora.order.Base64Order;
+import net.yacy.cora.storage.HandleMap;
+import net.yacy.cora.util.ConcurrentLog;
+import net.yacy.cora.util.SpaceExceededException;
+
+/**
+ * Compare {@link RowHandleMap} and {@link OffHeapHandleMap}: the time to insert keys, the java heap
+ * that is used afterwards, the garbage collection time and the lookup rate with several threads.
+ * Each implementation is measured in a warmed-up second round. Run with a heap large enough for the
+ * RowHandleMap and enough direct memory for the OffHeapHandleMap, i.e.
+ * -Xmx8g -XX:MaxDirectMemorySize=8g for 100M keys. The RowHandleMap is slow with unsorted puts, so the
+ * default is a small key count.
+ */
+public class OffHeapHandleMapPerfTest {
+
+    private static final int keylength = 12;
+
+    /**
+     * @param args [keyCount] [lookups per thread] [threads]
+     */
+    public static void main(final String[] args) throws IOException, SpaceExceededException, InterruptedException {
+        final int keyCount = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        final int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        final int threads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        // the lookups of existing keys use the first keys of the insertion sequence
+        final Random r = new Random(0);
+        final byte[][] sample = new byte[Math.min(keyCount, 1000000)][];
+        for (int i = 0; i < sample.length; i++) sample[i] = IndexTest.randomHash(r);
+        try {
+            for (int round = 0; round < 2; round++) {
+                for (final String mode : new String[] { "row", "offheap" }) {
+                    run(mode, round == 1, keyCount, sample, lookups, threads);
+                }
+            }
+        } finally {
+            ConcurrentLog.shutdown();
+        }
+    }
+
+    private static void run(final String mode, final boolean report, final int keyCount, final byte[][] sample, final int lookups, final int threads) throws SpaceExceededException, InterruptedException {
+        final long heap0 = usedHeap();
+        final long gc0 = gcTime();
+        long start = System.currentTimeMillis();
+        final HandleMap map = mode.equals("offheap")
+                ? new OffHeapHandleMap(keylength, Base64Order.enhancedCoder, 8, 100000, mode)
+                : new RowHandleMap(keylength, Base64Order.enhancedCoder, 8, 100000, mode);
+        final Random r = new Random(0);
+        for (int i = 0; i < keyCount; i++) map.put(IndexTest.randomHash(r), i);
+        final long putTime = Math.max(1, System.currentTimeMillis() - start);
+        final long heap1 = usedHeap();
+        final long gc1 = gcTime();
+
+        // every 16th lookup is done with a random key which is not in the map
+        final AtomicLong misses = new AtomicLong(0);
+        final Thread[] t = new Thread[threads];
+        start = System.currentTimeMillis();
+        for (int i = 0; i < threads; i++) {
+            final int seed = i;
+            t[i] = new Thread() {
+                @Override
+                public void run() {
+                    final Random q = new Random(-1 - seed); // not the seed of the inserted keys
+                    for (int j = 0; j < lookups; j++) {
+                        if ((j & 15) == 0) {
+                            if (map.get(IndexTest.randomHash(q)) >= 0) misses.incrementAndGet();
+                        } else if (map.get(sample[q.nextInt(sample.length)]) < 0) {
+                            misses.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            t[i].start();
+        }
+        for (final Thread thread: t) thread.join();
+        final long getTime = Math.max(1, System.currentTimeMillis() - start);
+        if (report) {
+            System.out.println(mode + ": " + keyCount + " puts in " + putTime + " ms (" + (keyCount * 1000L / putTime) + " put/s), heap " + ((heap1 - heap0) / 1024 / 1024) + " MB, mem() " + (map.mem() / 1024 / 1024) + " MB, gc " + (gc1 - gc0) + " ms");
+            System.out.println(mode + ": " + (threads * (long) lookups * 1000L / getTime) + " get/s with " + threads + " threads, unexpected results: " + misses.get());
+        }
+        map.close();
+    }
+
+    private static long gcTime() {
+        long t = 0;
+        for (final GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) t += Math.max(0, gc.getCollectionTime());
+        return t;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) System.gc();
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
+}
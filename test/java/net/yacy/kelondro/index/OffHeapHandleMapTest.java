@@ -0,0 +1,210 @@
+/**
+ *  OffHeapHandleMapTest.java
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.index;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import net.yacy.cora.order.Base64Order;
+import net.yacy.cora.order.CloneableIterator;
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * Unit tests for the OffHeapHandleMap class.
+ */
+public class OffHeapHandleMapTest {
+
+    /**
+     * The map must behave like a sorted map after random puts and removes,
+     * also when the tables grow from a small initial size.
+     */
+    @Test
+    public void testPutRemoveIterate() throws Exception {
+        final Random r = new Random(0);
+        final OffHeapHandleMap map = new OffHeapHandleMap(12, Base64Order.enhancedCoder, 8, 10, "test");
+        final TreeMap<byte[], Long> expected = new TreeMap<byte[], Long>(Base64Order.enhancedCoder);
+        final List<byte[]> keys = new ArrayList<byte[]>();
+        for (int i = 0; i < 20000; i++) {
+            final byte[] key = IndexTest.randomHash(r);
+            keys.add(key);
+            final Long o = expected.put(key, (long) i);
+            assertEquals(o == null ? -1 : o.longValue(), map.put(key, i));
+        }
+        for (int i = 0; i < 5000; i++) {
+            final byte[] key = keys.get(r.nextInt(keys.size()));
+            final Long o = expected.remove(key);
+            assertEquals(o == null ? -1 : o.longValue(), map.remove(key));
+            assertFalse(map.has(key));
+        }
+        assertEquals(expected.size(), map.size());
+        for (final byte[] key : keys) {
+            final Long v = expected.get(key);
+            assertEquals(v == null ? -1 : v.longValue(), map.get(key));
+        }
+        assertArrayEquals(expected.firstKey(), map.smallestKey());
+        assertArrayEquals(expected.lastKey(), map.largestKey());
+
+        CloneableIterator<byte[]> i = map.keys(true, null);
+        for (final byte[] key : expected.keySet()) assertArrayEquals(key, i.next());
+        assertFalse(i.hasNext());
+        i = map.keys(false, null);
+        for (final byte[] key : expected.descendingKeySet()) assertArrayEquals(key, i.next());
+        assertFalse(i.hasNext());
+        final byte[] middle = IndexTest.randomHash(r);
+        i = map.keys(true, middle);
+        for (final byte[] key : expected.tailMap(middle, true).keySet()) assertArrayEquals(key, i.next());
+        assertFalse(i.hasNext());
+        i = map.keys(false, middle);
+        for (final byte[] key : expected.headMap(middle, true).descendingKeySet()) assertArrayEquals(key, i.next());
+        assertFalse(i.hasNext());
+
+        assertEquals(expected.get(expected.firstKey()).longValue() + 3, map.add(expected.firstKey(), 3));
+        assertEquals(1, map.inc(middle));
+        map.clear();
+        assertTrue(map.isEmpty());
+        map.close();
+    }
+
+    /**
+     * Iterations after changes to the sorted runs must merge the runs with the changes,
+     * and an iteration must not see the changes which are done after it was started.
+     */
+    @Test
+    public void testIterateAfterChanges() throws Exception {
+        final Random r = new Random(2);
+        final OffHeapHandleMap map = new OffHeapHandleMap(12, Base64Order.enhancedCoder, 8, 100000, "changes");
+        final TreeMap<byte[], Long> expected = new TreeMap<byte[], Long>(Base64Order.enhancedCoder);
+        final List<byte[]> keys = new ArrayList<byte[]>();
+        for (int i = 0; i < 100000; i++) {
+            final byte[] key = IndexTest.randomHash(r);
+            keys.add(key);
+            expected.put(key, (long) i);
+            map.put(key, i);
+        }
+        // small and large numbers of changes: the first rounds are kept in the deltas, the last ones replace the runs
+        for (final int changes : new int[] {10, 100, 1000, 10000, 200000}) {
+            final TreeMap<byte[], Long> before = new TreeMap<byte[], Long>(expected);
+            final CloneableIterator<byte[]> running = map.keys(true, null);
+            for (int i = 0; i < changes; i++) {
+                if (r.nextBoolean()) {
+                    final byte[] key = keys.get(r.nextInt(keys.size()));
+                    expected.remove(key);
+                    map.remove(key);
+                } else {
+                    final byte[] key = r.nextBoolean() ? keys.get(r.nextInt(keys.size())) : IndexTest.randomHash(r);
+                    keys.add(key);
+                    expected.put(key, (long) -i);
+                    map.put(key, -i);
+                }
+            }
+            for (final byte[] key : before.keySet()) assertArrayEquals(key, running.next());
+            assertFalse(running.hasNext());
+
+            final Iterator<Map.Entry<byte[], Long>> i = map.iterator();
+            for (final Map.Entry<byte[], Long> e : expected.entrySet()) {
+                final Map.Entry<byte[], Long> n = i.next();
+                assertArrayEquals(e.getKey(), n.getKey());
+                assertEquals(e.getValue(), n.getValue());
+            }
+            assertFalse(i.hasNext());
+            final byte[] middle = IndexTest.randomHash(r);
+            CloneableIterator<byte[]> k = map.keys(false, middle);
+            for (final byte[] key : expected.headMap(middle, true).descendingKeySet()) assertArrayEquals(key, k.next());
+            assertFalse(k.hasNext());
+            k = map.keys(true, middle);
+            for (final byte[] key : expected.tailMap(middle, true).keySet()) assertArrayEquals(key, k.next());
+            assertFalse(k.hasNext());
+        }
+        map.close();
+    }
+
+    /**
+     * The dumps of OffHeapHandleMap and RowHandleMap must be interchangeable.
+     */
+    @Test
+    public void testDumpCompatibility() throws Exception {
+        final File dump = File.createTempFile("OffHeapHandleMapTest", ".idx");
+        final File redump = File.createTempFile("OffHeapHandleMapTest", ".idx");
+        try {
+            final Random r = new Random(1);
+            final RowHandleMap reference = new RowHandleMap(12, Base64Order.enhancedCoder, 8, 1000, "reference");
+            for (int i = 0; i < 1000; i++) reference.put(IndexTest.randomHash(r), i * 1000L);
+            reference.dump(dump);
+
+            final OffHeapHandleMap map = new OffHeapHandleMap(12, Base64Order.enhancedCoder, 8, dump);
+            assertEquals(reference.size(), map.size());
+            for (final Map.Entry<byte[], Long> e : reference) assertEquals(e.getValue().longValue(), map.get(e.getKey()));
+
+            assertEquals(reference.size(), map.dump(redump));
+            final RowHandleMap reread = new RowHandleMap(12, Base64Order.enhancedCoder, 8, redump);
+            assertEquals(reference.size(), reread.size());
+            for (final Map.Entry<byte[], Long> e : reference) assertEquals(e.getValue().longValue(), reread.get(e.getKey()));
+            map.close();
+            reread.close();
+            reference.close();
+        } finally {
+            FileUtils.deletedelete(dump);
+            FileUtils.deletedelete(redump);
+        }
+    }
+
+    /**
+     * Concurrent writers on different keys must not lose entries.
+     */
+    @Test
+    public void testConcurrentPut() throws Exception {
+        final OffHeapHandleMap map = new OffHeapHandleMap(12, Base64Order.enhancedCoder, 8, 100, "concurrent");
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    final Random r = new Random(seed);
+                    try {
+                        for (int i = 0; i < 10000; i++) map.put(IndexTest.randomHash(r), i);
+                    } catch (final Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (final Thread t : threads) t.join();
+        assertEquals(threads.length * 10000, map.size());
+        for (int t = 0; t < threads.length; t++) {
+            final Random r = new Random(t);
+            for (int i = 0; i < 10000; i++) assertEquals(i, map.get(IndexTest.randomHash(r)));
+        }
+        map.close();
+    }
+
+}
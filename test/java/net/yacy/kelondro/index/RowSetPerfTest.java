@@ -0,0 +1,99 @@
+// RowSetPerfTest.java
+// -------------------
+// part of YaCy
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package net.yacy.kelondro.index;
+
+import java.util.Random;
+
+import net.yacy.cora.order.Base64Order;
+import net.yacy.cora.util.ConcurrentLog;
+import net.yacy.cora.util.SpaceExceededException;
+
+/**
+ * Compare the sort of a {@link RowSet} by comparison of the keys ("compare") with the sort by the
+ * sort prefixes of the keys ("prefix", see {@link Base64Order#sortPrefix(byte[], int, int)}): the time to
+ * sort unsorted rows, to look up keys in a set that was filled unsorted, and to merge two unsorted sets.
+ * Each mode is measured in a warmed-up last round.
+ */
+public class RowSetPerfTest {
+
+    private static final Row row = new Row("byte[] key-12, Cardinal value-8 {b256}", Base64Order.enhancedCoder);
+
+    /**
+     * @param args [rowCount] [lookups] [rounds]
+     */
+    public static void main(final String[] args) throws SpaceExceededException {
+        final int rowCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        final Random r = new Random(0);
+        final byte[][] keys = new byte[rowCount][];
+        for (int i = 0; i < rowCount; i++) keys[i] = IndexTest.randomHash(r);
+        try {
+            for (int round = 0; round < rounds; round++) {
+                for (final String mode : new String[] { "compare", "prefix" }) {
+                    RowCollection.sortByPrefix = mode.equals("prefix");
+                    run(mode, round == rounds - 1, keys, lookups);
+                }
+            }
+        } finally {
+            RowCollection.sortByPrefix = true;
+            ConcurrentLog.shutdown();
+        }
+    }
+
+    private static RowSet fill(final byte[][] keys, final int from, final int to) throws SpaceExceededException {
+        final RowSet set = new RowSet(row, to - from);
+        for (int i = from; i < to; i++) {
+            final Row.Entry entry = row.newEntry();
+            entry.setCol(0, keys[i]);
+            entry.setCol(1, i);
+            set.addUnique(entry);
+        }
+        return set;
+    }
+
+    private static void run(final String mode, final boolean report, final byte[][] keys, final int lookups) throws SpaceExceededException {
+        // sort
+        RowSet set = fill(keys, 0, keys.length);
+        long start = System.nanoTime();
+        set.sort();
+        final long sortTime = System.nanoTime() - start;
+
+        // lookups in a set which is filled unsorted; the first lookup sorts the set
+        set = fill(keys, 0, keys.length);
+        final Random q = new Random(1);
+        int found = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) if (set.has(keys[q.nextInt(keys.length)])) found++;
+        final long lookupTime = System.nanoTime() - start;
+
+        // merge of two unsorted sets
+        final RowSet a = fill(keys, 0, keys.length / 2), b = fill(keys, keys.length / 2, keys.length);
+        start = System.nanoTime();
+        final RowSet merged = a.merge(b);
+        final long mergeTime = System.nanoTime() - start;
+
+        if (report) {
+            System.out.println(mode + ": sort of " + keys.length + " rows " + (sortTime / 1000000) + " ms");
+            System.out.println(mode + ": " + lookups + " lookups " + (lookupTime / 1000000) + " ms, found " + found);
+            System.out.println(mode + ": merge to " + merged.size() + " rows " + (mergeTime / 1000000) + " ms");
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+/**
+ *  RowSetTest.java
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.index;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import net.yacy.cora.document.encoding.ASCII;
+import net.yacy.cora.order.Base64Order;
+
+/**
+ * Unit tests for the RowSet class.
+ */
+public class RowSetTest {
+
+    private static final Row row = new Row("byte[] key-12, Cardinal value-4 {b256}", Base64Order.enhancedCoder);
+
+    @After
+    public void tearDown() {
+        RowCollection.sortByPrefix = true;
+    }
+
+    private static RowSet fill(final byte[][] keys) throws Exception {
+        final RowSet set = new RowSet(row, keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            final Row.Entry entry = row.newEntry();
+            entry.setCol(0, keys[i]);
+            entry.setCol(1, i);
+            set.addUnique(entry);
+        }
+        return set;
+    }
+
+    private static byte[][] keys(final RowSet set) {
+        final byte[][] keys = new byte[set.size()][];
+        for (int i = 0; i < keys.length; i++) keys[i] = set.get(i, true).getPrimaryKeyBytes();
+        return keys;
+    }
+
+    /**
+     * The order of the sort prefixes must be the order of the keys.
+     */
+    @Test
+    public void testSortPrefix() {
+        final Random r = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            final byte[] a = IndexTest.randomHash(r), b = IndexTest.randomHash(r);
+            final long pa = Base64Order.enhancedCoder.sortPrefix(a, 0, a.length), pb = Base64Order.enhancedCoder.sortPrefix(b, 0, b.length);
+            assertTrue(pa >= 0 && pb >= 0);
+            final int c = Base64Order.enhancedCoder.compare(a, b);
+            if (pa != pb) assertEquals(c, Long.signum(pa - pb));
+        }
+        assertEquals(-1, Base64Order.enhancedCoder.sortPrefix(ASCII.getBytes("AAAA.AAAAAAA"), 0, 12));
+    }
+
+    /**
+     * The prefix sort must give the same order as the sort by comparison of keys, also for keys with equal prefixes and double keys.
+     */
+    @Test
+    public void testSortByPrefix() throws Exception {
+        final Random r = new Random(1);
+        final byte[][] keys = new byte[5000][];
+        for (int i = 0; i < keys.length; i++) {
+            if (i % 10 == 0 && i > 0) {
+                // the same first ten characters as another key
+                keys[i] = keys[r.nextInt(i)].clone();
+                keys[i][11] = Base64Order.alpha_enhanced[r.nextInt(64)];
+            } else if (i % 17 == 0 && i > 0) {
+                keys[i] = keys[r.nextInt(i)].clone();
+            } else {
+                keys[i] = IndexTest.randomHash(r);
+            }
+        }
+        final RowSet prefixSorted = fill(keys);
+        prefixSorted.sort();
+        RowCollection.sortByPrefix = false;
+        final RowSet compareSorted = fill(keys);
+        compareSorted.sort();
+
+        final byte[][] p = keys(prefixSorted), c = keys(compareSorted);
+        assertEquals(keys.length, p.length);
+        for (int i = 0; i < p.length; i++) {
+            assertArrayEquals(c[i], p[i]);
+            if (i > 0) assertTrue(Base64Order.enhancedCoder.compare(p[i - 1], p[i]) <= 0);
+        }
+        // the values are moved together with the keys
+        for (int i = 0; i < p.length; i++) assertArrayEquals(keys[(int) prefixSorted.get(i, false).getColLong(1)], p[i]);
+    }
+
+}
@@ -0,0 +1,91 @@
+// ScalableBloomFilterPerfTest.java
+// -------------------
+// part of YaCy
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package net.yacy.kelondro.index;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import net.yacy.cora.document.encoding.ASCII;
+
+/**
+ * Simulate the url seen filter of the crawl stacker: the filter is built for an index of known urls,
+ * but was sized for a tenth of them so that it has to grow. Then a stream of links is checked, where a
+ * part of the links is known and each unknown link is loaded and added to the filter afterwards, like
+ * links which are stacked and loaded by the crawler. Links of the stream repeat, like links which are
+ * found on many pages. Without the filter each link needs a lookup in the index and the crawl queues.
+ * The number of saved lookups, the measured and estimated false positive rate, the memory and the
+ * time per check are printed.
+ */
+public class ScalableBloomFilterPerfTest {
+
+    public static void main(final String[] args) {
+        final int indexed = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final int links = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        final double knownShare = args.length > 2 ? Double.parseDouble(args[2]) : 0.5d;
+        final Random r = new Random(0);
+
+        final ScalableBloomFilter filter = new ScalableBloomFilter(12, 16, indexed / 10, BloomFilter.defaultFalsePositiveRate);
+        final List<byte[]> known = new ArrayList<byte[]>(indexed);
+        final Set<String> truth = new HashSet<String>();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < indexed; i++) {
+            final byte[] h = IndexTest.randomHash(r);
+            known.add(h);
+            truth.add(ASCII.String(h));
+            filter.put(h);
+        }
+        System.out.println("built filter for " + indexed + " urls in " + (System.currentTimeMillis() - start) + " ms, "
+                + (filter.mem() / 1024) + " KB, estimated false positive rate " + filter.falsePositiveRate());
+
+        final List<byte[]> fresh = new ArrayList<byte[]>();
+        long lookups = 0, saved = 0, unknownChecks = 0, falsePositives = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < links; i++) {
+            final byte[] h;
+            final double x = r.nextDouble();
+            if (x < knownShare) h = known.get(r.nextInt(known.size()));
+            else if (x < knownShare + (1.0d - knownShare) / 2 && fresh.size() > 0) h = fresh.get(r.nextInt(fresh.size())); // a link found again
+            else h = IndexTest.randomHash(r);
+            final boolean isKnown = truth.contains(ASCII.String(h));
+            if (filter.mightContain(h)) {
+                lookups++;
+                if (!isKnown) falsePositives++;
+            } else {
+                saved++;
+            }
+            if (!isKnown) {
+                unknownChecks++;
+                // the link is stacked and loaded
+                truth.add(ASCII.String(h));
+                fresh.add(h);
+                filter.put(h);
+            }
+        }
+        final long time = System.nanoTime() - start;
+        System.out.println(links + " links (" + (int) (knownShare * 100) + "% indexed): " + lookups + " lookups, " + saved + " lookups saved ("
+                + (saved * 100 / links) + "%), " + falsePositives + " false positives of " + unknownChecks + " unknown links (rate "
+                + String.format("%.4f", ((double) falsePositives) / Math.max(1, unknownChecks)) + "), estimated rate "
+                + String.format("%.4f", filter.falsePositiveRate()) + ", " + filter.size() + " urls in " + (filter.mem() / 1024) + " KB, "
+                + (time / links) + " ns per link including the check in a HashSet");
+    }
+
+}
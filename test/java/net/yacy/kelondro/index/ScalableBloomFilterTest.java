@@ -0,0 +1,75 @@
+/**
+ *  ScalableBloomFilterTest.java
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * Unit tests for the ScalableBloomFilter class.
+ */
+public class ScalableBloomFilterTest {
+
+    /**
+     * A filter which gets many more keys than expected must still find all keys, keep its
+     * false positive rate and be the same after it was written and read again.
+     */
+    @Test
+    public void testGrowth() throws Exception {
+        final Random r = new Random(0);
+        final ScalableBloomFilter filter = new ScalableBloomFilter(12, 4, 1000, BloomFilter.defaultFalsePositiveRate);
+        final long mem0 = filter.mem();
+        final List<byte[]> keys = new ArrayList<byte[]>();
+        for (int i = 0; i < 50000; i++) {
+            final byte[] key = IndexTest.randomHash(r);
+            keys.add(key);
+            filter.put(key);
+        }
+        for (final byte[] key : keys) assertTrue(filter.mightContain(key));
+        assertTrue(filter.mem() > mem0);
+        assertTrue("size: " + filter.size(), filter.size() > 49000 && filter.size() <= 50000);
+
+        int falsePositives = 0;
+        for (int i = 0; i < 50000; i++) if (filter.mightContain(IndexTest.randomHash(r))) falsePositives++;
+        assertTrue("false positives: " + falsePositives, falsePositives < 50000 * BloomFilter.defaultFalsePositiveRate);
+        assertTrue("rate: " + filter.falsePositiveRate(), filter.falsePositiveRate() < BloomFilter.defaultFalsePositiveRate);
+
+        final File file = File.createTempFile("ScalableBloomFilterTest", ".sbf");
+        try {
+            filter.dump(file);
+            final ScalableBloomFilter read = new ScalableBloomFilter(file);
+            assertEquals(filter.mem(), read.mem());
+            assertEquals(filter.size(), read.size());
+            assertEquals(12, read.keylength());
+            for (final byte[] key : keys) assertTrue(read.mightContain(key));
+        } finally {
+            FileUtils.deletedelete(file);
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+/**
+ *  IndexCellTest.java
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.rwi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.yacy.cora.document.id.DigestURL;
+import net.yacy.cora.order.Base64Order;
+import net.yacy.cora.storage.HandleSet;
+import net.yacy.kelondro.data.word.Word;
+import net.yacy.kelondro.data.word.WordReference;
+import net.yacy.kelondro.data.word.WordReferenceFactory;
+import net.yacy.kelondro.data.word.WordReferenceVars;
+import net.yacy.kelondro.index.RowHandleSet;
+import net.yacy.kelondro.util.Bitfield;
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * Unit tests for the IndexCell class.
+ */
+public class IndexCellTest {
+
+    private static final WordReferenceFactory factory = new WordReferenceFactory();
+
+    private File dir;
+    private IndexCell<WordReference> cell;
+
+    @Before
+    public void setUp() throws Exception {
+        this.dir = Files.createTempDirectory("IndexCellTest").toFile();
+        this.cell = open(1);
+    }
+
+    private IndexCell<WordReference> open(final int shards) throws Exception {
+        return new IndexCell<WordReference>(this.dir, "text.index", factory, Base64Order.enhancedCoder, Word.commonHashLength,
+                10000, 1024 * 1024, 1024 * 1024, 4096, new IODispatcher(1, 1, 4096), shards);
+    }
+
+    @After
+    public void tearDown() {
+        this.cell.close();
+        FileUtils.deletedelete(this.dir);
+    }
+
+    private void add(final String word, final int from, final int to) throws Exception {
+        for (int i = from; i < to; i++) {
+            final DigestURL url = new DigestURL("http://host" + i + ".org/");
+            this.cell.add(Word.word2hash(word), new WordReferenceVars(url.hash(), 20, 1, 0, 1, 1, 1, 1, new LinkedList<Integer>(), 1, 1, 0, "en", 't', 0, 0, new Bitfield(4), 0.0d));
+        }
+    }
+
+    private static HandleSet hashes(final String... words) throws Exception {
+        final HandleSet set = new RowHandleSet(Word.commonHashLength, Word.commonHashOrder, 0);
+        for (final String word: words) set.put(Word.word2hash(word));
+        return set;
+    }
+
+    /**
+     * A repeated term search is answered from the cache until references of one of its terms are added or removed.
+     */
+    @Test
+    public void testTermSearchCache() throws Exception {
+        this.cell.setTermSearchCacheSize(1024 * 1024);
+        final TermSearchCache<WordReference> cache = this.cell.getTermSearchCache();
+        add("alpha", 0, 100);
+        add("beta", 50, 150);
+        add("gamma", 0, 10);
+
+        final TermSearch<WordReference> s1 = this.cell.query(hashes("alpha", "beta"), hashes(), null, factory, Integer.MAX_VALUE);
+        assertEquals(50, s1.joined().size());
+        assertSame(s1, this.cell.query(hashes("beta", "alpha"), hashes(), null, factory, Integer.MAX_VALUE));
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+
+        // a different exclusion or distance is another search
+        final TermSearch<WordReference> s2 = this.cell.query(hashes("alpha", "beta"), hashes("gamma"), null, factory, Integer.MAX_VALUE);
+        assertEquals(50, s2.joined().size());
+        assertNotSame(s1, this.cell.query(hashes("alpha", "beta"), hashes(), null, factory, 10));
+        assertEquals(3, cache.size());
+
+        // references of another term do not invalidate the result
+        add("delta", 0, 10);
+        assertSame(s1, this.cell.query(hashes("alpha", "beta"), hashes(), null, factory, Integer.MAX_VALUE));
+
+        // new references of a term invalidate the result
+        add("beta", 150, 160);
+        add("alpha", 150, 155);
+        final TermSearch<WordReference> s3 = this.cell.query(hashes("alpha", "beta"), hashes(), null, factory, Integer.MAX_VALUE);
+        assertNotSame(s1, s3);
+        assertEquals(55, s3.joined().size());
+        assertEquals(1, cache.invalidations());
+
+        // also new references of an excluded term
+        add("gamma", 150, 152);
+        assertEquals(53, this.cell.query(hashes("alpha", "beta"), hashes("gamma"), null, factory, Integer.MAX_VALUE).joined().size());
+
+        // and removed references
+        this.cell.remove(Word.word2hash("alpha"), new DigestURL("http://host60.org/").hash());
+        assertEquals(54, this.cell.query(hashes("alpha", "beta"), hashes(), null, factory, Integer.MAX_VALUE).joined().size());
+    }
+
+    private List<byte[]> terms() {
+        final List<byte[]> terms = new ArrayList<byte[]>();
+        for (final ReferenceContainer<WordReference> c: this.cell) terms.add(c.getTermHash());
+        return terms;
+    }
+
+    /**
+     * A sharded cell must find the same references as a cell with one shard, and the BLOB files
+     * must be moved into the new shards when the number of shards is changed.
+     */
+    @Test
+    public void testShards() throws Exception {
+        for (int w = 0; w < 40; w++) add("word" + w, 0, 20 + w);
+        add("alpha", 0, 100);
+        add("beta", 50, 150);
+        final List<byte[]> terms = terms();
+        assertEquals(42, terms.size());
+        this.cell.close();
+
+        // reopen with shards: the files of the unsharded cell are imported
+        this.cell = open(4);
+        assertEquals(4, this.cell.getShardCount());
+        for (final String name: this.dir.list()) assertFalse(name, name.endsWith(".blob"));
+        final List<byte[]> sharded = terms();
+        assertEquals(terms.size(), sharded.size());
+        for (int i = 0; i < terms.size(); i++) assertArrayEquals(terms.get(i), sharded.get(i));
+        for (int w = 0; w < 40; w++) assertEquals(20 + w, this.cell.count(Word.word2hash("word" + w)));
+        assertEquals(50, this.cell.query(hashes("alpha", "beta"), hashes(), null, factory, Integer.MAX_VALUE).joined().size());
+        assertEquals(9, this.cell.query(hashes("alpha", "beta", "word39"), hashes(), null, factory, Integer.MAX_VALUE).joined().size());
+        assertEquals(0, this.cell.query(hashes("alpha", "beta", "nothing"), hashes(), null, factory, Integer.MAX_VALUE).joined().size());
+
+        // new references go into the shards
+        add("alpha", 150, 160);
+        add("beta", 150, 160);
+        add("gamma", 0, 10);
+        assertEquals(60, this.cell.query(hashes("alpha", "beta"), hashes(), null, factory, Integer.MAX_VALUE).joined().size());
+        this.cell.close();
+        this.cell = open(4);
+        assertEquals(60, this.cell.query(hashes("alpha", "beta"), hashes(), null, factory, Integer.MAX_VALUE).joined().size());
+        assertEquals(43, terms().size());
+        this.cell.close();
+
+        // and back to one shard
+        this.cell = open(1);
+        for (final String name: this.dir.list()) assertFalse(name, name.startsWith("text.index.shard"));
+        assertTrue(this.cell.getSegmentCount() > 0);
+        assertEquals(43, terms().size());
+        assertEquals(10, this.cell.count(Word.word2hash("gamma")));
+        assertEquals(60, this.cell.query(hashes("alpha", "beta"), hashes(), null, factory, Integer.MAX_VALUE).joined().size());
+    }
+
+}
@@ -0,0 +1,254 @@
+/**
+ *  ReferenceContainerArrayTest.java
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.rwi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.yacy.cora.document.encoding.ASCII;
+import net.yacy.cora.document.id.DigestURL;
+import net.yacy.cora.order.Base64Order;
+import net.yacy.cora.order.CloneableIterator;
+import net.yacy.kelondro.data.word.Word;
+import net.yacy.kelondro.data.word.WordReference;
+import net.yacy.kelondro.data.word.WordReferenceFactory;
+import net.yacy.kelondro.data.word.WordReferenceVars;
+import net.yacy.kelondro.util.Bitfield;
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * Unit tests for the ReferenceContainerArray class.
+ */
+public class ReferenceContainerArrayTest {
+
+    private File dir;
+    private int readAhead;
+    private ReferenceContainerArray<WordReference> array;
+
+    @Before
+    public void setUp() throws Exception {
+        this.dir = Files.createTempDirectory("ReferenceContainerArrayTest").toFile();
+        this.readAhead = ReferenceContainerArray.readAhead;
+        final WordReferenceFactory factory = new WordReferenceFactory();
+        this.array = open();
+        // several files with overlapping terms, some of them private
+        final Random r = new Random(0);
+        for (int f = 0; f < 6; f++) {
+            final ReferenceContainerCache<WordReference> cache = new ReferenceContainerCache<WordReference>(factory, Base64Order.enhancedCoder, Word.commonHashLength);
+            for (int t = 0; t < 200; t++) {
+                final int n = r.nextInt(400);
+                final byte[] termHash = n % 10 == 0 ? Word.hash2private(Word.word2hash("term" + n), Word.PRIVATE_TYPE_COPY) : Word.word2hash("term" + n);
+                final ReferenceContainer<WordReference> container = new ReferenceContainer<WordReference>(factory, termHash);
+                for (int u = 0; u < 3; u++) {
+                    final DigestURL url = new DigestURL("http://host" + r.nextInt(1000) + ".org/");
+                    container.add(new WordReferenceVars(url.hash(), 20, 1, 0, 1, 1, 1, 1, new LinkedList<Integer>(), 1, 1, 0, "en", 't', 0, 0, new Bitfield(4), 0.0d));
+                }
+                cache.add(container);
+            }
+            final File file = this.array.newContainerBLOBFile();
+            cache.dump(file, 4096, true);
+            this.array.mountBLOBFile(file);
+            Thread.sleep(2); // the file names are made from the date
+        }
+    }
+
+    private ReferenceContainerArray<WordReference> open() throws Exception {
+        return new ReferenceContainerArray<WordReference>(this.dir, "text.index", new WordReferenceFactory(), Base64Order.enhancedCoder, Word.commonHashLength);
+    }
+
+    @After
+    public void tearDown() {
+        ReferenceContainerArray.readAhead = this.readAhead;
+        this.array.close();
+        FileUtils.deletedelete(this.dir);
+    }
+
+    private List<ReferenceContainer<WordReference>> containers(final int readAhead, final byte[] start, final boolean excludePrivate) {
+        ReferenceContainerArray.readAhead = readAhead;
+        final CloneableIterator<ReferenceContainer<WordReference>> i = this.array.referenceContainerIterator(start, false, excludePrivate);
+        final List<ReferenceContainer<WordReference>> l = new ArrayList<ReferenceContainer<WordReference>>();
+        while (i.hasNext()) {
+            // the synchronous iteration returns null when only excluded terms are left
+            final ReferenceContainer<WordReference> c = i.next();
+            if (c == null) break;
+            l.add(c);
+        }
+        i.close();
+        return l;
+    }
+
+    private static void assertSameContainers(final List<ReferenceContainer<WordReference>> expected, final List<ReferenceContainer<WordReference>> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i).getTermHash(), actual.get(i).getTermHash());
+            assertEquals(expected.get(i).size(), actual.get(i).size());
+        }
+    }
+
+    /**
+     * The read-ahead iteration must return the same merged containers as the synchronous iteration,
+     * also with a start term and with the exclusion of private terms.
+     */
+    @Test
+    public void testReadAheadIterator() throws Exception {
+        final List<ReferenceContainer<WordReference>> all = containers(0, null, false);
+        assertTrue(all.size() > 300);
+        assertSameContainers(all, containers(2, null, false));
+
+        final List<ReferenceContainer<WordReference>> pub = containers(0, null, true);
+        assertTrue(pub.size() < all.size());
+        for (final ReferenceContainer<WordReference> c: pub) assertFalse(Word.isPrivate(c.getTermHash()));
+        assertSameContainers(pub, containers(3, null, true));
+
+        final byte[] start = all.get(all.size() / 2).getTermHash();
+        final List<ReferenceContainer<WordReference>> tail = containers(0, start, false);
+        assertArrayEquals(start, tail.get(0).getTermHash());
+        assertSameContainers(tail, containers(1, start, false));
+    }
+
+    /**
+     * The counts which are estimated from the frequency sketches of the files must not be smaller than the exact counts
+     * and are exact for most terms.
+     */
+    @Test
+    public void testApproximateCount() throws Exception {
+        final List<ReferenceContainer<WordReference>> all = containers(0, null, false);
+        int exact = 0;
+        for (final ReferenceContainer<WordReference> c: all) {
+            final int count = this.array.count(c.getTermHash());
+            assertTrue(count >= c.size()); // the same reference may be in several files
+            final int estimate = this.array.count(c.getTermHash(), true);
+            assertTrue(estimate >= count);
+            if (estimate == count) exact++;
+        }
+        assertTrue(exact > all.size() * 3 / 4);
+        assertEquals(0, this.array.count(Word.word2hash("unknown"), true));
+    }
+
+    /**
+     * A merge of several files in one pass must give the same result as chained pairwise merges:
+     * the same terms in the same order with the same references, for terms which are in all files,
+     * in some files and in only one file, and for references which are in several files.
+     */
+    @Test
+    public void testMultiMerge() throws Exception {
+        final WordReferenceFactory factory = new WordReferenceFactory();
+        final File kwayDir = new File(this.dir, "kway");
+        final File pairDir = new File(this.dir, "pairwise");
+        final ReferenceContainerArray<WordReference> kway = new ReferenceContainerArray<WordReference>(kwayDir, "text.index", factory, Base64Order.enhancedCoder, Word.commonHashLength);
+        final ReferenceContainerArray<WordReference> pairwise = new ReferenceContainerArray<WordReference>(pairDir, "text.index", factory, Base64Order.enhancedCoder, Word.commonHashLength);
+        final TreeMap<byte[], Set<String>> expected = new TreeMap<byte[], Set<String>>(Base64Order.enhancedCoder);
+        final Random r = new Random(1);
+        final int files = 5;
+        for (int f = 0; f < files; f++) {
+            final ReferenceContainerCache<WordReference> cache = new ReferenceContainerCache<WordReference>(factory, Base64Order.enhancedCoder, Word.commonHashLength);
+            for (int t = 0; t < 300; t++) {
+                // terms 0..99 are in all files, the others partly overlapping and t >= 200 are only in this file
+                final String term = t < 100 ? "common" + t : t < 200 ? "shared" + r.nextInt(150) : "file" + f + "term" + t;
+                final byte[] termHash = Word.word2hash(term);
+                final ReferenceContainer<WordReference> container = new ReferenceContainer<WordReference>(factory, termHash);
+                Set<String> urls = expected.get(termHash);
+                if (urls == null) {
+                    urls = new HashSet<String>();
+                    expected.put(termHash, urls);
+                }
+                final Set<String> added = new HashSet<String>();
+                for (int u = 0, n = 1 + r.nextInt(5); u < n; u++) {
+                    // a small number of hosts gives references which are in several files
+                    final DigestURL url = new DigestURL("http://host" + r.nextInt(20) + ".org/");
+                    if (!added.add(ASCII.String(url.hash()))) continue;
+                    container.add(new WordReferenceVars(url.hash(), 20, 1, 0, 1, 1, 1, 1, new LinkedList<Integer>(), 1, 1, 0, "en", 't', 0, 0, new Bitfield(4), 0.0d));
+                    urls.add(ASCII.String(url.hash()));
+                }
+                cache.add(container);
+            }
+            final File kwayFile = kway.newContainerBLOBFile();
+            cache.dump(kwayFile, 4096, false);
+            kway.mountBLOBFile(kwayFile);
+            final File pairFile = pairwise.newContainerBLOBFile();
+            cache.dump(pairFile, 4096, true);
+            pairwise.mountBLOBFile(pairFile);
+            Thread.sleep(2); // the file names are made from the date
+        }
+        assertEquals(files, kway.sizes().length);
+
+        // the dispatcher is not started, so the merges are done at once
+        final IODispatcher merger = new IODispatcher(1, 1, 4096);
+        assertTrue(kway.shrinkTieredFiles(merger, 1L << 40, Long.MAX_VALUE));
+        assertEquals(1, kway.sizes().length);
+        int merges = 0;
+        while (pairwise.shrinkAnySmallFiles(merger, Long.MAX_VALUE)) merges++;
+        assertEquals(files - 1, merges);
+        assertEquals(1, pairwise.sizes().length);
+
+        final CloneableIterator<ReferenceContainer<WordReference>> ki = kway.referenceContainerIterator(null, false, false);
+        final CloneableIterator<ReferenceContainer<WordReference>> pi = pairwise.referenceContainerIterator(null, false, false);
+        for (final Map.Entry<byte[], Set<String>> e: expected.entrySet()) {
+            final ReferenceContainer<WordReference> kc = ki.next();
+            final ReferenceContainer<WordReference> pc = pi.next();
+            assertArrayEquals(e.getKey(), kc.getTermHash());
+            assertArrayEquals(e.getKey(), pc.getTermHash());
+            assertEquals(e.getValue().size(), kc.size());
+            assertEquals(e.getValue().size(), pc.size());
+            assertEquals(pairwise.count(e.getKey()), kway.count(e.getKey()));
+            final Set<String> urls = new HashSet<String>();
+            final Iterator<WordReference> ri = kc.entries();
+            while (ri.hasNext()) urls.add(ASCII.String(ri.next().urlhash()));
+            assertEquals(e.getValue(), urls);
+        }
+        assertFalse(ki.hasNext());
+        assertFalse(pi.hasNext());
+        ki.close();
+        pi.close();
+        kway.close();
+        pairwise.close();
+    }
+
+    /**
+     * The files are opened concurrently when the array is opened again; they must be in the same order.
+     */
+    @Test
+    public void testReopen() throws Exception {
+        final List<ReferenceContainer<WordReference>> all = containers(0, null, false);
+        final int[] sizes = this.array.sizes();
+        this.array.close();
+        this.array = open();
+        assertArrayEquals(sizes, this.array.sizes());
+        assertSameContainers(all, containers(0, null, false));
+    }
+
+}
@@ -0,0 +1,149 @@
+/**
+ *  ReferenceContainerBufferTest.java
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.rwi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import net.yacy.cora.document.id.DigestURL;
+import net.yacy.cora.order.Base64Order;
+import net.yacy.cora.order.CloneableIterator;
+import net.yacy.kelondro.data.word.Word;
+import net.yacy.kelondro.data.word.WordReference;
+import net.yacy.kelondro.data.word.WordReferenceFactory;
+import net.yacy.kelondro.data.word.WordReferenceVars;
+import net.yacy.kelondro.util.Bitfield;
+
+/**
+ * Unit tests for the ReferenceContainerBuffer class.
+ */
+public class ReferenceContainerBufferTest {
+
+    private static ReferenceContainerBuffer<WordReference> buffer(final int partitions) {
+        return new ReferenceContainerBuffer<WordReference>(new WordReferenceFactory(), Base64Order.enhancedCoder, Word.commonHashLength, partitions);
+    }
+
+    private static WordReferenceVars reference(final int i) throws Exception {
+        final DigestURL url = new DigestURL("http://host" + i + ".org/");
+        return new WordReferenceVars(url.hash(), 20, 1, 0, 1, 1, 1, 1, new LinkedList<Integer>(), 1, 1, 0, "en", 't', 0, 0, new Bitfield(4), 0.0d);
+    }
+
+    private static List<byte[]> terms(final CloneableIterator<ReferenceContainer<WordReference>> i, final int max) {
+        final List<byte[]> terms = new ArrayList<byte[]>();
+        while (terms.size() < max && i.hasNext()) {
+            final ReferenceContainer<WordReference> c = i.next();
+            if (c == null) break;
+            terms.add(c.getTermHash());
+        }
+        i.close();
+        return terms;
+    }
+
+    /**
+     * The partitioned buffer must iterate the terms in the same order as a buffer with one partition,
+     * also with a start term and in rotation.
+     */
+    @Test
+    public void testIterator() throws Exception {
+        final ReferenceContainerBuffer<WordReference> single = buffer(1);
+        final ReferenceContainerBuffer<WordReference> partitioned = buffer(8);
+        for (int t = 0; t < 500; t++) {
+            final byte[] termHash = Word.word2hash("term" + t);
+            single.add(termHash, reference(t));
+            partitioned.add(termHash, reference(t));
+        }
+        assertEquals(500, partitioned.size());
+        int used = 0;
+        for (int p = 0; p < partitioned.partitions(); p++) if (partitioned.size(p) > 0) used++;
+        assertTrue(used > 4);
+
+        final List<byte[]> all = terms(single.referenceContainerIterator(null, false, false), 1000);
+        final List<byte[]> actual = terms(partitioned.referenceContainerIterator(null, false, false), 1000);
+        assertEquals(all.size(), actual.size());
+        for (int i = 0; i < all.size(); i++) assertArrayEquals(all.get(i), actual.get(i));
+
+        // start in the middle and wrap around
+        final byte[] start = all.get(300);
+        final List<byte[]> rotated = terms(partitioned.referenceContainerIterator(start, true, false), 600);
+        assertEquals(600, rotated.size());
+        for (int i = 0; i < 600; i++) assertArrayEquals(all.get((300 + i) % 500), rotated.get(i));
+    }
+
+    /**
+     * References which are added while the partitions are swapped out must be either in a swapped cache or in the buffer.
+     */
+    @Test
+    public void testConcurrentSwap() throws Exception {
+        final ReferenceContainerBuffer<WordReference> buffer = buffer(4);
+        final byte[][] terms = new byte[20][];
+        for (int t = 0; t < terms.length; t++) terms[t] = Word.word2hash("term" + t);
+        final int threads = 4, references = 2000;
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final List<Thread> writers = new ArrayList<Thread>();
+        for (int w = 0; w < threads; w++) {
+            final int offset = w * references;
+            final Thread writer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < references; i++) buffer.add(terms[i % terms.length], reference(offset + i));
+                    } catch (final Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            writers.add(writer);
+            writer.start();
+        }
+        final List<ReferenceContainerCache<WordReference>> swapped = new ArrayList<ReferenceContainerCache<WordReference>>();
+        final Thread swapper = new Thread() {
+            @Override
+            public void run() {
+                int p = 0;
+                while (running.get()) {
+                    swapped.add(buffer.swap(p));
+                    p = (p + 1) % buffer.partitions();
+                }
+            }
+        };
+        swapper.start();
+        for (final Thread writer: writers) writer.join();
+        running.set(false);
+        swapper.join();
+
+        int count = 0;
+        for (final ReferenceContainerCache<WordReference> cache: swapped) {
+            for (final ReferenceContainer<WordReference> c: cache) count += c.size();
+        }
+        for (final byte[] term: terms) count += buffer.count(term);
+        assertEquals(threads * references, count);
+        long dumps = 0;
+        for (int p = 0; p < buffer.partitions(); p++) dumps += buffer.dumps(p);
+        assertEquals(swapped.size(), dumps);
+    }
+
+}
@@ -0,0 +1,141 @@
+/**
+ *  ReferenceContainerStreamTest.java
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.rwi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Test;
+
+import net.yacy.cora.document.id.DigestURL;
+import net.yacy.kelondro.data.word.Word;
+import net.yacy.kelondro.data.word.WordReference;
+import net.yacy.kelondro.data.word.WordReferenceFactory;
+import net.yacy.kelondro.data.word.WordReferenceVars;
+import net.yacy.kelondro.util.Bitfield;
+
+/**
+ * Unit tests for the ReferenceContainerStream class.
+ */
+public class ReferenceContainerStreamTest {
+
+    private static final WordReferenceFactory factory = new WordReferenceFactory();
+
+    private static List<ReferenceContainer<WordReference>> containers() throws Exception {
+        final List<ReferenceContainer<WordReference>> containers = new ArrayList<ReferenceContainer<WordReference>>();
+        for (int t = 0; t < 20; t++) {
+            final ReferenceContainer<WordReference> container = new ReferenceContainer<WordReference>(factory, Word.word2hash("term" + t));
+            for (int i = 0; i <= t * 3; i++) {
+                final DigestURL url = new DigestURL("http://host" + i + ".org/" + t);
+                container.add(new WordReferenceVars(url.hash(), 20, 1, 0, 1, 1, 1, 1, new LinkedList<Integer>(), 1, 1, 0, "en", 't', 0, 0, new Bitfield(4), 0.0d));
+            }
+            containers.add(container);
+        }
+        containers.add(new ReferenceContainer<WordReference>(factory, Word.word2hash("empty"))); // is skipped
+        return containers;
+    }
+
+    private static void assertRoundTrip(final boolean gzip) throws Exception {
+        final List<ReferenceContainer<WordReference>> containers = containers();
+        final List<ReferenceContainer<WordReference>> decoded = ReferenceContainerStream.decode(ReferenceContainerStream.encode(containers, gzip), factory);
+        assertEquals(containers.size() - 1, decoded.size());
+        for (int c = 0; c < decoded.size(); c++) {
+            final ReferenceContainer<WordReference> expected = containers.get(c);
+            final ReferenceContainer<WordReference> actual = decoded.get(c);
+            assertArrayEquals(expected.getTermHash(), actual.getTermHash());
+            assertEquals(expected.size(), actual.size());
+            final Iterator<WordReference> i = expected.entries();
+            while (i.hasNext()) assertNotNull(actual.getReference(i.next().urlhash()));
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        assertRoundTrip(false);
+    }
+
+    @Test
+    public void testRoundTripGzip() throws Exception {
+        assertRoundTrip(true);
+    }
+
+    /**
+     * Damaged input must be rejected with an IOException.
+     */
+    @Test
+    public void testDamaged() throws Exception {
+        final byte[] b = ReferenceContainerStream.encode(containers(), false);
+        assertRejected(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12});
+        assertRejected(Arrays.copyOf(b, b.length / 2));
+        final byte[] z = ReferenceContainerStream.encode(containers(), true);
+        assertRejected(Arrays.copyOf(z, z.length / 2));
+    }
+
+    /**
+     * A container of a remote peer which claims to be sorted, but is not sorted and has double entries,
+     * must be sorted and made unique when it is decoded.
+     */
+    @Test
+    public void testUnsortedContainer() throws Exception {
+        final ReferenceContainer<WordReference> container = new ReferenceContainer<WordReference>(factory, Word.word2hash("unsorted"));
+        final List<byte[]> urlhashes = new ArrayList<byte[]>();
+        for (int i = 0; i < 10; i++) urlhashes.add(new DigestURL("http://host" + i + ".org/").hash());
+        for (final int i: new int[]{7, 3, 9, 0, 3, 5, 1, 9, 2, 8, 4, 6}) {
+            container.add(new WordReferenceVars(urlhashes.get(i), 20, 1, 0, 1, 1, 1, 1, new LinkedList<Integer>(), 1, 1, 0, "en", 't', 0, 0, new Bitfield(4), 0.0d));
+        }
+        final List<ReferenceContainer<WordReference>> containers = new ArrayList<ReferenceContainer<WordReference>>();
+        containers.add(container);
+        final byte[] b = ReferenceContainerStream.encode(containers, false);
+
+        // set the sort bound of the exported collection to the number of entries
+        final int collection = 12 + 2 + container.getTermHash().length + 4;
+        final ByteBuffer bb = ByteBuffer.wrap(b);
+        bb.putInt(collection + 10, bb.getInt(collection));
+
+        final ReferenceContainer<WordReference> decoded = ReferenceContainerStream.decode(b, factory).get(0);
+        assertEquals(urlhashes.size(), decoded.size());
+        assertTrue(decoded.isSorted());
+        for (final byte[] urlhash: urlhashes) assertNotNull(decoded.getReference(urlhash));
+
+        // a term hash which is not well-formed is rejected
+        b[12 + 2] = '@';
+        assertRejected(b);
+    }
+
+    private static void assertRejected(final byte[] b) {
+        try {
+            ReferenceContainerStream.decode(b, factory);
+            fail("damaged stream was accepted");
+        } catch (final IOException e) {
+            // expected
+        }
+    }
+
+}
@@ -23,11 +23,18 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import org.junit.Test;
 
+import net.yacy.cora.document.encoding.ASCII;
 import net.yacy.cora.document.id.DigestURL;
 import net.yacy.cora.document.id.MultiProtocolURL;
 import net.yacy.crawler.retrieval.Response;
@@ -99,4 +106,70 @@ public class ReferenceContainerTest {
         assertEquals("distance()", wentry.distance(), wc.distance());
     }
 
+    private static WordReferenceVars reference(final byte[] urlhash) {
+        final Queue<Integer> positions = new LinkedBlockingQueue<Integer>();
+        positions.add(1);
+        return new WordReferenceVars(urlhash, 20, 1, 0, 1, 1, 1, 1, positions, 1, 1, 0, "en", Response.DT_TEXT, 0, 0, new Bitfield(4), 0.0d);
+    }
+
+    /**
+     * Test of joinConstructive method, of class ReferenceContainer: the join of a small
+     * with a large container uses a galloping search in the large container and must
+     * find exactly the common url hashes, also if the first or the last hashes match.
+     */
+    @Test
+    public void testJoinConstructive() throws Exception {
+        final WordReferenceFactory factory = new WordReferenceFactory();
+        final ReferenceContainer<WordReference> large = new ReferenceContainer<WordReference>(factory, Word.word2hash("large"));
+        final ReferenceContainer<WordReference> small = new ReferenceContainer<WordReference>(factory, Word.word2hash("small"));
+        final Random r = new Random(0);
+        final List<byte[]> hashes = new ArrayList<byte[]>();
+        for (int i = 0; i < 20000; i++) {
+            final byte[] hash = new DigestURL("http://host" + r.nextInt(5000) + ".org/" + i + ".html").hash();
+            hashes.add(hash);
+            large.add(reference(hash));
+        }
+        large.sort();
+        final Set<String> expected = new TreeSet<String>();
+        for (int i = 0; i < 200; i++) {
+            final byte[] hash = i % 2 == 0 ? hashes.get(r.nextInt(hashes.size())) : new DigestURL("http://other" + i + ".org/").hash();
+            small.add(reference(hash));
+            if (i % 2 == 0) expected.add(ASCII.String(hash));
+        }
+        final byte[] first = large.get(0, false).getPrimaryKeyBytes(), last = large.get(large.size() - 1, false).getPrimaryKeyBytes();
+        small.add(reference(first));
+        small.add(reference(last));
+        expected.add(ASCII.String(first));
+        expected.add(ASCII.String(last));
+
+        final ReferenceContainer<WordReference> joined = ReferenceContainer.joinConstructive(factory, large, small, Integer.MAX_VALUE);
+        final Set<String> found = new TreeSet<String>();
+        final Iterator<WordReference> i = joined.entries();
+        while (i.hasNext()) found.add(ASCII.String(i.next().urlhash()));
+        assertEquals(expected, found);
+
+        assertEquals(0, large.gallop(first, 0));
+        assertEquals(large.size() - 1, large.gallop(last, 0));
+        assertEquals(large.size() - 1, large.gallop(last, large.size() - 1));
+        assertTrue(large.gallop(new DigestURL("http://other1.org/").hash(), 0) < 0);
+
+        // a conjunction of three containers
+        final ReferenceContainer<WordReference> middle = new ReferenceContainer<WordReference>(factory, Word.word2hash("middle"));
+        for (int j = 0; j < hashes.size(); j += 2) middle.add(reference(hashes.get(j)));
+        middle.add(reference(first));
+        final List<ReferenceContainer<WordReference>> containers = new ArrayList<ReferenceContainer<WordReference>>();
+        containers.add(large);
+        containers.add(middle);
+        containers.add(small);
+        final ReferenceContainer<WordReference> all = ReferenceContainer.joinContainers(factory, containers, Integer.MAX_VALUE);
+        assertNotNull(all);
+        final Iterator<WordReference> j = all.entries();
+        while (j.hasNext()) {
+            final byte[] hash = j.next().urlhash();
+            assertTrue(expected.contains(ASCII.String(hash)));
+            assertNotNull(middle.getReference(hash));
+        }
+        assertNotNull(all.getReference(first));
+    }
+
 }
@@ -0,0 +1,97 @@
+/**
+ *  TermSearchTest.java
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.rwi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Test;
+
+import net.yacy.cora.document.id.DigestURL;
+import net.yacy.cora.order.Base64Order;
+import net.yacy.kelondro.data.word.PositionReference;
+import net.yacy.kelondro.data.word.PositionReferenceFactory;
+import net.yacy.kelondro.data.word.Word;
+import net.yacy.kelondro.data.word.WordReference;
+import net.yacy.kelondro.data.word.WordReferenceFactory;
+import net.yacy.kelondro.data.word.WordReferenceVars;
+import net.yacy.kelondro.index.RowHandleSet;
+import net.yacy.kelondro.util.Bitfield;
+
+/**
+ * Unit tests for the TermSearch class.
+ */
+public class TermSearchTest {
+
+    private static final WordReferenceFactory factory = new WordReferenceFactory();
+
+    private final ReferenceContainerCache<WordReference> words = new ReferenceContainerCache<WordReference>(factory, Base64Order.enhancedCoder, Word.commonHashLength);
+    private final ReferenceContainerCache<PositionReference> positions = new ReferenceContainerCache<PositionReference>(new PositionReferenceFactory(), Base64Order.enhancedCoder, Word.commonHashLength);
+
+    private static byte[] url(final int doc) throws Exception {
+        return new DigestURL("http://host" + doc + ".org/").hash();
+    }
+
+    /**
+     * add a word of a document to the index
+     * @param withPositions if false, only the word reference is stored as for documents which were indexed without positions
+     */
+    private void add(final int doc, final String word, final boolean withPositions, final int... pos) throws Exception {
+        this.words.add(Word.word2hash(word), new WordReferenceVars(url(doc), 20, 1, 0, pos.length, 100, 1, pos[0], new LinkedList<Integer>(), 1, 100, 0, "en", 't', 0, 0, new Bitfield(4), 0.0d));
+        if (withPositions) this.positions.add(Word.word2hash(word), new PositionReference(url(doc), pos));
+    }
+
+    private TermSearch<WordReference> search(final String... query) throws Exception {
+        return new TermSearch<WordReference>(this.words, Word.words2hashesHandles(query), new RowHandleSet(Word.commonHashLength, Word.commonHashOrder, 0), null, factory, Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void testVerify() throws Exception {
+        add(1, "new", true, 1, 20); add(1, "york", true, 2);       // the phrase
+        add(2, "new", true, 40);    add(2, "york", true, 1);       // no phrase, window 39
+        add(3, "new", false, 1);    add(3, "york", false, 2);      // no positions, estimated distance 1
+        add(4, "new", false, 1);    add(4, "york", false, 50);     // no positions, estimated distance 49
+
+        final TermSearch<WordReference> search = search("new", "york");
+        assertEquals(4, search.joined().size());
+
+        final List<byte[][]> phrases = new ArrayList<byte[][]>();
+        assertSame(search.joined(), search.joined(this.positions, phrases, Integer.MAX_VALUE));
+
+        final ReferenceContainer<WordReference> near = search.joined(this.positions, phrases, 40);
+        assertEquals(3, near.size());
+        assertNull(near.getReference(url(4)));
+
+        phrases.add(new byte[][]{Word.word2hash("new"), Word.word2hash("york")});
+        final ReferenceContainer<WordReference> phrase = search.joined(this.positions, phrases, 1);
+        assertEquals(2, phrase.size());
+        assertNotNull(phrase.getReference(url(1)));
+        assertNotNull(phrase.getReference(url(3)));
+
+        // the joined container is not changed by the verification
+        assertEquals(4, search.joined().size());
+    }
+
+}
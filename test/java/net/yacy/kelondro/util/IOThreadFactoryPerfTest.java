@@ -0,0 +1,126 @@
+// IOThreadFactoryPerfTest.java
+// -------------------
+// part of YaCy
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package net.yacy.kelondro.util;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Start a number of loader tasks which all wait for the answer of a local server which accepts the
+ * connections but does not answer, like loaders which wait for slow hosts. This is done once with
+ * platform threads and once with virtual threads, if the JVM supports them.
+ * For each mode the number of tasks which wait at the same time, the time to start them and the
+ * memory for each waiting task (resident set size of the process and java heap) are printed.
+ */
+public class IOThreadFactoryPerfTest {
+
+    public static void main(final String[] args) throws Exception {
+        final int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        final List<Boolean> modes = new ArrayList<Boolean>();
+        modes.add(Boolean.FALSE);
+        if (IOThreadFactory.isVirtualSupported()) modes.add(Boolean.TRUE);
+        else System.out.println("virtual threads are not supported by this JVM, only platform threads are measured");
+        for (final Boolean virtual: modes) {
+            IOThreadFactory.setVirtual(virtual.booleanValue());
+            run(tasks, virtual.booleanValue() ? "virtual" : "platform");
+        }
+        IOThreadFactory.setVirtual(false);
+    }
+
+    private static void run(final int tasks, final String mode) throws Exception {
+        final ServerSocket server = new ServerSocket(0, tasks, InetAddress.getLoopbackAddress());
+        final List<Socket> accepted = new ArrayList<Socket>(tasks);
+        final Thread acceptor = new Thread("acceptor") {
+            @Override
+            public void run() {
+                try {
+                    while (true) accepted.add(server.accept()); // hold the connections open and never answer
+                } catch (final IOException e) {}
+            }
+        };
+        acceptor.start();
+
+        System.gc();
+        final long rss0 = rss();
+        final long heap0 = heap();
+        final CountDownLatch waiting = new CountDownLatch(tasks);
+        final List<Thread> threads = new ArrayList<Thread>(tasks);
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < tasks; i++) {
+            final Thread t = IOThreadFactory.newThread("loader_" + i, new Runnable() {
+                @Override
+                public void run() {
+                    try (final Socket s = new Socket(server.getInetAddress(), server.getLocalPort())) {
+                        final InputStream in = s.getInputStream();
+                        waiting.countDown();
+                        in.read(); // blocks until the server closes the connection
+                    } catch (final IOException e) {
+                        waiting.countDown();
+                    }
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        waiting.await();
+        final long time = System.currentTimeMillis() - start;
+        final long rss1 = rss();
+        final long heap1 = heap();
+        final int active = Thread.activeCount();
+
+        System.out.println(mode + ": " + tasks + " waiting loaders started in " + time + " ms, "
+                + active + " platform threads, "
+                + (rss0 < 0 ? "rss unknown" : ((rss1 - rss0) / tasks) + " bytes rss") + " and "
+                + ((heap1 - heap0) / tasks) + " bytes heap per waiting loader");
+
+        // release the loaders
+        server.close();
+        acceptor.join();
+        for (final Socket s: accepted) s.close();
+        for (final Thread t: threads) t.join();
+    }
+
+    /**
+     * @return the resident set size of the process in bytes or -1 if it is not available
+     */
+    private static long rss() {
+        try (final BufferedReader r = new BufferedReader(new FileReader("/proc/self/status"))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (line.startsWith("VmRSS:")) return Long.parseLong(line.substring(6).trim().split("\\s+")[0]) * 1024;
+            }
+        } catch (final IOException | NumberFormatException e) {}
+        return -1;
+    }
+
+    private static long heap() {
+        System.gc();
+        final Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+}
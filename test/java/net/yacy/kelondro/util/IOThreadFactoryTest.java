@@ -0,0 +1,82 @@
+/**
+ *  IOThreadFactoryTest.java
+ *  part of YaCy
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit tests for the IOThreadFactory class.
+ */
+public class IOThreadFactoryTest {
+
+    @After
+    public void reset() {
+        IOThreadFactory.setVirtual(false);
+    }
+
+    /**
+     * Virtual threads can only be switched on if the JVM supports them; otherwise platform threads are created.
+     */
+    @Test
+    public void testSetVirtual() throws InterruptedException {
+        assertEquals(IOThreadFactory.isVirtualSupported(), IOThreadFactory.setVirtual(true));
+        assertEquals(IOThreadFactory.isVirtualSupported(), IOThreadFactory.isVirtual());
+
+        final AtomicBoolean ran = new AtomicBoolean(false);
+        final Thread t = IOThreadFactory.newThread("test", new Runnable() {
+            @Override
+            public void run() {
+                ran.set(true);
+            }
+        });
+        assertEquals("test", t.getName());
+        assertFalse(t.isAlive());
+        t.start();
+        t.join();
+        assertTrue(ran.get());
+
+        assertFalse(IOThreadFactory.setVirtual(false));
+        assertFalse(IOThreadFactory.isVirtual());
+    }
+
+    /**
+     * Threads of a factory are numbered; platform threads are no daemon threads and have normal priority.
+     */
+    @Test
+    public void testFactory() {
+        final IOThreadFactory factory = new IOThreadFactory("loader");
+        final Runnable r = new Runnable() {
+            @Override
+            public void run() {}
+        };
+        assertEquals("loader_1", factory.newThread(r).getName());
+        final Thread t = factory.newThread(r);
+        assertEquals("loader_2", t.getName());
+        assertFalse(t.isDaemon());
+        assertEquals(Thread.NORM_PRIORITY, t.getPriority());
+    }
+
+}
@@ -0,0 +1,178 @@
+// BatchStackingPerfTest.java
+// -------------------
+// part of YaCy
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package net.yacy.repository;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import net.yacy.cora.document.id.DigestURL;
+import net.yacy.crawler.HostBalancer;
+import net.yacy.crawler.retrieval.Request;
+import net.yacy.crawler.robots.RobotsTxt;
+import net.yacy.data.WorkTables;
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * Stack the links of a number of documents into a HostBalancer, once link by link like the CrawlStacker
+ * without batch stacking and once in groups of links of the same host. Each link is checked against a
+ * blacklist before it is pushed: link by link with Blacklist.isListed(host, path, ...), in groups with the
+ * patterns of the host from Blacklist.hostPatterns(). The blacklist maps are built here because a
+ * Blacklist object needs a running Switchboard, so this test is in the package of the Blacklist.
+ * Several threads stack documents at the same time, like the CrawlStacker processor threads.
+ * For each mode the time, the CPU time of the stacking threads and the number of HostBalancer
+ * lock acquisitions are printed.
+ */
+public class BatchStackingPerfTest {
+
+    private static final File DATA_DIR = new File("test/DATA");
+    private static final File QUEUES_ROOT = new File("test/DATA/INDEX/QUEUES_PERF");
+
+    public static void main(final String[] args) throws Exception {
+        final int documents = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final int links = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        final int threads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        final int hosts = 500;
+
+        // a blacklist with plain host entries and regular expressions for hosts which are matched against each host
+        final Map<String, Set<Pattern>> matched = new HashMap<>();
+        final Map<String, Set<Pattern>> notMatched = new HashMap<>();
+        for (int i = 0; i < 1000; i++) matched.put("spam" + i + ".example.com", patterns(".*"));
+        for (int i = 0; i < 200; i++) notMatched.put(".*tracker" + i + "\\..*", patterns(".*"));
+        notMatched.put(".*.*", patterns(".*banner.*"));
+
+        // the documents; most links of a document point to the host of the document.
+        // The hosts are private addresses, so that no robots.txt is loaded
+        final Random random = new Random(1);
+        final List<List<Request>> docs = new ArrayList<>(documents);
+        for (int d = 0; d < documents; d++) {
+            final int h = d % hosts;
+            final List<Request> doc = new ArrayList<>(links);
+            for (int l = 0; l < links; l++) {
+                final int lh = random.nextInt(10) < 7 ? h : random.nextInt(hosts);
+                final String path = random.nextInt(50) == 0 ? "/banner/" + d + "_" + l + ".gif" : "/doc" + d + "/page" + l + ".html";
+                doc.add(new Request(new DigestURL("http://10.0." + (lh / 200) + "." + (lh % 200 + 1) + path), null));
+            }
+            docs.add(doc);
+        }
+
+        final WorkTables wt = new WorkTables(DATA_DIR);
+        final RobotsTxt robots = new RobotsTxt(wt, null, 10);
+        for (final boolean batch: new boolean[]{false, true}) {
+            run(docs, matched, notMatched, robots, threads, batch);
+        }
+        System.exit(0);
+    }
+
+    private static Set<Pattern> patterns(final String pattern) {
+        final Set<Pattern> patterns = new HashSet<>();
+        patterns.add(Pattern.compile(pattern, Pattern.CASE_INSENSITIVE));
+        return patterns;
+    }
+
+    private static void run(final List<List<Request>> docs, final Map<String, Set<Pattern>> matched, final Map<String, Set<Pattern>> notMatched, final RobotsTxt robots, final int threads, final boolean batch) throws Exception {
+        FileUtils.deletedelete(QUEUES_ROOT);
+        final HostBalancer balancer = new HostBalancer(QUEUES_ROOT, 1000, true, false);
+        final ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        final AtomicLong cpu = new AtomicLong(0);
+        final AtomicLong locks = new AtomicLong(0);
+        final AtomicLong blacklisted = new AtomicLong(0);
+        final AtomicLong pushed = new AtomicLong(0);
+        final List<Thread> stackers = new ArrayList<>(threads);
+        final long start = System.currentTimeMillis();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            final Thread stacker = new Thread("stacker_" + t) {
+                @Override
+                public void run() {
+                    final long cpu0 = mx.getCurrentThreadCpuTime();
+                    try {
+                        for (int d = offset; d < docs.size(); d += threads) {
+                            if (batch) stackGrouped(docs.get(d), matched, notMatched, balancer, robots, locks, blacklisted, pushed);
+                            else stackSingle(docs.get(d), matched, notMatched, balancer, robots, locks, blacklisted, pushed);
+                        }
+                    } catch (final Exception e) {
+                        e.printStackTrace();
+                    }
+                    cpu.addAndGet(mx.getCurrentThreadCpuTime() - cpu0);
+                }
+            };
+            stacker.start();
+            stackers.add(stacker);
+        }
+        for (final Thread stacker: stackers) stacker.join();
+        final long time = System.currentTimeMillis() - start;
+        int links = 0;
+        for (final List<Request> doc: docs) links += doc.size();
+        System.out.println((batch ? "grouped by host" : "link by link") + ": " + links + " links of " + docs.size() + " documents stacked in " + time + " ms, "
+                + (cpu.get() / 1000000) + " ms cpu, " + locks.get() + " balancer locks, "
+                + pushed.get() + " pushed, " + blacklisted.get() + " blacklisted, " + balancer.size() + " in balancer");
+        balancer.clear();
+        balancer.close();
+        FileUtils.deletedelete(QUEUES_ROOT);
+    }
+
+    private static void stackSingle(final List<Request> doc, final Map<String, Set<Pattern>> matched, final Map<String, Set<Pattern>> notMatched,
+            final HostBalancer balancer, final RobotsTxt robots, final AtomicLong locks, final AtomicLong blacklisted, final AtomicLong pushed) throws Exception {
+        for (final Request entry: doc) {
+            if (Blacklist.isListed(entry.url().getHost().toLowerCase(Locale.ROOT), entry.url().getFile(), matched, notMatched)) {
+                blacklisted.incrementAndGet();
+                continue;
+            }
+            locks.incrementAndGet();
+            if (balancer.push(entry, null, robots) == null) pushed.incrementAndGet();
+        }
+    }
+
+    private static void stackGrouped(final List<Request> doc, final Map<String, Set<Pattern>> matched, final Map<String, Set<Pattern>> notMatched,
+            final HostBalancer balancer, final RobotsTxt robots, final AtomicLong locks, final AtomicLong blacklisted, final AtomicLong pushed) throws Exception {
+        final Map<String, List<Request>> groups = new LinkedHashMap<>();
+        for (final Request entry: doc) {
+            List<Request> group = groups.get(entry.url().hosthash());
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(entry.url().hosthash(), group);
+            }
+            group.add(entry);
+        }
+        for (final List<Request> group: groups.values()) {
+            final Pattern[] patterns = Blacklist.hostPatterns(group.get(0).url().getHost().toLowerCase(Locale.ROOT), matched, notMatched);
+            final List<Request> accepted = new ArrayList<>(group.size());
+            for (final Request entry: group) {
+                if (Blacklist.isListed(patterns, entry.url().getFile())) blacklisted.incrementAndGet();
+                else accepted.add(entry);
+            }
+            if (accepted.isEmpty()) continue;
+            locks.incrementAndGet();
+            for (final String r: balancer.push(accepted, null, robots)) if (r == null) pushed.incrementAndGet();
+        }
+    }
+
+}
@@ -119,4 +119,45 @@ public class BlacklistTest {
     	Assert.assertFalse(Blacklist.isListed("fr.notblacklisted.org", "/path/with/many/segments/e/f/g/h/i/j/k/l/m/n/o/p/q/r/s/t/u/v/w/x/y/z/file.html", blacklistMapMatched, blacklistMapNotMatched));
     }
 
+    /**
+     * Tests that the patterns collected for a host with Blacklist.hostPatterns() give the same
+     * result as Blacklist.isListed() for the host and a path.
+     */
+    @Test
+    public void testHostPatterns() {
+    	final Map<String, Set<Pattern>> blacklistMapMatched = new HashMap<>();
+    	Set<Pattern> patterns = new HashSet<>();
+    	patterns.add(Pattern.compile(".*"));
+    	blacklistMapMatched.put("site.blacklisted.net", patterns);
+
+    	patterns = new HashSet<>();
+    	patterns.add(Pattern.compile("data/js/\\d*\\.js"));
+    	blacklistMapMatched.put("js.blacklisted.org", patterns);
+
+    	patterns = new HashSet<>();
+    	patterns.add(Pattern.compile(".*"));
+    	blacklistMapMatched.put("ftp.*", patterns);
+
+    	patterns = new HashSet<>();
+    	patterns.add(Pattern.compile("produkte/.*"));
+    	blacklistMapMatched.put("*.esample.de", patterns);
+
+    	final Map<String, Set<Pattern>> blacklistMapNotMatched = new HashMap<>();
+    	patterns = new HashSet<>();
+    	patterns.add(Pattern.compile("counter\\?.*"));
+    	blacklistMapNotMatched.put(".*samples.fr", patterns);
+
+    	final String[] hosts = {"site.blacklisted.net", "js.blacklisted.org", "ftp.example.com", "www.esample.de", "www.samples.fr", "notblacklisted.org"};
+    	final String[] paths = {"", "/index.html", "/data/js/12.js", "/produkte/a.html", "/counter?id=1"};
+    	for (final String host: hosts) {
+    		final Pattern[] hostPatterns = Blacklist.hostPatterns(host, blacklistMapMatched, blacklistMapNotMatched);
+    		for (final String path: paths) {
+    			assertEquals(host + path, Blacklist.isListed(host, path, blacklistMapMatched, blacklistMapNotMatched), Blacklist.isListed(hostPatterns, path));
+    		}
+    	}
+    	Assert.assertEquals(0, Blacklist.hostPatterns("notblacklisted.org", blacklistMapMatched, blacklistMapNotMatched).length);
+    	Assert.assertTrue(Blacklist.isListed(Blacklist.hostPatterns("js.blacklisted.org", blacklistMapMatched, blacklistMapNotMatched), "/data/js/12.js"));
+    	Assert.assertFalse(Blacklist.isListed(Blacklist.hostPatterns("js.blacklisted.org", blacklistMapMatched, blacklistMapNotMatched), "/index.html"));
+    }
+
 }
@@ -22,6 +22,7 @@ import net.yacy.kelondro.rwi.ReferenceContainer;
 import net.yacy.kelondro.rwi.ReferenceFactory;
 import net.yacy.kelondro.rwi.TermSearch;
 import net.yacy.kelondro.util.Bitfield;
+import net.yacy.kelondro.util.FileUtils;
 import net.yacy.search.query.QueryGoal;
 
 import org.junit.After;
@@ -29,6 +30,7 @@ import org.junit.AfterClass;
 import org.junit.Before;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
@@ -73,6 +75,52 @@ public class SegmentTest {
         ConcurrentLog.shutdown();
     }
 
+    /**
+     * Urls with a load time must be seen by the url seen filter, also after the filter was written
+     * at close and read again; other urls are not seen when the filter is built.
+     * A start without the filter deletes the dump.
+     */
+    @Test
+    public void testSeenFilter() throws Exception {
+        final File dump = new File(index.getLocation(), Segment.seenFilterName);
+        if (dump.exists()) FileUtils.deletedelete(dump);
+        final byte[] known = new DigestURL("http://test.org/known.html").hash();
+        final byte[] unknown = new DigestURL("http://test.org/unknown.html").hash();
+        index.connectSeenFilter();
+        index.setLoadTime(known, System.currentTimeMillis());
+        final long timeout = System.currentTimeMillis() + 10000;
+        while (index.mightBeSeen(unknown) && System.currentTimeMillis() < timeout) Thread.sleep(10); // wait until the filter is built
+        assertFalse(index.mightBeSeen(unknown));
+        assertTrue(index.mightBeSeen(known));
+
+        index.close();
+        assertTrue(dump.exists());
+        setUp();
+        index.connectSeenFilter();
+        assertFalse(dump.exists()); // deleted, so that the filter is built again after a crash
+        assertFalse(index.mightBeSeen(unknown));
+        assertTrue(index.mightBeSeen(known));
+
+        // a run without the filter must not leave the old dump, which does not know the urls of that run
+        index.close();
+        assertTrue(dump.exists());
+        setUp();
+        index.deleteSeenFilterDump();
+        assertFalse(dump.exists());
+        final byte[] unfiltered = new DigestURL("http://test.org/unfiltered.html").hash();
+        index.setLoadTime(unfiltered, System.currentTimeMillis());
+        index.close();
+        setUp();
+        index.connectSeenFilter();
+        final long timeout2 = System.currentTimeMillis() + 10000;
+        while (index.seenFilterReport().endsWith("building") && System.currentTimeMillis() < timeout2) Thread.sleep(10);
+        assertFalse(index.seenFilterReport().endsWith("building"));
+        assertTrue(index.mightBeSeen(unfiltered));
+        assertTrue(index.mightBeSeen(known));
+        assertFalse(index.mightBeSeen(unknown));
+        index.loadTimeIndex().remove(unfiltered);
+    }
+
     /**
      * Test of clear method (for RWI), of class Segment.
      */
@@ -0,0 +1,110 @@
+// ReferenceOrderPerfTest.java
+// ---------------------------
+// part of YaCy
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package net.yacy.search.ranking;
+
+import java.net.MalformedURLException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Random;
+
+import net.yacy.cora.document.analysis.Classification;
+import net.yacy.cora.document.id.DigestURL;
+import net.yacy.cora.util.ConcurrentLog;
+import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.data.word.Word;
+import net.yacy.kelondro.data.word.WordReference;
+import net.yacy.kelondro.data.word.WordReferenceFactory;
+import net.yacy.kelondro.data.word.WordReferenceRow;
+import net.yacy.kelondro.data.word.WordReferenceVars;
+import net.yacy.kelondro.rwi.ReferenceContainer;
+import net.yacy.kelondro.util.Bitfield;
+
+/**
+ * Compare the full batch ranking of a container with the top-k ranking: the time to rank a large
+ * synthetic container and the number of references which are passed to the result checks. In the
+ * full ranking every reference is decoded into a WordReference and checked; in the top-k ranking
+ * only the references which may be among the best k. Each mode is measured in a warmed-up round.
+ */
+public class ReferenceOrderPerfTest {
+
+    /**
+     * @param args [references] [k] [rounds]
+     */
+    public static void main(final String[] args) throws MalformedURLException, SpaceExceededException {
+        final int size = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        final int k = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        final ReferenceContainer<WordReference> container = container(size);
+        final RankingProfile profile = new RankingProfile(Classification.ContentDomain.TEXT);
+        try {
+            for (int round = 0; round <= rounds; round++) {
+                final boolean report = round > 0;
+
+                // full ranking: every reference is checked
+                long start = System.currentTimeMillis();
+                final ReferenceColumns all = new ReferenceOrder(profile, "en").rank(container);
+                long checks = 0;
+                for (int i = 0; i < all.size(); i++) {
+                    if (all.reference(i) != null) checks++;
+                }
+                final long[] scores = all.score.clone();
+                Arrays.sort(scores);
+                final long fullTime = Math.max(1, System.currentTimeMillis() - start);
+                if (report) System.out.println("full : " + size + " references in " + fullTime + " ms, " + checks + " checks, k-th best score " + scores[scores.length - k]);
+
+                // top-k ranking
+                start = System.currentTimeMillis();
+                final ReferenceOrder order = new ReferenceOrder(profile, "en");
+                final ReferenceColumns columns = order.decode(container);
+                final TopScores top = new TopScores(k);
+                final int visited = order.rankTopK(columns, top, new ReferenceOrder.ReferenceVisitor() {
+                    @Override
+                    public boolean visit(final int i) {
+                        return columns.reference(i) != null;
+                    }
+                });
+                final long topTime = Math.max(1, System.currentTimeMillis() - start);
+                if (report) System.out.println("top-" + k + ": " + size + " references in " + topTime + " ms, " + visited + " checks, k-th best score " + top.threshold());
+            }
+        } finally {
+            ConcurrentLog.shutdown();
+        }
+    }
+
+    /**
+     * a container with references of which a few have a good ranking in many features
+     */
+    private static ReferenceContainer<WordReference> container(final int size) throws MalformedURLException, SpaceExceededException {
+        final Random r = new Random(0);
+        final ReferenceContainer<WordReference> container = new ReferenceContainer<WordReference>(new WordReferenceFactory(), Word.word2hash("test"), size);
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < size; i++) {
+            final boolean good = r.nextInt(1000) == 0;
+            final DigestURL url = new DigestURL("http://host" + r.nextInt(10000) + ".org/" + i + ".html");
+            final Bitfield flags = new Bitfield(4);
+            if (good) flags.set(WordReferenceRow.flag_app_dc_title, true);
+            container.add(new WordReferenceVars(url.hash(), url.toNormalform(true).length(), 2 + r.nextInt(5),
+                    r.nextInt(20), good ? 30 : 1 + r.nextInt(30), 100 + r.nextInt(5000), 10 + r.nextInt(200), good ? 1 : 1 + r.nextInt(1000),
+                    new LinkedList<Integer>(), r.nextInt(20), good ? 100 : r.nextInt(100), now - r.nextInt(1000) * 86400000L,
+                    "en", 't', r.nextInt(50), r.nextInt(50), flags, 0.0d));
+        }
+        return container;
+    }
+
+}
@@ -1,10 +1,21 @@
 package net.yacy.search.ranking;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
 
 import org.apache.solr.common.SolrInputDocument;
 import org.junit.Test;
@@ -12,6 +23,12 @@ import org.junit.Test;
 import net.yacy.cora.document.analysis.Classification;
 import net.yacy.cora.document.id.DigestURL;
 import net.yacy.kelondro.data.meta.URIMetadataNode;
+import net.yacy.kelondro.data.word.Word;
+import net.yacy.kelondro.data.word.WordReference;
+import net.yacy.kelondro.data.word.WordReferenceFactory;
+import net.yacy.kelondro.data.word.WordReferenceVars;
+import net.yacy.kelondro.rwi.ReferenceContainer;
+import net.yacy.kelondro.util.Bitfield;
 import net.yacy.search.schema.CollectionConfiguration;
 
 public class ReferenceOrderTest {
@@ -51,4 +68,81 @@ public class ReferenceOrderTest {
 
     }
 
+    /**
+     * The batch ranking must compute the same scores as the normalization threads and cardinal(WordReference).
+     */
+    @Test
+    public void testRank_WordReference() throws Exception {
+        final ReferenceContainer<WordReference> container = randomContainer(new Random(0), 2000);
+
+        final RankingProfile profile = new RankingProfile(Classification.ContentDomain.TEXT);
+        profile.coeff_authority = 13; // include the authority, which is only used with a high coefficient
+
+        // reference: normalization threads and cardinal()
+        final ReferenceOrder order = new ReferenceOrder(profile, "en");
+        final BlockingQueue<WordReferenceVars> queue = order.normalizeWith(container, Long.MAX_VALUE, true);
+        while (queue.take() != WordReferenceVars.poison) {}
+        final Map<String, Long> expected = new HashMap<String, Long>();
+        final Iterator<WordReference> i = container.entries();
+        while (i.hasNext()) {
+            final WordReferenceVars vars = new WordReferenceVars(i.next(), true);
+            expected.put(new String(vars.urlhash()), order.cardinal(vars));
+        }
+
+        final ReferenceColumns ranked = new ReferenceOrder(profile, "en").rank(container);
+        assertEquals(container.size(), ranked.size());
+        for (int j = 0; j < ranked.size(); j++) {
+            assertArrayEquals(ranked.urlhash(j), ranked.reference(j).urlhash());
+            assertEquals(expected.get(new String(ranked.urlhash(j))).longValue(), ranked.score(j));
+        }
+    }
+
+    /**
+     * Test of rankTopK method, of class ReferenceOrder: the best k accepted references
+     * must have the same scores as the best k accepted references of the full ranking.
+     */
+    @Test
+    public void testRankTopK() throws Exception {
+        final ReferenceContainer<WordReference> container = randomContainer(new Random(1), 5000);
+        final RankingProfile profile = new RankingProfile(Classification.ContentDomain.TEXT);
+        final ReferenceColumns all = new ReferenceOrder(profile, "en").rank(container);
+
+        for (final int k: new int[] {1, 10, 100}) {
+            // every third reference is rejected by the visitor
+            final ReferenceOrder order = new ReferenceOrder(profile, "en");
+            final ReferenceColumns columns = order.decode(container);
+            final List<Long> visited = new ArrayList<Long>();
+            final int count = order.rankTopK(columns, new TopScores(k), new ReferenceOrder.ReferenceVisitor() {
+                @Override
+                public boolean visit(final int i) {
+                    if (i % 3 == 0) return false;
+                    visited.add(columns.score(i));
+                    return true;
+                }
+            });
+            assertTrue(count < container.size());
+
+            final List<Long> expected = new ArrayList<Long>();
+            for (int i = 0; i < all.size(); i++) if (i % 3 != 0) expected.add(all.score(i));
+            Collections.sort(expected, Collections.reverseOrder());
+            Collections.sort(visited, Collections.reverseOrder());
+            assertEquals(expected.subList(0, k), visited.subList(0, k));
+        }
+    }
+
+    private static ReferenceContainer<WordReference> randomContainer(final Random r, final int size) throws Exception {
+        final ReferenceContainer<WordReference> container = new ReferenceContainer<WordReference>(new WordReferenceFactory(), Word.word2hash("test"));
+        final String[] languages = new String[] {"en", "de", "fr"};
+        for (int i = 0; i < size; i++) {
+            final DigestURL url = new DigestURL("http://host" + r.nextInt(300) + ".org/" + i + "/" + r.nextInt(100) + ".html");
+            final Bitfield flags = new Bitfield(4);
+            for (int f = 0; f < 32; f++) if (r.nextInt(4) == 0) flags.set(f, true);
+            container.add(new WordReferenceVars(url.hash(), url.toNormalform(true).length(), 2 + r.nextInt(5), r.nextInt(20),
+                    1 + r.nextInt(30), 100 + r.nextInt(5000), 10 + r.nextInt(200), 1 + r.nextInt(1000), new LinkedList<Integer>(),
+                    r.nextInt(20), r.nextInt(100), System.currentTimeMillis() - r.nextInt(1000) * 86400000L,
+                    languages[r.nextInt(languages.length)], 't', r.nextInt(50), r.nextInt(50), flags, 0.0d));
+        }
+        return container;
+    }
+
 }